@@ -82,7 +82,7 @@ public class PendingSpansClassLoaderTest {
 
       GarbageCollectors.blockOnGC();
 
-      pendingSpans.expungeStaleEntries();
+      pendingSpans.reportOrphans();
     }
   }
 }
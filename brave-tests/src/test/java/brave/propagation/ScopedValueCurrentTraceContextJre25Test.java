@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.test.propagation.CurrentTraceContextTest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/** Uses {@code java.lang.ScopedValue}, so only runs on JDK 25+. */
+public class ScopedValueCurrentTraceContextJre25Test extends CurrentTraceContextTest {
+  @BeforeClass public static void jre25() {
+    assumeTrue("ScopedValue requires JDK 25+", ScopedSlots.get() != null);
+  }
+
+  @Override protected Class<? extends Supplier<CurrentTraceContext.Builder>> builderSupplier() {
+    return BuilderSupplier.class;
+  }
+
+  @After public void clear() {
+    ThreadLocalCurrentTraceContext.DEFAULT.remove();
+  }
+
+  @Test public void create_usesScopedValues() {
+    assertThat(ScopedValueCurrentTraceContext.create())
+      .hasToString("ScopedValueCurrentTraceContext{scopedValues=true}");
+  }
+
+  @Test public void wrappedTask_bindsScopedValue() throws Exception {
+    ScopedSlots scopedSlots = ScopedSlots.get();
+    Callable<TraceContext> callable;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      callable = currentTraceContext.wrap(() -> {
+        assertThat(scopedSlots.current()).isNotNull();
+        assertThat(ThreadLocalCurrentTraceContext.DEFAULT.get()).isNull();
+        try (Scope child = currentTraceContext.newScope(unsampledContext)) {
+          assertThat(ThreadLocalCurrentTraceContext.DEFAULT.get()).isNull();
+          assertThat(currentTraceContext.get()).isEqualTo(unsampledContext);
+        }
+        return currentTraceContext.get();
+      });
+    }
+    assertThat(scopedSlots.current()).isNull();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertThat(executor.submit(callable).get()).isEqualTo(context);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  static class BuilderSupplier implements Supplier<CurrentTraceContext.Builder> {
+    @Override public CurrentTraceContext.Builder get() {
+      return ScopedValueCurrentTraceContext.newBuilder();
+    }
+  }
+}
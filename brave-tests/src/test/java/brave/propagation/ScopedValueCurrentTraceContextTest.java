@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.ScopedValueCurrentTraceContext.Slot;
+import brave.test.propagation.CurrentTraceContextTest;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Scoped values may not be available on the JDK used for tests. This binds slots with a thread
+ * local instead, so that the logic that uses them is tested. See {@link
+ * ScopedValueCurrentTraceContextJre25Test} for real scoped values.
+ */
+public class ScopedValueCurrentTraceContextTest extends CurrentTraceContextTest {
+  @Override protected Class<? extends Supplier<CurrentTraceContext.Builder>> builderSupplier() {
+    return BuilderSupplier.class;
+  }
+
+  @After public void clear() {
+    ThreadLocalCurrentTraceContext.DEFAULT.remove();
+  }
+
+  @Test public void wrappedTask_doesntUseThreadLocal() throws Exception {
+    Callable<TraceContext> callable;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      callable = currentTraceContext.wrap(() -> {
+        assertThat(ThreadLocalCurrentTraceContext.DEFAULT.get()).isNull();
+        try (Scope child = currentTraceContext.newScope(unsampledContext)) {
+          assertThat(ThreadLocalCurrentTraceContext.DEFAULT.get()).isNull();
+          assertThat(currentTraceContext.get()).isEqualTo(unsampledContext);
+        }
+        return currentTraceContext.get();
+      });
+    }
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertThat(executor.submit(callable).get()).isEqualTo(context);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test public void wrappedTask_leakedScopeEndsWithTask() {
+    Runnable runnable =
+      currentTraceContext.wrap((Runnable) () -> currentTraceContext.newScope(context));
+
+    runnable.run();
+
+    assertThat(currentTraceContext.get()).isNull();
+  }
+
+  @Test public void wrappedTask_inheritedSlotIsIgnored() throws Exception {
+    AtomicReference<TraceContext> inherited = new AtomicReference<>();
+    Runnable runnable;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      runnable = currentTraceContext.wrap(() -> {
+        // simulate a fork which inherits the binding, but runs on a different thread
+        Slot slot = ((ScopedValueCurrentTraceContext) currentTraceContext).currentSlot();
+        Thread fork = new Thread(() -> {
+          FakeScopedSlots.BOUND.set(slot);
+          inherited.set(currentTraceContext.get());
+        });
+        fork.start();
+        try {
+          fork.join();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      });
+    }
+
+    runnable.run();
+
+    assertThat(inherited.get()).isNull();
+  }
+
+  @Test public void wrappedCallable_throwsCheckedException() {
+    IOException error = new IOException();
+    Callable<Object> callable = currentTraceContext.wrap(() -> {
+      throw error;
+    });
+
+    assertThatThrownBy(callable::call).isSameAs(error);
+  }
+
+  @Test public void wrappedRunnable_throwsError() {
+    AssertionError error = new AssertionError();
+    Runnable runnable = currentTraceContext.wrap((Runnable) () -> {
+      throw error;
+    });
+
+    assertThatThrownBy(runnable::run).isSameAs(error);
+  }
+
+  @Test public void create_usesThreadLocal_beforeJre25() {
+    assumeTrue(ScopedSlots.javaSpecificationVersion() < 25);
+
+    assertThat(ScopedValueCurrentTraceContext.create())
+      .hasToString("ScopedValueCurrentTraceContext{scopedValues=false}");
+  }
+
+  @Test public void javaSpecificationVersion() {
+    String version = System.getProperty("java.specification.version");
+    try {
+      System.setProperty("java.specification.version", "1.8");
+      assertThat(ScopedSlots.javaSpecificationVersion()).isEqualTo(1);
+      System.setProperty("java.specification.version", "25");
+      assertThat(ScopedSlots.javaSpecificationVersion()).isEqualTo(25);
+      System.setProperty("java.specification.version", "25.1");
+      assertThat(ScopedSlots.javaSpecificationVersion()).isEqualTo(25);
+    } finally {
+      System.setProperty("java.specification.version", version);
+    }
+  }
+
+  static class BuilderSupplier implements Supplier<CurrentTraceContext.Builder> {
+    @Override public CurrentTraceContext.Builder get() {
+      return new ScopedValueCurrentTraceContext.Builder(new FakeScopedSlots());
+    }
+  }
+
+  static final class FakeScopedSlots extends ScopedSlots {
+    static final ThreadLocal<Slot> BOUND = new ThreadLocal<>();
+
+    @Override Slot current() {
+      return BOUND.get();
+    }
+
+    @Override void run(Slot slot) {
+      Slot previous = BOUND.get();
+      BOUND.set(slot);
+      try {
+        slot.run();
+      } finally {
+        BOUND.set(previous);
+      }
+    }
+  }
+}
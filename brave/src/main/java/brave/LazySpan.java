@@ -72,6 +72,10 @@ final class LazySpan extends Span {
     return span().tag(key, value);
   }
 
+  @Override public Span link(TraceContext context) {
+    return span().link(context);
+  }
+
   @Override public Span error(Throwable throwable) {
     return span().error(throwable);
   }
@@ -76,6 +76,10 @@ final class NoopSpan extends Span {
     return this;
   }
 
+  @Override public Span link(TraceContext context) {
+    return this;
+  }
+
   @Override public void finish() {
   }
 
@@ -114,6 +114,13 @@ final class RealSpan extends Span {
     return this;
   }
 
+  @Override public Span link(TraceContext context) {
+    synchronized (state) {
+      state.link(context);
+    }
+    return this;
+  }
+
   @Override public Span error(Throwable throwable) {
     synchronized (state) {
       state.error(throwable);
@@ -137,6 +137,19 @@ public abstract class Span implements SpanCustomizer {
   // multi-catch. In practice, you should always at least catch RuntimeException and Error.
   public abstract Span error(Throwable throwable);
 
+  /**
+   * Links this span to another that caused it, but isn't its parent. For example, a consumer span
+   * for a batch of messages can link to the producer span of each message, instead of creating a
+   * span per message.
+   *
+   * <p>Zipkin has no links field, so they are reported as tags named "link.0", "link.1", etc.
+   *
+   * <p>This is a no-op unless the span is recorded.
+   *
+   * @since 5.14
+   */
+  public abstract Span link(TraceContext context);
+
   /**
    * @deprecated Since 5.0, use {@link #remoteServiceName(String)} {@link #remoteIpAndPort(String,
    * int)}.
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave;
+
+import brave.handler.MutableSpan;
+import brave.internal.Nullable;
+import brave.internal.recorder.PendingSpan;
+import brave.internal.recorder.PendingSpans;
+import brave.propagation.TraceContext;
+import brave.propagation.TraceContextOrSamplingFlags;
+import java.util.ArrayList;
+
+/**
+ * Creates spans for a batch of work that starts at the same time, such as one span per record
+ * returned from a consumer poll. Spans are already started when returned, and all of them are
+ * finished by {@link #finish()}.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * SpanBatch batch = tracer.newSpanBatch(records.count());
+ * for (ConsumerRecord<?, ?> record : records) {
+ *   Span span = batch.nextSpan(extractor.extract(record.headers()));
+ *   span.name("poll").kind(Span.Kind.CONSUMER);
+ *   injector.inject(span.context(), record.headers());
+ * }
+ * batch.finish();
+ * }</pre>
+ *
+ * <p>This is cheaper than creating each span with {@link
+ * Tracer#nextSpan(TraceContextOrSamplingFlags)}: the clock is read once for the batch, instead of
+ * once per span without a parent in progress, and spans are finished in one pass.
+ *
+ * <p>Spans that aren't shared across the batch can be finished early, for example with {@code
+ * span.finish(batch.timestamp())}. This keeps fewer spans pending, which matters in large batches.
+ *
+ * <p>This type is not thread-safe, and is intended to be used by the thread that created it.
+ *
+ * @see Tracer#newSpanBatch(int)
+ * @since 5.14
+ */
+public final class SpanBatch {
+  final Tracer tracer;
+  final PendingSpans pendingSpans;
+  final ArrayList<TraceContext> contexts;
+  /** States of {@link #contexts}, locked when finishing, the same as {@link RealSpan#finish()}. */
+  final ArrayList<MutableSpan> states;
+  @Nullable Clock clock; // lazy as all spans in the batch could be no-op
+  long timestamp;
+
+  SpanBatch(Tracer tracer, int expectedSize) {
+    this.tracer = tracer;
+    this.pendingSpans = tracer.pendingSpans;
+    this.contexts = new ArrayList<TraceContext>(expectedSize);
+    this.states = new ArrayList<MutableSpan>(expectedSize);
+  }
+
+  /**
+   * Like {@link Tracer#nextSpan(TraceContextOrSamplingFlags)}, except the result is started at
+   * {@link #timestamp()} and finished by {@link #finish()}.
+   */
+  public Span nextSpan(TraceContextOrSamplingFlags extracted) {
+    return tracer.nextSpan(extracted, this);
+  }
+
+  /**
+   * Like {@link Tracer#newChild(TraceContext)}, except the result is started at {@link
+   * #timestamp()} and finished by {@link #finish()}.
+   */
+  public Span newChild(TraceContext parent) {
+    return tracer.newChild(parent, this);
+  }
+
+  /**
+   * Returns the epoch microseconds all spans in this batch started at, or zero if none were
+   * recorded, such as when all are unsampled.
+   */
+  public long timestamp() {
+    return timestamp;
+  }
+
+  /** Finishes all spans in this batch at the same timestamp they started. */
+  public void finish() {
+    finish(timestamp);
+  }
+
+  /**
+   * Finishes all spans in this batch not already finished, at the given timestamp.
+   *
+   * @param timestamp epoch microseconds, or zero to use the current time for each span
+   */
+  public void finish(long timestamp) {
+    for (int i = 0, length = contexts.size(); i < length; i++) {
+      synchronized (states.get(i)) { // in case another thread is modifying the span
+        pendingSpans.finish(contexts.get(i), timestamp);
+      }
+    }
+    contexts.clear();
+    states.clear();
+  }
+
+  PendingSpan getOrCreate(@Nullable TraceContext parent, TraceContext context) {
+    if (clock == null) {
+      clock = pendingSpans.newTickClock();
+      timestamp = clock.currentTimeMicroseconds();
+    }
+    PendingSpan result = pendingSpans.getOrCreate(parent, context, clock, timestamp);
+    contexts.add(context);
+    states.add(result.state());
+    return result;
+  }
+
+  @Override public String toString() {
+    return "SpanBatch{size=" + contexts.size() + ", timestamp=" + timestamp + "}";
+  }
+}
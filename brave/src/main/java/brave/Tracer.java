@@ -206,8 +206,26 @@ public class Tracer {
    * #nextSpan()}.
    */
   public Span newChild(TraceContext parent) {
+    return newChild(parent, null);
+  }
+
+  Span newChild(TraceContext parent, @Nullable SpanBatch batch) {
     if (parent == null) throw new NullPointerException("parent == null");
-    return _toSpan(parent, decorateContext(parent, parent.spanId()));
+    return _toSpan(parent, decorateContext(parent, parent.spanId()), batch);
+  }
+
+  /**
+   * Returns a batch for creating spans that start at the same time, such as one per message
+   * returned from a consumer poll. This is more efficient than creating each span separately when
+   * there are many.
+   *
+   * @param expectedSize count of spans expected, used to size storage
+   * @see SpanBatch
+   * @since 5.14
+   */
+  public SpanBatch newSpanBatch(int expectedSize) {
+    if (expectedSize < 0) throw new IllegalArgumentException("expectedSize < 0");
+    return new SpanBatch(this, expectedSize);
   }
 
   TraceContext newRootContext(int flags) {
@@ -327,9 +345,13 @@ public class Tracer {
   // the code is a bit easier to work with especially if we want to avoid excess allocations. Here,
   // we manually code some things to keep the cpu and allocations low, at the cost of readability.
   public Span nextSpan(TraceContextOrSamplingFlags extracted) {
+    return nextSpan(extracted, null);
+  }
+
+  Span nextSpan(TraceContextOrSamplingFlags extracted, @Nullable SpanBatch batch) {
     if (extracted == null) throw new NullPointerException("extracted == null");
     TraceContext context = extracted.context();
-    if (context != null) return newChild(context);
+    if (context != null) return newChild(context, batch);
 
     TraceIdContext traceIdContext = extracted.traceIdContext();
     if (traceIdContext != null) {
@@ -341,7 +363,7 @@ public class Tracer {
         0L,
         0L,
         extracted.extra()
-      ));
+      ), batch);
     }
 
     SamplingFlags samplingFlags = extracted.samplingFlags();
@@ -363,7 +385,7 @@ public class Tracer {
       flags = InternalPropagation.instance.flags(samplingFlags);
     }
     return _toSpan(parent,
-      decorateContext(flags, traceIdHigh, traceId, localRootId, spanId, 0L, extra));
+      decorateContext(flags, traceIdHigh, traceId, localRootId, spanId, 0L, extra), batch);
   }
 
   /**
@@ -404,10 +426,16 @@ public class Tracer {
   }
 
   Span _toSpan(@Nullable TraceContext parent, TraceContext context) {
+    return _toSpan(parent, context, null);
+  }
+
+  Span _toSpan(@Nullable TraceContext parent, TraceContext context, @Nullable SpanBatch batch) {
     if (isNoop(context)) return new NoopSpan(context);
 
     // allocate a mutable span in case multiple threads call this method.. they'll use the same data
-    PendingSpan pendingSpan = pendingSpans.getOrCreate(parent, context, false);
+    PendingSpan pendingSpan = batch != null
+      ? batch.getOrCreate(parent, context)
+      : pendingSpans.getOrCreate(parent, context, false);
     TraceContext pendingContext = pendingSpan.context();
     // A lost race of Tracer.toSpan(context) is the only known situation where "context" won't be
     // the same as pendingSpan.context()
@@ -22,6 +22,7 @@ import brave.internal.Platform;
 import brave.internal.codec.IpLiteral;
 import brave.internal.handler.NoopAwareSpanHandler;
 import brave.internal.handler.OrphanTracker;
+import brave.internal.recorder.OrphanReaper;
 import brave.internal.recorder.PendingSpans;
 import brave.propagation.B3Propagation;
 import brave.propagation.CurrentTraceContext;
@@ -33,6 +34,7 @@ import java.io.Closeable;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
@@ -146,6 +148,8 @@ public abstract class Tracing implements Closeable {
     CurrentTraceContext currentTraceContext = CurrentTraceContext.Default.inheritable();
     boolean traceId128Bit = false, supportsJoin = true;
     boolean alwaysSampleLocal = false, alwaysReportSpans = false, trackOrphans = false;
+    boolean reapOrphans = false, stripePendingSpans = false;
+    long maxSpanAgeNanos = 0L;
     Propagation.Factory propagationFactory = B3Propagation.FACTORY;
     ErrorParser errorParser = new ErrorParser();
     Set<SpanHandler> spanHandlers = new LinkedHashSet<>(); // dupes not ok
@@ -436,6 +440,49 @@ public abstract class Tracing implements Closeable {
       return this;
     }
 
+    /**
+     * When set, a low-priority daemon thread reports orphaned spans, instead of the next
+     * application thread that creates or ends a span. This thread also flushes spans still in
+     * progress after {@code maxSpanAge}, adding the annotation "brave.flush". {@link
+     * Tracing#close()} stops the thread.
+     *
+     * <p>Orphans are normally reported only after garbage collection clears their trace context.
+     * When collections are infrequent, leaked spans accumulate until then. A maximum age bounds
+     * this memory regardless of garbage collection timing. Choose a value longer than any
+     * legitimate operation, such as a long-poll, as spans flushed early lose their finish
+     * timestamp.
+     *
+     * @param maxSpanAge Zero only moves reporting of orphans off application threads. Otherwise,
+     * the age after which an unfinished span is flushed.
+     * @see SpanHandler.Cause#ORPHANED
+     * @see SpanHandler.Cause#FLUSHED
+     * @since 5.14
+     */
+    public Builder reapOrphans(long maxSpanAge, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (maxSpanAge < 0L) throw new IllegalArgumentException("maxSpanAge < 0");
+      this.reapOrphans = true;
+      this.maxSpanAgeNanos = unit.toNanos(maxSpanAge);
+      return this;
+    }
+
+    /**
+     * When true, in-progress spans are partitioned by trace context into one map per processor, up
+     * to 64, instead of a single map. Defaults to false.
+     *
+     * <p>This reduces contention when many threads start and finish spans at the same time, at
+     * the cost of a map and reference queue per stripe. Unless {@linkplain #reapOrphans(long,
+     * TimeUnit) reaping orphans in background}, each operation reports orphans from the stripe it
+     * touches, and periodically from all stripes. This keeps orphans from waiting on rarely used
+     * stripes.
+     *
+     * @since 5.14
+     */
+    public Builder stripePendingSpans(boolean stripePendingSpans) {
+      this.stripePendingSpans = stripePendingSpans;
+      return this;
+    }
+
     public Tracing build() {
       return new Default(this);
     }
@@ -464,6 +511,7 @@ public abstract class Tracing implements Closeable {
     final Clock clock;
     final ErrorParser errorParser;
     final AtomicBoolean noop;
+    @Nullable final OrphanReaper orphanReaper;
 
     Default(Builder builder) {
       this.clock = builder.clock != null ? builder.clock : Platform.get().clock();
@@ -506,11 +554,16 @@ public abstract class Tracing implements Closeable {
         }
       }
 
+      PendingSpans pendingSpans = new PendingSpans(defaultSpan, clock, spanHandler, noop,
+        builder.stripePendingSpans ? PendingSpans.defaultStripeCount() : 1, builder.reapOrphans,
+        builder.maxSpanAgeNanos);
+      this.orphanReaper = builder.reapOrphans ? OrphanReaper.start(pendingSpans) : null;
+
       this.tracer = new Tracer(
         builder.clock,
         builder.propagationFactory,
         spanHandler,
-        new PendingSpans(defaultSpan, clock, spanHandler, noop),
+        pendingSpans,
         builder.sampler,
         builder.currentTraceContext,
         builder.traceId128Bit || propagationFactory.requires128BitTraceId(),
@@ -559,6 +612,7 @@ public abstract class Tracing implements Closeable {
     }
 
     @Override public void close() {
+      if (orphanReaper != null) orphanReaper.close();
       // only set null if we are the outer-most instance
       CURRENT.compareAndSet(this, null);
     }
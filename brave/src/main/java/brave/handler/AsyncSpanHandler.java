@@ -0,0 +1,294 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.internal.Platform;
+import brave.internal.collect.BoundedQueue;
+import brave.propagation.TraceContext;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Moves the cost of reporting off the application thread that finished the span.
+ *
+ * <p>{@link #end(TraceContext, MutableSpan, Cause)} only places the span on a bounded, lock-free
+ * queue. A background thread drains the queue into batches, which are passed to a {@link
+ * BatchConsumer} when either {@linkplain Builder#batchMaxSpans(int) full} or when the {@linkplain
+ * Builder#messageTimeout(long, TimeUnit) oldest span in the batch} has waited long enough.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * asyncHandler = AsyncSpanHandler.newBuilder(spans -> sender.send(encoder.encodeList(spans)))
+ *                                .overflowStrategy(OverflowStrategy.DROP_OLDEST)
+ *                                .build();
+ *
+ * tracing = Tracing.newBuilder()
+ *                  .addSpanHandler(redactingHandler)
+ *                  .addSpanHandler(asyncHandler) // add last, as it takes ownership of the span
+ *                  .build();
+ *
+ * // when shutting down
+ * tracing.close();
+ * asyncHandler.close();
+ * }</pre>
+ *
+ * <h3>Ownership of spans</h3>
+ * Once queued, the {@link MutableSpan} is read on another thread. Handlers added after this one
+ * must not mutate the span, so you should add this handler last.
+ *
+ * @since 5.14
+ */
+public final class AsyncSpanHandler extends SpanHandler implements Closeable {
+  /**
+   * Receives batches of spans on the background thread of {@link AsyncSpanHandler}.
+   *
+   * @since 5.14
+   */
+  public interface BatchConsumer {
+    /**
+     * Called with a non-empty batch of spans, in order they were queued.
+     *
+     * <p>The list is reused after this method returns, so do not retain a reference to it.
+     */
+    void accept(List<MutableSpan> spans);
+  }
+
+  /**
+   * What to do when a span is finished, but the queue is full.
+   *
+   * @since 5.14
+   */
+  public enum OverflowStrategy {
+    /** Drops the span that was just finished. This is the cheapest option. */
+    DROP_NEWEST,
+    /** Drops the oldest queued span to make room for the one just finished. */
+    DROP_OLDEST,
+    /**
+     * Waits until there is room in the queue. This adds latency to the application thread, so is
+     * only appropriate when no spans may be lost.
+     */
+    BLOCK
+  }
+
+  /** @since 5.14 */
+  public static Builder newBuilder(BatchConsumer consumer) {
+    return new Builder(consumer);
+  }
+
+  /** @since 5.14 */
+  public static final class Builder {
+    final BatchConsumer consumer;
+    int queuedMaxSpans = 10000, batchMaxSpans = 500;
+    long messageTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+    OverflowStrategy overflowStrategy = OverflowStrategy.DROP_NEWEST;
+
+    Builder(BatchConsumer consumer) {
+      if (consumer == null) throw new NullPointerException("consumer == null");
+      this.consumer = consumer;
+    }
+
+    /**
+     * Maximum count of spans waiting to be consumed. This is rounded up to a power of two. Default
+     * 10000.
+     */
+    public Builder queuedMaxSpans(int queuedMaxSpans) {
+      if (queuedMaxSpans < 1) throw new IllegalArgumentException("queuedMaxSpans < 1");
+      this.queuedMaxSpans = queuedMaxSpans;
+      return this;
+    }
+
+    /** Maximum count of spans passed to {@link BatchConsumer#accept(List)}. Default 500. */
+    public Builder batchMaxSpans(int batchMaxSpans) {
+      if (batchMaxSpans < 1) throw new IllegalArgumentException("batchMaxSpans < 1");
+      this.batchMaxSpans = batchMaxSpans;
+      return this;
+    }
+
+    /**
+     * Maximum time a span waits in an incomplete batch before the batch is consumed anyway.
+     * Default 1 second.
+     */
+    public Builder messageTimeout(long timeout, TimeUnit unit) {
+      if (timeout < 1) throw new IllegalArgumentException("timeout < 1");
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.messageTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    /** Default {@link OverflowStrategy#DROP_NEWEST}. */
+    public Builder overflowStrategy(OverflowStrategy overflowStrategy) {
+      if (overflowStrategy == null) throw new NullPointerException("overflowStrategy == null");
+      this.overflowStrategy = overflowStrategy;
+      return this;
+    }
+
+    /** Starts the background thread. Call {@link AsyncSpanHandler#close()} to stop it. */
+    public AsyncSpanHandler build() {
+      if (batchMaxSpans > queuedMaxSpans) batchMaxSpans = queuedMaxSpans;
+      AsyncSpanHandler result = new AsyncSpanHandler(this);
+      result.thread.start();
+      return result;
+    }
+  }
+
+  final BatchConsumer consumer;
+  final BoundedQueue<MutableSpan> queue;
+  final int batchMaxSpans;
+  final long messageTimeoutNanos;
+  final OverflowStrategy overflowStrategy;
+  final AtomicLong droppedSpans = new AtomicLong(), consumedSpans = new AtomicLong();
+  final Thread thread;
+  volatile boolean closed;
+
+  AsyncSpanHandler(Builder builder) {
+    this.consumer = builder.consumer;
+    this.queue = new BoundedQueue<>(builder.queuedMaxSpans);
+    this.batchMaxSpans = builder.batchMaxSpans;
+    this.messageTimeoutNanos = builder.messageTimeoutNanos;
+    this.overflowStrategy = builder.overflowStrategy;
+    this.thread = new Thread(new Worker(), "AsyncSpanHandler");
+    this.thread.setDaemon(true);
+  }
+
+  @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+    if (closed) {
+      droppedSpans.incrementAndGet();
+      return true;
+    }
+    if (!queue.offer(span)) handleOverflow(span);
+    // Don't wake the worker on each span. It will wake on its own when the batch times out.
+    if (queue.size() >= batchMaxSpans) LockSupport.unpark(thread);
+    return true;
+  }
+
+  void handleOverflow(MutableSpan span) {
+    switch (overflowStrategy) {
+      case DROP_NEWEST:
+        droppedSpans.incrementAndGet();
+        return;
+      case DROP_OLDEST:
+        do {
+          if (queue.poll() != null) droppedSpans.incrementAndGet();
+        } while (!queue.offer(span));
+        return;
+      case BLOCK:
+        while (!queue.offer(span)) {
+          if (closed) {
+            droppedSpans.incrementAndGet();
+            return;
+          }
+          LockSupport.unpark(thread);
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return;
+      default:
+        throw new AssertionError("Bug: unhandled " + overflowStrategy);
+    }
+  }
+
+  /** Returns the count of spans dropped due to overflow or being closed. */
+  public long droppedSpans() {
+    return droppedSpans.get();
+  }
+
+  /** Returns the approximate count of spans waiting to be consumed. */
+  public int queuedSpans() {
+    return queue.size();
+  }
+
+  /** Returns the count of spans passed to the {@link BatchConsumer}. */
+  public long consumedSpans() {
+    return consumedSpans.get();
+  }
+
+  /**
+   * Consumes any queued spans, then stops the background thread. Spans finished after this are
+   * dropped.
+   */
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    LockSupport.unpark(thread);
+    if (thread == Thread.currentThread()) return;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public String toString() {
+    return "AsyncSpanHandler{" + consumer + "}";
+  }
+
+  final class Worker implements Runnable {
+    final List<MutableSpan> batch = new ArrayList<>(batchMaxSpans);
+    final List<MutableSpan> unmodifiableBatch = Collections.unmodifiableList(batch);
+    long deadlineNanos;
+
+    @Override public void run() {
+      while (!closed) {
+        if (batch.isEmpty()) {
+          MutableSpan first = queue.poll();
+          if (first == null) {
+            LockSupport.parkNanos(this, messageTimeoutNanos);
+            continue;
+          }
+          batch.add(first);
+          deadlineNanos = System.nanoTime() + messageTimeoutNanos;
+        }
+
+        queue.drainTo(batch, batchMaxSpans - batch.size());
+        if (batch.size() >= batchMaxSpans) {
+          consumeBatch();
+          continue;
+        }
+
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+          consumeBatch();
+        } else {
+          LockSupport.parkNanos(this, remainingNanos);
+        }
+      }
+
+      // Drain anything queued before close, without waiting for a timeout.
+      do {
+        queue.drainTo(batch, batchMaxSpans - batch.size());
+        if (!batch.isEmpty()) consumeBatch();
+      } while (!queue.isEmpty());
+    }
+
+    void consumeBatch() {
+      int size = batch.size();
+      try {
+        consumer.accept(unmodifiableBatch);
+        consumedSpans.addAndGet(size);
+      } catch (Throwable t) {
+        propagateIfFatal(t);
+        droppedSpans.addAndGet(size);
+        Platform.get().log("error consuming a batch of {0} spans", size, t);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+}
@@ -29,6 +29,9 @@ import java.util.Map;
 
 import static brave.internal.InternalPropagation.FLAG_DEBUG;
 import static brave.internal.InternalPropagation.FLAG_SHARED;
+import static brave.internal.codec.HexCodec.lenientLowerHexToUnsignedLong;
+import static brave.internal.codec.HexCodec.toLowerHex;
+import static brave.internal.codec.HexCodec.writeHexLong;
 import static brave.internal.codec.JsonWriter.UTF_8;
 
 /**
@@ -128,7 +131,9 @@ public final class MutableSpan implements Cloneable {
    * One of these objects is allocated for each in-flight span, so we try to be parsimonious on
    * things like array allocation and object reference size.
    */
-  String traceId, localRootId, parentId, id;
+  long traceIdHigh, traceId, localRootId, parentId, id; // zero means unset
+  // Hex forms are lazily initialized and cached, as often only encoders read IDs, using the above.
+  String traceIdString, localRootIdString, parentIdString, idString;
   Kind kind;
   int flags;
   long startTimestamp, finishTimestamp;
@@ -141,9 +146,9 @@ public final class MutableSpan implements Cloneable {
   // (copy-on-write), as this type is externally synchronized. In other words, this isn't
   // copy-on-write. We just grow arrays as we need to similar to how ArrayList does it.
   //
-  // tags [(key, value)] annotations [(timestamp, value)]
-  Object[] tags = EMPTY_ARRAY, annotations = EMPTY_ARRAY;
-  int tagCount, annotationCount;
+  // tags [(key, value)] annotations [(timestamp, value)] links [(traceId, spanId)]
+  Object[] tags = EMPTY_ARRAY, annotations = EMPTY_ARRAY, links = EMPTY_ARRAY;
+  int tagCount, annotationCount, linkCount;
 
   /** @since 5.4 */
   public MutableSpan() {
@@ -160,11 +165,12 @@ public final class MutableSpan implements Cloneable {
   public MutableSpan(TraceContext context, @Nullable MutableSpan defaults) {
     this(defaults != null ? defaults : EMPTY);
     if (context == null) throw new NullPointerException("context == null");
-    // We don't call the setters as context.*IdString are well formed
-    this.traceId = context.traceIdString();
-    this.localRootId = context.localRootIdString();
-    this.parentId = context.parentIdString();
-    this.id = context.spanIdString();
+    // We don't call the setters as context IDs are well formed. The hex forms are lazy.
+    this.traceIdHigh = context.traceIdHigh();
+    this.traceId = context.traceId();
+    this.localRootId = context.localRootId();
+    this.parentId = context.parentIdAsLong();
+    this.id = context.spanId();
     flags = 0; // don't inherit flags from the span
     if (context.debug()) setDebug();
     if (context.shared()) setShared();
@@ -174,10 +180,15 @@ public final class MutableSpan implements Cloneable {
   public MutableSpan(MutableSpan toCopy) {
     if (toCopy == null) throw new NullPointerException("toCopy == null");
     if (toCopy.equals(EMPTY)) return;
+    traceIdHigh = toCopy.traceIdHigh;
     traceId = toCopy.traceId;
     localRootId = toCopy.localRootId;
     parentId = toCopy.parentId;
     id = toCopy.id;
+    traceIdString = toCopy.traceIdString;
+    localRootIdString = toCopy.localRootIdString;
+    parentIdString = toCopy.parentIdString;
+    idString = toCopy.idString;
     kind = toCopy.kind;
     flags = toCopy.flags;
     startTimestamp = toCopy.startTimestamp;
@@ -194,6 +205,8 @@ public final class MutableSpan implements Cloneable {
     tagCount = toCopy.tagCount;
     annotations = copy(toCopy.annotations);
     annotationCount = toCopy.annotationCount;
+    links = copy(toCopy.links);
+    linkCount = toCopy.linkCount;
     error = toCopy.error;
   }
 
@@ -211,6 +224,34 @@ public final class MutableSpan implements Cloneable {
    * @since 5.12
    */
   public String traceId() {
+    String r = traceIdString;
+    if (r == null && (traceIdHigh != 0L || traceId != 0L)) {
+      r = traceIdString = toTraceIdString(traceIdHigh, traceId);
+    }
+    return r;
+  }
+
+  /**
+   * Returns the upper 64-bits of a 128-bit {@linkplain #traceId() trace ID} or zero if it is 64-bit
+   * or unset.
+   *
+   * <p>This and other long accessors avoid the overhead of hex encoding, for example when writing
+   * binary formats or comparing IDs.
+   *
+   * @see TraceContext#traceIdHigh()
+   * @since 5.14
+   */
+  public long traceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /**
+   * Returns the lower 64-bits of the {@linkplain #traceId() trace ID} or zero if unset.
+   *
+   * @see TraceContext#traceId()
+   * @since 5.14
+   */
+  public long traceIdAsLong() {
     return traceId;
   }
 
@@ -220,7 +261,15 @@ public final class MutableSpan implements Cloneable {
    * @see #traceId()
    */
   public void traceId(String traceId) {
-    this.traceId = normalizeIdField("traceId", traceId, false);
+    String normalized = normalizeIdField("traceId", traceId, false);
+    if (normalized.length() == 32) {
+      this.traceIdHigh = lenientLowerHexToUnsignedLong(normalized, 0, 16);
+      this.traceId = lenientLowerHexToUnsignedLong(normalized, 16, 32);
+    } else {
+      this.traceIdHigh = 0L;
+      this.traceId = lenientLowerHexToUnsignedLong(normalized, 0, 16);
+    }
+    this.traceIdString = normalized;
   }
 
   /**
@@ -229,6 +278,18 @@ public final class MutableSpan implements Cloneable {
    * @since 5.12
    */
   @Nullable public String localRootId() {
+    String r = localRootIdString;
+    if (r == null && localRootId != 0L) r = localRootIdString = toLowerHex(localRootId);
+    return r;
+  }
+
+  /**
+   * Returns the {@linkplain TraceContext#localRootId() local root ID} or zero if unset.
+   *
+   * @see #localRootId()
+   * @since 5.14
+   */
+  public long localRootIdAsLong() {
     return localRootId;
   }
 
@@ -238,7 +299,9 @@ public final class MutableSpan implements Cloneable {
    * @see #localRootId()
    */
   public void localRootId(String localRootId) {
-    this.localRootId = normalizeIdField("localRootId", localRootId, false);
+    String normalized = normalizeIdField("localRootId", localRootId, false);
+    this.localRootId = lenientLowerHexToUnsignedLong(normalized, 0, 16);
+    this.localRootIdString = normalized;
   }
 
   /**
@@ -247,6 +310,18 @@ public final class MutableSpan implements Cloneable {
    * @since 5.12
    */
   @Nullable public String parentId() {
+    String r = parentIdString;
+    if (r == null && parentId != 0L) r = parentIdString = toLowerHex(parentId);
+    return r;
+  }
+
+  /**
+   * Returns the {@linkplain TraceContext#parentIdAsLong() parent ID} or zero if unset.
+   *
+   * @see #parentId()
+   * @since 5.14
+   */
+  public long parentIdAsLong() {
     return parentId;
   }
 
@@ -256,7 +331,9 @@ public final class MutableSpan implements Cloneable {
    * @see #parentId()
    */
   public void parentId(@Nullable String parentId) {
-    this.parentId = normalizeIdField("parentId", parentId, true);
+    String normalized = normalizeIdField("parentId", parentId, true);
+    this.parentId = normalized != null ? lenientLowerHexToUnsignedLong(normalized, 0, 16) : 0L;
+    this.parentIdString = normalized;
   }
 
   /**
@@ -265,6 +342,18 @@ public final class MutableSpan implements Cloneable {
    * @since 5.12
    */
   public String id() {
+    String r = idString;
+    if (r == null && id != 0L) r = idString = toLowerHex(id);
+    return r;
+  }
+
+  /**
+   * Returns the {@linkplain TraceContext#spanId() span ID} or zero if unset.
+   *
+   * @see #id()
+   * @since 5.14
+   */
+  public long idAsLong() {
     return id;
   }
 
@@ -274,7 +363,9 @@ public final class MutableSpan implements Cloneable {
    * @see #id()
    */
   public void id(String id) {
-    this.id = normalizeIdField("id", id, false);
+    String normalized = normalizeIdField("id", id, false);
+    this.id = lenientLowerHexToUnsignedLong(normalized, 0, 16);
+    this.idString = normalized;
   }
 
   /**
@@ -889,6 +980,74 @@ public final class MutableSpan implements Cloneable {
     tagCount++;
   }
 
+  /**
+   * Returns the count of {@linkplain #link(TraceContext) links} from this span to others.
+   *
+   * @see #linkTraceIdAt(int)
+   * @see #linkSpanIdAt(int)
+   * @since 5.14
+   */
+  public int linkCount() {
+    return linkCount;
+  }
+
+  /**
+   * Returns the trace ID of the link at the given {@code index} or throws {@link
+   * IndexOutOfBoundsException} if the index is invalid.
+   *
+   * @see #linkCount()
+   * @see #linkSpanIdAt(int)
+   * @since 5.14
+   */
+  public String linkTraceIdAt(int i) {
+    // IndexOutOfBoundsException(i) is Java 9+
+    if (i < 0) throw new IndexOutOfBoundsException("i < 0");
+    if (i >= linkCount) throw new IndexOutOfBoundsException("i >= linkCount");
+    return (String) links[i * 2];
+  }
+
+  /**
+   * Returns the span ID of the link at the given {@code index} or throws {@link
+   * IndexOutOfBoundsException} if the index is invalid.
+   *
+   * @see #linkCount()
+   * @see #linkTraceIdAt(int)
+   * @since 5.14
+   */
+  public String linkSpanIdAt(int i) {
+    // IndexOutOfBoundsException(i) is Java 9+
+    if (i < 0) throw new IndexOutOfBoundsException("i < 0");
+    if (i >= linkCount) throw new IndexOutOfBoundsException("i >= linkCount");
+    return (String) links[i * 2 + 1];
+  }
+
+  /**
+   * Calling this adds a link to a span that is related, but not a parent of this one, such as done
+   * in {@link brave.Span#link(TraceContext)}.
+   *
+   * @see #link(String, String)
+   * @since 5.14
+   */
+  public void link(TraceContext context) {
+    if (context == null) throw new NullPointerException("context == null");
+    // We don't normalize as context IDs are well formed.
+    links = add(links, linkCount * 2, context.traceIdString(), context.spanIdString());
+    linkCount++;
+  }
+
+  /**
+   * Like {@link #link(TraceContext)}, except with the {@linkplain TraceContext#traceIdString()
+   * trace ID} and {@linkplain TraceContext#spanIdString() span ID} of the linked span.
+   *
+   * @since 5.14
+   */
+  public void link(String traceId, String spanId) {
+    String normalizedTraceId = normalizeIdField("traceId", traceId, false);
+    String normalizedSpanId = normalizeIdField("spanId", spanId, false);
+    links = add(links, linkCount * 2, normalizedTraceId, normalizedSpanId);
+    linkCount++;
+  }
+
   static final ZipkinJsonV2 JSON_ENCODER = new ZipkinJsonV2(Tags.ERROR);
 
   @Override public String toString() {
@@ -897,13 +1056,15 @@ public final class MutableSpan implements Cloneable {
 
   @Override public int hashCode() {
     int h = 1000003; // mutable! cannot cache hashCode
-    h ^= traceId == null ? 0 : traceId.hashCode();
+    h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
     h *= 1000003;
-    h ^= localRootId == null ? 0 : localRootId.hashCode();
+    h ^= (int) ((traceId >>> 32) ^ traceId);
     h *= 1000003;
-    h ^= parentId == null ? 0 : parentId.hashCode();
+    h ^= (int) ((localRootId >>> 32) ^ localRootId);
     h *= 1000003;
-    h ^= id == null ? 0 : id.hashCode();
+    h ^= (int) ((parentId >>> 32) ^ parentId);
+    h *= 1000003;
+    h ^= (int) ((id >>> 32) ^ id);
     h *= 1000003;
     h ^= kind == null ? 0 : kind.hashCode();
     h *= 1000003;
@@ -931,6 +1092,8 @@ public final class MutableSpan implements Cloneable {
     h *= 1000003;
     h ^= entriesHashCode(annotations, annotationCount);
     h *= 1000003;
+    h ^= entriesHashCode(links, linkCount);
+    h *= 1000003;
     h ^= error == null ? 0 : error.hashCode();
     return h;
   }
@@ -942,10 +1105,11 @@ public final class MutableSpan implements Cloneable {
     if (!(o instanceof MutableSpan)) return false;
 
     MutableSpan that = (MutableSpan) o;
-    return equal(traceId, that.traceId)
-      && equal(localRootId, that.localRootId)
-      && equal(parentId, that.parentId)
-      && equal(id, that.id)
+    return traceIdHigh == that.traceIdHigh
+      && traceId == that.traceId
+      && localRootId == that.localRootId
+      && parentId == that.parentId
+      && id == that.id
       && kind == that.kind
       && flags == that.flags
       && startTimestamp == that.startTimestamp
@@ -959,6 +1123,7 @@ public final class MutableSpan implements Cloneable {
       && remotePort == that.remotePort
       && entriesEqual(tags, tagCount, that.tags, that.tagCount)
       && entriesEqual(annotations, annotationCount, that.annotations, that.annotationCount)
+      && entriesEqual(links, linkCount, that.links, that.linkCount)
       && equal(error, that.error);
   }
 
@@ -1060,6 +1225,14 @@ public final class MutableSpan implements Cloneable {
     THIRTY_TWO_ZEROS = new String(zeros);
   }
 
+  static String toTraceIdString(long traceIdHigh, long traceId) {
+    if (traceIdHigh == 0L) return toLowerHex(traceId);
+    char[] result = RecyclableBuffers.parseBuffer();
+    writeHexLong(result, 0, traceIdHigh);
+    writeHexLong(result, 16, traceId);
+    return new String(result, 0, 32);
+  }
+
   static String padLeft(String id, int desiredLength, int existingPadding) {
     int length = id.length();
     int remainingPadding = desiredLength < length ? 0 : desiredLength - length - existingPadding;
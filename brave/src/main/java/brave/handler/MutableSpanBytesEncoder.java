@@ -15,8 +15,14 @@ package brave.handler;
 
 import brave.Tag;
 import brave.internal.codec.JsonWriter;
+import brave.internal.codec.ZipkinProto3Writer;
 import brave.internal.codec.ZipkinV2JsonWriter;
 import brave.internal.codec.WriteBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /** Similar to {@code zipkin2.MutableSpan.SpanBytesEncoder} except no Zipkin dependency. */
@@ -27,6 +33,20 @@ public abstract class MutableSpanBytesEncoder {
     return new ZipkinJsonV2(errorTag);
   }
 
+  /**
+   * Returns an encoder for the Zipkin proto3 format, which is about half the size of JSON and
+   * cheaper to produce. A list of spans is encoded as a {@code zipkin2.proto3.ListOfSpans}. So is a
+   * single span, which means encoded spans can be concatenated into a valid list.
+   *
+   * <p>See https://github.com/openzipkin/zipkin-api/blob/master/zipkin.proto
+   *
+   * @since 5.14
+   */
+  public static MutableSpanBytesEncoder zipkinProto3(Tag<Throwable> errorTag) {
+    if (errorTag == null) throw new NullPointerException("errorTag == null");
+    return new ZipkinProto3(errorTag);
+  }
+
   public abstract int sizeInBytes(MutableSpan input);
 
   /** Serializes an object into its binary form. */
@@ -38,6 +58,54 @@ public abstract class MutableSpanBytesEncoder {
   /** Allows you to encode a list of spans onto a specific offset. For example, when nesting */
   public abstract int encodeList(List<MutableSpan> spans, byte[] out, int pos);
 
+  /**
+   * Serializes an object at the current position of the buffer, which is advanced. This allows a
+   * reporter to fill one reusable buffer, heap or direct, without allocating an array per span.
+   *
+   * @return the count of bytes written
+   * @throws BufferOverflowException if there's not enough room. The position is unchanged.
+   * @since 5.14
+   */
+  public int encode(MutableSpan input, ByteBuffer out) {
+    byte[] encoded = encode(input);
+    out.put(encoded);
+    return encoded.length;
+  }
+
+  /**
+   * Like {@link #encode(MutableSpan, ByteBuffer)}, except serializes a list of objects.
+   *
+   * @since 5.14
+   */
+  public int encodeList(List<MutableSpan> input, ByteBuffer out) {
+    byte[] encoded = encodeList(input);
+    out.put(encoded);
+    return encoded.length;
+  }
+
+  /**
+   * Serializes an object to the stream without allocating an array per span.
+   *
+   * @return the count of bytes written
+   * @since 5.14
+   */
+  public int encode(MutableSpan input, OutputStream out) throws IOException {
+    byte[] encoded = encode(input);
+    out.write(encoded);
+    return encoded.length;
+  }
+
+  /**
+   * Like {@link #encode(MutableSpan, OutputStream)}, except serializes a list of objects.
+   *
+   * @since 5.14
+   */
+  public int encodeList(List<MutableSpan> input, OutputStream out) throws IOException {
+    byte[] encoded = encodeList(input);
+    out.write(encoded);
+    return encoded.length;
+  }
+
   /** Corresponds to the Zipkin JSON v2 format */
   static final class ZipkinJsonV2 extends MutableSpanBytesEncoder {
     final WriteBuffer.Writer<MutableSpan> writer;
@@ -61,5 +129,89 @@ public abstract class MutableSpanBytesEncoder {
     @Override public int encodeList(List<MutableSpan> spans, byte[] out, int pos) {
       return JsonWriter.writeList(writer, spans, out, pos);
     }
+
+    @Override public int encode(MutableSpan span, ByteBuffer out) {
+      return WriteBuffer.write(writer, span, out);
+    }
+
+    @Override public int encodeList(List<MutableSpan> spans, ByteBuffer out) {
+      return JsonWriter.writeList(writer, spans, out);
+    }
+
+    @Override public int encode(MutableSpan span, OutputStream out) throws IOException {
+      return WriteBuffer.write(writer, span, out);
+    }
+
+    @Override public int encodeList(List<MutableSpan> spans, OutputStream out)
+      throws IOException {
+      return JsonWriter.writeList(writer, spans, out);
+    }
+  }
+
+  /** Corresponds to the Zipkin proto3 format */
+  static final class ZipkinProto3 extends MutableSpanBytesEncoder {
+    final WriteBuffer.Writer<MutableSpan> writer;
+
+    ZipkinProto3(Tag<Throwable> errorTag) {
+      writer = new ZipkinProto3Writer(errorTag);
+    }
+
+    @Override public int sizeInBytes(MutableSpan input) {
+      return writer.sizeInBytes(input);
+    }
+
+    @Override public byte[] encode(MutableSpan span) {
+      byte[] result = new byte[writer.sizeInBytes(span)];
+      writer.write(span, WriteBuffer.wrap(result));
+      return result;
+    }
+
+    @Override public byte[] encodeList(List<MutableSpan> spans) {
+      int sizeInBytes = 0;
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        sizeInBytes += writer.sizeInBytes(spans.get(i));
+      }
+      byte[] result = new byte[sizeInBytes];
+      encodeList(spans, result, 0);
+      return result;
+    }
+
+    @Override public int encodeList(List<MutableSpan> spans, byte[] out, int pos) {
+      WriteBuffer b = WriteBuffer.wrap(out, pos);
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        writer.write(spans.get(i), b);
+      }
+      return b.pos() - pos;
+    }
+
+    @Override public int encode(MutableSpan span, ByteBuffer out) {
+      return WriteBuffer.write(writer, span, out);
+    }
+
+    @Override public int encodeList(List<MutableSpan> spans, ByteBuffer out) {
+      int initialPos = out.position();
+      try {
+        for (int i = 0, length = spans.size(); i < length; i++) {
+          WriteBuffer.write(writer, spans.get(i), out);
+        }
+      } catch (BufferOverflowException e) {
+        ((Buffer) out).position(initialPos); // cast for JRE 8 bytecode compatibility
+        throw e;
+      }
+      return out.position() - initialPos;
+    }
+
+    @Override public int encode(MutableSpan span, OutputStream out) throws IOException {
+      return WriteBuffer.write(writer, span, out);
+    }
+
+    @Override public int encodeList(List<MutableSpan> spans, OutputStream out)
+      throws IOException {
+      int sizeInBytes = 0;
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        sizeInBytes += WriteBuffer.write(writer, spans.get(i), out);
+      }
+      return sizeInBytes;
+    }
   }
 }
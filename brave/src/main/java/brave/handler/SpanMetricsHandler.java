@@ -0,0 +1,319 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Span.Kind;
+import brave.Tracing;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Aggregates rate, errors and duration (RED) of finished spans, grouped by {@linkplain
+ * MutableSpan#localServiceName() service}, {@linkplain MutableSpan#name() name} and {@linkplain
+ * MutableSpan#kind() kind}. Read the results with {@link #snapshot()}, for example from a metrics
+ * collector.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * spanMetrics = SpanMetricsHandler.newBuilder().maxKeys(1000).build();
+ *
+ * tracing = Tracing.newBuilder()
+ *                  .sampler(RateLimitingSampler.create(10))
+ *                  .alwaysSampleLocal() // metrics see all spans, not only sampled ones
+ *                  .addSpanHandler(spanMetrics)
+ *                  .addSpanHandler(zipkinSpanHandler)
+ *                  .build();
+ *
+ * for (SpanMetricsHandler.Metrics metrics : spanMetrics.snapshot()) {
+ *   registry.gauge(metrics.name() + ".p99", metrics.percentileMicros(0.99));
+ * }
+ * }</pre>
+ *
+ * <p>This only sees spans recorded locally. Use {@link Tracing.Builder#alwaysSampleLocal()}, so
+ * that metrics include spans that were not sampled remotely. This only counts spans that
+ * {@linkplain Cause#FINISHED finished}, as abandoned, flushed or orphaned spans don't represent a
+ * complete operation.
+ *
+ * <h3>Implementation</h3>
+ *
+ * <p>Recording a span allocates nothing and takes no locks once its key exists. Keys are held in a
+ * fixed-size open addressing table, which is updated with compare-and-set. Beyond {@linkplain
+ * Builder#maxKeys(int) the maximum}, spans are aggregated into one overflow key, where all fields
+ * are null. This bounds memory when span names have high cardinality.
+ *
+ * <p>Durations are recorded in microseconds into a log-linear histogram, similar to HdrHistogram.
+ * Each power of two is split into 8 buckets, so percentiles are accurate to within 12.5%. Durations
+ * over 2^40 microseconds (about 12 days) are recorded into the highest bucket.
+ *
+ * @since 5.14
+ */
+public final class SpanMetricsHandler extends SpanHandler {
+  static final int SUB_BUCKET_BITS = 3, SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  static final int MAX_EXPONENT = 39; // 2^40 micros is more than 12 days
+  static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+  /** @since 5.14 */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** @since 5.14 */
+  public static final class Builder {
+    int maxKeys = 1000;
+
+    /**
+     * Maximum count of service, name and kind combinations. Spans beyond this are aggregated
+     * into an overflow key. Default 1000.
+     */
+    public Builder maxKeys(int maxKeys) {
+      if (maxKeys < 1) throw new IllegalArgumentException("maxKeys < 1");
+      if (maxKeys > 1 << 20) throw new IllegalArgumentException("maxKeys > 1048576");
+      this.maxKeys = maxKeys;
+      return this;
+    }
+
+    public SpanMetricsHandler build() {
+      return new SpanMetricsHandler(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final int maxKeys, mask;
+  final AtomicReferenceArray<Recorder> table;
+  final AtomicInteger keyCount = new AtomicInteger();
+  final Recorder overflow = new Recorder(null, null, null, 0);
+
+  SpanMetricsHandler(Builder builder) {
+    this.maxKeys = builder.maxKeys;
+    int capacity = Integer.highestOneBit(maxKeys) << 2; // at most half full
+    this.mask = capacity - 1;
+    this.table = new AtomicReferenceArray<>(capacity);
+  }
+
+  @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+    if (cause != Cause.FINISHED) return true;
+    Recorder recorder = recorder(span.localServiceName(), span.name(), span.kind());
+    long startTimestamp = span.startTimestamp(), finishTimestamp = span.finishTimestamp();
+    boolean error = span.error() != null || span.tag("error") != null;
+    recorder.record(startTimestamp != 0L && finishTimestamp != 0L
+      ? finishTimestamp - startTimestamp
+      : -1L, error);
+    return true;
+  }
+
+  Recorder recorder(@Nullable String serviceName, @Nullable String name, @Nullable Kind kind) {
+    int hash = hash(serviceName, name, kind);
+    for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+      Recorder recorder = table.get(i);
+      if (recorder == null) {
+        if (keyCount.incrementAndGet() > maxKeys) {
+          keyCount.decrementAndGet();
+          return overflow;
+        }
+        recorder = new Recorder(serviceName, name, kind, hash);
+        if (table.compareAndSet(i, null, recorder)) return recorder;
+        keyCount.decrementAndGet(); // another thread took this slot
+        recorder = table.get(i);
+      }
+      if (recorder.matches(hash, serviceName, name, kind)) return recorder;
+    }
+    return overflow; // unreachable as the table is never full
+  }
+
+  /**
+   * Returns the current value of all keys that recorded at least one span, including the overflow
+   * key. Values are cumulative since this handler was created.
+   */
+  public List<Metrics> snapshot() {
+    List<Metrics> result = new ArrayList<>();
+    for (int i = 0, length = table.length(); i < length; i++) {
+      Recorder recorder = table.get(i);
+      if (recorder != null) recorder.addSnapshotTo(result);
+    }
+    overflow.addSnapshotTo(result);
+    return result;
+  }
+
+  @Override public String toString() {
+    return "SpanMetricsHandler{keys=" + keyCount.get() + "}";
+  }
+
+  static int hash(@Nullable String serviceName, @Nullable String name, @Nullable Kind kind) {
+    int h = 1000003;
+    h ^= serviceName != null ? serviceName.hashCode() : 0; // String caches its hash code
+    h *= 1000003;
+    h ^= name != null ? name.hashCode() : 0;
+    h *= 1000003;
+    h ^= kind != null ? kind.ordinal() + 1 : 0;
+    return h ^ (h >>> 16);
+  }
+
+  static int bucketIndex(long durationMicros) {
+    if (durationMicros < SUB_BUCKET_COUNT) return durationMicros < 0L ? 0 : (int) durationMicros;
+    int exponent = 63 - Long.numberOfLeadingZeros(durationMicros);
+    if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (durationMicros >>> shift) & (SUB_BUCKET_COUNT - 1);
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** Returns the highest duration recorded into the bucket, inclusive. */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) return index;
+    int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    int shift = exponent - SUB_BUCKET_BITS;
+    long lower = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+  static boolean equal(@Nullable Object a, @Nullable Object b) {
+    return a == null ? b == null : a.equals(b); // Java 6 can't use Objects.equals()
+  }
+
+  /** Holds the mutable state of one key. */
+  static final class Recorder {
+    static final int COUNT = BUCKET_COUNT, ERROR_COUNT = BUCKET_COUNT + 1,
+      DURATION_SUM = BUCKET_COUNT + 2;
+
+    @Nullable final String serviceName, name;
+    @Nullable final Kind kind;
+    final int hash;
+    /** Histogram buckets, followed by counters. */
+    final AtomicLongArray values = new AtomicLongArray(BUCKET_COUNT + 3);
+
+    Recorder(@Nullable String serviceName, @Nullable String name, @Nullable Kind kind, int hash) {
+      this.serviceName = serviceName;
+      this.name = name;
+      this.kind = kind;
+      this.hash = hash;
+    }
+
+    boolean matches(int hash, @Nullable String serviceName, @Nullable String name,
+      @Nullable Kind kind) {
+      return this.hash == hash && this.kind == kind
+        && equal(this.name, name) && equal(this.serviceName, serviceName);
+    }
+
+    /** @param durationMicros negative when the span has no duration */
+    void record(long durationMicros, boolean error) {
+      values.incrementAndGet(COUNT);
+      if (error) values.incrementAndGet(ERROR_COUNT);
+      if (durationMicros < 0L) return;
+      values.incrementAndGet(bucketIndex(durationMicros));
+      values.addAndGet(DURATION_SUM, durationMicros);
+    }
+
+    void addSnapshotTo(List<Metrics> result) {
+      long count = values.get(COUNT);
+      if (count == 0L) return;
+      long[] buckets = new long[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) buckets[i] = values.get(i);
+      result.add(new Metrics(serviceName, name, kind, count, values.get(ERROR_COUNT),
+        values.get(DURATION_SUM), buckets));
+    }
+  }
+
+  /**
+   * An immutable snapshot of one service, name and kind combination. All fields are null for
+   * spans that exceeded {@link Builder#maxKeys(int)}.
+   *
+   * @since 5.14
+   */
+  public static final class Metrics {
+    @Nullable final String serviceName, name;
+    @Nullable final Kind kind;
+    final long count, errorCount, durationSumMicros, durationCount;
+    final long[] buckets;
+
+    Metrics(@Nullable String serviceName, @Nullable String name, @Nullable Kind kind, long count,
+      long errorCount, long durationSumMicros, long[] buckets) {
+      this.serviceName = serviceName;
+      this.name = name;
+      this.kind = kind;
+      this.count = count;
+      this.errorCount = errorCount;
+      this.durationSumMicros = durationSumMicros;
+      this.buckets = buckets;
+      long durationCount = 0L;
+      for (long bucket : buckets) durationCount += bucket;
+      this.durationCount = durationCount;
+    }
+
+    /** @see MutableSpan#localServiceName() */
+    @Nullable public String serviceName() {
+      return serviceName;
+    }
+
+    /** @see MutableSpan#name() */
+    @Nullable public String name() {
+      return name;
+    }
+
+    /** @see MutableSpan#kind() */
+    @Nullable public Kind kind() {
+      return kind;
+    }
+
+    /** Count of finished spans, including those with errors. */
+    public long count() {
+      return count;
+    }
+
+    /** Count of finished spans with an error or "error" tag. */
+    public long errorCount() {
+      return errorCount;
+    }
+
+    /** Sum of durations, in microseconds. Divide by {@link #durationCount()} for the mean. */
+    public long durationSumMicros() {
+      return durationSumMicros;
+    }
+
+    /** Count of spans with a duration. This is less than {@link #count()} if some had none. */
+    public long durationCount() {
+      return durationCount;
+    }
+
+    /**
+     * Returns the duration in microseconds that the given fraction of spans were at or under, or
+     * zero if there are no durations. For example, 0.99 returns the 99th percentile.
+     *
+     * <p>The result is the upper bound of a histogram bucket, so could be up to 12.5% high.
+     */
+    public long percentileMicros(double percentile) {
+      if (percentile < 0.0 || percentile > 1.0) {
+        throw new IllegalArgumentException("percentile must be between 0.0 and 1.0");
+      }
+      if (durationCount == 0L) return 0L;
+      long rank = Math.max(1L, (long) Math.ceil(percentile * durationCount)), seen = 0L;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank) return bucketUpperBound(i);
+      }
+      return bucketUpperBound(buckets.length - 1);
+    }
+
+    @Override public String toString() {
+      return "Metrics{serviceName=" + serviceName + ", name=" + name + ", kind=" + kind
+        + ", count=" + count + ", errorCount=" + errorCount + "}";
+    }
+  }
+}
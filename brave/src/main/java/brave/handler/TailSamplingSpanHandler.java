@@ -0,0 +1,435 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Tags;
+import brave.Tracing;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext;
+import brave.sampler.Matcher;
+import brave.sampler.Sampler;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether to keep spans after they finish, based on the whole local trace. This is
+ * commonly called tail-based sampling.
+ *
+ * <p>Spans are grouped by {@link TraceContext#localRootId()}. Until the local root finishes, its
+ * descendants are buffered. When it finishes, all of them are passed to the delegate handler if
+ * any of the following are true, or dropped otherwise:
+ * <ul>
+ *   <li>The local root took at least the {@linkplain Builder#latencyThreshold(long, TimeUnit)
+ *   latency threshold}</li>
+ *   <li>Any span has an {@linkplain MutableSpan#error() error} or "error" tag, unless {@linkplain
+ *   Builder#keepErrors(boolean) disabled}</li>
+ *   <li>Any span matches a {@linkplain Builder#keepIf(Matcher) span matcher}</li>
+ * </ul>
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * tailSampling = TailSamplingSpanHandler.newBuilder(zipkinSpanHandler)
+ *                                       .latencyThreshold(500, TimeUnit.MILLISECONDS)
+ *                                       .keepIfTag("http.status_code", "429")
+ *                                       .build();
+ *
+ * tracing = Tracing.newBuilder()
+ *                  .sampler(Sampler.ALWAYS_SAMPLE) // decide later
+ *                  .addSpanHandler(tailSampling)
+ *                  .build();
+ * }</pre>
+ *
+ * <h3>Head sampling</h3>
+ * This only sees spans that were recorded, so the {@link Tracing.Builder#sampler(Sampler) head
+ * sampler} should record more traces than you intend to keep. Note that the decision here is local:
+ * other services in the same trace decide independently.
+ *
+ * <h3>Memory</h3>
+ * Buffered spans are accounted by their size in Zipkin JSON v2 format, which is a proxy for the
+ * memory they retain. When a span would exceed the {@linkplain Builder#maxBufferedBytes(int)
+ * maximum}, the least recently touched local traces are evicted and their spans dropped.
+ *
+ * <p>Decisions are remembered for spans that finish after their local root, such as async work.
+ * Each local trace also counts a small fixed overhead towards the maximum, so decisions are only
+ * forgotten under the same memory pressure that evicts buffered spans.
+ *
+ * <p>To reduce contention, local traces are partitioned by ID into a power of two count of
+ * stripes, each with its own lock and an equal share of the maximum. There is one stripe per
+ * processor, as long as each gets at least 1 MiB, so small maximums use a single stripe. A span
+ * larger than its stripe's share is dropped.
+ *
+ * <p>Once a descendant matches, the local trace is known to be kept. Its buffered spans are passed
+ * to the delegate immediately, and later spans in it are no longer buffered.
+ *
+ * <h3>Ownership of spans</h3>
+ * Buffered spans are passed to the delegate after other handlers have seen them. Handlers added
+ * after this one must not mutate the span, so you should add this handler last.
+ *
+ * @since 5.14
+ */
+public final class TailSamplingSpanHandler extends SpanHandler {
+  /**
+   * Approximate memory retained by the state of one local trace, besides its buffered spans. This
+   * counts towards {@link Builder#maxBufferedBytes(int)}, so remembered decisions are bounded too.
+   */
+  static final int TRACE_OVERHEAD_BYTES = 64;
+  /** Stripes are only added while each can buffer at least this much. */
+  static final int MIN_STRIPE_BYTES = 1024 * 1024;
+  /** Stripes beyond this add memory overhead without reducing contention further. */
+  static final int MAX_STRIPE_COUNT = 64;
+
+  /** @since 5.14 */
+  public static Builder newBuilder(SpanHandler delegate) {
+    return new Builder(delegate);
+  }
+
+  /** @since 5.14 */
+  public static final class Builder {
+    final SpanHandler delegate;
+    long latencyThresholdMicros; // zero means disabled
+    boolean keepErrors = true;
+    final List<Matcher<MutableSpan>> matchers = new ArrayList<>();
+    int maxBufferedBytes = 8 * 1024 * 1024;
+
+    Builder(SpanHandler delegate) {
+      if (delegate == null) throw new NullPointerException("delegate == null");
+      this.delegate = delegate;
+    }
+
+    /** Keeps local traces whose root took at least this long. Disabled by default. */
+    public Builder latencyThreshold(long threshold, TimeUnit unit) {
+      if (threshold < 1) throw new IllegalArgumentException("threshold < 1");
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.latencyThresholdMicros = Math.max(1L, unit.toMicros(threshold));
+      return this;
+    }
+
+    /** Keeps local traces where any span has an error or "error" tag. Default true. */
+    public Builder keepErrors(boolean keepErrors) {
+      this.keepErrors = keepErrors;
+      return this;
+    }
+
+    /**
+     * Keeps local traces where any span matches. This is evaluated once per span, on the thread
+     * that finished it.
+     */
+    public Builder keepIf(Matcher<MutableSpan> matcher) {
+      if (matcher == null) throw new NullPointerException("matcher == null");
+      matchers.add(matcher);
+      return this;
+    }
+
+    /** Keeps local traces where any span has the tag with the given value. */
+    public Builder keepIfTag(String key, String value) {
+      if (key == null) throw new NullPointerException("key == null");
+      if (value == null) throw new NullPointerException("value == null");
+      return keepIf(new TagEquals(key, value));
+    }
+
+    /**
+     * Maximum size of buffered spans, measured in Zipkin JSON v2 format. Default 8 MiB.
+     *
+     * <p>Spans larger than a stripe's share of this are dropped, as they could never be buffered.
+     */
+    public Builder maxBufferedBytes(int maxBufferedBytes) {
+      if (maxBufferedBytes < 1) throw new IllegalArgumentException("maxBufferedBytes < 1");
+      this.maxBufferedBytes = maxBufferedBytes;
+      return this;
+    }
+
+    public TailSamplingSpanHandler build() {
+      return new TailSamplingSpanHandler(this);
+    }
+  }
+
+  final SpanHandler delegate;
+  final long latencyThresholdMicros;
+  final boolean keepErrors;
+  final Matcher<MutableSpan>[] matchers; // Array ensures no iterators are created at runtime
+  final MutableSpanBytesEncoder encoder = MutableSpanBytesEncoder.zipkinJsonV2(Tags.ERROR);
+  final AtomicLong keptTraces = new AtomicLong(), droppedTraces = new AtomicLong(),
+    evictedTraces = new AtomicLong();
+
+  final Stripe[] stripes;
+  final int stripeMask;
+
+  TailSamplingSpanHandler(Builder builder) {
+    this.delegate = builder.delegate;
+    this.latencyThresholdMicros = builder.latencyThresholdMicros;
+    this.keepErrors = builder.keepErrors;
+    @SuppressWarnings("unchecked") // generic arrays can't be created, and all are <MutableSpan>
+    Matcher<MutableSpan>[] matchers = builder.matchers.toArray(new Matcher[0]);
+    this.matchers = matchers;
+    int stripeCount =
+      stripeCount(Runtime.getRuntime().availableProcessors(), builder.maxBufferedBytes);
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe(builder.maxBufferedBytes / stripeCount);
+    }
+    this.stripeMask = stripeCount - 1;
+  }
+
+  /**
+   * Returns the power of two count of stripes for the available processors, as long as each can
+   * buffer at least {@link #MIN_STRIPE_BYTES}.
+   */
+  static int stripeCount(int processors, int maxBufferedBytes) {
+    int result = 1;
+    while (result < processors && result < MAX_STRIPE_COUNT
+      && (result << 1) * (long) MIN_STRIPE_BYTES <= maxBufferedBytes) {
+      result <<= 1;
+    }
+    return result;
+  }
+
+  Stripe stripe(long localRootId) {
+    if (stripeMask == 0) return stripes[0];
+    int h = (int) (localRootId ^ (localRootId >>> 32));
+    return stripes[(h ^ (h >>> 16)) & stripeMask]; // spread high bits like HashMap
+  }
+
+  @Override public boolean begin(TraceContext context, MutableSpan span,
+    @Nullable TraceContext parent) {
+    return delegate.begin(context, span, parent);
+  }
+
+  @Override public boolean handlesAbandoned() {
+    return delegate.handlesAbandoned();
+  }
+
+  @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+    if (cause == Cause.ABANDONED) return delegate.end(context, span, cause);
+
+    boolean matches = matches(span);
+    if (context.isLocalRoot()) {
+      endLocalRoot(context, span, cause, matches);
+    } else {
+      endDescendant(context, span, cause, matches);
+    }
+    return true; // don't affect other handlers
+  }
+
+  void endLocalRoot(TraceContext context, MutableSpan span, Cause cause, boolean matches) {
+    Long localRootId = context.localRootId();
+    Stripe stripe = stripe(localRootId);
+    List<Object> toFlush;
+    boolean keep = matches || exceedsLatencyThreshold(span);
+    int evicted = 0;
+    synchronized (stripe) {
+      Trace trace = stripe.traces.get(localRootId);
+      if (trace == null) {
+        trace = stripe.newTrace(localRootId);
+        evicted = stripe.evictUntilFits(trace, 0);
+      }
+      if (Boolean.TRUE.equals(trace.decision)) keep = true;
+      toFlush = stripe.decide(trace, keep);
+    }
+
+    if (evicted != 0) evictedTraces.addAndGet(evicted);
+    if (!keep) {
+      droppedTraces.incrementAndGet();
+      return;
+    }
+    keptTraces.incrementAndGet();
+    if (toFlush != null) flush(toFlush);
+    delegate.end(context, span, cause);
+  }
+
+  void endDescendant(TraceContext context, MutableSpan span, Cause cause, boolean matches) {
+    Long localRootId = context.localRootId();
+    Stripe stripe = stripe(localRootId);
+    List<Object> toFlush = null;
+    int evicted = 0;
+    Boolean decision;
+    synchronized (stripe) {
+      Trace trace = stripe.traces.get(localRootId);
+      decision = trace != null ? trace.decision : null;
+      if (decision == null && matches) { // we now know to keep this trace
+        if (trace == null) {
+          trace = stripe.newTrace(localRootId);
+          evicted = stripe.evictUntilFits(trace, 0);
+        }
+        toFlush = stripe.decide(trace, true);
+        decision = Boolean.TRUE;
+      }
+    }
+
+    if (decision == null) { // encode outside the lock, as only undecided spans need their size
+      int sizeInBytes = encoder.sizeInBytes(span);
+      synchronized (stripe) {
+        Trace trace = stripe.traces.get(localRootId);
+        decision = trace != null ? trace.decision : null; // could have been decided meanwhile
+        if (decision == null && sizeInBytes <= stripe.maxBytes - TRACE_OVERHEAD_BYTES) {
+          if (trace == null) trace = stripe.newTrace(localRootId);
+          evicted = stripe.evictUntilFits(trace, sizeInBytes);
+          stripe.add(trace, context, span, cause, sizeInBytes);
+        } // otherwise, the span is too big to buffer
+      }
+    }
+
+    if (evicted != 0) evictedTraces.addAndGet(evicted);
+    if (decision == null || !decision) return; // buffered or dropped
+    if (toFlush != null) flush(toFlush);
+    delegate.end(context, span, cause);
+  }
+
+  void flush(List<Object> entries) {
+    for (int i = 0, length = entries.size(); i < length; i += 3) {
+      TraceContext context = (TraceContext) entries.get(i);
+      delegate.end(context, (MutableSpan) entries.get(i + 1), (Cause) entries.get(i + 2));
+    }
+  }
+
+  boolean exceedsLatencyThreshold(MutableSpan span) {
+    if (latencyThresholdMicros == 0L) return false;
+    long start = span.startTimestamp(), finish = span.finishTimestamp();
+    return start != 0L && finish != 0L && finish - start >= latencyThresholdMicros;
+  }
+
+  boolean matches(MutableSpan span) {
+    if (keepErrors && (span.error() != null || span.tag("error") != null)) return true;
+    for (Matcher<MutableSpan> matcher : matchers) {
+      if (matcher.matches(span)) return true;
+    }
+    return false;
+  }
+
+  /** Returns the count of local traces passed to the delegate. */
+  public long keptTraces() {
+    return keptTraces.get();
+  }
+
+  /** Returns the count of local traces dropped when their root finished. */
+  public long droppedTraces() {
+    return droppedTraces.get();
+  }
+
+  /** Returns the count of local traces whose buffered spans were dropped to free memory. */
+  public long evictedTraces() {
+    return evictedTraces.get();
+  }
+
+  /** Returns the size of buffered spans, measured in Zipkin JSON v2 format. */
+  public long bufferedBytes() {
+    long result = 0L;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        result += stripe.bufferedBytes;
+      }
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return "TailSamplingSpanHandler{" + delegate + "}";
+  }
+
+  /**
+   * Local traces whose root ID hashes to the same stripe, guarded by the stripe's monitor. Methods
+   * here must be called while holding it.
+   */
+  static final class Stripe {
+    final int maxBytes;
+    /**
+     * Local root ID to its state, from least to most recently touched. Access order means a trace
+     * that still has spans finishing isn't evicted before idle ones.
+     */
+    final LinkedHashMap<Long, Trace> traces = new LinkedHashMap<>(16, 0.75f, true);
+    long bufferedBytes; // buffered spans only
+    long retainedBytes; // bufferedBytes, plus TRACE_OVERHEAD_BYTES per trace
+
+    Stripe(int maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    Trace newTrace(Long localRootId) {
+      Trace result = new Trace();
+      traces.put(localRootId, result);
+      retainedBytes += TRACE_OVERHEAD_BYTES;
+      return result;
+    }
+
+    void add(Trace trace, TraceContext context, MutableSpan span, Cause cause, int sizeInBytes) {
+      trace.add(context, span, cause, sizeInBytes);
+      bufferedBytes += sizeInBytes;
+      retainedBytes += sizeInBytes;
+    }
+
+    /** Records the decision, returning any buffered spans to flush if kept. */
+    @Nullable List<Object> decide(Trace trace, boolean keep) {
+      List<Object> result = trace.entries;
+      trace.decision = keep;
+      trace.entries = null;
+      bufferedBytes -= trace.sizeInBytes;
+      retainedBytes -= trace.sizeInBytes;
+      trace.sizeInBytes = 0L;
+      return keep ? result : null;
+    }
+
+    /**
+     * Drops the least recently touched traces, except the current one, until the span fits.
+     * Returns how many had buffered spans.
+     */
+    int evictUntilFits(Trace current, int sizeInBytes) {
+      int result = 0;
+      Iterator<Trace> oldest = traces.values().iterator();
+      while (retainedBytes + sizeInBytes > maxBytes && oldest.hasNext()) {
+        Trace next = oldest.next();
+        if (next == current) continue;
+        bufferedBytes -= next.sizeInBytes;
+        retainedBytes -= next.sizeInBytes + TRACE_OVERHEAD_BYTES;
+        oldest.remove();
+        if (next.entries != null) result++;
+      }
+      return result;
+    }
+  }
+
+  /** State of one local trace, guarded by its {@link Stripe}. */
+  static final class Trace {
+    @Nullable Boolean decision; // null until decided
+    @Nullable List<Object> entries; // context, span, cause triples, until decided
+    long sizeInBytes; // of entries
+
+    void add(TraceContext context, MutableSpan span, Cause cause, int sizeInBytes) {
+      if (entries == null) entries = new ArrayList<>();
+      entries.add(context);
+      entries.add(span);
+      entries.add(cause);
+      this.sizeInBytes += sizeInBytes;
+    }
+  }
+
+  static final class TagEquals implements Matcher<MutableSpan> {
+    final String key, value;
+
+    TagEquals(String key, String value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override public boolean matches(MutableSpan span) {
+      return value.equals(span.tag(key));
+    }
+
+    @Override public String toString() {
+      return "TagEquals(" + key + "=" + value + ")";
+    }
+  }
+}
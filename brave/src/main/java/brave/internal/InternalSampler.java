@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import brave.sampler.Matcher;
+import brave.sampler.Matchers;
+import brave.sampler.ParameterizedSampler;
+import brave.sampler.Sampler;
+
+/**
+ * Escalate internal APIs in {@code brave.sampler} so they can be used from outside packages. The
+ * only implementation is in {@link ParameterizedSampler}.
+ *
+ * <p>This allows instrumentation, such as HTTP, to index rules made of matchers it knows, while
+ * keeping the first-match semantics of {@link ParameterizedSampler}.
+ */
+public abstract class InternalSampler {
+  public static InternalSampler instance;
+
+  /** Returns a copy of the rule matchers, in the order they are evaluated. */
+  public abstract <P> Matcher<P>[] matchers(ParameterizedSampler<P> sampler);
+
+  /** Returns a copy of the rule samplers, in the same order as {@link #matchers}. */
+  public abstract Sampler[] samplers(ParameterizedSampler<?> sampler);
+
+  /** Returns the input of {@link Matchers#and}, or null if the matcher wasn't made by it. */
+  @Nullable public abstract <P> Matcher<P>[] andMatchers(Matcher<P> matcher);
+
+  /** Returns the input of {@link Matchers#or}, or null if the matcher wasn't made by it. */
+  @Nullable public abstract <P> Matcher<P>[] orMatchers(Matcher<P> matcher);
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Normalizes SQL statements into span names and tags of low cardinality, for use in JDBC
+ * instrumentation. Literals are replaced with {@code ?}, lists of them after {@code IN} collapse
+ * to one, and comments and redundant whitespace are removed. The span name is the operation and
+ * the table it affects, such as "SELECT users".
+ *
+ * <p>Results are kept in a bounded cache keyed by the statement text. As {@link String} caches its
+ * hash code and {@link String#equals(Object)} checks identity first, a repeated prepared statement
+ * costs one lookup, which doesn't lock. Once the cache is full, most misses are statements with
+ * inline values, which won't repeat. So, only one in {@value #REPLACE_EVERY} misses replaces an
+ * entry, which avoids churning the cache while still letting a new working set in over time.
+ *
+ * <p>This is a lexer, not a parser: it doesn't validate SQL and never throws on input it doesn't
+ * understand. Double-quoted text is treated as an identifier, as in standard SQL, so its content is
+ * kept. Use {@link #createMySQL()} for MySQL, where double-quoted text is a string literal unless
+ * the ANSI_QUOTES mode is set.
+ */
+public final class SqlNormalizer {
+  static final int DEFAULT_MAX_SIZE = 1000;
+  /** Longer statements usually have inline values, so aren't worth a cache entry. */
+  static final int MAX_CACHED_LENGTH = 4096;
+  /** Once the cache is full, a miss replaces an entry this often. This is a power of two. */
+  static final int REPLACE_EVERY = 16;
+
+  /** Returns a normalizer which caches up to 1000 statements. */
+  public static SqlNormalizer create() {
+    return create(DEFAULT_MAX_SIZE);
+  }
+
+  /** Returns a normalizer which caches up to {@code maxSize} statements, or none when zero. */
+  public static SqlNormalizer create(int maxSize) {
+    return create(maxSize, false);
+  }
+
+  /**
+   * Like {@link #create()}, except double-quoted text is replaced, as MySQL reads it as a string.
+   */
+  public static SqlNormalizer createMySQL() {
+    return create(DEFAULT_MAX_SIZE, true);
+  }
+
+  /**
+   * Returns a normalizer which caches up to {@code maxSize} statements, or none when zero.
+   *
+   * @param doubleQuotedStrings true to replace double-quoted text as a literal, instead of keeping
+   * it as an identifier
+   */
+  public static SqlNormalizer create(int maxSize, boolean doubleQuotedStrings) {
+    if (maxSize < 0) throw new IllegalArgumentException("maxSize < 0");
+    return new SqlNormalizer(maxSize, doubleQuotedStrings);
+  }
+
+  /** The result of {@link #normalize(String)}. */
+  public static final class NormalizedSql {
+    @Nullable final String operation, table;
+    final String name, query;
+
+    NormalizedSql(@Nullable String operation, @Nullable String table, String query) {
+      this.operation = operation;
+      this.table = table;
+      this.query = query;
+      if (operation == null) {
+        this.name = query;
+      } else {
+        this.name = table != null ? operation + " " + table : operation;
+      }
+    }
+
+    /** The first word of the statement, such as "SELECT", or null if there isn't one. */
+    @Nullable public String operation() {
+      return operation;
+    }
+
+    /** The first table the operation affects, as written, or null if unknown. */
+    @Nullable public String table() {
+      return table;
+    }
+
+    /** The operation and table when known, such as "SELECT users". */
+    public String name() {
+      return name;
+    }
+
+    /** The statement without literals, comments or redundant whitespace. */
+    public String query() {
+      return query;
+    }
+
+    @Override public String toString() {
+      return "NormalizedSql{name=" + name + ", query=" + query + "}";
+    }
+  }
+
+  final int maxSize;
+  final boolean doubleQuotedStrings;
+  final ConcurrentMap<String, NormalizedSql> cache;
+  /** Misses when the cache was full. Updates are racy, as an approximate count is enough. */
+  int fullMisses;
+
+  SqlNormalizer(int maxSize, boolean doubleQuotedStrings) {
+    this.maxSize = maxSize;
+    this.doubleQuotedStrings = doubleQuotedStrings;
+    this.cache = new ConcurrentHashMap<String, NormalizedSql>();
+  }
+
+  public NormalizedSql normalize(String sql) {
+    if (sql == null) throw new NullPointerException("sql == null");
+    boolean cacheable = maxSize != 0 && sql.length() <= MAX_CACHED_LENGTH;
+    if (!cacheable) return parse(sql, doubleQuotedStrings);
+
+    NormalizedSql result = cache.get(sql);
+    if (result != null) return result;
+    result = parse(sql, doubleQuotedStrings);
+    if (cache.size() < maxSize) { // concurrent misses can exceed this by at most the thread count
+      cache.putIfAbsent(sql, result);
+    } else if ((++fullMisses & (REPLACE_EVERY - 1)) == 0) {
+      // Replace an arbitrary entry, as tracking which was least recently used would lock reads.
+      Iterator<String> keys = cache.keySet().iterator();
+      if (keys.hasNext()) {
+        keys.next();
+        keys.remove();
+      }
+      cache.putIfAbsent(sql, result);
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return "SqlNormalizer{maxSize=" + maxSize + ", doubleQuotedStrings=" + doubleQuotedStrings
+      + "}";
+  }
+
+  static NormalizedSql parse(String sql, boolean doubleQuotedStrings) {
+    int length = sql.length();
+    StringBuilder result = new StringBuilder(length);
+    String operation = null, table = null, tableKeyword = null;
+    int depth = 0, operationDepth = 0;
+    // The region of the previous token in the input, when it was a word. Otherwise, -1.
+    int wordStart = -1, wordEnd = -1;
+    // When in a list after IN, the result length after the opening parenthesis. Otherwise, -1.
+    int inListStart = -1;
+    boolean space = false;
+
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        space = true;
+        i++;
+        continue;
+      } else if (isLineComment(sql, i, c)) {
+        i = sql.indexOf('\n', i);
+        if (i == -1) i = length;
+        space = true;
+        continue;
+      } else if (c == '/' && nextIs(sql, i, '*')) {
+        i = sql.indexOf("*/", i + 2);
+        i = i == -1 ? length : i + 2;
+        space = true;
+        continue;
+      }
+
+      if (space && result.length() > 0) result.append(' ');
+      space = false;
+
+      if (c == '\'' || (c == '"' && doubleQuotedStrings)) { // string literal
+        i = quotedEnd(sql, i, c, true);
+        result.append('?');
+        wordStart = -1;
+      } else if (isNumberStart(sql, i, c)) {
+        i = numberEnd(sql, i);
+        result.append('?');
+        wordStart = -1;
+      } else if (isIdentifierStart(c, doubleQuotedStrings)) {
+        int end = identifierEnd(sql, i, doubleQuotedStrings);
+        result.append(sql, i, end);
+        inListStart = -1;
+        if (operation == null) {
+          operation = sql.substring(i, end);
+          operationDepth = depth;
+          tableKeyword = tableKeyword(operation);
+        } else if (table == null && depth == operationDepth && wordStart != -1
+          && tableKeyword != null && regionIs(sql, wordStart, wordEnd, tableKeyword)) {
+          if (isModifier(sql, i, end)) { // ex. UPDATE IGNORE users
+            i = end;
+            continue;
+          }
+          table = sql.substring(i, end);
+        }
+        wordStart = i;
+        wordEnd = end;
+        i = end;
+      } else {
+        if (c == '(') {
+          depth++;
+          boolean isIn = wordStart != -1 && regionIs(sql, wordStart, wordEnd, "IN");
+          inListStart = isIn ? result.length() + 1 : -1;
+        } else if (c == ')') {
+          depth--;
+          if (inListStart != -1) { // the list only had values: collapse it
+            result.setLength(inListStart);
+            result.append('?');
+            inListStart = -1;
+          }
+        } else if (c != ',' && c != '?') {
+          inListStart = -1;
+        }
+        result.append(c);
+        wordStart = -1;
+        i++;
+      }
+    }
+    return new NormalizedSql(operation, table, result.toString());
+  }
+
+  /** Returns the keyword which precedes the table affected by the operation, if known. */
+  @Nullable static String tableKeyword(String operation) {
+    if (operation.equalsIgnoreCase("SELECT") || operation.equalsIgnoreCase("DELETE")) {
+      return "FROM";
+    } else if (operation.equalsIgnoreCase("INSERT") || operation.equalsIgnoreCase("REPLACE")
+      || operation.equalsIgnoreCase("MERGE")) {
+      return "INTO";
+    } else if (operation.equalsIgnoreCase("UPDATE")) {
+      return "UPDATE";
+    }
+    return null;
+  }
+
+  static boolean isModifier(String sql, int start, int end) {
+    return regionIs(sql, start, end, "LOW_PRIORITY") || regionIs(sql, start, end, "IGNORE")
+      || regionIs(sql, start, end, "ONLY");
+  }
+
+  static boolean regionIs(String sql, int start, int end, String keyword) {
+    return end - start == keyword.length()
+      && sql.regionMatches(true, start, keyword, 0, keyword.length());
+  }
+
+  static boolean nextIs(String sql, int i, char c) {
+    return i + 1 < sql.length() && sql.charAt(i + 1) == c;
+  }
+
+  /** Includes MySQL's "#" comments, but not SQL Server temporary tables, like "#users". */
+  static boolean isLineComment(String sql, int i, char c) {
+    if (c == '-') return nextIs(sql, i, '-');
+    if (c != '#') return false;
+    return i + 1 == sql.length() || !isIdentifierPart(sql.charAt(i + 1));
+  }
+
+  static boolean isNumberStart(String sql, int i, char c) {
+    if (c >= '0' && c <= '9') return true;
+    return c == '.' && i + 1 < sql.length() && sql.charAt(i + 1) >= '0' && sql.charAt(i + 1) <= '9';
+  }
+
+  /** Consumes decimal, hex and exponent forms, such as 1.5, 0x1F and 1e-5. */
+  static int numberEnd(String sql, int i) {
+    int length = sql.length();
+    i++;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '+' || c == '-') {
+        char previous = sql.charAt(i - 1);
+        if (previous != 'e' && previous != 'E') break;
+      } else if (c != '.' && !Character.isLetterOrDigit(c)) {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  static boolean isIdentifierStart(char c, boolean doubleQuotedStrings) {
+    return (c == '"' && !doubleQuotedStrings)
+      || c == '`' || c == '[' || c == '#' || c == '@' || isIdentifierPart(c);
+  }
+
+  static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  /** Consumes a possibly quoted and qualified identifier, such as {@code `mydb`.`users`}. */
+  static int identifierEnd(String sql, int i, boolean doubleQuotedStrings) {
+    int length = sql.length();
+    while (true) {
+      char c = sql.charAt(i);
+      if (c == '"' || c == '`') {
+        i = quotedEnd(sql, i, c, false);
+      } else if (c == '[') {
+        i = quotedEnd(sql, i, ']', false);
+      } else {
+        i++;
+        while (i < length && isIdentifierPart(sql.charAt(i))) i++;
+      }
+      if (i + 1 < length && sql.charAt(i) == '.'
+        && isIdentifierStart(sql.charAt(i + 1), doubleQuotedStrings)) {
+        i++;
+        continue;
+      }
+      return i;
+    }
+  }
+
+  /** Returns the index after the closing quote, or the end of the input if unterminated. */
+  static int quotedEnd(String sql, int i, char close, boolean backslashEscapes) {
+    int length = sql.length();
+    i++;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (backslashEscapes && c == '\\') {
+        i += 2;
+      } else if (c == close) {
+        if (!nextIs(sql, i, close)) return i + 1;
+        i += 2; // doubled quote
+      } else {
+        i++;
+      }
+    }
+    return length;
+  }
+}
@@ -15,6 +15,11 @@ package brave.internal.codec;
 
 import brave.internal.Platform;
 import brave.internal.codec.WriteBuffer.Writer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.List;
 
@@ -92,4 +97,42 @@ public final class JsonWriter {
     }
     b.writeByte(']');
   }
+
+  /**
+   * Like {@link WriteBuffer#write(Writer, Object, ByteBuffer)}, except writes a JSON array.
+   *
+   * <p>This doesn't size the whole list first. Instead, the position is reset when any element
+   * doesn't fit.
+   */
+  public static <T> int writeList(Writer<T> writer, List<T> value, ByteBuffer out) {
+    int initialPos = out.position();
+    try {
+      out.put((byte) '[');
+      for (int i = 0, length = value.size(); i < length; ) {
+        WriteBuffer.write(writer, value.get(i++), out);
+        if (i < length) out.put((byte) ',');
+      }
+      out.put((byte) ']');
+    } catch (BufferOverflowException e) {
+      ((Buffer) out).position(initialPos);
+      throw e;
+    }
+    return out.position() - initialPos;
+  }
+
+  /** Like {@link WriteBuffer#write(Writer, Object, OutputStream)}, except writes a JSON array. */
+  public static <T> int writeList(Writer<T> writer, List<T> value, OutputStream out)
+    throws IOException {
+    int sizeInBytes = 2; // []
+    out.write('[');
+    for (int i = 0, length = value.size(); i < length; ) {
+      sizeInBytes += WriteBuffer.write(writer, value.get(i++), out);
+      if (i < length) {
+        out.write(',');
+        sizeInBytes++;
+      }
+    }
+    out.write(']');
+    return sizeInBytes;
+  }
 }
@@ -13,6 +13,12 @@
  */
 package brave.internal.codec;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import static brave.internal.codec.HexCodec.HEX_DIGITS;
 import static brave.internal.codec.JsonWriter.UTF_8;
 
@@ -37,6 +43,63 @@ public final class WriteBuffer {
     return new WriteBuffer(bytes, pos);
   }
 
+  /** Larger sizes are not recycled, to avoid pinning memory to threads that rarely need it. */
+  static final int MAX_RECYCLED_SIZE_IN_BYTES = 64 * 1024;
+  static final ThreadLocal<WriteBuffer> RECYCLED = new ThreadLocal<>();
+
+  /**
+   * Returns a {@link ThreadLocal} reused buffer at position zero, which can hold at least the
+   * indicated size. This is used when the destination isn't a {@code byte[]}, such as a direct
+   * {@link ByteBuffer}. Contents should be copied out before the next call.
+   */
+  static WriteBuffer recycled(int sizeInBytes) {
+    if (sizeInBytes > MAX_RECYCLED_SIZE_IN_BYTES) return new WriteBuffer(new byte[sizeInBytes], 0);
+    WriteBuffer result = RECYCLED.get();
+    if (result == null || result.buf.length < sizeInBytes) {
+      int length = 512;
+      while (length < sizeInBytes) length <<= 1;
+      result = new WriteBuffer(new byte[length], 0);
+      RECYCLED.set(result);
+    }
+    result.pos = 0;
+    return result;
+  }
+
+  /**
+   * Writes the value at the current position of the buffer, advancing it. When the buffer is
+   * backed by an array, this writes directly into it. Otherwise, a recycled array is used.
+   *
+   * @return the count of bytes written
+   * @throws BufferOverflowException if there's not enough room. The position is unchanged.
+   */
+  public static <T> int write(Writer<T> writer, T value, ByteBuffer out) {
+    int sizeInBytes = writer.sizeInBytes(value);
+    if (out.remaining() < sizeInBytes) throw new BufferOverflowException();
+    if (out.hasArray()) { // hasArray is false when read-only
+      int pos = out.position();
+      writer.write(value, wrap(out.array(), out.arrayOffset() + pos));
+      ((Buffer) out).position(pos + sizeInBytes); // cast for JRE 8 bytecode compatibility
+    } else {
+      WriteBuffer b = recycled(sizeInBytes);
+      writer.write(value, b);
+      out.put(b.buf, 0, sizeInBytes);
+    }
+    return sizeInBytes;
+  }
+
+  /**
+   * Writes the value to the stream via a recycled array.
+   *
+   * @return the count of bytes written
+   */
+  public static <T> int write(Writer<T> writer, T value, OutputStream out) throws IOException {
+    int sizeInBytes = writer.sizeInBytes(value);
+    WriteBuffer b = recycled(sizeInBytes);
+    writer.write(value, b);
+    out.write(b.buf, 0, sizeInBytes);
+    return sizeInBytes;
+  }
+
   final byte[] buf;
   int pos;
 
@@ -64,7 +127,7 @@ public final class WriteBuffer {
     }
   }
 
-  final int pos() {
+  public int pos() {
     return pos;
   }
 
@@ -149,6 +212,63 @@ public final class WriteBuffer {
     writeBackwards(v);
   }
 
+  // Adapted from com.google.protobuf.CodedOutputStream.writeRawVarint32
+  public void writeVarint(int v) {
+    while ((v & ~0x7f) != 0) {
+      writeByte((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    writeByte(v);
+  }
+
+  // Adapted from com.google.protobuf.CodedOutputStream.writeRawVarint64
+  public void writeVarint(long v) {
+    while ((v & ~0x7fL) != 0) {
+      writeByte((byte) ((v & 0x7f) | 0x80));
+      v >>>= 7;
+    }
+    writeByte((byte) v);
+  }
+
+  public void writeLongLe(long v) {
+    writeByte((byte) (v & 0xff));
+    writeByte((byte) ((v >> 8) & 0xff));
+    writeByte((byte) ((v >> 16) & 0xff));
+    writeByte((byte) ((v >> 24) & 0xff));
+    writeByte((byte) ((v >> 32) & 0xff));
+    writeByte((byte) ((v >> 40) & 0xff));
+    writeByte((byte) ((v >> 48) & 0xff));
+    writeByte((byte) ((v >> 56) & 0xff));
+  }
+
+  public void writeLongBe(long v) {
+    writeByte((byte) ((v >> 56) & 0xff));
+    writeByte((byte) ((v >> 48) & 0xff));
+    writeByte((byte) ((v >> 40) & 0xff));
+    writeByte((byte) ((v >> 32) & 0xff));
+    writeByte((byte) ((v >> 24) & 0xff));
+    writeByte((byte) ((v >> 16) & 0xff));
+    writeByte((byte) ((v >> 8) & 0xff));
+    writeByte((byte) (v & 0xff));
+  }
+
+  /** Writes 16 lower-hex characters, like {@link HexCodec#writeHexLong(char[], int, long)}. */
+  public void writeLongHex(long v) {
+    writeHexByte((byte) ((v >>> 56L) & 0xff));
+    writeHexByte((byte) ((v >>> 48L) & 0xff));
+    writeHexByte((byte) ((v >>> 40L) & 0xff));
+    writeHexByte((byte) ((v >>> 32L) & 0xff));
+    writeHexByte((byte) ((v >>> 24L) & 0xff));
+    writeHexByte((byte) ((v >>> 16L) & 0xff));
+    writeHexByte((byte) ((v >>> 8L) & 0xff));
+    writeHexByte((byte) (v & 0xff));
+  }
+
+  void writeHexByte(byte b) {
+    buf[pos++] = (byte) HEX_DIGITS[(b >> 4) & 0xf];
+    buf[pos++] = (byte) HEX_DIGITS[b & 0xf];
+  }
+
   @Override public String toString() {
     return new String(buf, 0, pos, UTF_8);
   }
@@ -222,4 +342,35 @@ public final class WriteBuffer {
                         : v < 1000000000000000000L ? 18 : 19;
     return negative ? width + 1 : width; // conditionally add room for negative sign
   }
+
+  /**
+   * A base 128 varint encodes 7 bits at a time, this checks how many bytes are needed to represent
+   * the value.
+   *
+   * <p>See https://developers.google.com/protocol-buffers/docs/encoding#varints
+   *
+   * <p>This logic is the same as {@code com.squareup.wire.ProtoWriter.varint32Size} v2.3.0 which
+   * benchmarked faster than loop variants of the frequently copy/pasted VarInt.varIntSize
+   */
+  public static int varintSizeInBytes(int value) {
+    if ((value & (0xffffffff << 7)) == 0) return 1;
+    if ((value & (0xffffffff << 14)) == 0) return 2;
+    if ((value & (0xffffffff << 21)) == 0) return 3;
+    if ((value & (0xffffffff << 28)) == 0) return 4;
+    return 5;
+  }
+
+  /** Like {@link #varintSizeInBytes(int)}, except for uint64. */
+  public static int varintSizeInBytes(long v) {
+    if ((v & (0xffffffffffffffffL << 7)) == 0) return 1;
+    if ((v & (0xffffffffffffffffL << 14)) == 0) return 2;
+    if ((v & (0xffffffffffffffffL << 21)) == 0) return 3;
+    if ((v & (0xffffffffffffffffL << 28)) == 0) return 4;
+    if ((v & (0xffffffffffffffffL << 35)) == 0) return 5;
+    if ((v & (0xffffffffffffffffL << 42)) == 0) return 6;
+    if ((v & (0xffffffffffffffffL << 49)) == 0) return 7;
+    if ((v & (0xffffffffffffffffL << 56)) == 0) return 8;
+    if ((v & (0xffffffffffffffffL << 63)) == 0) return 9;
+    return 10;
+  }
 }
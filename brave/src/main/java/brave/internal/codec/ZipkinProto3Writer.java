@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.codec;
+
+import brave.Tag;
+import brave.handler.MutableSpan;
+import brave.internal.Nullable;
+
+import static brave.internal.codec.WriteBuffer.asciiSizeInBytes;
+import static brave.internal.codec.WriteBuffer.utf8SizeInBytes;
+import static brave.internal.codec.WriteBuffer.varintSizeInBytes;
+import static brave.internal.codec.ZipkinV2JsonWriter.LINK_TAG_PREFIX;
+import static brave.internal.codec.ZipkinV2JsonWriter.hasLinkTag;
+
+/**
+ * Writes a span as a {@code zipkin2.proto3.ListOfSpans} with one element, without an intermediate
+ * model. The result of writing many spans back-to-back is also a valid {@code ListOfSpans}.
+ *
+ * <p>See https://github.com/openzipkin/zipkin-api/blob/master/zipkin.proto
+ */
+// Initially, a partial copy of zipkin2.internal.Proto3ZipkinFields
+// @Immutable
+public final class ZipkinProto3Writer implements WriteBuffer.Writer<MutableSpan> {
+  static final int WIRETYPE_VARINT = 0, WIRETYPE_FIXED64 = 1, WIRETYPE_LENGTH_DELIMITED = 2;
+
+  // ListOfSpans
+  static final int SPAN = key(1, WIRETYPE_LENGTH_DELIMITED);
+
+  // Span
+  static final int TRACE_ID = key(1, WIRETYPE_LENGTH_DELIMITED);
+  static final int PARENT_ID = key(2, WIRETYPE_LENGTH_DELIMITED);
+  static final int ID = key(3, WIRETYPE_LENGTH_DELIMITED);
+  static final int KIND = key(4, WIRETYPE_VARINT);
+  static final int NAME = key(5, WIRETYPE_LENGTH_DELIMITED);
+  static final int TIMESTAMP = key(6, WIRETYPE_FIXED64);
+  static final int DURATION = key(7, WIRETYPE_VARINT);
+  static final int LOCAL_ENDPOINT = key(8, WIRETYPE_LENGTH_DELIMITED);
+  static final int REMOTE_ENDPOINT = key(9, WIRETYPE_LENGTH_DELIMITED);
+  static final int ANNOTATION = key(10, WIRETYPE_LENGTH_DELIMITED);
+  static final int TAG = key(11, WIRETYPE_LENGTH_DELIMITED);
+  static final int DEBUG = key(12, WIRETYPE_VARINT);
+  static final int SHARED = key(13, WIRETYPE_VARINT);
+
+  // Endpoint
+  static final int SERVICE_NAME = key(1, WIRETYPE_LENGTH_DELIMITED);
+  static final int IPV4 = key(2, WIRETYPE_LENGTH_DELIMITED);
+  static final int IPV6 = key(3, WIRETYPE_LENGTH_DELIMITED);
+  static final int PORT = key(4, WIRETYPE_VARINT);
+
+  // Annotation
+  static final int ANNOTATION_TIMESTAMP = key(1, WIRETYPE_FIXED64);
+  static final int ANNOTATION_VALUE = key(2, WIRETYPE_LENGTH_DELIMITED);
+
+  // Map entry
+  static final int ENTRY_KEY = key(1, WIRETYPE_LENGTH_DELIMITED);
+  static final int ENTRY_VALUE = key(2, WIRETYPE_LENGTH_DELIMITED);
+
+  final Tag<Throwable> errorTag;
+
+  public ZipkinProto3Writer(Tag<Throwable> errorTag) {
+    if (errorTag == null) throw new NullPointerException("errorTag == null");
+    this.errorTag = errorTag;
+  }
+
+  @Override public int sizeInBytes(MutableSpan span) {
+    return lengthDelimitedSizeInBytes(spanSizeInBytes(span));
+  }
+
+  @Override public void write(MutableSpan span, WriteBuffer b) {
+    b.writeByte(SPAN);
+    b.writeVarint(spanSizeInBytes(span));
+    writeSpan(span, b);
+  }
+
+  int spanSizeInBytes(MutableSpan span) {
+    int sizeInBytes = 0;
+    long traceIdHigh = span.traceIdHigh();
+    if (traceIdHigh != 0L || span.traceIdAsLong() != 0L) {
+      sizeInBytes += traceIdHigh != 0L ? 18 : 10; // key, length and 8 or 16 bytes
+    }
+    if (span.parentIdAsLong() != 0L) sizeInBytes += 10; // key, length and 8 bytes
+    if (span.idAsLong() != 0L) sizeInBytes += 10;
+    if (span.kind() != null) sizeInBytes += 2; // key and enum
+    if (span.name() != null) sizeInBytes += utf8FieldSizeInBytes(span.name());
+    long startTimestamp = span.startTimestamp(), finishTimestamp = span.finishTimestamp();
+    if (startTimestamp != 0L) {
+      sizeInBytes += 9; // key and fixed64
+      if (finishTimestamp != 0L) {
+        sizeInBytes += 1 + varintSizeInBytes(finishTimestamp - startTimestamp);
+      }
+    }
+    int localEndpointSizeInBytes =
+      endpointSizeInBytes(span.localServiceName(), span.localIp(), span.localPort());
+    if (localEndpointSizeInBytes > 0) {
+      sizeInBytes += lengthDelimitedSizeInBytes(localEndpointSizeInBytes);
+    }
+    int remoteEndpointSizeInBytes =
+      endpointSizeInBytes(span.remoteServiceName(), span.remoteIp(), span.remotePort());
+    if (remoteEndpointSizeInBytes > 0) {
+      sizeInBytes += lengthDelimitedSizeInBytes(remoteEndpointSizeInBytes);
+    }
+    for (int i = 0, length = span.annotationCount(); i < length; i++) {
+      sizeInBytes += lengthDelimitedSizeInBytes(annotationSizeInBytes(span.annotationValueAt(i)));
+    }
+    boolean foundError = false;
+    for (int i = 0, length = span.tagCount(); i < length; i++) {
+      String key = span.tagKeyAt(i);
+      if (!foundError && key.equals("error")) foundError = true;
+      sizeInBytes += lengthDelimitedSizeInBytes(entrySizeInBytes(key, span.tagValueAt(i)));
+    }
+    String errorValue = foundError ? null : errorTag.value(span.error(), null);
+    if (errorValue != null) {
+      sizeInBytes += lengthDelimitedSizeInBytes(entrySizeInBytes(errorTag.key(), errorValue));
+    }
+    for (int i = 0, length = span.linkCount(); i < length; i++) {
+      if (hasLinkTag(span, i)) continue; // the user tag wins, as in JSON
+      sizeInBytes += lengthDelimitedSizeInBytes(linkEntrySizeInBytes(i, span.linkTraceIdAt(i)));
+    }
+    if (span.debug()) sizeInBytes += 2; // key and bool
+    if (span.shared()) sizeInBytes += 2;
+    return sizeInBytes;
+  }
+
+  void writeSpan(MutableSpan span, WriteBuffer b) {
+    long traceIdHigh = span.traceIdHigh(), traceId = span.traceIdAsLong();
+    if (traceIdHigh != 0L || traceId != 0L) {
+      b.writeByte(TRACE_ID);
+      b.writeByte(traceIdHigh != 0L ? 16 : 8);
+      if (traceIdHigh != 0L) b.writeLongBe(traceIdHigh);
+      b.writeLongBe(traceId);
+    }
+    if (span.parentIdAsLong() != 0L) writeId(PARENT_ID, span.parentIdAsLong(), b);
+    if (span.idAsLong() != 0L) writeId(ID, span.idAsLong(), b);
+    if (span.kind() != null) {
+      b.writeByte(KIND);
+      b.writeByte(span.kind().ordinal() + 1); // SPAN_KIND_UNSPECIFIED is zero
+    }
+    if (span.name() != null) writeUtf8Field(NAME, span.name(), b);
+    long startTimestamp = span.startTimestamp(), finishTimestamp = span.finishTimestamp();
+    if (startTimestamp != 0L) {
+      b.writeByte(TIMESTAMP);
+      b.writeLongLe(startTimestamp);
+      if (finishTimestamp != 0L) {
+        b.writeByte(DURATION);
+        b.writeVarint(finishTimestamp - startTimestamp);
+      }
+    }
+    writeEndpoint(LOCAL_ENDPOINT, span.localServiceName(), span.localIp(), span.localPort(), b);
+    writeEndpoint(REMOTE_ENDPOINT, span.remoteServiceName(), span.remoteIp(), span.remotePort(), b);
+    for (int i = 0, length = span.annotationCount(); i < length; i++) {
+      String value = span.annotationValueAt(i);
+      b.writeByte(ANNOTATION);
+      b.writeVarint(annotationSizeInBytes(value));
+      b.writeByte(ANNOTATION_TIMESTAMP);
+      b.writeLongLe(span.annotationTimestampAt(i));
+      writeUtf8Field(ANNOTATION_VALUE, value, b);
+    }
+    boolean foundError = false;
+    for (int i = 0, length = span.tagCount(); i < length; i++) {
+      String key = span.tagKeyAt(i);
+      if (!foundError && key.equals("error")) foundError = true;
+      writeEntry(key, span.tagValueAt(i), b);
+    }
+    String errorValue = foundError ? null : errorTag.value(span.error(), null);
+    if (errorValue != null) writeEntry(errorTag.key(), errorValue, b);
+    for (int i = 0, length = span.linkCount(); i < length; i++) {
+      if (hasLinkTag(span, i)) continue;
+      writeLinkEntry(i, span.linkTraceIdAt(i), span.linkSpanIdAt(i), b);
+    }
+    if (span.debug()) {
+      b.writeByte(DEBUG);
+      b.writeByte(1);
+    }
+    if (span.shared()) {
+      b.writeByte(SHARED);
+      b.writeByte(1);
+    }
+  }
+
+  static int endpointSizeInBytes(@Nullable String serviceName, @Nullable String ip, int port) {
+    int sizeInBytes = 0;
+    if (serviceName != null) sizeInBytes += utf8FieldSizeInBytes(serviceName);
+    if (ip != null) sizeInBytes += isIPv4(ip) ? 6 : 18; // key, length and 4 or 16 bytes
+    if (port != 0) sizeInBytes += 1 + varintSizeInBytes(port);
+    return sizeInBytes;
+  }
+
+  static void writeEndpoint(int key, @Nullable String serviceName, @Nullable String ip, int port,
+    WriteBuffer b) {
+    int sizeInBytes = endpointSizeInBytes(serviceName, ip, port);
+    if (sizeInBytes == 0) return;
+    b.writeByte(key);
+    b.writeVarint(sizeInBytes);
+    if (serviceName != null) writeUtf8Field(SERVICE_NAME, serviceName, b);
+    if (ip != null) {
+      if (isIPv4(ip)) {
+        b.writeByte(IPV4);
+        b.writeByte(4);
+        writeIPv4(ip, b);
+      } else {
+        b.writeByte(IPV6);
+        b.writeByte(16);
+        writeIPv6(ip, b);
+      }
+    }
+    if (port != 0) {
+      b.writeByte(PORT);
+      b.writeVarint(port);
+    }
+  }
+
+  static int annotationSizeInBytes(String value) {
+    return 9 + utf8FieldSizeInBytes(value); // key and fixed64 timestamp
+  }
+
+  static int entrySizeInBytes(String key, String value) {
+    return utf8FieldSizeInBytes(key) + utf8FieldSizeInBytes(value);
+  }
+
+  static void writeEntry(String key, String value, WriteBuffer b) {
+    b.writeByte(TAG);
+    b.writeVarint(entrySizeInBytes(key, value));
+    writeUtf8Field(ENTRY_KEY, key, b);
+    writeUtf8Field(ENTRY_VALUE, value, b);
+  }
+
+  /** Links are written as tags the same way as {@link ZipkinV2JsonWriter#LINK_TAG_PREFIX}. */
+  static int linkEntrySizeInBytes(int i, String traceId) {
+    int keySizeInBytes = LINK_TAG_PREFIX.length() + asciiSizeInBytes(i);
+    int valueSizeInBytes = traceId.length() + 17; // -0123456789abcdef
+    return lengthDelimitedSizeInBytes(keySizeInBytes)
+      + lengthDelimitedSizeInBytes(valueSizeInBytes);
+  }
+
+  static void writeLinkEntry(int i, String traceId, String spanId, WriteBuffer b) {
+    b.writeByte(TAG);
+    b.writeVarint(linkEntrySizeInBytes(i, traceId));
+    b.writeByte(ENTRY_KEY);
+    b.writeVarint(LINK_TAG_PREFIX.length() + asciiSizeInBytes(i));
+    b.writeAscii(LINK_TAG_PREFIX);
+    b.writeAscii(i);
+    b.writeByte(ENTRY_VALUE);
+    b.writeVarint(traceId.length() + 17);
+    b.writeAscii(traceId);
+    b.writeByte('-');
+    b.writeAscii(spanId);
+  }
+
+  static int utf8FieldSizeInBytes(String value) {
+    return lengthDelimitedSizeInBytes(utf8SizeInBytes(value));
+  }
+
+  static void writeUtf8Field(int key, String value, WriteBuffer b) {
+    b.writeByte(key);
+    b.writeVarint(utf8SizeInBytes(value));
+    b.writeUtf8(value);
+  }
+
+  static void writeId(int key, long id, WriteBuffer b) {
+    b.writeByte(key);
+    b.writeByte(8);
+    b.writeLongBe(id);
+  }
+
+  /** Includes the key, which is a single byte for all fields we write */
+  static int lengthDelimitedSizeInBytes(int sizeOfValue) {
+    return 1 + varintSizeInBytes(sizeOfValue) + sizeOfValue;
+  }
+
+  /** {@link MutableSpan} IPs are normalized, so they are either IPv4 or IPv6 without dots. */
+  static boolean isIPv4(String ip) {
+    return ip.indexOf(':') == -1;
+  }
+
+  static void writeIPv4(String ip, WriteBuffer b) {
+    int word = 0;
+    for (int i = 0, length = ip.length(); i < length; i++) {
+      char c = ip.charAt(i);
+      if (c == '.') {
+        b.writeByte(word);
+        word = 0;
+      } else {
+        word = word * 10 + (c - '0');
+      }
+    }
+    b.writeByte(word);
+  }
+
+  /** Writes 16 bytes, expanding any "::" into the count of zero groups it abbreviates. */
+  static void writeIPv6(String ip, WriteBuffer b) {
+    int length = ip.length(), groupCount = 0;
+    for (int i = 0; i < length; i++) {
+      if (ip.charAt(i) != ':' && (i == 0 || ip.charAt(i - 1) == ':')) groupCount++;
+    }
+
+    int group = 0;
+    boolean inGroup = false;
+    for (int i = 0; i < length; i++) {
+      char c = ip.charAt(i);
+      if (c != ':') {
+        group = (group << 4) | hexValue(c);
+        inGroup = true;
+        continue;
+      }
+      if (inGroup) {
+        b.writeByte(group >> 8);
+        b.writeByte(group);
+        group = 0;
+        inGroup = false;
+      }
+      if (i + 1 < length && ip.charAt(i + 1) == ':') { // compressed zeros
+        for (int zeros = groupCount; zeros < 8; zeros++) {
+          b.writeByte(0);
+          b.writeByte(0);
+        }
+        i++;
+      }
+    }
+    if (inGroup) {
+      b.writeByte(group >> 8);
+      b.writeByte(group);
+    }
+  }
+
+  static int hexValue(char c) {
+    if (c >= '0' && c <= '9') return c - '0';
+    if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+    return c - 'A' + 10;
+  }
+
+  static int key(int fieldNumber, int wireType) {
+    return (fieldNumber << 3) | wireType;
+  }
+}
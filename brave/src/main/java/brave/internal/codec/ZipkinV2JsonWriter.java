@@ -23,6 +23,18 @@ import static brave.internal.codec.WriteBuffer.asciiSizeInBytes;
 
 // @Immutable
 public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan> {
+  /**
+   * Zipkin has no links field, so each {@link MutableSpan#linkCount() link} is written as a tag
+   * named by this prefix and the link index. The value is the linked trace ID and span ID joined by
+   * a hyphen, like the start of the "b3" header.
+   *
+   * <p>Ex. {@code "link.0":"463ac35c9f6413ad-a2fb4a1d1a96d312"}
+   *
+   * <p>JSON objects shouldn't repeat keys, so a link isn't written when a tag already has its name.
+   * Like the error tag, the tag added by the user wins.
+   */
+  static final String LINK_TAG_PREFIX = "link.";
+
   final Tag<Throwable> errorTag;
 
   public ZipkinV2JsonWriter(Tag<Throwable> errorTag) {
@@ -32,15 +44,16 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
 
   @Override public int sizeInBytes(MutableSpan span) {
     int sizeInBytes = 1; // {
-    if (span.traceId() != null) {
+    long traceIdHigh = span.traceIdHigh(), traceId = span.traceIdAsLong();
+    if (traceIdHigh != 0L || traceId != 0L) {
       sizeInBytes += 12; // "traceId":""
-      sizeInBytes += span.traceId().length();
+      sizeInBytes += traceIdHigh != 0L ? 32 : 16;
     }
-    if (span.parentId() != null) {
+    if (span.parentIdAsLong() != 0L) {
       if (sizeInBytes > 1) sizeInBytes++; // ,
       sizeInBytes += 29; // "parentId":"0123456789abcdef"
     }
-    if (span.id() != null) {
+    if (span.idAsLong() != 0L) {
       if (sizeInBytes > 1) sizeInBytes++; // ,
       sizeInBytes += 23; // "id":"0123456789abcdef"
     }
@@ -86,9 +99,9 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
         sizeInBytes += annotationSizeInBytes(timestamp, value);
       }
     }
-    int tagCount = span.tagCount();
+    int tagCount = span.tagCount(), linkCount = span.linkCount();
     String errorValue = errorTag.value(span.error(), null);
-    if (tagCount > 0 || errorValue != null) {
+    if (tagCount > 0 || errorValue != null || linkCount > 0) {
       if (sizeInBytes > 1) sizeInBytes++; // ,
       sizeInBytes += 9; // "tags":{}
       boolean foundError = false;
@@ -102,6 +115,11 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
         tagCount++;
         sizeInBytes += tagSizeInBytes(errorTag.key(), errorValue);
       }
+      for (int i = 0; i < linkCount; i++) {
+        if (hasLinkTag(span, i)) continue;
+        tagCount++;
+        sizeInBytes += linkTagSizeInBytes(i, span.linkTraceIdAt(i));
+      }
       if (tagCount > 1) sizeInBytes += tagCount - 1; // comma to join elements
     }
     if (Boolean.TRUE.equals(span.debug())) {
@@ -118,22 +136,27 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
   @Override public void write(MutableSpan span, WriteBuffer b) {
     b.writeByte('{');
     boolean wroteField = false;
-    if (span.traceId() != null) {
+    // Write IDs from their long form, as the hex strings are lazy in MutableSpan
+    long traceIdHigh = span.traceIdHigh(), traceId = span.traceIdAsLong();
+    if (traceIdHigh != 0L || traceId != 0L) {
       wroteField = writeFieldBegin(b, "traceId", wroteField);
       b.writeByte('"');
-      b.writeAscii(span.traceId());
+      if (traceIdHigh != 0L) b.writeLongHex(traceIdHigh);
+      b.writeLongHex(traceId);
       b.writeByte('"');
     }
-    if (span.parentId() != null) {
+    long parentId = span.parentIdAsLong();
+    if (parentId != 0L) {
       wroteField = writeFieldBegin(b, "parentId", wroteField);
       b.writeByte('"');
-      b.writeAscii(span.parentId());
+      b.writeLongHex(parentId);
       b.writeByte('"');
     }
-    if (span.id() != null) {
+    long id = span.idAsLong();
+    if (id != 0L) {
       wroteField = writeFieldBegin(b, "id", wroteField);
       b.writeByte('"');
-      b.writeAscii(span.id());
+      b.writeLongHex(id);
       b.writeByte('"');
     }
     if (span.kind() != null) {
@@ -177,9 +200,9 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
       }
       b.writeByte(']');
     }
-    int tagCount = span.tagCount();
+    int tagCount = span.tagCount(), linkCount = span.linkCount();
     String errorValue = errorTag.value(span.error(), null);
-    if (tagCount > 0 || errorValue != null) {
+    if (tagCount > 0 || errorValue != null || linkCount > 0) {
       wroteField = writeFieldBegin(b, "tags", wroteField);
       b.writeByte('{');
       boolean foundError = false;
@@ -190,9 +213,17 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
         writeKeyValue(b, key, value);
         if (++i < tagCount) b.writeByte(',');
       }
+      boolean wroteTag = tagCount > 0;
       if (errorValue != null && !foundError) {
-        if (tagCount > 0) b.writeByte(',');
+        if (wroteTag) b.writeByte(',');
         writeKeyValue(b, errorTag.key(), errorValue);
+        wroteTag = true;
+      }
+      for (int i = 0; i < linkCount; i++) {
+        if (hasLinkTag(span, i)) continue;
+        if (wroteTag) b.writeByte(',');
+        writeLinkTag(b, i, span.linkTraceIdAt(i), span.linkSpanIdAt(i));
+        wroteTag = true;
       }
       b.writeByte('}');
     }
@@ -240,6 +271,35 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
     return sizeInBytes;
   }
 
+  /** Returns true if the span has a tag named like the link tag at this index. */
+  static boolean hasLinkTag(MutableSpan span, int linkIndex) {
+    for (int i = 0, length = span.tagCount(); i < length; i++) {
+      if (isLinkTagKey(span.tagKeyAt(i), linkIndex)) return true;
+    }
+    return false;
+  }
+
+  /** Parses the key without allocating, as most spans have no tags that could collide. */
+  static boolean isLinkTagKey(String key, int linkIndex) {
+    int start = LINK_TAG_PREFIX.length(), length = key.length();
+    if (length == start || length > start + 10 || !key.startsWith(LINK_TAG_PREFIX)) return false;
+    if (key.charAt(start) == '0' && length > start + 1) return false; // leading zero
+    long index = 0L;
+    for (int i = start; i < length; i++) {
+      char c = key.charAt(i);
+      if (c < '0' || c > '9') return false;
+      index = index * 10 + (c - '0');
+    }
+    return index == linkIndex;
+  }
+
+  static int linkTagSizeInBytes(int i, String traceId) {
+    int sizeInBytes = 27; // "link.":"-0123456789abcdef"
+    sizeInBytes += asciiSizeInBytes(i);
+    sizeInBytes += traceId.length();
+    return sizeInBytes;
+  }
+
   boolean writeFieldBegin(WriteBuffer b, String fieldName, boolean wroteField) {
     if (wroteField) b.writeByte(',');
     wroteField = true;
@@ -289,6 +349,18 @@ public final class ZipkinV2JsonWriter implements WriteBuffer.Writer<MutableSpan>
     b.writeByte('}');
   }
 
+  /** IDs are lower-hex, so we write them as ASCII without escaping. */
+  static void writeLinkTag(WriteBuffer b, int i, String traceId, String spanId) {
+    b.writeByte('"');
+    b.writeAscii(LINK_TAG_PREFIX);
+    b.writeAscii(i);
+    b.writeAscii("\":\"");
+    b.writeAscii(traceId);
+    b.writeByte('-');
+    b.writeAscii(spanId);
+    b.writeByte('"');
+  }
+
   static void writeKeyValue(WriteBuffer b, String key, String value) {
     b.writeByte('"');
     JsonEscaper.jsonEscape(key, b);
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.collect;
+
+import brave.internal.Nullable;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, multi-producer multi-consumer queue that never blocks or takes a lock.
+ *
+ * <p>This is an adaptation of Dmitry Vyukov's bounded MPMC queue: each slot carries a sequence
+ * number, so that producers and consumers only compete on a compare-and-set of their respective
+ * position counters. Unlike {@link java.util.concurrent.ArrayBlockingQueue}, there's no lock shared
+ * between threads that finish spans and the thread that drains them.
+ *
+ * <p>Capacity is rounded up to a power of two, so that indexing is a mask as opposed to a
+ * division.
+ *
+ * <p>See http://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ */
+public final class BoundedQueue<E> {
+  final int mask;
+  final AtomicLongArray sequences;
+  final AtomicReferenceArray<E> elements;
+  final AtomicLong enqueuePos = new AtomicLong(), dequeuePos = new AtomicLong();
+
+  public BoundedQueue(int capacity) {
+    if (capacity < 1) throw new IllegalArgumentException("capacity < 1");
+    if (capacity > 1 << 30) throw new IllegalArgumentException("capacity > 2^30");
+    int size = 1;
+    while (size < capacity) size <<= 1;
+    this.mask = size - 1;
+    this.sequences = new AtomicLongArray(size);
+    this.elements = new AtomicReferenceArray<>(size);
+    for (int i = 0; i < size; i++) sequences.set(i, i);
+  }
+
+  /** Returns the maximum count of elements this queue can hold. */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /** Returns false when the queue is full. */
+  public boolean offer(E element) {
+    if (element == null) throw new NullPointerException("element == null");
+    long pos = enqueuePos.get();
+    int index;
+    while (true) {
+      index = (int) pos & mask;
+      long difference = sequences.get(index) - pos;
+      if (difference == 0) {
+        if (enqueuePos.compareAndSet(pos, pos + 1)) break;
+        pos = enqueuePos.get();
+      } else if (difference < 0) {
+        return false; // full
+      } else { // another producer claimed this slot
+        pos = enqueuePos.get();
+      }
+    }
+    elements.lazySet(index, element);
+    sequences.lazySet(index, pos + 1); // publishes the element to consumers
+    return true;
+  }
+
+  /** Returns the oldest element or {@code null} if the queue is empty. */
+  @Nullable public E poll() {
+    long pos = dequeuePos.get();
+    int index;
+    while (true) {
+      index = (int) pos & mask;
+      long difference = sequences.get(index) - (pos + 1);
+      if (difference == 0) {
+        if (dequeuePos.compareAndSet(pos, pos + 1)) break;
+        pos = dequeuePos.get();
+      } else if (difference < 0) {
+        return null; // empty
+      } else { // another consumer claimed this slot
+        pos = dequeuePos.get();
+      }
+    }
+    E result = elements.get(index);
+    elements.lazySet(index, null);
+    sequences.lazySet(index, pos + mask + 1); // releases the slot to producers
+    return result;
+  }
+
+  /**
+   * Moves up to {@code maxElements} into the collection, returning how many were moved.
+   *
+   * <p>This is intended for a single consumer, which collects elements into a batch.
+   */
+  public int drainTo(Collection<? super E> collection, int maxElements) {
+    int drained = 0;
+    for (E next; drained < maxElements && (next = poll()) != null; drained++) {
+      collection.add(next);
+    }
+    return drained;
+  }
+
+  /** Returns an approximate count of elements, as it can change concurrently. */
+  public int size() {
+    // read the consumer position first, so that the result isn't negative
+    long dequeued = dequeuePos.get();
+    long size = enqueuePos.get() - dequeued;
+    if (size < 0) return 0;
+    return size > mask ? mask + 1 : (int) size;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override public String toString() {
+    return "BoundedQueue{size=" + size() + ", capacity=" + capacity() + "}";
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.recorder;
+
+import brave.Tracing;
+import brave.internal.Platform;
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Internal support class for {@link Tracing.Builder#reapOrphans(long, TimeUnit)}.
+ *
+ * <p>This periodically drains the reference queues of {@link PendingSpans}, so orphans are reported
+ * by this thread, instead of the next application thread that touches a span. When {@link
+ * PendingSpans#maxSpanAgeNanos} is set, this also flushes spans that are still in-flight after that
+ * age, which bounds memory when garbage collection is infrequent.
+ */
+public final class OrphanReaper implements Closeable {
+  static final long MAX_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** Starts a low-priority daemon thread which reaps orphans until {@link #close()}. */
+  public static OrphanReaper start(PendingSpans pendingSpans) {
+    if (!pendingSpans.reapInBackground) {
+      throw new IllegalArgumentException("pendingSpans.reapInBackground == false");
+    }
+    OrphanReaper result = new OrphanReaper(pendingSpans);
+    result.thread.start();
+    return result;
+  }
+
+  final PendingSpans pendingSpans;
+  final long intervalMillis;
+  final Thread thread;
+  volatile boolean closed;
+
+  OrphanReaper(PendingSpans pendingSpans) {
+    this.pendingSpans = pendingSpans;
+    long maxSpanAgeNanos = pendingSpans.maxSpanAgeNanos;
+    long intervalNanos = maxSpanAgeNanos != 0L
+      ? Math.min(maxSpanAgeNanos, MAX_INTERVAL_NANOS)
+      : MAX_INTERVAL_NANOS;
+    this.intervalMillis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+    this.thread = new Thread(new Worker(), "OrphanReaper");
+    this.thread.setDaemon(true);
+    this.thread.setPriority(Thread.MIN_PRIORITY);
+  }
+
+  /** Stops the background thread. Spans orphaned after this are no longer reported. */
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    thread.interrupt();
+    if (thread == Thread.currentThread()) return;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public String toString() {
+    return "OrphanReaper{maxSpanAgeNanos=" + pendingSpans.maxSpanAgeNanos + "}";
+  }
+
+  final class Worker implements Runnable {
+    @Override public void run() {
+      while (!closed) {
+        try {
+          reap();
+        } catch (InterruptedException e) {
+          // closed
+        } catch (Throwable t) {
+          propagateIfFatal(t);
+          Platform.get().log("error reaping orphaned spans", t);
+        }
+      }
+    }
+
+    // There's a reference queue per stripe, so we sleep instead of blocking on any one of them.
+    void reap() throws InterruptedException {
+      Thread.sleep(intervalMillis);
+      pendingSpans.reportOrphans();
+      if (pendingSpans.maxSpanAgeNanos != 0L) {
+        pendingSpans.flushOlderThanMaxAge(System.nanoTime());
+      }
+    }
+  }
+}
@@ -22,6 +22,9 @@ import brave.internal.Nullable;
 import brave.internal.collect.WeakConcurrentMap;
 import brave.propagation.TraceContext;
 import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -33,19 +36,76 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * <p>Spans are weakly referenced by their owning context. When the keys are collected, they are
  * transferred to a queue, waiting to be reported. A call to modify any span will implicitly flush
  * orphans to Zipkin. Spans in this state will have a "brave.flush" annotation added to them.
+ *
+ * <p>When {@linkplain #reapInBackground reaping in background}, work is not stolen from callers.
+ * Instead, an {@link OrphanReaper} drains orphans and flushes spans older than {@link
+ * #maxSpanAgeNanos}, adding the same "brave.flush" annotation.
+ *
+ * <h3>Striping</h3>
+ * Spans are partitioned by the hash code of their context into a power of two count of stripes.
+ * Each stripe is a separate map with its own reference queue. This reduces contention on hosts with
+ * many cores, as threads working on different spans rarely touch the same map or queue. An
+ * operation usually only expunges orphans from the stripe it touches. Every stripe-count
+ * operations, it expunges all stripes instead, so orphans in rarely touched stripes are reported
+ * about as soon as with a single stripe.
  */
-public final class PendingSpans extends WeakConcurrentMap<TraceContext, PendingSpan> {
+public final class PendingSpans {
+  /** Stripes beyond this add memory overhead without reducing contention further. */
+  static final int MAX_STRIPE_COUNT = 64;
+
+  /** Returns the power of two count of stripes needed for the available processors. */
+  public static int defaultStripeCount() {
+    return stripeCount(Runtime.getRuntime().availableProcessors());
+  }
+
+  static int stripeCount(int processors) {
+    int result = 1;
+    while (result < processors && result < MAX_STRIPE_COUNT) result <<= 1;
+    return result;
+  }
+
   final MutableSpan defaultSpan;
   final Clock clock;
   final SpanHandler spanHandler;
   final AtomicBoolean noop;
+  final Stripe[] stripes;
+  final int stripeMask;
+  final boolean reapInBackground;
+  final long maxSpanAgeNanos; // zero means don't flush spans based on age
+  int expungeCount; // racy, as an approximate schedule is enough
 
   public PendingSpans(MutableSpan defaultSpan, Clock clock, SpanHandler spanHandler,
     AtomicBoolean noop) {
+    this(defaultSpan, clock, spanHandler, noop, 1, false, 0L);
+  }
+
+  /**
+   * @param stripeCount a power of two count of maps to partition spans into.
+   * @param reapInBackground when true, orphans are only reported by an {@link OrphanReaper}.
+   * @param maxSpanAgeNanos when positive, {@link OrphanReaper} flushes spans older than this.
+   * @see #defaultStripeCount()
+   */
+  public PendingSpans(MutableSpan defaultSpan, Clock clock, SpanHandler spanHandler,
+    AtomicBoolean noop, int stripeCount, boolean reapInBackground, long maxSpanAgeNanos) {
+    if (stripeCount < 1 || Integer.bitCount(stripeCount) != 1) {
+      throw new IllegalArgumentException("stripeCount should be a positive power of two");
+    }
+    if (maxSpanAgeNanos < 0L) throw new IllegalArgumentException("maxSpanAgeNanos < 0");
     this.defaultSpan = defaultSpan;
     this.clock = clock;
     this.spanHandler = spanHandler;
     this.noop = noop;
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) stripes[i] = new Stripe();
+    this.stripeMask = stripeCount - 1;
+    this.reapInBackground = reapInBackground;
+    this.maxSpanAgeNanos = maxSpanAgeNanos;
+  }
+
+  Stripe stripe(TraceContext context) {
+    if (stripeMask == 0) return stripes[0];
+    int h = context.hashCode();
+    return stripes[(h ^ (h >>> 16)) & stripeMask]; // spread high bits like HashMap
   }
 
   /**
@@ -56,33 +116,67 @@ public final class PendingSpans extends WeakConcurrentMap<TraceContext, PendingS
    * a new local root.
    */
   @Nullable public PendingSpan get(TraceContext context) {
-    return getIfPresent(context);
+    return stripe(context).getIfPresent(context);
   }
 
   public PendingSpan getOrCreate(
     @Nullable TraceContext parent, TraceContext context, boolean start) {
-    PendingSpan result = get(context);
+    Stripe stripe = stripe(context);
+    PendingSpan result = stripe.getIfPresent(context);
     if (result != null) return result;
 
-    MutableSpan span = new MutableSpan(context, defaultSpan);
     PendingSpan parentSpan = parent != null ? get(parent) : null;
 
     // save overhead calculating time if the parent is in-progress (usually is)
-    TickClock clock;
+    Clock clock;
+    long startTimestamp = 0L;
     if (parentSpan != null) {
-      TraceContext parentContext = parentSpan.context();
-      if (parentContext != null) parent = parentContext;
       clock = parentSpan.clock;
-      if (start) span.startTimestamp(clock.currentTimeMicroseconds());
+      if (start) startTimestamp = clock.currentTimeMicroseconds();
     } else {
       long currentTimeMicroseconds = this.clock.currentTimeMicroseconds();
       clock = new TickClock(currentTimeMicroseconds, System.nanoTime());
-      if (start) span.startTimestamp(currentTimeMicroseconds);
+      if (start) startTimestamp = currentTimeMicroseconds;
+    }
+    return create(stripe, parent, parentSpan, context, clock, startTimestamp);
+  }
+
+  /**
+   * Like {@link #getOrCreate(TraceContext, TraceContext, boolean)}, except a new span uses the
+   * given clock and start timestamp, even if its parent is in-progress. This allows a batch of
+   * spans to share one clock reading.
+   *
+   * @param clock usually from {@link #newTickClock()}
+   * @see brave.SpanBatch
+   */
+  public PendingSpan getOrCreate(@Nullable TraceContext parent, TraceContext context, Clock clock,
+    long startTimestamp) {
+    Stripe stripe = stripe(context);
+    PendingSpan result = stripe.getIfPresent(context);
+    if (result != null) return result;
+
+    PendingSpan parentSpan = parent != null ? get(parent) : null;
+    return create(stripe, parent, parentSpan, context, clock, startTimestamp);
+  }
+
+  /** Returns a clock that reads the platform clock once, for spans that should share it. */
+  public Clock newTickClock() {
+    return new TickClock(clock.currentTimeMicroseconds(), System.nanoTime());
+  }
+
+  PendingSpan create(Stripe stripe, @Nullable TraceContext parent,
+    @Nullable PendingSpan parentSpan, TraceContext context, Clock clock, long startTimestamp) {
+    MutableSpan span = new MutableSpan(context, defaultSpan);
+    if (startTimestamp != 0L) span.startTimestamp(startTimestamp);
+    if (parentSpan != null) {
+      TraceContext parentContext = parentSpan.context();
+      if (parentContext != null) parent = parentContext;
     }
 
     PendingSpan newSpan = new PendingSpan(context, span, clock);
+    if (maxSpanAgeNanos != 0L) newSpan.createdNanos = System.nanoTime();
     // Probably absent because we already checked with get() at the entrance of this method
-    PendingSpan previousSpan = putIfProbablyAbsent(context, newSpan);
+    PendingSpan previousSpan = stripe.putIfProbablyAbsent(context, newSpan);
     if (previousSpan != null) return previousSpan; // lost race
 
     // We've now allocated a new trace context.
@@ -94,6 +188,11 @@ public final class PendingSpans extends WeakConcurrentMap<TraceContext, PendingS
     return newSpan;
   }
 
+  /** Removes the span without reporting it, returning {@code null} if there is none. */
+  @Nullable PendingSpan remove(TraceContext context) {
+    return stripe(context).remove(context);
+  }
+
   /** @see brave.Span#abandon() */
   public void abandon(TraceContext context) {
     PendingSpan last = remove(context);
@@ -122,15 +221,58 @@ public final class PendingSpans extends WeakConcurrentMap<TraceContext, PendingS
     spanHandler.end(last.handlerContext, last.span, Cause.FINISHED);
   }
 
-  /** Reports spans orphaned by garbage collection. */
-  @Override protected void expungeStaleEntries() {
-    Reference<?> reference;
-    boolean noop = this.noop.get();
-    while ((reference = poll()) != null) {
-      PendingSpan value = removeStaleEntry(reference);
-      if (noop || value == null) continue;
-      assert value.context() == null : "unexpected for the weak referent to be present after GC!";
-      spanHandler.end(value.handlerContext, value.span, Cause.ORPHANED);
+  /** Reports spans orphaned by garbage collection in all stripes, even if reaping in background. */
+  void reportOrphans() {
+    for (Stripe stripe : stripes) stripe.reportOrphans();
+  }
+
+  /**
+   * Flushes spans created at least {@link #maxSpanAgeNanos} before the given tick, adding the
+   * annotation "brave.flush".
+   */
+  void flushOlderThanMaxAge(long nanoTime) {
+    for (Stripe stripe : stripes) {
+      for (Map.Entry<TraceContext, PendingSpan> entry : stripe) {
+        PendingSpan value = entry.getValue();
+        if (nanoTime - value.createdNanos < maxSpanAgeNanos) continue;
+        // Only flush if we won any race to remove the span, such as the span finishing.
+        if (stripe.remove(entry.getKey()) != value || noop.get()) continue;
+        MutableSpan span = value.span;
+        synchronized (span) { // The application could still be adding data to it.
+          span.annotate(value.clock.currentTimeMicroseconds(), "brave.flush");
+        }
+        spanHandler.end(value.handlerContext, span, Cause.FLUSHED);
+      }
+    }
+  }
+
+  @Override public String toString() {
+    List<TraceContext> contexts = new ArrayList<>();
+    for (Stripe stripe : stripes) {
+      for (Map.Entry<TraceContext, PendingSpan> entry : stripe) contexts.add(entry.getKey());
+    }
+    return "PendingSpans" + contexts;
+  }
+
+  final class Stripe extends WeakConcurrentMap<TraceContext, PendingSpan> {
+    /** Reports spans orphaned by garbage collection, unless an {@link OrphanReaper} does. */
+    @Override protected void expungeStaleEntries() {
+      if (reapInBackground) return;
+      if (stripeMask != 0 && (++expungeCount & stripeMask) == 0) {
+        PendingSpans.this.reportOrphans();
+      } else {
+        reportOrphans();
+      }
+    }
+
+    void reportOrphans() {
+      Reference<?> reference;
+      while ((reference = poll()) != null) {
+        PendingSpan value = removeStaleEntry(reference);
+        if (noop.get() || value == null) continue;
+        assert value.context() == null : "unexpected for the weak referent to be present after GC!";
+        spanHandler.end(value.handlerContext, value.span, Cause.ORPHANED);
+      }
     }
   }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static brave.propagation.B3SingleFormat.writeB3SingleFormat;
+
+/**
+ * Holds lazily encoded "b3" header values of a {@link TraceContext}, so that injecting the same
+ * context many times encodes it once. This is added to {@link TraceContext#extra()} when {@link
+ * B3Propagation.FactoryBuilder#cacheHeaderValues(boolean)} is enabled.
+ *
+ * <p>Multi-header values need no entry here, as {@link TraceContext#traceIdString()} and similar
+ * are already cached on the context.
+ *
+ * <p>Child contexts inherit the extra list of their parent, so {@linkplain
+ * Propagation.Factory#decorate(TraceContext) decoration} replaces the parent's instance. As the
+ * extra list can also be copied without decoration, for example via {@link
+ * TraceContext#toBuilder()}, each instance only serves the IDs and flags it was created for.
+ */
+final class B3HeaderCache {
+  /** Ensures the context has a cache for its IDs and flags, replacing any inherited one. */
+  static TraceContext decorate(TraceContext context) {
+    List<Object> extra = context.extra();
+    int existing = -1;
+    for (int i = 0, length = extra.size(); i < length; i++) {
+      Object next = extra.get(i);
+      if (next instanceof B3HeaderCache) {
+        if (((B3HeaderCache) next).isFor(context)) return context;
+        existing = i;
+        break;
+      }
+    }
+
+    List<Object> result = new ArrayList<>(extra.size() + (existing == -1 ? 1 : 0));
+    result.addAll(extra);
+    if (existing == -1) {
+      result.add(new B3HeaderCache(context));
+    } else {
+      result.set(existing, new B3HeaderCache(context));
+    }
+    return context.withExtra(Collections.unmodifiableList(result));
+  }
+
+  /** Like {@link B3SingleFormat#writeB3SingleFormat(TraceContext)}, but cached when possible. */
+  static String b3SingleFormat(TraceContext context) {
+    B3HeaderCache cache = find(context);
+    if (cache == null) return writeB3SingleFormat(context);
+    String result = cache.b3SingleFormat;
+    if (result == null) result = cache.b3SingleFormat = writeB3SingleFormat(context);
+    return result;
+  }
+
+  /**
+   * Like {@link B3SingleFormat#writeB3SingleFormatWithoutParentId(TraceContext)}, but cached when
+   * possible.
+   */
+  static String b3SingleFormatWithoutParentId(TraceContext context) {
+    B3HeaderCache cache = find(context);
+    if (cache == null) return B3SingleFormat.writeB3SingleFormatWithoutParentId(context);
+    String result = cache.b3SingleFormatWithoutParentId;
+    if (result == null) {
+      result = B3SingleFormat.writeB3SingleFormatWithoutParentId(context);
+      cache.b3SingleFormatWithoutParentId = result;
+    }
+    return result;
+  }
+
+  @Nullable static B3HeaderCache find(TraceContext context) {
+    B3HeaderCache cache = context.findExtra(B3HeaderCache.class);
+    return cache != null && cache.isFor(context) ? cache : null;
+  }
+
+  // We don't retain the context, as it is often a weak key elsewhere.
+  final long traceIdHigh, traceId, parentId, spanId;
+  @Nullable final Boolean sampled;
+  final boolean debug;
+  // Races are benign, as any thread writes the same value.
+  volatile String b3SingleFormat, b3SingleFormatWithoutParentId;
+
+  B3HeaderCache(TraceContext context) {
+    traceIdHigh = context.traceIdHigh();
+    traceId = context.traceId();
+    parentId = context.parentIdAsLong();
+    spanId = context.spanId();
+    sampled = context.sampled();
+    debug = context.debug();
+  }
+
+  boolean isFor(TraceContext context) {
+    return traceIdHigh == context.traceIdHigh()
+      && traceId == context.traceId()
+      && parentId == context.parentIdAsLong()
+      && spanId == context.spanId()
+      && (sampled == null ? context.sampled() == null : sampled.equals(context.sampled()))
+      && debug == context.debug();
+  }
+
+  @Override public String toString() {
+    return "B3HeaderCache{}";
+  }
+}
@@ -25,8 +25,6 @@ import java.util.Collections;
 import java.util.List;
 
 import static brave.propagation.B3SingleFormat.parseB3SingleFormat;
-import static brave.propagation.B3SingleFormat.writeB3SingleFormat;
-import static brave.propagation.B3SingleFormat.writeB3SingleFormatWithoutParentId;
 import static java.util.Arrays.asList;
 
 /**
@@ -61,7 +59,7 @@ public abstract class B3Propagation<K> implements Propagation<K> {
       }
 
       @Override public <R> void inject(Setter<R, String> setter, TraceContext context, R request) {
-        setter.put(request, B3, writeB3SingleFormat(context));
+        setter.put(request, B3, B3HeaderCache.b3SingleFormat(context));
       }
     },
     /** The trace context is encoded with {@link B3SingleFormat#writeB3SingleFormatWithoutParentId(TraceContext)}. */
@@ -71,7 +69,7 @@ public abstract class B3Propagation<K> implements Propagation<K> {
       }
 
       @Override public <R> void inject(Setter<R, String> setter, TraceContext context, R request) {
-        setter.put(request, B3, writeB3SingleFormatWithoutParentId(context));
+        setter.put(request, B3, B3HeaderCache.b3SingleFormatWithoutParentId(context));
       }
     };
 
@@ -107,6 +105,7 @@ public abstract class B3Propagation<K> implements Propagation<K> {
         .clientInjectorFunctions(Format.MULTI)
         .producerInjectorFunctions(Format.SINGLE_NO_PARENT)
         .consumerInjectorFunctions(Format.SINGLE_NO_PARENT);
+    boolean cacheHeaderValues;
 
     /**
      * Overrides the injection format for non-remote requests, such as message processors. Defaults
@@ -170,6 +169,23 @@ public abstract class B3Propagation<K> implements Propagation<K> {
       return this;
     }
 
+    /**
+     * When true, "b3" single header values are encoded once per trace context and reused for
+     * each injection of that context. Defaults to false.
+     *
+     * <p>This helps services that propagate the same context to many downstream calls, such as
+     * fan-out to many messaging destinations. The cost is a small object added to {@linkplain
+     * TraceContext#extra() extra} of each new context, whether or not it is injected.
+     *
+     * <p>Multi-header values are not affected, as the hex IDs are already cached on the context.
+     *
+     * @since 5.14
+     */
+    public FactoryBuilder cacheHeaderValues(boolean cacheHeaderValues) {
+      this.cacheHeaderValues = cacheHeaderValues;
+      return this;
+    }
+
     public Propagation.Factory build() {
       Factory result = new Factory(this);
       if (result.equals(FACTORY)) return FACTORY;
@@ -209,9 +225,11 @@ public abstract class B3Propagation<K> implements Propagation<K> {
 
   static final class Factory extends Propagation.Factory implements Propagation<String> {
     final InjectorFactory injectorFactory;
+    final boolean cacheHeaderValues;
 
     Factory(FactoryBuilder builder) {
       injectorFactory = builder.injectorFactoryBuilder.build();
+      cacheHeaderValues = builder.cacheHeaderValues;
     }
 
     @Override public List<String> keys() {
@@ -230,6 +248,11 @@ public abstract class B3Propagation<K> implements Propagation<K> {
       return true;
     }
 
+    @Override public TraceContext decorate(TraceContext context) {
+      if (!cacheHeaderValues) return context;
+      return B3HeaderCache.decorate(context);
+    }
+
     @Override public <R> Injector<R> injector(Setter<R, String> setter) {
       return injectorFactory.newInjector(setter);
     }
@@ -240,7 +263,11 @@ public abstract class B3Propagation<K> implements Propagation<K> {
     }
 
     @Override public int hashCode() {
-      return injectorFactory.hashCode();
+      int h = 1000003;
+      h ^= injectorFactory.hashCode();
+      h *= 1000003;
+      h ^= cacheHeaderValues ? 1231 : 1237;
+      return h;
     }
 
     @Override public boolean equals(Object o) {
@@ -248,7 +275,8 @@ public abstract class B3Propagation<K> implements Propagation<K> {
       if (!(o instanceof B3Propagation.Factory)) return false;
 
       B3Propagation.Factory that = (B3Propagation.Factory) o;
-      return injectorFactory.equals(that.injectorFactory);
+      return injectorFactory.equals(that.injectorFactory)
+        && cacheHeaderValues == that.cacheHeaderValues;
     }
 
     @Override public String toString() {
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import brave.propagation.ScopedValueCurrentTraceContext.Slot;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import org.jvnet.animal_sniffer.IgnoreJRERequirement;
+
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Binds a {@link Slot} to the current thread for the extent of a task.
+ *
+ * <p>{@link #get()} uses {@code java.lang.ScopedValue}, which is final as of JDK 25. Brave's
+ * bytecode targets Java 6, so the type is looked up reflectively, similar to how {@link
+ * brave.internal.Platform} detects JRE features. Its methods are then called through method
+ * handles, as reflective calls would allocate on each scope.
+ */
+abstract class ScopedSlots {
+  static final ScopedSlots INSTANCE = findScopedValue();
+
+  /** Returns an implementation backed by scoped values, or null if they aren't available. */
+  @Nullable static ScopedSlots get() {
+    return INSTANCE;
+  }
+
+  /** Returns the slot bound to the current thread, or null if there is none. */
+  @Nullable abstract Slot current();
+
+  /** Invokes {@link Slot#run()} with the slot bound to the current thread. */
+  abstract void run(Slot slot);
+
+  @Nullable static ScopedSlots findScopedValue() {
+    if (javaSpecificationVersion() < 25) return null; // ScopedValue was a preview API before
+    try {
+      return Jre25.create();
+    } catch (Throwable t) {
+      propagateIfFatal(t);
+      return null;
+    }
+  }
+
+  static int javaSpecificationVersion() {
+    String version = System.getProperty("java.specification.version", "1.6");
+    if (version.startsWith("1.")) return 1; // Java 8 or earlier
+    int dot = version.indexOf('.');
+    try {
+      return Integer.parseInt(dot != -1 ? version.substring(0, dot) : version);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  @IgnoreJRERequirement
+  static final class Jre25 extends ScopedSlots {
+    /** As generics are erased, this is returned by {@code orElse} when no slot is bound. */
+    static final Object UNBOUND = new Object();
+
+    static Jre25 create() throws Exception {
+      Class<?> scopedValue = Class.forName("java.lang.ScopedValue");
+      Class<?> carrier = Class.forName("java.lang.ScopedValue$Carrier");
+      Object instance = scopedValue.getMethod("newInstance").invoke(null);
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      return new Jre25(
+        handle(lookup, scopedValue.getMethod("orElse", Object.class), instance,
+          MethodType.methodType(Object.class, Object.class)),
+        handle(lookup, scopedValue.getMethod("where", scopedValue, Object.class), instance,
+          MethodType.methodType(Object.class, Object.class)),
+        handle(lookup, carrier.getMethod("run", Runnable.class), null,
+          MethodType.methodType(void.class, Object.class, Runnable.class))
+      );
+    }
+
+    /** Binds the first argument, if present, and erases types so that we can use invokeExact. */
+    static MethodHandle handle(MethodHandles.Lookup lookup, Method method,
+      @Nullable Object firstArgument, MethodType type) throws IllegalAccessException {
+      MethodHandle result = lookup.unreflect(method);
+      if (firstArgument != null) result = result.bindTo(firstArgument);
+      return result.asType(type);
+    }
+
+    // Fields are method handles, typed Object as animal-sniffer can't ignore field types.
+
+    /** Type {@code (Object)Object}: {@code scopedValue.orElse(other)} */
+    final Object orElse;
+    /** Type {@code (Object)Object}: {@code ScopedValue.where(scopedValue, value)} */
+    final Object where;
+    /** Type {@code (Object,Runnable)void}: {@code carrier.run(runnable)} */
+    final Object run;
+
+    Jre25(MethodHandle orElse, MethodHandle where, MethodHandle run) {
+      this.orElse = orElse;
+      this.where = where;
+      this.run = run;
+    }
+
+    // Slots catch task errors, so any checked exception from a handle below is a bug.
+
+    @Override @Nullable Slot current() {
+      Object result;
+      try {
+        result = (Object) ((MethodHandle) orElse).invokeExact((Object) UNBOUND);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new AssertionError(e);
+      }
+      return result != UNBOUND ? (Slot) result : null;
+    }
+
+    @Override void run(Slot slot) {
+      try {
+        Object carrier = (Object) ((MethodHandle) where).invokeExact((Object) slot);
+        ((MethodHandle) run).invokeExact(carrier, (Runnable) slot);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override public String toString() {
+      return "Jre25{}";
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import brave.propagation.ThreadLocalCurrentTraceContext.RevertToNullScope;
+import brave.propagation.ThreadLocalCurrentTraceContext.RevertToPreviousScope;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * In-process trace context propagation which uses scoped values for wrapped tasks, when available,
+ * and otherwise the same static thread local as {@link ThreadLocalCurrentTraceContext}.
+ *
+ * <p>This is designed for applications that run many short-lived threads, such as virtual threads
+ * from {@code Executors.newVirtualThreadPerTaskExecutor()}. Decorate such an executor like so:
+ * <pre>{@code
+ * ExecutorService executor =
+ *   currentTraceContext.executorService(Executors.newVirtualThreadPerTaskExecutor());
+ * }</pre>
+ *
+ * <h3>Design notes</h3>
+ *
+ * <p>A thread allocates a map the first time it uses a thread local, and inheritable thread locals
+ * are copied each time a thread starts. This adds up when each task runs on a new thread. On JDK
+ * 25+, a task wrapped by {@link #wrap(Runnable)}, {@link #executor(Executor)} or {@link
+ * #executorService(ExecutorService)} instead runs with a scoped value bound to a slot. Scopes
+ * opened in that task update the slot, so the task doesn't touch a thread local, and there's
+ * nothing to restore when it ends.
+ *
+ * <p>Scoped values are bound for the extent of a task, so they can't implement {@link
+ * #newScope(TraceContext)} by themselves. Hence, code not running in a wrapped task uses the thread
+ * local. A slot is only used by the thread that bound it: threads that inherit the binding, such
+ * as {@code StructuredTaskScope} forks, use the thread local. Wrap subtasks to propagate the
+ * context to them.
+ *
+ * <p>Before JDK 25, this behaves the same as {@link ThreadLocalCurrentTraceContext}. Either way,
+ * {@link ScopeDecorator scope decorators}, such as those that synchronize logging contexts, are
+ * applied as usual.
+ *
+ * @since 5.14
+ */
+public final class ScopedValueCurrentTraceContext extends CurrentTraceContext {
+  public static CurrentTraceContext create() {
+    return newBuilder().build();
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(ScopedSlots.get());
+  }
+
+  public static final class Builder extends CurrentTraceContext.Builder {
+    @Nullable final ScopedSlots scopedSlots;
+
+    Builder(@Nullable ScopedSlots scopedSlots) {
+      this.scopedSlots = scopedSlots;
+    }
+
+    @Override public Builder addScopeDecorator(ScopeDecorator scopeDecorator) {
+      return (Builder) super.addScopeDecorator(scopeDecorator);
+    }
+
+    @Override public ScopedValueCurrentTraceContext build() {
+      return new ScopedValueCurrentTraceContext(this);
+    }
+  }
+
+  @SuppressWarnings("ThreadLocalUsage") // intentional: to support multiple Tracer instances
+  final ThreadLocal<TraceContext> local = ThreadLocalCurrentTraceContext.DEFAULT;
+  final RevertToNullScope revertToNull = new RevertToNullScope(local);
+  @Nullable final ScopedSlots scopedSlots;
+
+  ScopedValueCurrentTraceContext(Builder builder) {
+    super(builder);
+    scopedSlots = builder.scopedSlots;
+  }
+
+  @Override public TraceContext get() {
+    Slot slot = currentSlot();
+    return slot != null ? slot.context : local.get();
+  }
+
+  @Override public Scope newScope(@Nullable TraceContext context) {
+    Slot slot = currentSlot();
+    Scope result;
+    if (slot != null) {
+      TraceContext previous = slot.context;
+      slot.context = context;
+      result = previous != null ? new RevertSlotScope(slot, previous) : slot;
+    } else {
+      TraceContext previous = local.get();
+      local.set(context);
+      result = previous != null ? new RevertToPreviousScope(local, previous) : revertToNull;
+    }
+    return decorateScope(context, result);
+  }
+
+  /** Returns the slot bound by this thread, or null if it isn't running a wrapped task. */
+  @Nullable Slot currentSlot() {
+    if (scopedSlots == null) return null;
+    Slot slot = scopedSlots.current();
+    return slot != null && slot.owner == Thread.currentThread() ? slot : null;
+  }
+
+  /** Wraps the input so that it executes with the same context as now. */
+  @Override public <C> Callable<C> wrap(Callable<C> task) {
+    if (scopedSlots == null) return super.wrap(task);
+    final TraceContext invocationContext = get();
+    class ScopedValueCallable implements Callable<C> {
+      @Override public C call() throws Exception {
+        Slot slot = new Slot(invocationContext, null, task);
+        scopedSlots.run(slot);
+        Throwable error = slot.error;
+        if (error instanceof Exception) throw (Exception) error;
+        if (error instanceof Error) throw (Error) error;
+        @SuppressWarnings("unchecked") C result = (C) slot.result;
+        return result;
+      }
+    }
+    return new ScopedValueCallable();
+  }
+
+  /** Wraps the input so that it executes with the same context as now. */
+  @Override public Runnable wrap(Runnable task) {
+    if (scopedSlots == null) return super.wrap(task);
+    final TraceContext invocationContext = get();
+    class ScopedValueRunnable implements Runnable {
+      @Override public void run() {
+        Slot slot = new Slot(invocationContext, task, null);
+        scopedSlots.run(slot);
+        Throwable error = slot.error;
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error instanceof Error) throw (Error) error;
+      }
+    }
+    return new ScopedValueRunnable();
+  }
+
+  @Override public String toString() {
+    return "ScopedValueCurrentTraceContext{scopedValues=" + (scopedSlots != null) + "}";
+  }
+
+  /**
+   * Holds the current context of a wrapped task, for the thread running it. This is also the scope
+   * that reverts to no context, so opening the first scope in a task doesn't allocate.
+   */
+  final class Slot implements Scope, Runnable {
+    final Thread owner = Thread.currentThread();
+    @Nullable final Runnable runnable;
+    @Nullable final Callable<?> callable;
+    @Nullable TraceContext context;
+    @Nullable Object result;
+    @Nullable Throwable error;
+
+    Slot(@Nullable TraceContext context, @Nullable Runnable runnable,
+      @Nullable Callable<?> callable) {
+      this.context = context;
+      this.runnable = runnable;
+      this.callable = callable;
+    }
+
+    /** Invoked while bound. Errors are saved, as checked exceptions can't be thrown by run(). */
+    @Override public void run() {
+      Scope scope = context != null ? decorateScope(context, this) : this;
+      try {
+        if (runnable != null) {
+          runnable.run();
+        } else {
+          result = callable.call();
+        }
+      } catch (Throwable t) {
+        error = t;
+      } finally {
+        scope.close();
+      }
+    }
+
+    @Override public void close() {
+      context = null;
+    }
+  }
+
+  static final class RevertSlotScope implements Scope {
+    final Slot slot;
+    final TraceContext previous;
+
+    RevertSlotScope(Slot slot, TraceContext previous) {
+      this.slot = slot;
+      this.previous = previous;
+    }
+
+    @Override public void close() {
+      slot.context = previous;
+    }
+  }
+}
@@ -13,8 +13,10 @@
  */
 package brave.sampler;
 
+import brave.internal.InternalSampler;
 import brave.internal.Nullable;
 import brave.propagation.SamplingFlags;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +36,35 @@ import java.util.Map;
  * @since 4.4
  */
 public final class ParameterizedSampler<P> implements SamplerFunction<P> {
+  static {
+    InternalSampler.instance = new InternalSampler() {
+      @Override public <P> Matcher<P>[] matchers(ParameterizedSampler<P> sampler) {
+        @SuppressWarnings("unchecked") // generic arrays can't be created, and rules are all <P>
+        Matcher<P>[] result = new Matcher[sampler.rules.length];
+        for (int i = 0; i < result.length; i++) result[i] = sampler.rules[i].matcher;
+        return result;
+      }
+
+      @Override public Sampler[] samplers(ParameterizedSampler<?> sampler) {
+        Sampler[] result = new Sampler[sampler.rules.length];
+        for (int i = 0; i < result.length; i++) result[i] = sampler.rules[i].sampler;
+        return result;
+      }
+
+      @Override public <P> Matcher<P>[] andMatchers(Matcher<P> matcher) {
+        if (!(matcher instanceof Matchers.And)) return null;
+        Matcher<P>[] matchers = ((Matchers.And<P>) matcher).matchers;
+        return Arrays.copyOf(matchers, matchers.length);
+      }
+
+      @Override public <P> Matcher<P>[] orMatchers(Matcher<P> matcher) {
+        if (!(matcher instanceof Matchers.Or)) return null;
+        Matcher<P>[] matchers = ((Matchers.Or<P>) matcher).matchers;
+        return Arrays.copyOf(matchers, matchers.length);
+      }
+    };
+  }
+
   /** @since 5.8 */
   public static <P> Builder<P> newBuilder() {
     return new Builder<>();
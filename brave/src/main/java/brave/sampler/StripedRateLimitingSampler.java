@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.sampler;
+
+import brave.sampler.RateLimitingSampler.AtLeast10;
+import brave.sampler.RateLimitingSampler.LessThan10;
+import brave.sampler.RateLimitingSampler.MaxFunction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static brave.sampler.RateLimitingSampler.NANOS_PER_DECISECOND;
+import static brave.sampler.RateLimitingSampler.NANOS_PER_SECOND;
+
+/**
+ * A variant of {@link RateLimitingSampler} for hosts that make sampling decisions at a very high
+ * rate across many cores. The rate is the same: at most the configured traces per second, spread
+ * across deciseconds when it is at least 10.
+ *
+ * <p>For example, to allow 1000 traces per second, you'd initialize the following:
+ * <pre>{@code
+ * tracingBuilder.sampler(StripedRateLimitingSampler.create(1000));
+ * }</pre>
+ *
+ * <h3>Appropriate Usage</h3>
+ *
+ * <p>{@link RateLimitingSampler} keeps one counter, so every thread that samples a trace writes the
+ * same memory. Use this instead when profiling shows contention in sampling decisions. Otherwise,
+ * prefer {@link RateLimitingSampler}, as it uses less memory.
+ *
+ * <h3>Implementation</h3>
+ *
+ * <p>The rate is split into stripes, up to one per available processor, and a thread counts
+ * against the stripe chosen by its ID. When a stripe has used its share, the thread borrows unused
+ * share from other stripes. This keeps the total within the configured rate, even when threads are
+ * unevenly spread over stripes. Once all stripes are exhausted, decisions are read-only until the
+ * next decisecond. All stripes reset together each second.
+ *
+ * @since 5.14
+ */
+public final class StripedRateLimitingSampler extends Sampler {
+  /**
+   * Stripes are padded so that counters don't share a cache line. This is 128 bytes in ints, as
+   * some processors prefetch adjacent lines.
+   */
+  static final int PADDING = 32;
+
+  public static Sampler create(int tracesPerSecond) {
+    if (tracesPerSecond < 0) throw new IllegalArgumentException("tracesPerSecond < 0");
+    if (tracesPerSecond == 0) return Sampler.NEVER_SAMPLE;
+    int stripeCount = stripeCount(Runtime.getRuntime().availableProcessors(), tracesPerSecond);
+    if (stripeCount == 1) return RateLimitingSampler.create(tracesPerSecond);
+    return new StripedRateLimitingSampler(tracesPerSecond, stripeCount, System.nanoTime());
+  }
+
+  /** Returns a power of two count of stripes, where each stripe has a share of at least one. */
+  static int stripeCount(int processors, int tracesPerSecond) {
+    int result = 1;
+    while (result < processors && (result << 1) <= tracesPerSecond && result < 64) result <<= 1;
+    return result;
+  }
+
+  final MaxFunction[] maxFunctions;
+  final int stripeMask;
+  final AtomicIntegerArray usage;
+  final AtomicLong nextReset;
+  /** Avoids scanning stripes again once all have been exhausted, until the next decisecond. */
+  volatile long exhaustedUntil;
+
+  StripedRateLimitingSampler(int tracesPerSecond, int stripeCount, long now) {
+    int share = tracesPerSecond / stripeCount, remainder = tracesPerSecond % stripeCount;
+    maxFunctions = new MaxFunction[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      int stripeTracesPerSecond = i < remainder ? share + 1 : share;
+      maxFunctions[i] = stripeTracesPerSecond < 10
+        ? new LessThan10(stripeTracesPerSecond)
+        : new AtLeast10(stripeTracesPerSecond);
+    }
+    this.stripeMask = stripeCount - 1;
+    this.usage = new AtomicIntegerArray(stripeCount * PADDING);
+    this.nextReset = new AtomicLong(now + NANOS_PER_SECOND);
+    this.exhaustedUntil = now;
+  }
+
+  @Override public boolean isSampled(long ignoredTraceId) {
+    int stripe = (int) Thread.currentThread().getId() & stripeMask;
+    return isSampled(stripe, System.nanoTime());
+  }
+
+  boolean isSampled(int stripe, long now) {
+    long updateAt = nextReset.get();
+
+    // First task is to determine if this request is later than the one second sampling window
+    long nanosUntilReset = -(now - updateAt); // because nanoTime can be negative
+    while (nanosUntilReset <= 0) {
+      // Attempt to move into the next sampling interval. All stripes reset together.
+      if (nextReset.compareAndSet(updateAt, now + NANOS_PER_SECOND)) {
+        for (int i = 0; i <= stripeMask; i++) usage.set(i * PADDING, 0);
+      }
+      updateAt = nextReset.get();
+      nanosUntilReset = -(now - updateAt);
+    }
+
+    // Most decisions are either within the stripe's share, or after all stripes are exhausted.
+    if (tryAcquire(stripe, nanosUntilReset)) return true;
+    if (now - exhaustedUntil < 0) return false;
+
+    // Borrow from other stripes, which is the only time a thread writes to another's stripe.
+    for (int i = 1; i <= stripeMask; i++) {
+      if (tryAcquire((stripe + i) & stripeMask, nanosUntilReset)) return true;
+    }
+    exhaustedUntil = now + nanosUntilReset % NANOS_PER_DECISECOND;
+    return false;
+  }
+
+  boolean tryAcquire(int stripe, long nanosUntilReset) {
+    int max = maxFunctions[stripe].max(nanosUntilReset), index = stripe * PADDING;
+    int prev, next;
+    do { // same form as java 8 AtomicInteger.getAndUpdate
+      prev = usage.get(index);
+      next = prev + 1;
+      if (next > max) return false;
+    } while (!usage.compareAndSet(index, prev, next));
+    return true;
+  }
+
+  @Override public String toString() {
+    return "StripedRateLimitingSampler{stripes=" + maxFunctions.length + "}";
+  }
+}
@@ -124,6 +124,16 @@ public class RealSpanTest {
       .containsExactly(entry("foo", "bar"));
   }
 
+  @Test public void link() {
+    span.link(context);
+    span.link(context2);
+    span.flush();
+
+    assertThat(spans.get(0).linkCount()).isEqualTo(2);
+    assertThat(spans.get(0).linkSpanIdAt(0)).isEqualTo(context.spanIdString());
+    assertThat(spans.get(0).linkSpanIdAt(1)).isEqualTo(context2.spanIdString());
+  }
+
   @Test public void finished_client_annotation() {
     finish("cs", "cr", Kind.CLIENT);
   }
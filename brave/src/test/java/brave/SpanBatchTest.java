@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave;
+
+import brave.handler.MutableSpan;
+import brave.propagation.B3Propagation;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.SamplingFlags;
+import brave.propagation.TraceContext;
+import brave.propagation.TraceContextOrSamplingFlags;
+import brave.sampler.Sampler;
+import brave.test.TestSpanHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class SpanBatchTest {
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder().addSpanHandler(spans).build();
+  Tracer tracer = tracing.tracer();
+  TraceContext parent =
+    TraceContext.newBuilder().traceId(1L).spanId(2L).sampled(true).build();
+
+  @After public void close() {
+    tracing.close();
+  }
+
+  @Test public void spansShareStartTimestamp() {
+    SpanBatch batch = tracer.newSpanBatch(3);
+    batch.nextSpan(TraceContextOrSamplingFlags.create(parent)).name("a");
+    batch.nextSpan(TraceContextOrSamplingFlags.EMPTY).name("b");
+    batch.newChild(parent).name("c");
+    batch.finish();
+
+    assertThat(batch.timestamp()).isPositive();
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("a", "b", "c");
+    assertThat(spans).extracting(MutableSpan::startTimestamp, MutableSpan::finishTimestamp)
+      .containsOnly(tuple(batch.timestamp(), batch.timestamp()));
+  }
+
+  @Test public void nextSpan_sameAsTracer() {
+    SpanBatch batch = tracer.newSpanBatch(2);
+    TraceContext child = batch.nextSpan(TraceContextOrSamplingFlags.create(parent)).context();
+
+    assertThat(child.traceId()).isEqualTo(parent.traceId());
+    assertThat(child.parentIdAsLong()).isEqualTo(parent.spanId());
+
+    try (Scope scope = tracing.currentTraceContext().newScope(parent)) {
+      TraceContext next = batch.nextSpan(TraceContextOrSamplingFlags.EMPTY).context();
+      assertThat(next.parentIdAsLong()).isEqualTo(parent.spanId());
+    }
+
+    TraceContext root = batch.nextSpan(TraceContextOrSamplingFlags.EMPTY).context();
+    assertThat(root.parentIdAsLong()).isZero();
+    batch.finish();
+
+    assertThat(spans).hasSize(3);
+  }
+
+  /** Like {@link RealSpan#finish()}, this shouldn't report a span another thread is modifying. */
+  @Test public void finish_locksSpanState() throws InterruptedException {
+    SpanBatch batch = tracer.newSpanBatch(1);
+    batch.newChild(parent);
+
+    Thread finisher = new Thread(batch::finish);
+    synchronized (batch.states.get(0)) {
+      finisher.start();
+      finisher.join(100L);
+      assertThat(spans).isEmpty();
+    }
+    finisher.join();
+
+    assertThat(spans).hasSize(1);
+  }
+
+  @Test public void finish_explicitTimestamp() {
+    SpanBatch batch = tracer.newSpanBatch(1);
+    batch.newChild(parent);
+    batch.finish(batch.timestamp() + 1L);
+
+    assertThat(spans.get(0).finishTimestamp()).isEqualTo(batch.timestamp() + 1L);
+  }
+
+  @Test public void finish_skipsSpansAlreadyFinished() {
+    SpanBatch batch = tracer.newSpanBatch(2);
+    batch.newChild(parent).name("early").finish(batch.timestamp() + 2L);
+    batch.newChild(parent).name("late");
+    batch.finish();
+    batch.finish(); // idempotent
+
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("early", "late");
+    assertThat(spans.get(0).finishTimestamp()).isEqualTo(batch.timestamp() + 2L);
+  }
+
+  @Test public void spansCanBeChildrenOfEachOther() {
+    SpanBatch batch = tracer.newSpanBatch(1);
+    Span consumer = batch.newChild(parent);
+    Span listener = tracer.newChild(consumer.context()).start();
+    batch.finish();
+    listener.finish();
+
+    assertThat(spans.get(1).parentId()).isEqualTo(consumer.context().spanIdString());
+  }
+
+  @Test public void unsampled_noTimestamp() {
+    SpanBatch batch = tracer.newSpanBatch(1);
+    Span span = batch.nextSpan(TraceContextOrSamplingFlags.create(SamplingFlags.NOT_SAMPLED));
+    batch.finish();
+
+    assertThat(span.isNoop()).isTrue();
+    assertThat(batch.timestamp()).isZero();
+    assertThat(spans).isEmpty();
+  }
+
+  @Test public void noop() {
+    tracing.setNoop(true);
+
+    SpanBatch batch = tracer.newSpanBatch(1);
+    assertThat(batch.newChild(parent).isNoop()).isTrue();
+    batch.finish();
+
+    assertThat(spans).isEmpty();
+  }
+
+  @Test public void unsampled_bySampler() {
+    try (Tracing tracing = Tracing.newBuilder().sampler(Sampler.NEVER_SAMPLE)
+      .propagationFactory(B3Propagation.FACTORY).addSpanHandler(spans).build()) {
+      SpanBatch batch = tracing.tracer().newSpanBatch(1);
+      assertThat(batch.nextSpan(TraceContextOrSamplingFlags.EMPTY).isNoop()).isTrue();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void expectedSize_cantBeNegative() {
+    tracer.newSpanBatch(-1);
+  }
+}
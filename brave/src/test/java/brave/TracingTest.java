@@ -17,6 +17,7 @@ import brave.handler.FinishedSpanHandler;
 import brave.handler.MutableSpan;
 import brave.handler.SpanHandler;
 import brave.internal.Platform;
+import brave.internal.recorder.PendingSpans;
 import brave.propagation.B3SinglePropagation;
 import brave.propagation.Propagation;
 import brave.propagation.StrictCurrentTraceContext;
@@ -26,6 +27,9 @@ import brave.test.TestSpanHandler;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.assertj.core.api.InstanceOfAssertFactories;
 import org.junit.Test;
@@ -71,6 +75,60 @@ public class TracingTest {
     assertThat(spans).isEmpty();
   }
 
+  @Test public void reapOrphans_flushesSpansOlderThanMaxAge() throws Exception {
+    BlockingQueue<MutableSpan> flushed = new LinkedBlockingQueue<>();
+    try (Tracing tracing = Tracing.newBuilder()
+      .reapOrphans(10, TimeUnit.MILLISECONDS)
+      .addSpanHandler(new SpanHandler() {
+        @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+          if (cause == Cause.FLUSHED) flushed.add(span);
+          return true;
+        }
+      }).build()) {
+      brave.Span span = tracing.tracer().nextSpan().name("leaked").start();
+
+      MutableSpan reaped = flushed.poll(5, TimeUnit.SECONDS);
+      assertThat(reaped).isNotNull();
+      assertThat(reaped.name()).isEqualTo("leaked");
+      assertThat(reaped.containsAnnotation("brave.flush")).isTrue();
+
+      span.finish(); // no-op as already flushed
+      assertThat(flushed).isEmpty();
+    }
+  }
+
+  @Test public void stripePendingSpans_disabledByDefault() {
+    try (Tracing tracing = Tracing.newBuilder().build()) {
+      assertThat(tracing).extracting("tracer.pendingSpans.stripes")
+        .satisfies(stripes -> assertThat((Object[]) stripes).hasSize(1));
+    }
+  }
+
+  @Test public void stripePendingSpans() {
+    try (Tracing tracing = Tracing.newBuilder().stripePendingSpans(true).build()) {
+      assertThat(tracing).extracting("tracer.pendingSpans.stripes")
+        .satisfies(stripes -> assertThat((Object[]) stripes)
+          .hasSize(PendingSpans.defaultStripeCount()));
+    }
+  }
+
+  @Test public void reapOrphans_stopsOnClose() throws Exception {
+    BlockingQueue<MutableSpan> flushed = new LinkedBlockingQueue<>();
+    Tracing tracing = Tracing.newBuilder()
+      .reapOrphans(1, TimeUnit.MILLISECONDS)
+      .addSpanHandler(new SpanHandler() {
+        @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+          flushed.add(span);
+          return true;
+        }
+      }).build();
+    tracing.close();
+
+    tracing.tracer().nextSpan().start();
+
+    assertThat(flushed.poll(100, TimeUnit.MILLISECONDS)).isNull();
+  }
+
   @Test public void localEndpointDefaults() {
     Tracing tracing = Tracing.newBuilder().build();
     assertThat(tracing).extracting("tracer.pendingSpans.defaultSpan.localServiceName")
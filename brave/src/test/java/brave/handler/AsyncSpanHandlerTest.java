@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Tracing;
+import brave.handler.AsyncSpanHandler.OverflowStrategy;
+import brave.handler.SpanHandler.Cause;
+import brave.propagation.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AsyncSpanHandlerTest {
+  TraceContext context = TraceContext.newBuilder().traceId(1).spanId(2).sampled(true).build();
+  BlockingQueue<List<MutableSpan>> batches = new LinkedBlockingQueue<>();
+  AsyncSpanHandler handler;
+
+  @After public void close() {
+    if (handler != null) handler.close();
+  }
+
+  @Test public void consumesFullBatch() throws Exception {
+    handler = AsyncSpanHandler.newBuilder(spans -> batches.add(new ArrayList<>(spans)))
+      .batchMaxSpans(2)
+      .messageTimeout(1, TimeUnit.HOURS)
+      .build();
+
+    MutableSpan span1 = newSpan("1"), span2 = newSpan("2");
+    handler.end(context, span1, Cause.FINISHED);
+    handler.end(context, span2, Cause.FINISHED);
+
+    assertThat(batches.poll(5, TimeUnit.SECONDS)).containsExactly(span1, span2);
+
+    handler.close(); // ensures the counter is visible
+    assertThat(handler.consumedSpans()).isEqualTo(2);
+  }
+
+  @Test public void consumesIncompleteBatchOnTimeout() throws Exception {
+    handler = AsyncSpanHandler.newBuilder(spans -> batches.add(new ArrayList<>(spans)))
+      .batchMaxSpans(100)
+      .messageTimeout(10, TimeUnit.MILLISECONDS)
+      .build();
+
+    MutableSpan span = newSpan("1");
+    handler.end(context, span, Cause.FINISHED);
+
+    assertThat(batches.poll(5, TimeUnit.SECONDS)).containsExactly(span);
+  }
+
+  @Test public void close_consumesQueuedSpans() {
+    handler = AsyncSpanHandler.newBuilder(spans -> batches.add(new ArrayList<>(spans)))
+      .batchMaxSpans(100)
+      .messageTimeout(1, TimeUnit.HOURS)
+      .build();
+
+    MutableSpan span = newSpan("1");
+    handler.end(context, span, Cause.FINISHED);
+    handler.close();
+
+    assertThat(batches).containsExactly(singletonList(span));
+  }
+
+  @Test public void close_dropsSpansAfterwards() {
+    handler = AsyncSpanHandler.newBuilder(spans -> batches.add(new ArrayList<>(spans))).build();
+    handler.close();
+
+    assertThat(handler.end(context, newSpan("1"), Cause.FINISHED)).isTrue();
+
+    assertThat(batches).isEmpty();
+    assertThat(handler.droppedSpans()).isEqualTo(1);
+  }
+
+  @Test public void overflow_dropNewest() throws Exception {
+    CountDownLatch consuming = new CountDownLatch(1), release = new CountDownLatch(1);
+    handler = blockedHandler(OverflowStrategy.DROP_NEWEST, consuming, release);
+
+    MutableSpan span3 = newSpan("3"), span4 = newSpan("4");
+    handler.end(context, span3, Cause.FINISHED);
+    handler.end(context, span4, Cause.FINISHED);
+    handler.end(context, newSpan("5"), Cause.FINISHED);
+
+    assertThat(handler.droppedSpans()).isEqualTo(1);
+    assertThat(handler.queuedSpans()).isEqualTo(2);
+
+    release.countDown();
+    handler.close();
+    assertThat(batches).contains(singletonList(span3), singletonList(span4));
+  }
+
+  @Test public void overflow_dropOldest() throws Exception {
+    CountDownLatch consuming = new CountDownLatch(1), release = new CountDownLatch(1);
+    handler = blockedHandler(OverflowStrategy.DROP_OLDEST, consuming, release);
+
+    MutableSpan span4 = newSpan("4"), span5 = newSpan("5");
+    handler.end(context, newSpan("3"), Cause.FINISHED);
+    handler.end(context, span4, Cause.FINISHED);
+    handler.end(context, span5, Cause.FINISHED);
+
+    assertThat(handler.droppedSpans()).isEqualTo(1);
+    assertThat(handler.queuedSpans()).isEqualTo(2);
+
+    release.countDown();
+    handler.close();
+    assertThat(batches).contains(singletonList(span4), singletonList(span5));
+  }
+
+  @Test public void overflow_block() throws Exception {
+    CountDownLatch consuming = new CountDownLatch(1), release = new CountDownLatch(1);
+    handler = blockedHandler(OverflowStrategy.BLOCK, consuming, release);
+
+    handler.end(context, newSpan("3"), Cause.FINISHED);
+    handler.end(context, newSpan("4"), Cause.FINISHED);
+
+    Thread blocked = new Thread(() -> handler.end(context, newSpan("5"), Cause.FINISHED));
+    blocked.start();
+    blocked.join(100);
+    assertThat(blocked.isAlive()).isTrue();
+
+    release.countDown();
+    blocked.join(5000);
+    assertThat(blocked.isAlive()).isFalse();
+    assertThat(handler.droppedSpans()).isZero();
+  }
+
+  @Test public void consumerErrorCountsAsDropped() throws Exception {
+    CountDownLatch consumed = new CountDownLatch(1);
+    handler = AsyncSpanHandler.newBuilder(spans -> {
+      consumed.countDown();
+      throw new IllegalStateException("boom");
+    }).batchMaxSpans(1).build();
+
+    handler.end(context, newSpan("1"), Cause.FINISHED);
+    assertThat(consumed.await(5, TimeUnit.SECONDS)).isTrue();
+    handler.close();
+
+    assertThat(handler.droppedSpans()).isEqualTo(1);
+    assertThat(handler.consumedSpans()).isZero();
+  }
+
+  @Test public void integratesWithTracing() throws Exception {
+    handler = AsyncSpanHandler.newBuilder(spans -> batches.add(new ArrayList<>(spans)))
+      .batchMaxSpans(1)
+      .build();
+
+    try (Tracing tracing = Tracing.newBuilder().addSpanHandler(handler).build()) {
+      tracing.tracer().startScopedSpan("foo").finish();
+    }
+
+    assertThat(batches.poll(5, TimeUnit.SECONDS))
+      .extracting(MutableSpan::name)
+      .containsExactly("foo");
+  }
+
+  /** Blocks the worker on the first span, leaving a queue which holds two spans. */
+  AsyncSpanHandler blockedHandler(OverflowStrategy strategy, CountDownLatch consuming,
+    CountDownLatch release) throws InterruptedException {
+    AsyncSpanHandler result = AsyncSpanHandler.newBuilder(spans -> {
+      consuming.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      batches.add(new ArrayList<>(spans));
+    }).queuedMaxSpans(2).batchMaxSpans(1).overflowStrategy(strategy).build();
+
+    result.end(context, newSpan("1"), Cause.FINISHED);
+    assertThat(consuming.await(5, TimeUnit.SECONDS)).isTrue();
+    return result;
+  }
+
+  static List<MutableSpan> singletonList(MutableSpan span) {
+    List<MutableSpan> result = new ArrayList<>();
+    result.add(span);
+    return result;
+  }
+
+  static MutableSpan newSpan(String name) {
+    MutableSpan result = new MutableSpan();
+    result.name(name);
+    return result;
+  }
+}
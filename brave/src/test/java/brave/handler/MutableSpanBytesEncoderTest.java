@@ -15,11 +15,19 @@ package brave.handler;
 
 import brave.Span.Kind;
 import brave.Tags;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * This test is intentionally sensitive to ensure our custom encoders do not break in subtle ways.
@@ -34,6 +42,7 @@ public class MutableSpanBytesEncoderTest {
       utf8Span = new MutableSpan();
 
   MutableSpanBytesEncoder encoder = MutableSpanBytesEncoder.zipkinJsonV2(Tags.ERROR);
+  MutableSpanBytesEncoder proto3 = MutableSpanBytesEncoder.zipkinProto3(Tags.ERROR);
 
   @Before public void testData() {
     clientSpan.traceId("7180c278b62e8f6a216a2aea45d08fc9");
@@ -182,4 +191,196 @@ public class MutableSpanBytesEncoderTest {
         .isEqualTo(
             "{\"traceId\":\"dc955a1d4768875d\",\"id\":\"dc955a1d4768875d\",\"kind\":\"SERVER\",\"name\":\"get\",\"timestamp\":1510256710021866,\"duration\":1117,\"localEndpoint\":{\"serviceName\":\"isao01\",\"ipv4\":\"10.23.14.72\"},\"tags\":{\"http.path\":\"/rs/A\",\"location\":\"T67792\",\"other\":\"A\"},\"shared\":true}");
   }
+
+  @Test public void encode_heapByteBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    buffer.put((byte) 'x'); // ensure we respect the position
+
+    int written = encoder.encode(clientSpan, buffer);
+
+    assertThat(written).isEqualTo(encoder.sizeInBytes(clientSpan));
+    assertThat(buffer.position()).isEqualTo(written + 1);
+    assertThat(toArray(buffer, 1)).isEqualTo(encoder.encode(clientSpan));
+  }
+
+  @Test public void encode_directByteBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    buffer.put((byte) 'x'); // ensure we respect the position
+
+    int written = encoder.encode(utf8Span, buffer);
+
+    assertThat(buffer.position()).isEqualTo(written + 1);
+    assertThat(toArray(buffer, 1)).isEqualTo(encoder.encode(utf8Span));
+  }
+
+  @Test public void encode_byteBuffer_overflowLeavesPosition() {
+    ByteBuffer buffer = ByteBuffer.allocate(encoder.sizeInBytes(clientSpan) - 1);
+    buffer.put((byte) 'x');
+
+    assertThatThrownBy(() -> encoder.encode(clientSpan, buffer))
+        .isInstanceOf(BufferOverflowException.class);
+    assertThat(buffer.position()).isEqualTo(1);
+  }
+
+  @Test public void encodeList_byteBuffer() {
+    List<MutableSpan> spans = Arrays.asList(clientSpan, rootServerSpan, utf8Span);
+    for (ByteBuffer buffer : Arrays.asList(ByteBuffer.allocate(2048),
+        ByteBuffer.allocateDirect(2048))) {
+      int written = encoder.encodeList(spans, buffer);
+
+      assertThat(buffer.position()).isEqualTo(written);
+      assertThat(toArray(buffer, 0)).isEqualTo(encoder.encodeList(spans));
+    }
+  }
+
+  @Test public void encodeList_byteBuffer_empty() {
+    ByteBuffer buffer = ByteBuffer.allocate(2);
+
+    assertThat(encoder.encodeList(Arrays.<MutableSpan>asList(), buffer)).isEqualTo(2);
+    assertThat(toArray(buffer, 0)).isEqualTo(new byte[] {'[', ']'});
+  }
+
+  @Test public void encodeList_byteBuffer_overflowLeavesPosition() {
+    List<MutableSpan> spans = Arrays.asList(clientSpan, rootServerSpan);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(encoder.encodeList(spans).length - 1);
+
+    assertThatThrownBy(() -> encoder.encodeList(spans, buffer))
+        .isInstanceOf(BufferOverflowException.class);
+    assertThat(buffer.position()).isZero();
+  }
+
+  @Test public void encode_outputStream() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertThat(encoder.encode(clientSpan, out)).isEqualTo(out.size());
+    assertThat(out.toByteArray()).isEqualTo(encoder.encode(clientSpan));
+  }
+
+  @Test public void encodeList_outputStream() throws Exception {
+    List<MutableSpan> spans = Arrays.asList(clientSpan, rootServerSpan, utf8Span);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertThat(encoder.encodeList(spans, out)).isEqualTo(out.size());
+    assertThat(out.toByteArray()).isEqualTo(encoder.encodeList(spans));
+  }
+
+  static byte[] toArray(ByteBuffer buffer, int from) {
+    byte[] result = new byte[buffer.position() - from];
+    ByteBuffer copy = buffer.duplicate();
+    copy.flip().position(from);
+    copy.get(result);
+    return result;
+  }
+
+  /** Decodes using Zipkin's proto3 codec, which is easier to read than comparing bytes. */
+  @Test public void span_PROTO3() {
+    for (MutableSpan span : Arrays.asList(clientSpan, rootServerSpan, localSpan, errorSpan,
+        utf8Span)) {
+      byte[] encoded = proto3.encode(span);
+
+      assertThat(encoded).hasSize(proto3.sizeInBytes(span));
+      assertThat(SpanBytesDecoder.PROTO3.decodeOne(encoded))
+          .isEqualTo(SpanBytesDecoder.JSON_V2.decodeOne(encoder.encode(span)));
+    }
+  }
+
+  @Test public void span_links_PROTO3() {
+    for (int i = 1; i <= 11; i++) errorSpan.link(clientSpan.traceId(), Integer.toHexString(i));
+
+    byte[] encoded = proto3.encode(errorSpan);
+
+    assertThat(encoded).hasSize(proto3.sizeInBytes(errorSpan));
+    assertThat(SpanBytesDecoder.PROTO3.decodeOne(encoded))
+        .isEqualTo(SpanBytesDecoder.JSON_V2.decodeOne(encoder.encode(errorSpan)))
+        .extracting(s -> s.tags().get("link.10"))
+        .isEqualTo(clientSpan.traceId() + "-000000000000000b");
+  }
+
+  @Test public void span_links_skipsLinkTagNamedLikeUserTag_PROTO3() {
+    errorSpan.tag("link.0", "user");
+    errorSpan.link(clientSpan.traceId(), "a");
+    errorSpan.link(clientSpan.traceId(), "b");
+
+    byte[] encoded = proto3.encode(errorSpan);
+
+    assertThat(encoded).hasSize(proto3.sizeInBytes(errorSpan));
+    assertThat(SpanBytesDecoder.PROTO3.decodeOne(encoded).tags())
+        .containsEntry("link.0", "user")
+        .containsEntry("link.1", clientSpan.traceId() + "-000000000000000b");
+  }
+
+  @Test public void span_64bitTraceId_PROTO3() {
+    clientSpan.traceId(clientSpan.traceId().substring(16));
+
+    assertThat(SpanBytesDecoder.PROTO3.decodeOne(proto3.encode(clientSpan)).traceId())
+        .isEqualTo("216a2aea45d08fc9");
+  }
+
+  @Test public void span_debugAndShared_PROTO3() {
+    rootServerSpan.setDebug();
+    rootServerSpan.setShared();
+
+    Span decoded = SpanBytesDecoder.PROTO3.decodeOne(proto3.encode(rootServerSpan));
+    assertThat(decoded.debug()).isTrue();
+    assertThat(decoded.shared()).isTrue();
+  }
+
+  @Test public void span_errorTag_PROTO3() {
+    localSpan.error(new RuntimeException("boom"));
+
+    assertThat(SpanBytesDecoder.PROTO3.decodeOne(proto3.encode(localSpan)).tags())
+        .containsEntry("error", "boom");
+  }
+
+  @Test public void span_ipv6_PROTO3() {
+    for (String ip : Arrays.asList("2001:db8::c001", "::1", "fe80::", "1:2:3:4:5:6:7:8")) {
+      clientSpan.remoteIpAndPort(ip, 443);
+
+      assertThat(SpanBytesDecoder.PROTO3.decodeOne(proto3.encode(clientSpan)).remoteEndpoint())
+          .isEqualTo(zipkin2.Endpoint.newBuilder().serviceName("backend").ip(ip).port(443).build());
+    }
+  }
+
+  @Test public void encodeList_PROTO3() {
+    List<MutableSpan> spans = Arrays.asList(clientSpan, rootServerSpan, utf8Span);
+    byte[] encoded = proto3.encodeList(spans);
+
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(encoded))
+        .isEqualTo(SpanBytesDecoder.JSON_V2.decodeList(encoder.encodeList(spans)));
+
+    // Encoding spans one at a time results in the same bytes
+    ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length);
+    for (MutableSpan span : spans) proto3.encode(span, buffer);
+    assertThat(toArray(buffer, 0)).isEqualTo(encoded);
+  }
+
+  @Test public void encodeList_PROTO3_empty() {
+    assertThat(proto3.encodeList(Arrays.<MutableSpan>asList())).isEmpty();
+  }
+
+  @Test public void encodeList_PROTO3_byteBufferAndOutputStream() throws Exception {
+    List<MutableSpan> spans = Arrays.asList(clientSpan, rootServerSpan, utf8Span);
+    byte[] encoded = proto3.encodeList(spans);
+
+    ByteBuffer buffer = ByteBuffer.allocate(encoded.length);
+    assertThat(proto3.encodeList(spans, buffer)).isEqualTo(encoded.length);
+    assertThat(buffer.array()).isEqualTo(encoded);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(proto3.encodeList(spans, out)).isEqualTo(encoded.length);
+    assertThat(out.toByteArray()).isEqualTo(encoded);
+  }
+
+  @Test public void encodeList_PROTO3_byteBuffer_overflowLeavesPosition() {
+    List<MutableSpan> spans = Arrays.asList(clientSpan, rootServerSpan);
+    ByteBuffer buffer = ByteBuffer.allocate(proto3.encodeList(spans).length - 1);
+
+    assertThatThrownBy(() -> proto3.encodeList(spans, buffer))
+        .isInstanceOf(BufferOverflowException.class);
+    assertThat(buffer.position()).isZero();
+  }
+
+  @Test public void proto3_smallerThanJson() {
+    assertThat(proto3.sizeInBytes(clientSpan)).isLessThan(encoder.sizeInBytes(clientSpan) / 2);
+  }
 }
@@ -212,6 +212,57 @@ public class MutableSpanTest {
     );
   }
 
+  @Test public void links() {
+    TraceContext context = TraceContext.newBuilder().traceIdHigh(1L).traceId(2L).spanId(3L).build();
+
+    MutableSpan span = new MutableSpan();
+    assertThat(span.linkCount()).isZero();
+
+    span.link(context);
+    span.link("a", "b"); // note: we didn't pad here.. it is done implicitly
+    assertThat(span.linkCount()).isEqualTo(2);
+    assertThat(span.linkTraceIdAt(0)).isEqualTo(context.traceIdString());
+    assertThat(span.linkSpanIdAt(0)).isEqualTo(context.spanIdString());
+    assertThat(span.linkTraceIdAt(1)).isEqualTo("000000000000000a");
+    assertThat(span.linkSpanIdAt(1)).isEqualTo("000000000000000b");
+
+    // copies don't share the links array
+    MutableSpan copy = new MutableSpan(span);
+    copy.link(context);
+    assertThat(span.linkCount()).isEqualTo(2);
+    assertThat(copy.linkCount()).isEqualTo(3);
+  }
+
+  @Test public void linkAt_invalidIndex() {
+    MutableSpan span = new MutableSpan();
+    span.link("a", "b");
+
+    assertThatThrownBy(() -> span.linkTraceIdAt(-1))
+      .isInstanceOf(IndexOutOfBoundsException.class)
+      .hasMessage("i < 0");
+    assertThatThrownBy(() -> span.linkSpanIdAt(1))
+      .isInstanceOf(IndexOutOfBoundsException.class)
+      .hasMessage("i >= linkCount");
+  }
+
+  @Test public void link_invalid() {
+    MutableSpan span = new MutableSpan();
+
+    assertThatThrownBy(() -> span.link((TraceContext) null))
+      .isInstanceOf(NullPointerException.class)
+      .hasMessage("context == null");
+    assertThatThrownBy(() -> span.link("a", null))
+      .isInstanceOf(NullPointerException.class)
+      .hasMessage("spanId == null");
+    assertThatThrownBy(() -> span.link("0", "b"))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("traceId is all zeros");
+    assertThatThrownBy(() -> span.link("a", "0123456789abcdef0"))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("spanId.length > 16");
+    assertThat(span.linkCount()).isZero();
+  }
+
   /** See {@link #tagValueAt_usageExplained()} */
   @Test public void annotationValueAt_usageExplained() {
     TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(2L).build();
@@ -543,6 +594,16 @@ public class MutableSpanTest {
       span.annotate(2L, "wasted");
       return span;
     },
+    () -> {
+      MutableSpan span = new MutableSpan();
+      span.link("000000000000000a", "000000000000000b");
+      return span;
+    },
+    () -> {
+      MutableSpan span = new MutableSpan();
+      span.link("000000000000000a", "000000000000000c");
+      return span;
+    },
     () -> {
       MutableSpan span = new MutableSpan();
       span.error(EX1);
@@ -645,6 +706,66 @@ public class MutableSpanTest {
     assertThat(new MutableSpan(context, null)).isEqualTo(span);
   }
 
+  @Test public void contextConstructor_idsAsLong() {
+    TraceContext context = InternalPropagation.instance.newTraceContext(
+      0,
+      0x463ac35c9f6413adL,
+      0x48485a3953bb6124L,
+      2,
+      3,
+      4,
+      emptyList()
+    );
+    MutableSpan span = new MutableSpan(context, null);
+
+    assertThat(span.traceIdHigh()).isEqualTo(context.traceIdHigh());
+    assertThat(span.traceIdAsLong()).isEqualTo(context.traceId());
+    assertThat(span.localRootIdAsLong()).isEqualTo(2L);
+    assertThat(span.parentIdAsLong()).isEqualTo(3L);
+    assertThat(span.idAsLong()).isEqualTo(4L);
+
+    // hex forms are lazy, but the same as the context
+    assertThat(span.traceId()).isEqualTo(context.traceIdString());
+    assertThat(span.localRootId()).isEqualTo(context.localRootIdString());
+    assertThat(span.parentId()).isEqualTo(context.parentIdString());
+    assertThat(span.id()).isEqualTo(context.spanIdString());
+  }
+
+  @Test public void idsAsLong_parsedFromSetters() {
+    MutableSpan span = new MutableSpan();
+    assertThat(span.traceIdHigh()).isZero();
+    assertThat(span.traceIdAsLong()).isZero();
+    assertThat(span.parentIdAsLong()).isZero();
+
+    span.traceId("463ac35c9f6413ad48485a3953bb6124");
+    span.localRootId("a");
+    span.parentId("b");
+    span.id("c");
+
+    assertThat(span.traceIdHigh()).isEqualTo(0x463ac35c9f6413adL);
+    assertThat(span.traceIdAsLong()).isEqualTo(0x48485a3953bb6124L);
+    assertThat(span.localRootIdAsLong()).isEqualTo(10L);
+    assertThat(span.parentIdAsLong()).isEqualTo(11L);
+    assertThat(span.idAsLong()).isEqualTo(12L);
+
+    span.traceId("1");
+    assertThat(span.traceIdHigh()).isZero();
+    assertThat(span.traceIdAsLong()).isEqualTo(1L);
+
+    span.parentId(null);
+    assertThat(span.parentIdAsLong()).isZero();
+  }
+
+  /** A 128-bit trace ID can have a lower 64-bits of zero. */
+  @Test public void traceId_128BitZeroLow() {
+    MutableSpan span = new MutableSpan();
+    span.traceId("463ac35c9f6413ad0000000000000000");
+
+    assertThat(span.traceIdHigh()).isEqualTo(0x463ac35c9f6413adL);
+    assertThat(span.traceIdAsLong()).isZero();
+    assertThat(new MutableSpan(span).traceId()).isEqualTo("463ac35c9f6413ad0000000000000000");
+  }
+
   @Test public void contextConstructor_contextWins() {
     MutableSpan span = new MutableSpan();
     span.traceId("0000000000000001");
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Span.Kind;
+import brave.handler.SpanHandler.Cause;
+import brave.handler.SpanMetricsHandler.Metrics;
+import brave.propagation.TraceContext;
+import java.util.List;
+import org.junit.Test;
+
+import static brave.handler.SpanMetricsHandler.BUCKET_COUNT;
+import static brave.handler.SpanMetricsHandler.bucketIndex;
+import static brave.handler.SpanMetricsHandler.bucketUpperBound;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SpanMetricsHandlerTest {
+  TraceContext context = TraceContext.newBuilder().traceId(1).spanId(2).build();
+  SpanMetricsHandler handler = SpanMetricsHandler.newBuilder().build();
+
+  @Test public void groupsByServiceNameAndKind() {
+    end("frontend", "get /", Kind.SERVER, 100L, false);
+    end("frontend", "get /", Kind.SERVER, 200L, true);
+    end("frontend", "get /", Kind.CLIENT, 300L, false);
+    end("backend", "get /", Kind.SERVER, 400L, false);
+
+    List<Metrics> snapshot = handler.snapshot();
+    assertThat(snapshot).hasSize(3);
+
+    Metrics server = find(snapshot, "frontend", "get /", Kind.SERVER);
+    assertThat(server.count()).isEqualTo(2);
+    assertThat(server.errorCount()).isEqualTo(1);
+    assertThat(server.durationCount()).isEqualTo(2);
+    assertThat(server.durationSumMicros()).isEqualTo(300L);
+    assertThat(find(snapshot, "frontend", "get /", Kind.CLIENT).count()).isEqualTo(1);
+    assertThat(find(snapshot, "backend", "get /", Kind.SERVER).count()).isEqualTo(1);
+  }
+
+  @Test public void nullFields() {
+    end(null, null, null, 100L, false);
+    end(null, null, null, 100L, false);
+
+    assertThat(handler.snapshot()).singleElement()
+      .extracting(Metrics::serviceName, Metrics::name, Metrics::kind, Metrics::count)
+      .containsExactly(null, null, null, 2L);
+  }
+
+  @Test public void errorTag() {
+    MutableSpan span = newSpan("frontend", "get /", Kind.SERVER, 100L);
+    span.tag("error", "500");
+    handler.end(context, span, Cause.FINISHED);
+
+    assertThat(handler.snapshot().get(0).errorCount()).isEqualTo(1);
+  }
+
+  @Test public void onlyFinishedSpans() {
+    for (Cause cause : Cause.values()) {
+      handler.end(context, newSpan("frontend", "get /", Kind.SERVER, 100L), cause);
+    }
+
+    assertThat(handler.snapshot()).singleElement()
+      .extracting(Metrics::count).isEqualTo(1L);
+  }
+
+  @Test public void countsSpansWithoutDuration() {
+    MutableSpan span = newSpan("frontend", "get /", Kind.SERVER, 100L);
+    span.startTimestamp(0L);
+    handler.end(context, span, Cause.FINISHED);
+
+    Metrics metrics = handler.snapshot().get(0);
+    assertThat(metrics.count()).isEqualTo(1);
+    assertThat(metrics.durationCount()).isZero();
+    assertThat(metrics.percentileMicros(0.5)).isZero();
+  }
+
+  @Test public void overflowKey() {
+    handler = SpanMetricsHandler.newBuilder().maxKeys(2).build();
+    end("frontend", "a", Kind.SERVER, 100L, false);
+    end("frontend", "b", Kind.SERVER, 100L, false);
+    end("frontend", "c", Kind.SERVER, 100L, false);
+    end("frontend", "d", Kind.SERVER, 100L, true);
+    end("frontend", "a", Kind.SERVER, 100L, false);
+
+    List<Metrics> snapshot = handler.snapshot();
+    assertThat(snapshot).hasSize(3);
+    assertThat(find(snapshot, "frontend", "a", Kind.SERVER).count()).isEqualTo(2);
+    Metrics overflow = find(snapshot, null, null, null);
+    assertThat(overflow.count()).isEqualTo(2);
+    assertThat(overflow.errorCount()).isEqualTo(1);
+  }
+
+  @Test public void percentiles() {
+    for (long i = 1; i <= 1000; i++) end("frontend", "get /", Kind.SERVER, i, false);
+
+    Metrics metrics = handler.snapshot().get(0);
+    assertThat(metrics.percentileMicros(0.0)).isEqualTo(1L);
+    assertThat(metrics.percentileMicros(0.5)).isBetween(500L, 563L);
+    assertThat(metrics.percentileMicros(0.99)).isBetween(990L, 1114L);
+    assertThat(metrics.percentileMicros(1.0)).isBetween(1000L, 1125L);
+  }
+
+  @Test public void percentile_invalid() {
+    end("frontend", "get /", Kind.SERVER, 100L, false);
+    Metrics metrics = handler.snapshot().get(0);
+
+    assertThatThrownBy(() -> metrics.percentileMicros(1.1))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void bucketIndex_upperBoundRoundTrips() {
+    long previousUpperBound = -1L;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long upperBound = bucketUpperBound(i);
+      assertThat(upperBound).isGreaterThan(previousUpperBound);
+      assertThat(bucketIndex(upperBound)).isEqualTo(i);
+      assertThat(bucketIndex(previousUpperBound + 1)).isEqualTo(i);
+      previousUpperBound = upperBound;
+    }
+  }
+
+  @Test public void bucketIndex_relativeError() {
+    for (long value = 8; value < 1L << 40; value = value * 3 + 1) {
+      long upperBound = bucketUpperBound(bucketIndex(value));
+      assertThat((double) (upperBound - value) / value).isLessThanOrEqualTo(0.125);
+    }
+  }
+
+  @Test public void bucketIndex_clamps() {
+    assertThat(bucketIndex(-1L)).isZero();
+    assertThat(bucketIndex(Long.MAX_VALUE)).isEqualTo(BUCKET_COUNT - 1);
+  }
+
+  @Test public void concurrentKeyCreation() throws InterruptedException {
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) end("frontend", "span" + (i % 10), Kind.SERVER, 1L, false);
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+
+    List<Metrics> snapshot = handler.snapshot();
+    assertThat(snapshot).hasSize(10);
+    assertThat(snapshot).extracting(Metrics::count).containsOnly(800L);
+  }
+
+  void end(String serviceName, String name, Kind kind, long durationMicros, boolean error) {
+    MutableSpan span = newSpan(serviceName, name, kind, durationMicros);
+    if (error) span.error(new RuntimeException());
+    handler.end(context, span, Cause.FINISHED);
+  }
+
+  static MutableSpan newSpan(String serviceName, String name, Kind kind, long durationMicros) {
+    MutableSpan span = new MutableSpan();
+    span.localServiceName(serviceName);
+    span.name(name);
+    span.kind(kind);
+    span.startTimestamp(1_000_000L);
+    span.finishTimestamp(1_000_000L + durationMicros);
+    return span;
+  }
+
+  static Metrics find(List<Metrics> snapshot, String serviceName, String name, Kind kind) {
+    for (Metrics metrics : snapshot) {
+      if (SpanMetricsHandler.equal(metrics.serviceName(), serviceName)
+        && SpanMetricsHandler.equal(metrics.name(), name)
+        && metrics.kind() == kind) {
+        return metrics;
+      }
+    }
+    throw new AssertionError("no metrics for " + serviceName + "/" + name + "/" + kind);
+  }
+}
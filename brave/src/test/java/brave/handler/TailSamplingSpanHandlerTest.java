@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.ScopedSpan;
+import brave.Span;
+import brave.Tracer;
+import brave.Tracing;
+import brave.propagation.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static brave.handler.TailSamplingSpanHandler.TRACE_OVERHEAD_BYTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TailSamplingSpanHandlerTest {
+  List<MutableSpan> spans = new ArrayList<>();
+  SpanHandler delegate = new SpanHandler() {
+    @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+      spans.add(span);
+      return true;
+    }
+  };
+  TailSamplingSpanHandler handler;
+  Tracing tracing;
+
+  @After public void close() {
+    if (tracing != null) tracing.close();
+  }
+
+  Tracer tracer(TailSamplingSpanHandler.Builder builder) {
+    handler = builder.build();
+    tracing = Tracing.newBuilder().addSpanHandler(handler).build();
+    return tracing.tracer();
+  }
+
+  @Test public void dropsTraceWithoutMatch() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+
+    Span root = tracer.newTrace().name("root").start();
+    tracer.newChild(root.context()).name("child").start().finish();
+    assertThat(handler.bufferedBytes()).isPositive();
+    root.finish();
+
+    assertThat(spans).isEmpty();
+    assertThat(handler.bufferedBytes()).isZero();
+    assertThat(handler.droppedTraces()).isEqualTo(1);
+  }
+
+  @Test public void keepsTraceWithError_descendant() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+
+    Span root = tracer.newTrace().name("root").start();
+    tracer.newChild(root.context()).name("ok").start().finish();
+    tracer.newChild(root.context()).name("error").start().error(new RuntimeException()).finish();
+
+    // once we know to keep the trace, buffered spans are passed along
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("ok", "error");
+    assertThat(handler.bufferedBytes()).isZero();
+
+    tracer.newChild(root.context()).name("late").start().finish();
+    root.finish();
+
+    assertThat(spans).extracting(MutableSpan::name)
+      .containsExactly("ok", "error", "late", "root");
+    assertThat(handler.keptTraces()).isEqualTo(1);
+  }
+
+  @Test public void keepsTraceWithError_root() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+
+    ScopedSpan root = tracer.startScopedSpan("root");
+    tracer.startScopedSpan("child").finish();
+    root.tag("error", "boom");
+    root.finish();
+
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("child", "root");
+  }
+
+  @Test public void keepErrors_false() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate).keepErrors(false));
+
+    tracer.newTrace().name("root").start().error(new RuntimeException()).finish();
+
+    assertThat(spans).isEmpty();
+  }
+
+  @Test public void keepsTraceOverLatencyThreshold() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate)
+      .latencyThreshold(1, TimeUnit.SECONDS));
+
+    Span fast = tracer.newTrace().name("fast").start(1_000_000L);
+    tracer.newChild(fast.context()).name("fast-child").start(1_000_001L).finish(1_000_002L);
+    fast.finish(1_999_999L);
+
+    Span slow = tracer.newTrace().name("slow").start(1_000_000L);
+    tracer.newChild(slow.context()).name("slow-child").start(1_000_001L).finish(1_000_002L);
+    slow.finish(2_000_000L);
+
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("slow-child", "slow");
+    assertThat(handler.keptTraces()).isEqualTo(1);
+    assertThat(handler.droppedTraces()).isEqualTo(1);
+  }
+
+  @Test public void keepsTraceWithTag() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate)
+      .keepIfTag("http.status_code", "429"));
+
+    Span root = tracer.newTrace().name("root").start();
+    tracer.newChild(root.context()).name("child").tag("http.status_code", "429").start().finish();
+    root.finish();
+
+    Span other = tracer.newTrace().name("other").start();
+    tracer.newChild(other.context()).name("child").tag("http.status_code", "200").start().finish();
+    other.finish();
+
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("child", "root");
+  }
+
+  @Test public void keepsTraceMatchingSpan() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate)
+      .keepIf(span -> span.kind() == Span.Kind.CLIENT));
+
+    Span root = tracer.newTrace().name("root").start();
+    tracer.newChild(root.context()).kind(Span.Kind.CLIENT).name("client").start().finish();
+    root.finish();
+
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("client", "root");
+  }
+
+  /** Async work can finish after the local root, so we remember the decision. */
+  @Test public void descendantAfterRoot_usesDecision() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+
+    Span kept = tracer.newTrace().name("kept").start();
+    Span keptChild = tracer.newChild(kept.context()).name("kept-child").start();
+    kept.error(new RuntimeException()).finish();
+    keptChild.finish();
+
+    Span dropped = tracer.newTrace().name("dropped").start();
+    Span droppedChild = tracer.newChild(dropped.context()).name("dropped-child").start();
+    dropped.finish();
+    droppedChild.finish();
+
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("kept", "kept-child");
+    assertThat(handler.bufferedBytes()).isZero();
+  }
+
+  @Test public void evictsOldestTraceWhenFull() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+    finishChild(tracer, tracer.newTrace().start());
+    long spanSize = handler.bufferedBytes();
+    tracing.close();
+
+    // room for two local traces, each with one buffered child
+    tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate)
+      .maxBufferedBytes((int) (spanSize + TRACE_OVERHEAD_BYTES) * 2));
+
+    Span oldest = tracer.newTrace().name("oldest").start();
+    finishChild(tracer, oldest);
+    Span middle = tracer.newTrace().name("middle").start();
+    finishChild(tracer, middle);
+    Span newest = tracer.newTrace().name("newest").start();
+    finishChild(tracer, newest);
+
+    assertThat(handler.evictedTraces()).isEqualTo(1);
+    assertThat(handler.bufferedBytes()).isEqualTo(spanSize * 2);
+
+    // The evicted trace is still decided, but its buffered child was lost.
+    middle.error(new RuntimeException()).finish();
+    oldest.error(new RuntimeException()).finish();
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("child", "middle", "oldest");
+  }
+
+  /** Decisions are bounded by memory, not count, so a live trace keeps its decision. */
+  @Test public void descendantDecision_outlivesManyOtherTraces() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+
+    Span root = tracer.newTrace().name("root").start();
+    tracer.newChild(root.context()).name("error").start().error(new RuntimeException()).finish();
+
+    for (int i = 0; i < 10_000; i++) {
+      Span other = tracer.newTrace().name("other").start();
+      finishChild(tracer, other);
+      other.finish();
+    }
+
+    tracer.newChild(root.context()).name("late").start().finish();
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("error", "late");
+    root.finish();
+    assertThat(handler.keptTraces()).isEqualTo(1);
+  }
+
+  @Test public void evictsLeastRecentlyTouchedTrace() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+    finishChild(tracer, tracer.newTrace().start());
+    long spanSize = handler.bufferedBytes();
+    tracing.close();
+
+    // room for two local traces, one with two buffered children, and one more child
+    tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate)
+      .maxBufferedBytes((int) (spanSize * 3 + TRACE_OVERHEAD_BYTES * 2)));
+
+    Span older = tracer.newTrace().name("older").start();
+    finishChild(tracer, older);
+    Span newer = tracer.newTrace().name("newer").start();
+    finishChild(tracer, newer);
+    finishChild(tracer, older); // touching the older trace makes the newer one the eldest
+    Span newest = tracer.newTrace().name("newest").start();
+    finishChild(tracer, newest);
+
+    assertThat(handler.evictedTraces()).isEqualTo(1);
+    older.error(new RuntimeException()).finish();
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("child", "child", "older");
+  }
+
+  @Test public void dropsSpanLargerThanBuffer() {
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate).maxBufferedBytes(1));
+
+    Span root = tracer.newTrace().name("root").start();
+    tracer.newChild(root.context()).name("child").start().finish();
+
+    assertThat(handler.bufferedBytes()).isZero();
+    assertThat(handler.evictedTraces()).isZero();
+  }
+
+  @Test public void abandonedPassedToDelegate() {
+    List<MutableSpan> abandoned = new ArrayList<>();
+    delegate = new SpanHandler() {
+      @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+        if (cause == Cause.ABANDONED) abandoned.add(span);
+        return true;
+      }
+
+      @Override public boolean handlesAbandoned() {
+        return true;
+      }
+    };
+    Tracer tracer = tracer(TailSamplingSpanHandler.newBuilder(delegate));
+    assertThat(handler.handlesAbandoned()).isTrue();
+
+    tracer.newTrace().name("root").start().abandon();
+
+    assertThat(abandoned).extracting(MutableSpan::name).containsExactly("root");
+  }
+
+  @Test public void stripeCount() {
+    int eightMiB = 8 * 1024 * 1024;
+    assertThat(TailSamplingSpanHandler.stripeCount(1, eightMiB)).isEqualTo(1);
+    assertThat(TailSamplingSpanHandler.stripeCount(6, eightMiB)).isEqualTo(8);
+    assertThat(TailSamplingSpanHandler.stripeCount(64, eightMiB)).isEqualTo(8); // 1 MiB each
+    assertThat(TailSamplingSpanHandler.stripeCount(64, 1024)).isEqualTo(1);
+    assertThat(TailSamplingSpanHandler.stripeCount(256, Integer.MAX_VALUE))
+      .isEqualTo(TailSamplingSpanHandler.MAX_STRIPE_COUNT);
+  }
+
+  /** Uses fixed timestamps, so that each child has the same size. */
+  static void finishChild(Tracer tracer, Span parent) {
+    tracer.newChild(parent.context()).name("child").start(1L).finish(2L);
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import brave.internal.SqlNormalizer.NormalizedSql;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlNormalizerTest {
+  SqlNormalizer normalizer = SqlNormalizer.create();
+
+  @Test public void replacesLiterals() {
+    assertQuery("SELECT * FROM users WHERE name = 'bob' AND age > 21 AND score < -1.5e10",
+      "SELECT * FROM users WHERE name = ? AND age > ? AND score < -?");
+  }
+
+  @Test public void replacesLiterals_escapedQuotes() {
+    assertQuery("UPDATE users SET name = 'o''brien', bio = 'say \\'hi\\'' WHERE id = 0x1F",
+      "UPDATE users SET name = ?, bio = ? WHERE id = ?");
+  }
+
+  @Test public void keepsDoubleQuotedIdentifiers() {
+    assertQuery("SELECT \"name\" FROM users WHERE \"name\" = 'bob'",
+      "SELECT \"name\" FROM users WHERE \"name\" = ?");
+  }
+
+  @Test public void mysql_replacesDoubleQuotedStrings() {
+    normalizer = SqlNormalizer.createMySQL();
+    assertQuery("SELECT * FROM users WHERE name = \"bob\" AND bio = \"say \\\"hi\\\"\"",
+      "SELECT * FROM users WHERE name = ? AND bio = ?");
+    assertName("SELECT * FROM `users` WHERE name = \"bob\"", "SELECT `users`");
+  }
+
+  @Test public void keepsIdentifiersWithDigits() {
+    assertQuery("SELECT c1 FROM t2 WHERE t2.c3 = 4", "SELECT c1 FROM t2 WHERE t2.c3 = ?");
+  }
+
+  @Test public void keepsPlaceholders() {
+    assertQuery("SELECT * FROM users WHERE id = ? AND name = :name AND v = $1",
+      "SELECT * FROM users WHERE id = ? AND name = :name AND v = $1");
+  }
+
+  @Test public void collapsesInLists() {
+    assertQuery("SELECT * FROM users WHERE id IN (1, 2, 3) AND name in ( 'a','b' )",
+      "SELECT * FROM users WHERE id IN (?) AND name in (?)");
+  }
+
+  @Test public void collapsesInLists_placeholders() {
+    assertQuery("DELETE FROM users WHERE id IN (?, ?, ?, ?)", "DELETE FROM users WHERE id IN (?)");
+  }
+
+  @Test public void doesntCollapseInSubquery() {
+    assertQuery("SELECT * FROM users WHERE id IN (SELECT user_id FROM admins WHERE level = 2)",
+      "SELECT * FROM users WHERE id IN (SELECT user_id FROM admins WHERE level = ?)");
+  }
+
+  @Test public void removesCommentsAndWhitespace() {
+    assertQuery("/* app=foo */ SELECT id -- trailing\n\tFROM   users # mysql\nWHERE id = 1",
+      "SELECT id FROM users WHERE id = ?");
+  }
+
+  @Test public void keepsSqlServerTemporaryTables() {
+    NormalizedSql result = normalizer.normalize("SELECT * FROM #users");
+    assertThat(result.query()).isEqualTo("SELECT * FROM #users");
+    assertThat(result.name()).isEqualTo("SELECT #users");
+  }
+
+  @Test public void name_operationAndTable() {
+    assertName("SELECT id FROM users WHERE id = 1", "SELECT users");
+    assertName("select id from `mydb`.`users` u join roles r", "select `mydb`.`users`");
+    assertName("INSERT INTO users (id) VALUES (1)", "INSERT users");
+    assertName("INSERT IGNORE INTO users (id) VALUES (1)", "INSERT users");
+    assertName("REPLACE INTO users (id) VALUES (1)", "REPLACE users");
+    assertName("UPDATE users SET name = 'bob'", "UPDATE users");
+    assertName("UPDATE LOW_PRIORITY IGNORE users SET name = 'bob'", "UPDATE users");
+    assertName("DELETE FROM \"users\" WHERE id = 1", "DELETE \"users\"");
+  }
+
+  @Test public void name_ignoresNestedFrom() {
+    assertName("SELECT (SELECT max(id) FROM roles) FROM users", "SELECT users");
+    assertName("SELECT * FROM (SELECT * FROM users) u", "SELECT");
+  }
+
+  @Test public void name_operationOnly() {
+    assertName("COMMIT", "COMMIT");
+    assertName("SELECT 1", "SELECT");
+    assertName("set session foo = 1", "set");
+  }
+
+  @Test public void name_nestedOperation() {
+    assertName("(SELECT id FROM users) UNION (SELECT id FROM admins)", "SELECT users");
+  }
+
+  @Test public void unterminated_doesntCrash() {
+    assertQuery("SELECT 'abc", "SELECT ?");
+    assertQuery("SELECT `abc", "SELECT `abc");
+    assertQuery("SELECT 1 /* abc", "SELECT ?");
+  }
+
+  @Test public void empty() {
+    NormalizedSql result = normalizer.normalize("  -- nothing\n");
+    assertThat(result.query()).isEmpty();
+    assertThat(result.name()).isEmpty();
+    assertThat(result.operation()).isNull();
+  }
+
+  @Test public void cachesByStatement() {
+    String sql = "SELECT * FROM users WHERE id = ?";
+    assertThat(normalizer.normalize(sql)).isSameAs(normalizer.normalize(sql));
+    assertThat(normalizer.normalize(sql)).isSameAs(normalizer.normalize(new String(sql)));
+  }
+
+  @Test public void cache_whenFull_replacesOnlySomeEntries() {
+    normalizer = SqlNormalizer.create(2);
+    normalizer.normalize("SELECT a");
+    normalizer.normalize("SELECT b");
+
+    // statements with inline values don't churn the cache
+    for (int i = 1; i < SqlNormalizer.REPLACE_EVERY; i++) {
+      normalizer.normalize("SELECT c WHERE id = " + i);
+    }
+    assertThat(normalizer.cache).containsOnlyKeys("SELECT a", "SELECT b");
+
+    // but a new working set still gets in
+    normalizer.normalize("SELECT d");
+    assertThat(normalizer.cache).hasSize(2).containsKey("SELECT d");
+  }
+
+  @Test public void cache_skipsLongStatements() {
+    StringBuilder sql = new StringBuilder("INSERT INTO t VALUES (0)");
+    while (sql.length() <= SqlNormalizer.MAX_CACHED_LENGTH) sql.append(", (0)");
+
+    assertThat(normalizer.normalize(sql.toString()).name()).isEqualTo("INSERT t");
+    assertThat(normalizer.cache).isEmpty();
+  }
+
+  @Test public void cache_disabled() {
+    normalizer = SqlNormalizer.create(0);
+    normalizer.normalize("SELECT 1");
+
+    assertThat(normalizer.cache).isEmpty();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void maxSize_cantBeNegative() {
+    SqlNormalizer.create(-1);
+  }
+
+  void assertQuery(String sql, String expected) {
+    assertThat(normalizer.normalize(sql).query()).isEqualTo(expected);
+  }
+
+  void assertName(String sql, String expected) {
+    assertThat(normalizer.normalize(sql).name()).isEqualTo(expected);
+  }
+}
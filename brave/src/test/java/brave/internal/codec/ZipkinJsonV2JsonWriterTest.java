@@ -1,5 +1,5 @@
 /*
- * Copyright 2013-2020 The OpenZipkin Authors
+ * Copyright 2013-2022 The OpenZipkin Authors
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
  * in compliance with the License. You may obtain a copy of the License at
@@ -110,4 +110,65 @@ public class ZipkinJsonV2JsonWriterTest {
       + "\"tags\":{\"http.path\":\"/api\",\"clnt/finagle.version\":\"6.45.0\"}"
       + "}");
   }
+
+  @Test public void writeLinks() {
+    MutableSpan span = new MutableSpan();
+    span.traceId("1");
+    span.id("2");
+    span.error(new RuntimeException("boom"));
+    for (int i = 1; i <= 11; i++) span.link("a", Integer.toHexString(i));
+
+    WriteBuffer buffer = new WriteBuffer(new byte[1024], 0);
+    jsonWriter.write(span, buffer);
+
+    String linkTags = "";
+    for (int i = 1; i <= 11; i++) {
+      linkTags += ",\"link." + (i - 1) + "\":\"000000000000000a-"
+        + "000000000000000" + Integer.toHexString(i) + "\"";
+    }
+    assertThat(buffer.toString()).isEqualTo("{"
+      + "\"traceId\":\"0000000000000001\",\"id\":\"0000000000000002\","
+      + "\"tags\":{\"error\":\"boom\"" + linkTags + "}"
+      + "}");
+    assertThat(jsonWriter.sizeInBytes(span)).isEqualTo(buffer.pos);
+  }
+
+  @Test public void writeLinks_onlyLinks() {
+    MutableSpan span = new MutableSpan();
+    span.link("463ac35c9f6413ad48485a3953bb6124", "a2fb4a1d1a96d312");
+
+    jsonWriter.write(span, buffer);
+
+    assertThat(buffer.toString()).isEqualTo(
+      "{\"tags\":{\"link.0\":\"463ac35c9f6413ad48485a3953bb6124-a2fb4a1d1a96d312\"}}");
+    assertThat(jsonWriter.sizeInBytes(span)).isEqualTo(buffer.pos);
+  }
+
+  /** Duplicate keys are invalid JSON, so a user tag wins over a link tag of the same name. */
+  @Test public void writeLinks_skipsLinkTagNamedLikeUserTag() {
+    MutableSpan span = new MutableSpan();
+    span.tag("link.0", "mine");
+    span.tag("link.01", "not a link index");
+    span.link("a", "b");
+    span.link("c", "d");
+
+    jsonWriter.write(span, buffer);
+
+    assertThat(buffer.toString()).isEqualTo("{\"tags\":{"
+      + "\"link.0\":\"mine\",\"link.01\":\"not a link index\","
+      + "\"link.1\":\"000000000000000c-000000000000000d\""
+      + "}}");
+    assertThat(jsonWriter.sizeInBytes(span)).isEqualTo(buffer.pos);
+  }
+
+  @Test public void isLinkTagKey() {
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("link.0", 0)).isTrue();
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("link.12", 12)).isTrue();
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("link.12", 1)).isFalse();
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("link.", 0)).isFalse();
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("link.00", 0)).isFalse();
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("link.x", 0)).isFalse();
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("links.0", 0)).isFalse();
+    assertThat(ZipkinV2JsonWriter.isLinkTagKey("link.99999999999", 0)).isFalse();
+  }
 }
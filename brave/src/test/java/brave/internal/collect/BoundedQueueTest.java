@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.collect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BoundedQueueTest {
+  BoundedQueue<Integer> queue = new BoundedQueue<>(3);
+
+  @Test public void capacity_roundsUpToPowerOfTwo() {
+    assertThat(queue.capacity()).isEqualTo(4);
+    assertThat(new BoundedQueue<>(1).capacity()).isEqualTo(1);
+    assertThat(new BoundedQueue<>(1024).capacity()).isEqualTo(1024);
+  }
+
+  @Test public void capacity_invalid() {
+    assertThatThrownBy(() -> new BoundedQueue<>(0))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void offer_null() {
+    assertThatThrownBy(() -> queue.offer(null))
+      .isInstanceOf(NullPointerException.class);
+  }
+
+  @Test public void offerAndPoll_fifo() {
+    for (int i = 0; i < 4; i++) assertThat(queue.offer(i)).isTrue();
+    assertThat(queue.offer(4)).isFalse(); // full
+    assertThat(queue.size()).isEqualTo(4);
+
+    for (int i = 0; i < 4; i++) assertThat(queue.poll()).isEqualTo(i);
+    assertThat(queue.poll()).isNull();
+    assertThat(queue.isEmpty()).isTrue();
+  }
+
+  @Test public void offerAndPoll_wrapsAround() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(queue.offer(i)).isTrue();
+      assertThat(queue.poll()).isEqualTo(i);
+    }
+    assertThat(queue.isEmpty()).isTrue();
+  }
+
+  @Test public void drainTo_respectsMax() {
+    for (int i = 0; i < 4; i++) queue.offer(i);
+
+    List<Integer> drained = new ArrayList<>();
+    assertThat(queue.drainTo(drained, 3)).isEqualTo(3);
+    assertThat(drained).containsExactly(0, 1, 2);
+    assertThat(queue.size()).isEqualTo(1);
+  }
+
+  @Test public void concurrentProducers_noLossWhenDrained() throws Exception {
+    BoundedQueue<Integer> queue = new BoundedQueue<>(1 << 16);
+    int threads = 4, perThread = 10000;
+    AtomicInteger offered = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      executor.execute(() -> {
+        for (int i = 0; i < perThread; i++) {
+          if (queue.offer(i)) offered.incrementAndGet();
+        }
+      });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    List<Integer> drained = new ArrayList<>();
+    queue.drainTo(drained, Integer.MAX_VALUE);
+    assertThat(drained).hasSize(offered.get()).hasSize(threads * perThread);
+  }
+}
@@ -56,16 +56,17 @@ public class PendingSpansTest {
     Collections.emptyList()
   );
   AtomicInteger clock = new AtomicInteger();
+  MutableSpan defaultSpan = new MutableSpan();
+  Clock fakeClock = () -> this.clock.incrementAndGet() * 1000L;
+  SpanHandler handler;
   PendingSpans pendingSpans;
 
   @Before public void init() {
-    MutableSpan defaultSpan = new MutableSpan();
     defaultSpan.localServiceName("favistar");
     defaultSpan.localIp("1.2.3.4");
-    Clock clock = () -> this.clock.incrementAndGet() * 1000L;
     SpanHandler orphanTracker =
-        OrphanTracker.newBuilder().defaultSpan(defaultSpan).clock(clock).build();
-    pendingSpans = new PendingSpans(defaultSpan, clock, new SpanHandler() {
+        OrphanTracker.newBuilder().defaultSpan(defaultSpan).clock(fakeClock).build();
+    handler = new SpanHandler() {
       @Override
       public boolean begin(TraceContext ctx, MutableSpan span, @Nullable TraceContext parent) {
         contexts.add(ctx);
@@ -77,7 +78,8 @@ public class PendingSpansTest {
         spans.end(ctx, span, cause);
         return true;
       }
-    }, new AtomicBoolean());
+    };
+    pendingSpans = new PendingSpans(defaultSpan, fakeClock, handler, new AtomicBoolean());
   }
 
   @Test
@@ -161,7 +163,7 @@ public class PendingSpansTest {
     context1 = context2 = null;
     GarbageCollectors.blockOnGC();
 
-    pendingSpans.expungeStaleEntries();
+    pendingSpans.reportOrphans();
 
     assertThat(spans).hasSize(2);
     // orphaned without data
@@ -192,7 +194,7 @@ public class PendingSpansTest {
     // By clearing strong references in this test, we are left with the weak ones in the map
     context1 = context2 = null;
 
-    pendingSpans.expungeStaleEntries();
+    pendingSpans.reportOrphans();
 
     // since this is noop, we don't expect any spans to be reported
     assertThat(spans).isEmpty();
@@ -210,7 +212,7 @@ public class PendingSpansTest {
     context = null;
 
     GarbageCollectors.blockOnGC();
-    pendingSpans.expungeStaleEntries();
+    pendingSpans.reportOrphans();
 
     assertThat(contexts).hasSize(1);
     assertThat(contexts.get(0)).isEqualTo(context1); // ID comparision is the same
@@ -227,10 +229,127 @@ public class PendingSpansTest {
     context = null;
 
     GarbageCollectors.blockOnGC();
-    pendingSpans.expungeStaleEntries();
+    pendingSpans.reportOrphans();
 
     assertThat(contexts).hasSize(1);
     assertThat(InternalPropagation.instance.flags(contexts.get(0)))
       .isEqualTo(InternalPropagation.instance.flags(context1)); // no flags lost
   }
+
+  @Test
+  public void reapInBackground_doesntReportOrphansInline() {
+    pendingSpans =
+      new PendingSpans(defaultSpan, fakeClock, handler, new AtomicBoolean(), 1, true, 0L);
+    TraceContext context = this.context.toBuilder().build();
+    pendingSpans.getOrCreate(null, context, false).state().tag("foo", "bar");
+    context = null;
+
+    GarbageCollectors.blockOnGC();
+    pendingSpans.get(this.context); // would normally report orphans
+    assertThat(spans).isEmpty();
+
+    // the reaper reports them instead
+    pendingSpans.reportOrphans();
+
+    assertThat(spans).hasSize(1);
+    assertThat(spans.get(0).containsAnnotation("brave.flush")).isTrue();
+  }
+
+  @Test
+  public void flushOlderThanMaxAge() {
+    pendingSpans =
+      new PendingSpans(defaultSpan, fakeClock, handler, new AtomicBoolean(), 1, true, 1000L);
+    TraceContext context2 = context.toBuilder().spanId(2).build();
+    PendingSpan old = pendingSpans.getOrCreate(null, context, true);
+    old.state().tag("foo", "bar");
+    PendingSpan young = pendingSpans.getOrCreate(null, context2, true);
+    young.createdNanos = old.createdNanos + 1000L;
+
+    pendingSpans.flushOlderThanMaxAge(old.createdNanos + 1000L);
+
+    assertThat(spans).hasSize(1);
+    assertThat(spans.get(0).id()).isEqualTo(context.spanIdString());
+    assertThat(spans.get(0).tags()).containsEntry("foo", "bar");
+    assertThat(spans.get(0).containsAnnotation("brave.flush")).isTrue();
+    assertThat(spans.get(0).finishTimestamp()).isZero();
+
+    assertThat(pendingSpans.get(context)).isNull();
+    assertThat(pendingSpans.get(context2)).isSameAs(young);
+  }
+
+  @Test
+  public void flushOlderThanMaxAge_noop() {
+    AtomicBoolean noop = new AtomicBoolean(true);
+    pendingSpans = new PendingSpans(defaultSpan, fakeClock, handler, noop, 1, true, 1000L);
+    PendingSpan old = pendingSpans.getOrCreate(null, context, false);
+
+    pendingSpans.flushOlderThanMaxAge(old.createdNanos + 1000L);
+
+    assertThat(spans).isEmpty();
+    assertThat(pendingSpans.get(context)).isNull();
+  }
+
+  @Test
+  public void stripeCount() {
+    assertThat(PendingSpans.stripeCount(1)).isEqualTo(1);
+    assertThat(PendingSpans.stripeCount(3)).isEqualTo(4);
+    assertThat(PendingSpans.stripeCount(64)).isEqualTo(64);
+    assertThat(PendingSpans.stripeCount(96)).isEqualTo(64);
+  }
+
+  @Test
+  public void striped_spansAreFoundAndReported() {
+    pendingSpans =
+      new PendingSpans(defaultSpan, fakeClock, handler, new AtomicBoolean(), 8, false, 0L);
+    List<TraceContext> contexts = new ArrayList<>();
+    for (long i = 1; i <= 100; i++) {
+      TraceContext context = this.context.toBuilder().traceId(i).spanId(i).build();
+      contexts.add(context);
+      pendingSpans.getOrCreate(null, context, false);
+    }
+
+    // an equivalent, but different instance, is found in the same stripe
+    for (TraceContext context : contexts) {
+      assertThat(pendingSpans.get(context.toBuilder().build()).context()).isSameAs(context);
+    }
+
+    for (TraceContext context : contexts) pendingSpans.finish(context, 1L);
+    assertThat(spans).hasSize(100);
+  }
+
+  @Test
+  public void striped_reportsOrphansFromAllStripes() {
+    pendingSpans =
+      new PendingSpans(defaultSpan, fakeClock, handler, new AtomicBoolean(), 8, false, 0L);
+    for (long i = 1; i <= 100; i++) {
+      pendingSpans.getOrCreate(null, context.toBuilder().traceId(i).spanId(i).build(), false)
+        .state().tag("foo", "bar");
+    }
+
+    GarbageCollectors.blockOnGC();
+    pendingSpans.reportOrphans();
+
+    assertThat(spans).hasSize(100);
+  }
+
+  /** Operations on one stripe eventually report orphans in the others. */
+  @Test
+  public void striped_operationsPeriodicallyReportOrphansFromAllStripes() {
+    pendingSpans =
+      new PendingSpans(defaultSpan, fakeClock, handler, new AtomicBoolean(), 8, false, 0L);
+    for (long i = 1; i <= 100; i++) {
+      pendingSpans.getOrCreate(null, context.toBuilder().traceId(i).spanId(i).build(), false)
+        .state().tag("foo", "bar");
+    }
+
+    GarbageCollectors.blockOnGC();
+    for (int i = 0; i < 8; i++) pendingSpans.get(context);
+
+    assertThat(spans).hasSize(100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void stripeCount_mustBePowerOfTwo() {
+    new PendingSpans(defaultSpan, fakeClock, handler, new AtomicBoolean(), 3, false, 0L);
+  }
 }
@@ -15,6 +15,7 @@ package brave.propagation;
 
 import brave.Request;
 import brave.Span;
+import brave.internal.InternalPropagation;
 import brave.internal.Platform;
 import brave.propagation.B3Propagation.Format;
 import brave.propagation.Propagation.RemoteSetter;
@@ -249,6 +250,88 @@ public class B3PropagationTest {
       .containsEntry("b3", traceId + "-" + spanId + "-" + parentId);
   }
 
+  @Test public void cacheHeaderValues_reusesEncodedValue() {
+    Propagation.Factory factory = B3Propagation.newFactoryBuilder()
+      .injectFormat(Format.SINGLE)
+      .cacheHeaderValues(true)
+      .build();
+    TraceContext decorated = factory.decorate(context);
+
+    Injector<Map<String, String>> injector = factory.get().injector(Map::put);
+    Map<String, String> request1 = new LinkedHashMap<>(), request2 = new LinkedHashMap<>();
+    injector.inject(decorated, request1);
+    injector.inject(decorated, request2);
+
+    assertThat(request1.get("b3"))
+      .isEqualTo(traceId + "-" + spanId + "-" + parentId)
+      .isSameAs(request2.get("b3"));
+  }
+
+  @Test public void cacheHeaderValues_singleNoParent() {
+    Propagation.Factory factory = B3Propagation.newFactoryBuilder()
+      .injectFormat(Format.SINGLE_NO_PARENT)
+      .cacheHeaderValues(true)
+      .build();
+    TraceContext decorated = factory.decorate(context);
+
+    Injector<Map<String, String>> injector = factory.get().injector(Map::put);
+    Map<String, String> request1 = new LinkedHashMap<>(), request2 = new LinkedHashMap<>();
+    injector.inject(decorated, request1);
+    injector.inject(decorated, request2);
+
+    assertThat(request1.get("b3"))
+      .isEqualTo(traceId + "-" + spanId)
+      .isSameAs(request2.get("b3"));
+  }
+
+  @Test public void cacheHeaderValues_decorateIsIdempotent() {
+    Propagation.Factory factory = B3Propagation.newFactoryBuilder()
+      .cacheHeaderValues(true)
+      .build();
+    TraceContext decorated = factory.decorate(context);
+
+    assertThat(decorated.findExtra(B3HeaderCache.class)).isNotNull();
+    assertThat(factory.decorate(decorated)).isSameAs(decorated);
+  }
+
+  /** Children inherit the extra list of their parent, but shouldn't inherit its header values. */
+  @Test public void cacheHeaderValues_replacesInheritedCache() {
+    Propagation.Factory factory = B3Propagation.newFactoryBuilder()
+      .cacheHeaderValues(true)
+      .build();
+    TraceContext parent = factory.decorate(context);
+    assertThat(B3HeaderCache.b3SingleFormat(parent))
+      .isEqualTo(traceId + "-" + spanId + "-" + parentId);
+
+    TraceContext child = factory.decorate(InternalPropagation.instance.newTraceContext(
+      0, 0L, 1L, 1L, 3L, 4L, parent.extra()));
+
+    assertThat(child.extra()).hasSize(1);
+    assertThat(child.findExtra(B3HeaderCache.class))
+      .isNotSameAs(parent.findExtra(B3HeaderCache.class));
+    assertThat(B3HeaderCache.b3SingleFormat(child))
+      .isEqualTo(traceId + "-0000000000000004-" + spanId);
+  }
+
+  /** Contexts can copy the extra list without decoration, such as when the sampled flag changes */
+  @Test public void cacheHeaderValues_ignoresCacheOfOtherContext() {
+    Propagation.Factory factory = B3Propagation.newFactoryBuilder()
+      .cacheHeaderValues(true)
+      .build();
+    TraceContext decorated = factory.decorate(context);
+    B3HeaderCache.b3SingleFormat(decorated);
+
+    TraceContext sampled = decorated.toBuilder().sampled(true).build();
+    assertThat(B3HeaderCache.b3SingleFormat(sampled))
+      .isEqualTo(traceId + "-" + spanId + "-1-" + parentId);
+  }
+
+  @Test public void cacheHeaderValues_disabledByDefault() {
+    assertThat(B3Propagation.FACTORY.decorate(context)).isSameAs(context);
+    assertThat(B3Propagation.newFactoryBuilder().cacheHeaderValues(true).build())
+      .isNotEqualTo(B3Propagation.FACTORY);
+  }
+
   @Test public void extract_notYetSampled() {
     Map<String, String> headers = new LinkedHashMap<>();
     headers.put("X-B3-TraceId", traceId);
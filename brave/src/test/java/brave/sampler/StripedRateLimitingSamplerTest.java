@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.sampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static brave.sampler.RateLimitingSampler.NANOS_PER_DECISECOND;
+import static brave.sampler.RateLimitingSampler.NANOS_PER_SECOND;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StripedRateLimitingSamplerTest {
+
+  @Test public void samplesOnlySpecifiedNumber_acrossStripes() {
+    StripedRateLimitingSampler sampler = new StripedRateLimitingSampler(4, 2, NANOS_PER_SECOND);
+
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND + 1)).isTrue();
+    assertThat(sampler.isSampled(1, NANOS_PER_SECOND + 1)).isTrue();
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND + 1)).isTrue();
+    assertThat(sampler.isSampled(1, NANOS_PER_SECOND + 1)).isTrue();
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND + 1)).isFalse();
+    assertThat(sampler.isSampled(1, NANOS_PER_SECOND + 1)).isFalse();
+  }
+
+  /** A busy stripe can use the share of an idle one, without exceeding the total rate. */
+  @Test public void borrowsFromOtherStripes() {
+    StripedRateLimitingSampler sampler = new StripedRateLimitingSampler(4, 2, NANOS_PER_SECOND);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(sampler.isSampled(0, NANOS_PER_SECOND + 1))
+        .withFailMessage("failed after " + (i + 1))
+        .isTrue();
+    }
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND + 1)).isFalse();
+    assertThat(sampler.isSampled(1, NANOS_PER_SECOND + 1)).isFalse();
+  }
+
+  @Test public void allowsOddRates() {
+    StripedRateLimitingSampler sampler = new StripedRateLimitingSampler(23, 4, NANOS_PER_SECOND);
+
+    long lastDecisecond = NANOS_PER_SECOND + NANOS_PER_DECISECOND * 9;
+    for (int i = 0; i < 23; i++) {
+      assertThat(sampler.isSampled(i & 3, lastDecisecond))
+        .withFailMessage("failed after " + (i + 1))
+        .isTrue();
+    }
+    assertThat(sampler.isSampled(0, lastDecisecond)).isFalse();
+  }
+
+  @Test public void spreadsAcrossDeciseconds() {
+    StripedRateLimitingSampler sampler = new StripedRateLimitingSampler(40, 2, NANOS_PER_SECOND);
+
+    // 2 stripes of 20/s allow 2 each per decisecond
+    for (int i = 0; i < 4; i++) assertThat(sampler.isSampled(0, NANOS_PER_SECOND)).isTrue();
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND)).isFalse();
+
+    // Once exhausted, the next decisecond allows more, including borrowing
+    long nextDecisecond = NANOS_PER_SECOND + NANOS_PER_DECISECOND;
+    for (int i = 0; i < 4; i++) assertThat(sampler.isSampled(1, nextDecisecond)).isTrue();
+    assertThat(sampler.isSampled(1, nextDecisecond)).isFalse();
+  }
+
+  @Test public void resetsAfterASecond() {
+    StripedRateLimitingSampler sampler = new StripedRateLimitingSampler(2, 2, NANOS_PER_SECOND);
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND)).isTrue();
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND)).isTrue();
+    assertThat(sampler.isSampled(0, NANOS_PER_SECOND)).isFalse();
+
+    assertThat(sampler.isSampled(1, NANOS_PER_SECOND * 2)).isTrue();
+    assertThat(sampler.isSampled(1, NANOS_PER_SECOND * 2)).isTrue();
+    assertThat(sampler.isSampled(1, NANOS_PER_SECOND * 2)).isFalse();
+  }
+
+  @Test public void resetsAfterALongGap() {
+    StripedRateLimitingSampler sampler = new StripedRateLimitingSampler(20, 2, 0L);
+
+    // Try a really long time later. Makes sure extra credit isn't given
+    long later = TimeUnit.DAYS.toNanos(365);
+    assertThat(sampler.isSampled(0, later)).isTrue();
+    assertThat(sampler.isSampled(0, later)).isTrue();
+    assertThat(sampler.isSampled(0, later)).isFalse(); // we took the credit of the 1st decisecond
+  }
+
+  @Test public void worksOnRollover() {
+    StripedRateLimitingSampler sampler = new StripedRateLimitingSampler(2, 2, -NANOS_PER_SECOND);
+    assertThat(sampler.isSampled(0, -NANOS_PER_SECOND)).isTrue();
+    assertThat(sampler.isSampled(1, -NANOS_PER_SECOND / 2)).isTrue();
+    assertThat(sampler.isSampled(0, -NANOS_PER_SECOND / 4)).isFalse();
+
+    assertThat(sampler.isSampled(0, 0L)).isTrue(); // reset
+  }
+
+  @Test public void neverExceedsRate_concurrently() throws InterruptedException {
+    int tracesPerSecond = 1000;
+    StripedRateLimitingSampler sampler =
+      new StripedRateLimitingSampler(tracesPerSecond, 8, System.nanoTime());
+    AtomicInteger sampled = new AtomicInteger();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread(() -> {
+        for (int j = 0; j < 100_000; j++) {
+          if (sampler.isSampled(0L)) sampled.incrementAndGet();
+        }
+      });
+      threads.add(thread);
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + 1;
+
+    assertThat(sampled.get()).isBetween(1, (int) (tracesPerSecond * seconds));
+  }
+
+  @Test public void stripeCount() {
+    assertThat(StripedRateLimitingSampler.stripeCount(1, 1000)).isEqualTo(1);
+    assertThat(StripedRateLimitingSampler.stripeCount(6, 1000)).isEqualTo(8);
+    assertThat(StripedRateLimitingSampler.stripeCount(128, 1000)).isEqualTo(64);
+    // each stripe has at least one trace per second
+    assertThat(StripedRateLimitingSampler.stripeCount(64, 5)).isEqualTo(4);
+    assertThat(StripedRateLimitingSampler.stripeCount(64, 1)).isEqualTo(1);
+  }
+
+  @Test public void singleStripeIsRateLimitingSampler() {
+    assertThat(StripedRateLimitingSampler.create(1)).isInstanceOf(RateLimitingSampler.class);
+  }
+
+  @Test public void zeroMeansDropAllTraces() {
+    assertThat(StripedRateLimitingSampler.create(0)).isSameAs(Sampler.NEVER_SAMPLE);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tracesPerSecond_cantBeNegative() {
+    StripedRateLimitingSampler.create(-1);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.completionstage;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.TraceContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Prevents traces from breaking in {@link CompletionStage} chains, including those that run on
+ * the {@linkplain java.util.concurrent.ForkJoinPool#commonPool() common pool}, where {@link
+ * CurrentTraceContext#executor(Executor)} cannot be used.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * completionStageTracing = CompletionStageTracing.create(tracing.currentTraceContext());
+ *
+ * // the supplier and each dependent function see the trace context in scope now
+ * completionStageTracing.supplyAsync(() -> lookup(id))
+ *   .thenApplyAsync(this::render)
+ *   .thenAccept(this::send);
+ * }</pre>
+ *
+ * <p>Each dependent stage captures the trace context once, when it is created. This is the one in
+ * scope at the time, or if there is none, the one of the stage it depends on. Functions are then
+ * run with {@link CurrentTraceContext#maybeScope(TraceContext)}, so there is no scope change when
+ * they complete on a thread that already has the trace context. When there is no trace context,
+ * functions are passed through unwrapped.
+ *
+ * <p>Stages returned by {@link CompletionStage#toCompletableFuture()} are not decorated, so
+ * functions added to them run with whatever is in scope on the completing thread.
+ */
+public final class CompletionStageTracing {
+  public static CompletionStageTracing create(CurrentTraceContext currentTraceContext) {
+    return new CompletionStageTracing(currentTraceContext);
+  }
+
+  final CurrentTraceContext currentTraceContext;
+
+  CompletionStageTracing(CurrentTraceContext currentTraceContext) {
+    if (currentTraceContext == null) throw new NullPointerException("currentTraceContext == null");
+    this.currentTraceContext = currentTraceContext;
+  }
+
+  /**
+   * Decorates the input so that dependent stages run in the trace context current now, unless
+   * another is in scope when they are added.
+   */
+  public <T> CompletionStage<T> decorate(CompletionStage<T> delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    if (delegate instanceof TracingCompletionStage) return delegate;
+    return new TracingCompletionStage<>(delegate, currentTraceContext, currentTraceContext.get());
+  }
+
+  /** Like {@link CompletableFuture#supplyAsync(Supplier)}, except traced. */
+  public <U> CompletionStage<U> supplyAsync(Supplier<U> supplier) {
+    TraceContext context = currentTraceContext.get();
+    Supplier<U> wrapped = TracingCompletionStage.wrap(currentTraceContext, context, supplier);
+    return new TracingCompletionStage<>(
+      CompletableFuture.supplyAsync(wrapped), currentTraceContext, context);
+  }
+
+  /** Like {@link CompletableFuture#supplyAsync(Supplier, Executor)}, except traced. */
+  public <U> CompletionStage<U> supplyAsync(Supplier<U> supplier, Executor executor) {
+    TraceContext context = currentTraceContext.get();
+    Supplier<U> wrapped = TracingCompletionStage.wrap(currentTraceContext, context, supplier);
+    return new TracingCompletionStage<>(
+      CompletableFuture.supplyAsync(wrapped, executor), currentTraceContext, context);
+  }
+
+  /** Like {@link CompletableFuture#runAsync(Runnable)}, except traced. */
+  public CompletionStage<Void> runAsync(Runnable runnable) {
+    TraceContext context = currentTraceContext.get();
+    Runnable wrapped = TracingCompletionStage.wrap(currentTraceContext, context, runnable);
+    return new TracingCompletionStage<>(
+      CompletableFuture.runAsync(wrapped), currentTraceContext, context);
+  }
+
+  /** Like {@link CompletableFuture#runAsync(Runnable, Executor)}, except traced. */
+  public CompletionStage<Void> runAsync(Runnable runnable, Executor executor) {
+    TraceContext context = currentTraceContext.get();
+    Runnable wrapped = TracingCompletionStage.wrap(currentTraceContext, context, runnable);
+    return new TracingCompletionStage<>(
+      CompletableFuture.runAsync(wrapped, executor), currentTraceContext, context);
+  }
+
+  @Override public String toString() {
+    return "CompletionStageTracing{currentTraceContext=" + currentTraceContext + "}";
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.completionstage;
+
+import brave.internal.Nullable;
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decorates each function with the trace context captured when it was added, and each resulting
+ * stage with the same, so that it is inherited when there is nothing in scope later.
+ *
+ * <p>Methods added after Java 8, such as {@code exceptionallyAsync}, are default methods
+ * implemented with {@link #handle(BiFunction)} and {@link #thenCompose(Function)}, so are traced
+ * without being overridden here.
+ */
+final class TracingCompletionStage<T> implements CompletionStage<T> {
+  final CompletionStage<T> delegate;
+  final CurrentTraceContext currentTraceContext;
+  @Nullable final TraceContext context;
+
+  TracingCompletionStage(CompletionStage<T> delegate, CurrentTraceContext currentTraceContext,
+    @Nullable TraceContext context) {
+    this.delegate = delegate;
+    this.currentTraceContext = currentTraceContext;
+    this.context = context;
+  }
+
+  /** The trace context in scope is more specific than the one this stage was created with. */
+  @Nullable TraceContext context() {
+    TraceContext result = currentTraceContext.get();
+    return result != null ? result : context;
+  }
+
+  <U> CompletionStage<U> decorate(CompletionStage<U> stage, @Nullable TraceContext context) {
+    return new TracingCompletionStage<>(stage, currentTraceContext, context);
+  }
+
+  @Override public <U> CompletionStage<U> thenApply(Function<? super T, ? extends U> fn) {
+    TraceContext context = context();
+    return decorate(delegate.thenApply(wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+    TraceContext context = context();
+    return decorate(delegate.thenApplyAsync(wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn,
+    Executor executor) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenApplyAsync(wrap(currentTraceContext, context, fn), executor), context);
+  }
+
+  @Override public CompletionStage<Void> thenAccept(Consumer<? super T> action) {
+    TraceContext context = context();
+    return decorate(delegate.thenAccept(wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action) {
+    TraceContext context = context();
+    return decorate(delegate.thenAcceptAsync(wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override
+  public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenAcceptAsync(wrap(currentTraceContext, context, action), executor), context);
+  }
+
+  @Override public CompletionStage<Void> thenRun(Runnable action) {
+    TraceContext context = context();
+    return decorate(delegate.thenRun(wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<Void> thenRunAsync(Runnable action) {
+    TraceContext context = context();
+    return decorate(delegate.thenRunAsync(wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<Void> thenRunAsync(Runnable action, Executor executor) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenRunAsync(wrap(currentTraceContext, context, action), executor), context);
+  }
+
+  @Override public <U, V> CompletionStage<V> thenCombine(CompletionStage<? extends U> other,
+    BiFunction<? super T, ? super U, ? extends V> fn) {
+    TraceContext context = context();
+    return decorate(delegate.thenCombine(other, wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+    BiFunction<? super T, ? super U, ? extends V> fn) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenCombineAsync(other, wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+    BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenCombineAsync(other, wrap(currentTraceContext, context, fn), executor), context);
+  }
+
+  @Override public <U> CompletionStage<Void> thenAcceptBoth(CompletionStage<? extends U> other,
+    BiConsumer<? super T, ? super U> action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenAcceptBoth(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public <U> CompletionStage<Void> thenAcceptBothAsync(
+    CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenAcceptBothAsync(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public <U> CompletionStage<Void> thenAcceptBothAsync(
+    CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action,
+    Executor executor) {
+    TraceContext context = context();
+    return decorate(delegate.thenAcceptBothAsync(
+      other, wrap(currentTraceContext, context, action), executor), context);
+  }
+
+  @Override public CompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.runAfterBoth(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override
+  public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.runAfterBothAsync(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other,
+    Runnable action, Executor executor) {
+    TraceContext context = context();
+    return decorate(delegate.runAfterBothAsync(
+      other, wrap(currentTraceContext, context, action), executor), context);
+  }
+
+  @Override public <U> CompletionStage<U> applyToEither(CompletionStage<? extends T> other,
+    Function<? super T, U> fn) {
+    TraceContext context = context();
+    return decorate(
+      delegate.applyToEither(other, wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other,
+    Function<? super T, U> fn) {
+    TraceContext context = context();
+    return decorate(
+      delegate.applyToEitherAsync(other, wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other,
+    Function<? super T, U> fn, Executor executor) {
+    TraceContext context = context();
+    return decorate(delegate.applyToEitherAsync(
+      other, wrap(currentTraceContext, context, fn), executor), context);
+  }
+
+  @Override public CompletionStage<Void> acceptEither(CompletionStage<? extends T> other,
+    Consumer<? super T> action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.acceptEither(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other,
+    Consumer<? super T> action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.acceptEitherAsync(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other,
+    Consumer<? super T> action, Executor executor) {
+    TraceContext context = context();
+    return decorate(delegate.acceptEitherAsync(
+      other, wrap(currentTraceContext, context, action), executor), context);
+  }
+
+  @Override
+  public CompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.runAfterEither(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override
+  public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.runAfterEitherAsync(other, wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other,
+    Runnable action, Executor executor) {
+    TraceContext context = context();
+    return decorate(delegate.runAfterEitherAsync(
+      other, wrap(currentTraceContext, context, action), executor), context);
+  }
+
+  @Override public <U> CompletionStage<U> thenCompose(
+    Function<? super T, ? extends CompletionStage<U>> fn) {
+    TraceContext context = context();
+    return decorate(delegate.thenCompose(wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U> CompletionStage<U> thenComposeAsync(
+    Function<? super T, ? extends CompletionStage<U>> fn) {
+    TraceContext context = context();
+    return decorate(delegate.thenComposeAsync(wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U> CompletionStage<U> thenComposeAsync(
+    Function<? super T, ? extends CompletionStage<U>> fn, Executor executor) {
+    TraceContext context = context();
+    return decorate(
+      delegate.thenComposeAsync(wrap(currentTraceContext, context, fn), executor), context);
+  }
+
+  @Override public CompletionStage<T> exceptionally(Function<Throwable, ? extends T> fn) {
+    TraceContext context = context();
+    return decorate(delegate.exceptionally(wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override
+  public CompletionStage<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+    TraceContext context = context();
+    return decorate(delegate.whenComplete(wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override
+  public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+    TraceContext context = context();
+    return decorate(
+      delegate.whenCompleteAsync(wrap(currentTraceContext, context, action)), context);
+  }
+
+  @Override public CompletionStage<T> whenCompleteAsync(
+    BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+    TraceContext context = context();
+    return decorate(
+      delegate.whenCompleteAsync(wrap(currentTraceContext, context, action), executor), context);
+  }
+
+  @Override
+  public <U> CompletionStage<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+    TraceContext context = context();
+    return decorate(delegate.handle(wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override
+  public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+    TraceContext context = context();
+    return decorate(delegate.handleAsync(wrap(currentTraceContext, context, fn)), context);
+  }
+
+  @Override public <U> CompletionStage<U> handleAsync(
+    BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
+    TraceContext context = context();
+    return decorate(
+      delegate.handleAsync(wrap(currentTraceContext, context, fn), executor), context);
+  }
+
+  /** Functions added to the result are not traced. */
+  @Override public CompletableFuture<T> toCompletableFuture() {
+    return delegate.toCompletableFuture();
+  }
+
+  @Override public String toString() {
+    return "TracingCompletionStage{" + delegate + "}";
+  }
+
+  // The below return the input when there's no trace context. Casts are safe as they only narrow
+  // the wildcard types of the input.
+
+  @SuppressWarnings("unchecked")
+  static <A, R> Function<A, R> wrap(CurrentTraceContext currentTraceContext,
+    @Nullable TraceContext context, Function<? super A, ? extends R> delegate) {
+    if (context == null) return (Function<A, R>) delegate;
+    return a -> {
+      try (Scope scope = currentTraceContext.maybeScope(context)) {
+        return delegate.apply(a);
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  static <A, B, R> BiFunction<A, B, R> wrap(CurrentTraceContext currentTraceContext,
+    @Nullable TraceContext context, BiFunction<? super A, ? super B, ? extends R> delegate) {
+    if (context == null) return (BiFunction<A, B, R>) delegate;
+    return (a, b) -> {
+      try (Scope scope = currentTraceContext.maybeScope(context)) {
+        return delegate.apply(a, b);
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  static <A> Consumer<A> wrap(CurrentTraceContext currentTraceContext,
+    @Nullable TraceContext context, Consumer<? super A> delegate) {
+    if (context == null) return (Consumer<A>) delegate;
+    return a -> {
+      try (Scope scope = currentTraceContext.maybeScope(context)) {
+        delegate.accept(a);
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  static <A, B> BiConsumer<A, B> wrap(CurrentTraceContext currentTraceContext,
+    @Nullable TraceContext context, BiConsumer<? super A, ? super B> delegate) {
+    if (context == null) return (BiConsumer<A, B>) delegate;
+    return (a, b) -> {
+      try (Scope scope = currentTraceContext.maybeScope(context)) {
+        delegate.accept(a, b);
+      }
+    };
+  }
+
+  static <R> Supplier<R> wrap(CurrentTraceContext currentTraceContext,
+    @Nullable TraceContext context, Supplier<R> delegate) {
+    if (context == null) return delegate;
+    return () -> {
+      try (Scope scope = currentTraceContext.maybeScope(context)) {
+        return delegate.get();
+      }
+    };
+  }
+
+  static Runnable wrap(CurrentTraceContext currentTraceContext, @Nullable TraceContext context,
+    Runnable delegate) {
+    if (context == null) return delegate;
+    return () -> {
+      try (Scope scope = currentTraceContext.maybeScope(context)) {
+        delegate.run();
+      }
+    };
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.completionstage;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.propagation.TraceContext;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompletionStageTracingTest {
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  CompletionStageTracing completionStageTracing =
+    CompletionStageTracing.create(currentTraceContext);
+  TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+  TraceContext context2 = TraceContext.newBuilder().traceId(1L).parentId(1L).spanId(2L).build();
+  ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After public void close() {
+    executor.shutdownNow();
+    currentTraceContext.close();
+  }
+
+  @Test public void supplyAsync_commonPool() {
+    CompletionStage<TraceContext> stage;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      stage = completionStageTracing.supplyAsync(currentTraceContext::get);
+    }
+    assertThat(stage.toCompletableFuture().join()).isEqualTo(context);
+  }
+
+  @Test public void supplyAsync_executor() {
+    CompletionStage<TraceContext> stage;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      stage = completionStageTracing.supplyAsync(currentTraceContext::get, executor);
+    }
+    assertThat(stage.toCompletableFuture().join()).isEqualTo(context);
+  }
+
+  @Test public void runAsync_commonPool() {
+    AtomicReference<TraceContext> seen = new AtomicReference<>();
+    CompletionStage<Void> stage;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      stage = completionStageTracing.runAsync(() -> seen.set(currentTraceContext.get()));
+    }
+    stage.toCompletableFuture().join();
+    assertThat(seen.get()).isEqualTo(context);
+  }
+
+  @Test public void thenApplyAsync_inheritsContextOfStage() {
+    CompletionStage<Integer> stage;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      stage = completionStageTracing.supplyAsync(() -> 1);
+    }
+
+    // nothing is in scope here, but the stage was created in one
+    CompletionStage<TraceContext> next = stage.thenApplyAsync(i -> currentTraceContext.get())
+      .thenApply(c -> {
+        assertThat(currentTraceContext.get()).isEqualTo(c);
+        return c;
+      });
+    assertThat(next.toCompletableFuture().join()).isEqualTo(context);
+  }
+
+  @Test public void contextInScope_preferredOverContextOfStage() {
+    CompletionStage<Integer> stage;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      stage = completionStageTracing.supplyAsync(() -> 1);
+    }
+
+    CompletionStage<TraceContext> next;
+    try (Scope scope = currentTraceContext.newScope(context2)) {
+      next = stage.thenApplyAsync(i -> currentTraceContext.get(), executor);
+    }
+    assertThat(next.toCompletableFuture().join()).isEqualTo(context2);
+  }
+
+  @Test public void decorate_completedOnAnotherThread() {
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    AtomicReference<TraceContext> seen = new AtomicReference<>();
+
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      completionStageTracing.decorate(future)
+        .thenAccept(i -> seen.set(currentTraceContext.get()));
+    }
+    executor.submit(() -> future.complete(1));
+
+    future.join();
+    assertThat(seen.get()).isEqualTo(context);
+  }
+
+  @Test public void decorate_alreadyDecorated() {
+    CompletionStage<Integer> stage = completionStageTracing.decorate(new CompletableFuture<>());
+
+    assertThat((Object) completionStageTracing.decorate(stage)).isSameAs(stage);
+  }
+
+  @Test public void noContext_functionsSeeNothingInScope() {
+    CompletionStage<Optional<TraceContext>> stage = completionStageTracing
+      .supplyAsync(() -> 1, executor)
+      .thenApplyAsync(i -> Optional.ofNullable(currentTraceContext.get()), executor);
+
+    assertThat(stage.toCompletableFuture().join()).isEmpty();
+  }
+
+  @Test public void handle_exceptionally_whenComplete() {
+    AtomicReference<TraceContext> whenComplete = new AtomicReference<>();
+    CompletionStage<TraceContext> stage;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      stage = completionStageTracing.<Integer>supplyAsync(() -> {
+        throw new IllegalStateException();
+      }).exceptionally(e -> {
+        assertThat(currentTraceContext.get()).isEqualTo(context);
+        return 1;
+      }).whenCompleteAsync((i, e) -> whenComplete.set(currentTraceContext.get()), executor)
+        .handleAsync((i, e) -> currentTraceContext.get());
+    }
+
+    assertThat(stage.toCompletableFuture().join()).isEqualTo(context);
+    assertThat(whenComplete.get()).isEqualTo(context);
+  }
+
+  @Test public void thenCombine_thenCompose() {
+    CompletableFuture<Integer> other = new CompletableFuture<>();
+    CompletionStage<TraceContext> stage;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      stage = completionStageTracing.supplyAsync(() -> 1)
+        .thenCombineAsync(other, Integer::sum, executor)
+        .thenCompose(i -> CompletableFuture.completedFuture(currentTraceContext.get()));
+    }
+    executor.submit(() -> other.complete(2));
+
+    assertThat(stage.toCompletableFuture().join()).isEqualTo(context);
+  }
+
+  @Test public void scopeClosedAfterwards() {
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      completionStageTracing.runAsync(() -> {
+      }, executor).toCompletableFuture().join();
+    }
+
+    CompletableFuture<Optional<TraceContext>> next = CompletableFuture.supplyAsync(
+      () -> Optional.ofNullable(currentTraceContext.get()), executor);
+    assertThat(next.join()).isEmpty();
+  }
+
+  @Test public void toString_includesCurrentTraceContext() {
+    assertThat(completionStageTracing)
+      .hasToString("CompletionStageTracing{currentTraceContext=" + currentTraceContext + "}");
+  }
+}
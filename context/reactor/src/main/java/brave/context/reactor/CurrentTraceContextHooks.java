@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.reactor;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.TraceContext;
+import java.util.function.Function;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Prevents traces from breaking during Reactor operations by carrying the trace context in the
+ * subscriber {@link reactor.util.context.Context} and only placing it in scope where a thread
+ * hop could lose it.
+ *
+ * <p>Unlike assembly tracking, which wraps every operator, this adds a wrapper per subscription
+ * and a wrapper per scheduled task:
+ * <ul>
+ *   <li>When a {@link Mono} or {@link Flux} is subscribed, the trace context is read from the
+ *   current thread, or otherwise the subscriber context under the key {@code TraceContext.class}.
+ *   The subscription is made in scope and the subscriber context is updated to include it.</li>
+ *   <li>Signals to the subscriber are in scope, which is a no-op when they are delivered on a
+ *   thread that already has it.</li>
+ *   <li>Tasks scheduled with Reactor {@link Schedulers} run in the scope of the thread that
+ *   scheduled them. This is how callbacks after {@code publishOn} or {@code subscribeOn} see the
+ *   trace context.</li>
+ * </ul>
+ *
+ * <p>Subscriptions that have no trace context, and tasks scheduled without one, are not wrapped.
+ */
+public final class CurrentTraceContextHooks {
+  /** Hooks are keyed so that they compose with others, such as Reactor's own debug hooks. */
+  static final String HOOK_KEY = CurrentTraceContextHooks.class.getName();
+
+  public static CurrentTraceContextHooks create(CurrentTraceContext currentTraceContext) {
+    return new CurrentTraceContextHooks(currentTraceContext);
+  }
+
+  final CurrentTraceContext currentTraceContext;
+
+  CurrentTraceContextHooks(CurrentTraceContext currentTraceContext) {
+    if (currentTraceContext == null) throw new NullPointerException("currentTraceContext == null");
+    this.currentTraceContext = currentTraceContext;
+  }
+
+  /**
+   * Enables the hooks, replacing any previously enabled by this type.
+   *
+   * @see #disable()
+   */
+  public void enable() {
+    Hooks.onLastOperator(HOOK_KEY, new LastOperator(currentTraceContext));
+    Schedulers.onScheduleHook(HOOK_KEY, new ScheduleHook(currentTraceContext));
+  }
+
+  /** Removes the hooks added by {@link #enable()}, leaving others in place. */
+  public static void disable() {
+    Hooks.resetOnLastOperator(HOOK_KEY);
+    Schedulers.resetOnScheduleHook(HOOK_KEY);
+  }
+
+  @Override public String toString() {
+    return "CurrentTraceContextHooks{currentTraceContext=" + currentTraceContext + "}";
+  }
+
+  /** Runs only once per subscription, as opposed to on each operator. */
+  static final class LastOperator
+    implements Function<Publisher<Object>, Publisher<Object>> {
+    final CurrentTraceContext currentTraceContext;
+
+    LastOperator(CurrentTraceContext currentTraceContext) {
+      this.currentTraceContext = currentTraceContext;
+    }
+
+    @Override public Publisher<Object> apply(Publisher<Object> publisher) {
+      if (publisher instanceof Mono) {
+        return new ScopePassingMono<>((Mono<Object>) publisher, currentTraceContext);
+      } else if (publisher instanceof Flux) {
+        return new ScopePassingFlux<>((Flux<Object>) publisher, currentTraceContext);
+      }
+      return publisher; // such as ParallelFlux, whose rails are subscribed as Flux
+    }
+  }
+
+  static final class ScheduleHook implements Function<Runnable, Runnable> {
+    final CurrentTraceContext currentTraceContext;
+
+    ScheduleHook(CurrentTraceContext currentTraceContext) {
+      this.currentTraceContext = currentTraceContext;
+    }
+
+    @Override public Runnable apply(Runnable task) {
+      TraceContext context = currentTraceContext.get();
+      if (context == null) return task;
+      return currentTraceContext.wrap(task);
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.reactor;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+
+final class ScopePassingFlux<T> extends FluxOperator<T, T> {
+  final CurrentTraceContext currentTraceContext;
+
+  ScopePassingFlux(Flux<T> source, CurrentTraceContext currentTraceContext) {
+    super(source);
+    this.currentTraceContext = currentTraceContext;
+  }
+
+  @Override public void subscribe(CoreSubscriber<? super T> actual) {
+    TraceContext context = ScopePassingSubscriber.traceContext(currentTraceContext, actual);
+    if (context == null) {
+      source.subscribe(actual);
+      return;
+    }
+    try (Scope scope = currentTraceContext.maybeScope(context)) {
+      source.subscribe(new ScopePassingSubscriber<>(actual, currentTraceContext, context));
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.reactor;
+
+import brave.internal.Nullable;
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Scannable;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+
+/**
+ * Places the trace context in scope around signals in either direction. This uses {@link
+ * CurrentTraceContext#maybeScope(TraceContext)}, so there is no scope change unless the signal
+ * arrived on a thread without the trace context.
+ *
+ * <p>Fusion is not supported: the same as other wrappers, use of this hides fuseable upstreams.
+ */
+final class ScopePassingSubscriber<T> implements CoreSubscriber<T>, Subscription, Scannable {
+  /**
+   * Returns the trace context in scope, or otherwise the one in the subscriber context. The former
+   * is preferred as it is more specific, for example a child span in scope in a callback.
+   */
+  @Nullable static TraceContext traceContext(CurrentTraceContext currentTraceContext,
+    CoreSubscriber<?> actual) {
+    TraceContext result = currentTraceContext.get();
+    if (result != null) return result;
+    return actual.currentContext().getOrDefault(TraceContext.class, null);
+  }
+
+  final CoreSubscriber<? super T> actual;
+  final CurrentTraceContext currentTraceContext;
+  final TraceContext context;
+  final Context subscriberContext;
+  Subscription upstream;
+
+  ScopePassingSubscriber(CoreSubscriber<? super T> actual,
+    CurrentTraceContext currentTraceContext, TraceContext context) {
+    this.actual = actual;
+    this.currentTraceContext = currentTraceContext;
+    this.context = context;
+    Context subscriberContext = actual.currentContext();
+    // Once per subscription, make the trace context visible to operators such as deferContextual
+    if (subscriberContext.getOrDefault(TraceContext.class, null) != context) {
+      subscriberContext = subscriberContext.put(TraceContext.class, context);
+    }
+    this.subscriberContext = subscriberContext;
+  }
+
+  @Override public Context currentContext() {
+    return subscriberContext;
+  }
+
+  @Override public void onSubscribe(Subscription s) {
+    if (!Operators.validate(upstream, s)) return;
+    upstream = s;
+    try (Scope scope = currentTraceContext.maybeScope(context)) {
+      actual.onSubscribe(this);
+    }
+  }
+
+  @Override public void onNext(T t) {
+    try (Scope scope = currentTraceContext.maybeScope(context)) {
+      actual.onNext(t);
+    }
+  }
+
+  @Override public void onError(Throwable t) {
+    try (Scope scope = currentTraceContext.maybeScope(context)) {
+      actual.onError(t);
+    }
+  }
+
+  @Override public void onComplete() {
+    try (Scope scope = currentTraceContext.maybeScope(context)) {
+      actual.onComplete();
+    }
+  }
+
+  @Override public void request(long n) {
+    try (Scope scope = currentTraceContext.maybeScope(context)) {
+      upstream.request(n);
+    }
+  }
+
+  @Override public void cancel() {
+    try (Scope scope = currentTraceContext.maybeScope(context)) {
+      upstream.cancel();
+    }
+  }
+
+  @Override public Object scanUnsafe(Attr key) {
+    if (key == Attr.PARENT) return upstream;
+    if (key == Attr.ACTUAL) return actual;
+    if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+    return null;
+  }
+
+  @Override public String toString() {
+    return "ScopePassingSubscriber{" + context + "}";
+  }
+}
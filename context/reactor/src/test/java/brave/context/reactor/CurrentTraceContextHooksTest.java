@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.reactor;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.propagation.TraceContext;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CurrentTraceContextHooksTest {
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+  TraceContext context2 = TraceContext.newBuilder().traceId(1L).parentId(1L).spanId(2L).build();
+
+  @Before public void setup() {
+    CurrentTraceContextHooks.create(currentTraceContext).enable();
+  }
+
+  @After public void tearDown() {
+    CurrentTraceContextHooks.disable();
+    currentTraceContext.close();
+  }
+
+  @Test public void subscribeOn_seesContextInScopeAtSubscription() {
+    Mono<TraceContext> mono = Mono.fromCallable(currentTraceContext::get)
+      .subscribeOn(Schedulers.parallel());
+
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      assertThat(mono.block()).isEqualTo(context);
+    }
+  }
+
+  @Test public void publishOn_seesContextInScopeAtSubscription() {
+    Flux<Optional<TraceContext>> flux = Flux.range(1, 3)
+      .publishOn(Schedulers.single())
+      .map(i -> Optional.ofNullable(currentTraceContext.get()));
+
+    List<Optional<TraceContext>> result;
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      result = flux.collectList().block();
+    }
+    assertThat(result).containsOnly(Optional.of(context));
+  }
+
+  @Test public void subscriber_seesContextAfterThreadHop() {
+    Mono<Integer> mono = Mono.just(1).delayElement(Duration.ofMillis(1));
+
+    TraceContext[] seen = new TraceContext[1];
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      mono.doOnNext(i -> seen[0] = currentTraceContext.get()).block();
+    }
+    assertThat(seen[0]).isEqualTo(context);
+  }
+
+  @Test public void subscriberContext_placedInScopeOnInnerSubscription() {
+    Mono<TraceContext> mono = Mono.just(1)
+      .flatMap(i -> Mono.fromCallable(currentTraceContext::get).subscribeOn(Schedulers.parallel()))
+      .contextWrite(Context.of(TraceContext.class, context));
+
+    assertThat(currentTraceContext.get()).isNull();
+    assertThat(mono.block()).isEqualTo(context);
+  }
+
+  @Test public void subscriberContext_includesContextInScope() {
+    Mono<Object> mono = Mono.deferContextual(c -> Mono.just(c.get(TraceContext.class)));
+
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      assertThat(mono.block()).isEqualTo(context);
+    }
+  }
+
+  /** A span in scope, such as a child, is more specific than the subscriber context. */
+  @Test public void contextInScope_preferredOverSubscriberContext() {
+    Mono<TraceContext> mono = Mono.just(1)
+      .flatMap(i -> Mono.fromCallable(currentTraceContext::get).subscribeOn(Schedulers.parallel()))
+      .contextWrite(Context.of(TraceContext.class, context));
+
+    try (Scope scope = currentTraceContext.newScope(context2)) {
+      assertThat(mono.block()).isEqualTo(context2);
+    }
+  }
+
+  @Test public void noContext_notWrapped() {
+    Mono<Boolean> mono = Mono.deferContextual(c -> Mono.just(c.hasKey(TraceContext.class)))
+      .subscribeOn(Schedulers.parallel());
+
+    assertThat(mono.block()).isFalse();
+  }
+
+  @Test public void scopeClosedOnWorkerThreads() {
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      Flux.range(1, 10).publishOn(Schedulers.single()).blockLast();
+    }
+
+    Mono<Optional<TraceContext>> mono =
+      Mono.fromCallable(() -> Optional.ofNullable(currentTraceContext.get()))
+        .subscribeOn(Schedulers.single());
+    assertThat(mono.block()).isEmpty();
+  }
+
+  @Test public void disable_removesHooks() {
+    CurrentTraceContextHooks.disable();
+
+    Mono<Optional<TraceContext>> mono =
+      Mono.fromCallable(() -> Optional.ofNullable(currentTraceContext.get()))
+        .subscribeOn(Schedulers.parallel());
+
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      assertThat(mono.block()).isEmpty();
+    }
+  }
+
+  @Test public void enable_replacesPreviousHooks() {
+    CurrentTraceContext other = StrictCurrentTraceContext.create();
+    CurrentTraceContextHooks.create(other).enable();
+
+    Mono<Optional<TraceContext>> mono =
+      Mono.fromCallable(() -> Optional.ofNullable(currentTraceContext.get()))
+        .subscribeOn(Schedulers.parallel());
+
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      assertThat(mono.block()).isEmpty();
+    }
+  }
+
+  @Test public void toString_includesCurrentTraceContext() {
+    assertThat(CurrentTraceContextHooks.create(currentTraceContext))
+      .hasToString("CurrentTraceContextHooks{currentTraceContext=" + currentTraceContext + "}");
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave;
+
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.internal.Platform;
+import brave.internal.recorder.PendingSpans;
+import brave.propagation.B3Propagation;
+import brave.propagation.ThreadLocalCurrentTraceContext;
+import brave.propagation.TraceContext;
+import brave.sampler.Sampler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Shows how the same operations as {@link TracerBenchmarks} scale with thread count, depending on
+ * how many stripes {@link PendingSpans} has. Compare ops/s at each thread count between a single
+ * stripe (the default) and {@link PendingSpans#defaultStripeCount()}, which is used when {@link
+ * Tracing.Builder#stripePendingSpans(boolean)} is set.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TracerScalingBenchmarks {
+  TraceContext context =
+    TraceContext.newBuilder().traceIdHigh(333L).traceId(444L).spanId(3).sampled(true).build();
+
+  /** Zero means {@link PendingSpans#defaultStripeCount()} */
+  @Param({"1", "0"})
+  public int stripeCount;
+
+  Tracer tracer;
+
+  @Setup(Level.Trial) public void init() {
+    SpanHandler handler = new SpanHandler() {
+      // anonymous subtype prevents all recording from being no-op
+    };
+    AtomicBoolean noop = new AtomicBoolean();
+    Clock clock = Platform.get().clock();
+    PendingSpans pendingSpans = new PendingSpans(new MutableSpan(), clock, handler, noop,
+      stripeCount != 0 ? stripeCount : PendingSpans.defaultStripeCount(), false, 0L);
+    tracer = new Tracer(clock, B3Propagation.FACTORY, handler, pendingSpans,
+      Sampler.ALWAYS_SAMPLE, ThreadLocalCurrentTraceContext.create(), false, true, false, noop);
+  }
+
+  @Benchmark @Threads(1) public void newChildWithSpanInScope_1thread() {
+    newChildWithSpanInScope();
+  }
+
+  @Benchmark @Threads(4) public void newChildWithSpanInScope_4threads() {
+    newChildWithSpanInScope();
+  }
+
+  @Benchmark @Threads(16) public void newChildWithSpanInScope_16threads() {
+    newChildWithSpanInScope();
+  }
+
+  @Benchmark @Threads(64) public void newChildWithSpanInScope_64threads() {
+    newChildWithSpanInScope();
+  }
+
+  void newChildWithSpanInScope() {
+    Span span = tracer.newChild(context).name("encode").start();
+    try (Tracer.SpanInScope scope = tracer.withSpanInScope(span)) {
+      span.tag("foo", "bar");
+      span.tag("baz", "qux");
+    } finally {
+      span.finish();
+    }
+  }
+
+  @Benchmark @Threads(1) public void newTrace_1thread() {
+    newTrace();
+  }
+
+  @Benchmark @Threads(4) public void newTrace_4threads() {
+    newTrace();
+  }
+
+  @Benchmark @Threads(16) public void newTrace_16threads() {
+    newTrace();
+  }
+
+  @Benchmark @Threads(64) public void newTrace_64threads() {
+    newTrace();
+  }
+
+  void newTrace() {
+    Span span = tracer.newTrace().name("encode").start();
+    span.tag("foo", "bar");
+    span.finish();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws Exception {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + TracerScalingBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
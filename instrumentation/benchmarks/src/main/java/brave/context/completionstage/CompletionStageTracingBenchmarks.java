@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.completionstage;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.ThreadLocalCurrentTraceContext;
+import brave.propagation.TraceContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares chains of {@link CompletionStage#thenApply} with and without {@link
+ * CompletionStageTracing}. The overhead per stage is the difference in slope across {@link
+ * #stages}. Sync chains run on a completed future, so only show the cost of wrapping. Async chains
+ * run on the common pool, so also show the cost of placing the trace context in scope.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class CompletionStageTracingBenchmarks {
+  static final CurrentTraceContext currentTraceContext = ThreadLocalCurrentTraceContext.create();
+  static final CompletionStageTracing completionStageTracing =
+    CompletionStageTracing.create(currentTraceContext);
+  static final TraceContext context =
+    TraceContext.newBuilder().traceIdHigh(333L).traceId(444L).spanId(3).sampled(true).build();
+
+  @Param({"1", "10"})
+  public int stages;
+
+  @Benchmark public Integer sync_untraced() {
+    CompletionStage<Integer> stage = CompletableFuture.completedFuture(0);
+    for (int i = 0; i < stages; i++) stage = stage.thenApply(j -> j + 1);
+    return stage.toCompletableFuture().join();
+  }
+
+  @Benchmark public Integer sync_traced() {
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      CompletionStage<Integer> stage =
+        completionStageTracing.decorate(CompletableFuture.completedFuture(0));
+      for (int i = 0; i < stages; i++) stage = stage.thenApply(j -> j + 1);
+      return stage.toCompletableFuture().join();
+    }
+  }
+
+  @Benchmark public Integer async_untraced() {
+    CompletionStage<Integer> stage = CompletableFuture.supplyAsync(() -> 0);
+    for (int i = 0; i < stages; i++) stage = stage.thenApplyAsync(j -> j + 1);
+    return stage.toCompletableFuture().join();
+  }
+
+  @Benchmark public Integer async_traced() {
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      CompletionStage<Integer> stage = completionStageTracing.supplyAsync(() -> 0);
+      for (int i = 0; i < stages; i++) stage = stage.thenApplyAsync(j -> j + 1);
+      return stage.toCompletableFuture().join();
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws Exception {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + CompletionStageTracingBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.reactor;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.ThreadLocalCurrentTraceContext;
+import brave.propagation.TraceContext;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Fuseable;
+import reactor.core.Fuseable.QueueSubscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+/**
+ * Compares {@link CurrentTraceContextHooks} with the naive approach of bridging the subscriber
+ * {@link Context} to the current thread around every signal of every operator, via {@link
+ * Hooks#onEachOperator}. Assembly is inside each benchmark, as it is per-request in practice.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class CurrentTraceContextHooksBenchmarks {
+  static final String NAIVE_HOOK_KEY = "naive";
+
+  final CurrentTraceContext currentTraceContext = ThreadLocalCurrentTraceContext.create();
+  final TraceContext context =
+    TraceContext.newBuilder().traceIdHigh(333L).traceId(444L).spanId(3).sampled(true).build();
+
+  @Param({"none", "lastOperator", "eachOperator"})
+  public String hooks;
+
+  @Setup(Level.Trial) public void enableHooks() {
+    if (hooks.equals("lastOperator")) {
+      CurrentTraceContextHooks.create(currentTraceContext).enable();
+    } else if (hooks.equals("eachOperator")) {
+      Hooks.onEachOperator(NAIVE_HOOK_KEY, Operators.lift(
+        (scannable, actual) -> new NaiveScopePassingSubscriber<>(actual, currentTraceContext)));
+    }
+  }
+
+  @TearDown(Level.Trial) public void disableHooks() {
+    CurrentTraceContextHooks.disable();
+    Hooks.resetOnEachOperator(NAIVE_HOOK_KEY);
+  }
+
+  /** Many signals through several operators on the subscribing thread. */
+  @Benchmark public Integer flux_sameThread() {
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      return Flux.range(0, 100)
+        .map(i -> i + 1)
+        .filter(i -> i % 2 == 0)
+        .map(i -> i * 2)
+        .reduce(0, Integer::sum)
+        .block();
+    }
+  }
+
+  /** A few operators on either side of a thread hop. */
+  @Benchmark public Integer mono_publishOn() {
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      return Mono.just(1)
+        .map(i -> i + 1)
+        .publishOn(Schedulers.parallel())
+        .map(i -> i * 2)
+        .filter(i -> i > 0)
+        .block();
+    }
+  }
+
+  /** Subscriber context, but nothing in scope, such as in a web filter. */
+  @Benchmark public Integer flux_flatMap_subscriberContext() {
+    return Flux.range(0, 10)
+      .flatMap(i -> Mono.just(i).map(j -> j + 1))
+      .reduce(0, Integer::sum)
+      .contextWrite(Context.of(TraceContext.class, context))
+      .block();
+  }
+
+  /**
+   * Typical of hooks that bridge the subscriber context to a thread local: each operator reads its
+   * context and scopes every signal. This is a {@link QueueSubscription}, as fuseable operators
+   * require one, but it never agrees to fusion.
+   */
+  static final class NaiveScopePassingSubscriber<T>
+    implements CoreSubscriber<T>, QueueSubscription<T> {
+    final CoreSubscriber<? super T> actual;
+    final CurrentTraceContext currentTraceContext;
+    final TraceContext context;
+    final Context subscriberContext;
+    Subscription upstream;
+
+    NaiveScopePassingSubscriber(CoreSubscriber<? super T> actual,
+      CurrentTraceContext currentTraceContext) {
+      this.actual = actual;
+      this.currentTraceContext = currentTraceContext;
+      Context subscriberContext = actual.currentContext();
+      TraceContext context = subscriberContext.getOrDefault(TraceContext.class, null);
+      if (context == null) {
+        context = currentTraceContext.get();
+        if (context != null) subscriberContext = subscriberContext.put(TraceContext.class, context);
+      }
+      this.context = context;
+      this.subscriberContext = subscriberContext;
+    }
+
+    @Override public Context currentContext() {
+      return subscriberContext;
+    }
+
+    @Override public void onSubscribe(Subscription s) {
+      upstream = s;
+      try (Scope scope = currentTraceContext.newScope(context)) {
+        actual.onSubscribe(this);
+      }
+    }
+
+    @Override public void onNext(T t) {
+      try (Scope scope = currentTraceContext.newScope(context)) {
+        actual.onNext(t);
+      }
+    }
+
+    @Override public void onError(Throwable t) {
+      try (Scope scope = currentTraceContext.newScope(context)) {
+        actual.onError(t);
+      }
+    }
+
+    @Override public void onComplete() {
+      try (Scope scope = currentTraceContext.newScope(context)) {
+        actual.onComplete();
+      }
+    }
+
+    @Override public void request(long n) {
+      try (Scope scope = currentTraceContext.newScope(context)) {
+        upstream.request(n);
+      }
+    }
+
+    @Override public void cancel() {
+      try (Scope scope = currentTraceContext.newScope(context)) {
+        upstream.cancel();
+      }
+    }
+
+    @Override public int requestFusion(int requestedMode) {
+      return Fuseable.NONE;
+    }
+
+    @Override public T poll() {
+      return null;
+    }
+
+    @Override public int size() {
+      return 0;
+    }
+
+    @Override public boolean isEmpty() {
+      return true;
+    }
+
+    @Override public void clear() {
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws Exception {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + CurrentTraceContextHooksBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
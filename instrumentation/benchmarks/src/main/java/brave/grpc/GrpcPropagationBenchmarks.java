@@ -77,6 +77,12 @@ public class GrpcPropagationBenchmarks {
   static final Extractor<GrpcServerRequest> bothExtractor =
     both.extractor(GrpcServerRequest::propagationField);
 
+  static final Propagation<String> binaryOnly = GrpcPropagation.create(B3Propagation.get(), true);
+  static final Injector<GrpcClientRequest> binaryOnlyInjector =
+    binaryOnly.injector(GrpcClientRequest::propagationField);
+  static final Extractor<GrpcServerRequest> binaryOnlyExtractor =
+    binaryOnly.extractor(GrpcServerRequest::propagationField);
+
   static final TraceContext context = TraceContext.newBuilder()
     .traceIdHigh(HexCodec.lowerHexToUnsignedLong("67891233abcdef01"))
     .traceId(HexCodec.lowerHexToUnsignedLong("2345678912345678"))
@@ -84,15 +90,19 @@ public class GrpcPropagationBenchmarks {
     .sampled(true)
     .build();
   static final TraceContext contextWithTags;
+  static final TraceContext contextWithTraceBin = GrpcPropagation.TraceBin.decorate(context);
 
   static final Map<String, Key<String>>
     b3NameToKey = nameToKey(b3),
-    bothNameToKey = nameToKey(both);
+    bothNameToKey = nameToKey(both),
+    binaryOnlyNameToKey = nameToKey(binaryOnly);
 
   static final GrpcServerRequest
     incomingB3 = new GrpcServerRequest(b3NameToKey, new NoopServerCall<>(), new Metadata()),
     incomingBoth = new GrpcServerRequest(bothNameToKey, new NoopServerCall<>(), new Metadata()),
     incomingBothNoTags = new GrpcServerRequest(b3NameToKey, new NoopServerCall<>(), new Metadata()),
+    incomingBinaryOnly =
+      new GrpcServerRequest(binaryOnlyNameToKey, new NoopServerCall<>(), new Metadata()),
     nothingIncoming = new GrpcServerRequest(emptyMap(), new NoopServerCall<>(), new Metadata());
 
   static final byte[] tagsBytes;
@@ -115,6 +125,8 @@ public class GrpcPropagationBenchmarks {
     b3Injector.inject(context, noopRequest(b3NameToKey, incomingB3.headers));
     bothInjector.inject(contextWithTags, noopRequest(bothNameToKey, incomingBoth.headers));
     bothInjector.inject(context, noopRequest(bothNameToKey, incomingBothNoTags.headers));
+    binaryOnlyInjector.inject(context,
+      noopRequest(binaryOnlyNameToKey, incomingBinaryOnly.headers));
   }
 
   static GrpcClientRequest noopRequest(Map<String, Key<String>> nameToKey, Metadata headers) {
@@ -157,6 +169,30 @@ public class GrpcPropagationBenchmarks {
     return bothExtractor.extract(incomingBothNoTags);
   }
 
+  @Benchmark public void inject_binaryOnly() {
+    GrpcClientRequest request = noopRequest(binaryOnlyNameToKey, new Metadata());
+    binaryOnlyInjector.inject(context, request);
+  }
+
+  /** Shows the cost of reinjecting a context with cached "grpc-trace-bin" bytes. */
+  @Benchmark public void inject_binaryOnly_traceBinCached() {
+    GrpcClientRequest request = noopRequest(binaryOnlyNameToKey, new Metadata());
+    binaryOnlyInjector.inject(contextWithTraceBin, request);
+  }
+
+  @Benchmark public TraceContextOrSamplingFlags extract_binaryOnly() {
+    return binaryOnlyExtractor.extract(incomingBinaryOnly);
+  }
+
+  /** Shows the cost of falling back to B3 when a client doesn't send "grpc-trace-bin". */
+  @Benchmark public TraceContextOrSamplingFlags extract_binaryOnly_b3() {
+    return binaryOnlyExtractor.extract(incomingB3);
+  }
+
+  @Benchmark public TraceContextOrSamplingFlags extract_binaryOnly_nothing() {
+    return binaryOnlyExtractor.extract(nothingIncoming);
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
@@ -15,6 +15,8 @@ package brave.grpc;
 
 import brave.internal.codec.HexCodec;
 import brave.propagation.TraceContext;
+import io.grpc.InternalMetadata;
+import io.grpc.Metadata;
 import java.util.concurrent.TimeUnit;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
@@ -28,6 +30,8 @@ import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 
+import static brave.grpc.GrpcPropagation.GRPC_TRACE_BIN;
+
 @Measurement(iterations = 5, time = 1)
 @Warmup(iterations = 10, time = 1)
 @Fork(3)
@@ -51,6 +55,12 @@ public class TraceContextBinaryMarshallerBenchmarks {
     return TraceContextBinaryFormat.parseBytes(serialized, null);
   }
 
+  /** Includes reading the value from metadata as received by the transport. */
+  @Benchmark public TraceContext parseMetadata() {
+    Metadata metadata = InternalMetadata.newMetadata(GRPC_TRACE_BIN.name().getBytes(), serialized);
+    return TraceContextBinaryFormat.parseBytes(metadata.get(GRPC_TRACE_BIN), null);
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
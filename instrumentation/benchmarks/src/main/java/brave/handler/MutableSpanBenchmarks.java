@@ -82,6 +82,60 @@ public class MutableSpanBenchmarks {
     return span;
   }
 
+  @Benchmark public MutableSpan makeManyTagsSpan() {
+    return newManyTagsMutableSpan();
+  }
+
+  /** Similar to a span enriched with many baggage fields and custom tags. */
+  public static MutableSpan newManyTagsMutableSpan() {
+    MutableSpan span = newServerMutableSpan();
+    for (int i = 0; i < 64; i++) {
+      span.tag("custom.tag." + i, "a value which is long enough to be realistic " + i);
+    }
+    return span;
+  }
+
+  /** Similar to a database span which tags the statement, as done by the p6spy integration. */
+  public static MutableSpan newLongSqlMutableSpan() {
+    MutableSpan span = new MutableSpan();
+    span.name("select");
+    span.kind(Span.Kind.CLIENT);
+    span.remoteServiceName("mysql");
+    span.remoteIpAndPort("10.1.2.3", 3306);
+    span.startTimestamp(1533706251750057L);
+    span.finishTimestamp(1533706251935296L);
+    StringBuilder sql = new StringBuilder("SELECT o.id, o.status, o.created_at, c.name, c.email ")
+      .append("FROM orders o INNER JOIN customers c ON o.customer_id = c.id WHERE o.id IN (");
+    for (int i = 0; i < 200; i++) {
+      if (i > 0) sql.append(", ");
+      sql.append(1000000 + i);
+    }
+    span.tag("sql.query", sql.append(") AND o.note <> 'it''s \"quoted\"'\n").toString());
+    return span;
+  }
+
+  /** Includes multi-byte characters and characters that need JSON escaping. */
+  public static MutableSpan newUnicodeMutableSpan() {
+    MutableSpan span = new MutableSpan();
+    span.name("\u043f\u043e\u043b\u0443\u0447\u0438\u0442\u044c /\u043a\u043e\u0440\u0437\u0438\u043d\u0430");
+    span.kind(Span.Kind.SERVER);
+    span.remoteIpAndPort("192.168.99.101", 9000);
+    span.startTimestamp(1533706251750057L);
+    span.finishTimestamp(1533706251935296L);
+    span.annotate(1533706251800000L, "\u2028 and \u2029 \uD83C\uDC00");
+    span.tag("http.path", "/\u5546\u54c1/\u8a73\u7d30");
+    span.tag("user.agent", "Mozilla/5.0 (\"quoted\")\t\u00e9\u00e8\u00ea");
+    span.tag("error.message", "Database error: ORA-00942:\u2028 table or view does not exist\n");
+    return span;
+  }
+
+  public static MutableSpan newIPv6MutableSpan() {
+    MutableSpan span = newServerMutableSpan();
+    span.localIp("2001:db8:85a3::8a2e:370:7334");
+    span.remoteIpAndPort("fe80::1ff:fe23:4567:890a", 443);
+    return span;
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Tags;
+import brave.propagation.TraceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares encoders across span shapes, from a small server span to large ones with many tags or a
+ * long SQL statement. Run with the GC profiler (as {@link #main(String[])} does) to see bytes
+ * allocated per operation: "gc.alloc.rate.norm".
+ *
+ * <p>The {@code ByteBuffer} and {@code OutputStream} variants show the cost of encoding when the
+ * destination is reused, as done by a reporter that fills one network buffer per batch.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class MutableSpanBytesEncoderBenchmarks {
+  public enum SpanShape {
+    SERVER {
+      @Override MutableSpan newSpan() {
+        return MutableSpanBenchmarks.newServerMutableSpan();
+      }
+    },
+    BIG_CLIENT {
+      @Override MutableSpan newSpan() {
+        return MutableSpanBenchmarks.newBigClientMutableSpan();
+      }
+    },
+    MANY_TAGS {
+      @Override MutableSpan newSpan() {
+        return MutableSpanBenchmarks.newManyTagsMutableSpan();
+      }
+    },
+    LONG_SQL {
+      @Override MutableSpan newSpan() {
+        return MutableSpanBenchmarks.newLongSqlMutableSpan();
+      }
+    },
+    UNICODE {
+      @Override MutableSpan newSpan() {
+        return MutableSpanBenchmarks.newUnicodeMutableSpan();
+      }
+    },
+    IPV6 {
+      @Override MutableSpan newSpan() {
+        return MutableSpanBenchmarks.newIPv6MutableSpan();
+      }
+    };
+
+    abstract MutableSpan newSpan();
+
+    /** Adds identifiers and local endpoint as done when a span is recorded. */
+    public MutableSpan newRecordedSpan() {
+      TraceContext context = TraceContext.newBuilder()
+        .traceIdHigh(0x67891233abcdef01L).traceId(0x2345678912345678L)
+        .parentId(0x463ac35c9f6413adL).spanId(0x48485a3953bb6124L).build();
+      MutableSpan defaults = new MutableSpan();
+      defaults.localServiceName("frontend");
+      defaults.localIp("172.17.0.13");
+      MutableSpan result = new MutableSpan(context, defaults);
+      MutableSpan shape = newSpan();
+      result.name(shape.name());
+      result.kind(shape.kind());
+      result.startTimestamp(shape.startTimestamp());
+      result.finishTimestamp(shape.finishTimestamp());
+      if (shape.localIp() != null) result.localIp(shape.localIp());
+      result.remoteServiceName(shape.remoteServiceName());
+      result.remoteIpAndPort(shape.remoteIp(), shape.remotePort());
+      shape.forEachAnnotation(MutableSpan::annotate, result);
+      shape.forEachTag(MutableSpan::tag, result);
+      return result;
+    }
+  }
+
+  public enum Encoding {
+    JSON_V2 {
+      @Override MutableSpanBytesEncoder encoder() {
+        return MutableSpanBytesEncoder.zipkinJsonV2(Tags.ERROR);
+      }
+    },
+    PROTO3 {
+      @Override MutableSpanBytesEncoder encoder() {
+        return MutableSpanBytesEncoder.zipkinProto3(Tags.ERROR);
+      }
+    };
+
+    abstract MutableSpanBytesEncoder encoder();
+  }
+
+  @Param({"SERVER", "BIG_CLIENT", "MANY_TAGS", "LONG_SQL", "UNICODE", "IPV6"})
+  public SpanShape shape;
+
+  @Param({"JSON_V2", "PROTO3"})
+  public Encoding encoding;
+
+  MutableSpanBytesEncoder encoder;
+  MutableSpan span;
+  List<MutableSpan> spans; // a typical batch size for a reporter
+  ByteBuffer heapBuffer, directBuffer;
+  OutputStream out;
+
+  long bytesWritten;
+
+  @Setup public void setup() {
+    encoder = encoding.encoder();
+    span = shape.newRecordedSpan();
+    spans = new ArrayList<>();
+    for (int i = 0; i < 10; i++) spans.add(shape.newRecordedSpan());
+    int listSizeInBytes = encoder.encodeList(spans).length;
+    heapBuffer = ByteBuffer.allocate(listSizeInBytes);
+    directBuffer = ByteBuffer.allocateDirect(listSizeInBytes);
+    out = new OutputStream() { // avoids measuring growth of a ByteArrayOutputStream
+      @Override public void write(int b) {
+        bytesWritten++;
+      }
+
+      @Override public void write(byte[] b, int off, int len) {
+        bytesWritten += len;
+      }
+    };
+  }
+
+  @Benchmark public int sizeInBytes() {
+    return encoder.sizeInBytes(span);
+  }
+
+  @Benchmark public byte[] encode() {
+    return encoder.encode(span);
+  }
+
+  @Benchmark public byte[] encodeList() {
+    return encoder.encodeList(spans);
+  }
+
+  @Benchmark public int encode_heapByteBuffer() {
+    heapBuffer.clear();
+    return encoder.encode(span, heapBuffer);
+  }
+
+  @Benchmark public int encode_directByteBuffer() {
+    directBuffer.clear();
+    return encoder.encode(span, directBuffer);
+  }
+
+  @Benchmark public int encodeList_heapByteBuffer() {
+    heapBuffer.clear();
+    return encoder.encodeList(spans, heapBuffer);
+  }
+
+  @Benchmark public int encodeList_directByteBuffer() {
+    directBuffer.clear();
+    return encoder.encodeList(spans, directBuffer);
+  }
+
+  @Benchmark public int encodeList_outputStream() throws IOException {
+    return encoder.encodeList(spans, out);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + MutableSpanBytesEncoderBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
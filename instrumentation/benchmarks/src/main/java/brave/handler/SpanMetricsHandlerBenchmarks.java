@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Span.Kind;
+import brave.handler.SpanHandler.Cause;
+import brave.propagation.TraceContext;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Shows the cost of recording a span into {@link SpanMetricsHandler}. Run with the gc profiler to
+ * verify that recording allocates nothing once the key exists.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SpanMetricsHandlerBenchmarks {
+  static final TraceContext CONTEXT =
+    TraceContext.newBuilder().traceId(1L).spanId(2L).sampled(true).build();
+
+  final SpanMetricsHandler handler = SpanMetricsHandler.newBuilder().build();
+  final MutableSpan serverSpan = newSpan("get /api/users", Kind.SERVER, 12_345L);
+  final MutableSpan clientSpan = newSpan("select", Kind.CLIENT, 678L);
+
+  @Benchmark @Threads(1) public boolean end_1thread() {
+    return handler.end(CONTEXT, serverSpan, Cause.FINISHED);
+  }
+
+  @Benchmark @Threads(4) public boolean end_4threads() {
+    return handler.end(CONTEXT, serverSpan, Cause.FINISHED);
+  }
+
+  /** Threads record into different keys, which is more typical than all using the same one. */
+  @Benchmark @Threads(4) public boolean end_4threads_twoKeys() {
+    MutableSpan span = (Thread.currentThread().getId() & 1) == 0 ? serverSpan : clientSpan;
+    return handler.end(CONTEXT, span, Cause.FINISHED);
+  }
+
+  @Benchmark public List<SpanMetricsHandler.Metrics> snapshot() {
+    return handler.snapshot();
+  }
+
+  static MutableSpan newSpan(String name, Kind kind, long durationMicros) {
+    MutableSpan span = new MutableSpan();
+    span.localServiceName("frontend");
+    span.name(name);
+    span.kind(kind);
+    span.startTimestamp(1_000_000L);
+    span.finishTimestamp(1_000_000L + durationMicros);
+    return span;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + SpanMetricsHandlerBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
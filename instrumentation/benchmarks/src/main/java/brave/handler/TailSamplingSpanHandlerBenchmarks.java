@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Span;
+import brave.Tracer;
+import brave.Tracing;
+import brave.propagation.TraceContext;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the overhead of {@link TailSamplingSpanHandler} on a local trace of a root and three
+ * children, compared to passing spans directly to the same delegate.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(2)
+public class TailSamplingSpanHandlerBenchmarks {
+  static final SpanHandler DELEGATE = new SpanHandler() {
+    @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+      return true;
+    }
+  };
+
+  Tracing direct, tailSampling;
+  Tracer directTracer, tailSamplingTracer;
+
+  @Setup(Level.Trial) public void init() {
+    direct = Tracing.newBuilder().addSpanHandler(DELEGATE).build();
+    directTracer = direct.tracer();
+    tailSampling = Tracing.newBuilder()
+      .addSpanHandler(TailSamplingSpanHandler.newBuilder(DELEGATE)
+        .latencyThreshold(1, TimeUnit.SECONDS)
+        .build())
+      .build();
+    tailSamplingTracer = tailSampling.tracer();
+  }
+
+  @TearDown(Level.Trial) public void close() {
+    direct.close();
+    tailSampling.close();
+  }
+
+  @Benchmark public void localTrace_direct() {
+    localTrace(directTracer, false);
+  }
+
+  @Benchmark public void localTrace_tailSampling_dropped() {
+    localTrace(tailSamplingTracer, false);
+  }
+
+  @Benchmark public void localTrace_tailSampling_keptOnError() {
+    localTrace(tailSamplingTracer, true);
+  }
+
+  /** Shows contention when many threads finish spans, which stripes partition by local root. */
+  @Benchmark @Threads(16) public void localTrace_direct_16threads() {
+    localTrace(directTracer, false);
+  }
+
+  @Benchmark @Threads(16) public void localTrace_tailSampling_dropped_16threads() {
+    localTrace(tailSamplingTracer, false);
+  }
+
+  @Benchmark @Threads(16) public void localTrace_tailSampling_keptOnError_16threads() {
+    localTrace(tailSamplingTracer, true);
+  }
+
+  static void localTrace(Tracer tracer, boolean error) {
+    Span root = tracer.newTrace().name("get /").start();
+    for (int i = 0; i < 3; i++) {
+      Span child = tracer.newChild(root.context()).name("query").start();
+      child.tag("db.statement", "select * from users where id = ?");
+      if (error && i == 2) child.error(new IllegalStateException("timeout"));
+      child.finish();
+    }
+    root.finish();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + TailSamplingSpanHandlerBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
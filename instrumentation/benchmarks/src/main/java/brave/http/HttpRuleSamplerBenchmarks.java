@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.http;
+
+import brave.sampler.ParameterizedSampler;
+import brave.sampler.Sampler;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static brave.http.HttpRequestMatchers.methodEquals;
+import static brave.http.HttpRequestMatchers.pathStartsWith;
+import static brave.sampler.Matchers.and;
+
+/**
+ * Compares {@link HttpRuleSampler}, which indexes rules by method and path prefix, with {@link
+ * ParameterizedSampler}, which evaluates each rule in order. The matched rule is the last one, and
+ * the unmatched request misses all rules, which are the worst cases of evaluating rules in order.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class HttpRuleSamplerBenchmarks {
+  @Param({"10", "100", "1000"})
+  public int ruleCount;
+
+  ParameterizedSampler<HttpRequest> parameterizedSampler;
+  HttpRuleSampler httpRuleSampler;
+  HttpRequest matched, unmatched;
+
+  @Setup(Level.Trial) public void init() {
+    HttpRuleSampler.Builder builder = HttpRuleSampler.newBuilder();
+    for (int i = 0; i < ruleCount; i++) {
+      String path = resource(i);
+      builder.putRule(i % 2 == 0
+        ? pathStartsWith(path)
+        : and(methodEquals("POST"), pathStartsWith(path)), Sampler.ALWAYS_SAMPLE);
+    }
+    httpRuleSampler = builder.build();
+    parameterizedSampler = httpRuleSampler.delegate;
+
+    matched = new Request("POST", resource(ruleCount - 1) + "/items/1");
+    unmatched = new Request("GET", "/api/v2/resource1/items/1");
+  }
+
+  /** Fixed width, so that no rule is a prefix of another. */
+  static String resource(int i) {
+    return String.format("/api/v1/resource%04d", i);
+  }
+
+  @Benchmark public Boolean parameterizedSampler_matched() {
+    return parameterizedSampler.trySample(matched);
+  }
+
+  @Benchmark public Boolean parameterizedSampler_unmatched() {
+    return parameterizedSampler.trySample(unmatched);
+  }
+
+  @Benchmark public Boolean httpRuleSampler_matched() {
+    return httpRuleSampler.trySample(matched);
+  }
+
+  @Benchmark public Boolean httpRuleSampler_unmatched() {
+    return httpRuleSampler.trySample(unmatched);
+  }
+
+  static final class Request extends HttpServerRequest {
+    final String method, path;
+
+    Request(String method, String path) {
+      this.method = method;
+      this.path = path;
+    }
+
+    @Override public Object unwrap() {
+      return this;
+    }
+
+    @Override public String method() {
+      return method;
+    }
+
+    @Override public String path() {
+      return path;
+    }
+
+    @Override public String url() {
+      return null;
+    }
+
+    @Override public String header(String name) {
+      return null;
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + HttpRuleSamplerBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
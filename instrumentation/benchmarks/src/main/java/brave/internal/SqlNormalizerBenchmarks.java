@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import brave.internal.SqlNormalizer.NormalizedSql;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares parsing a typical prepared statement with looking it up in the cache, which is the
+ * common case as prepared statements are reused. Statements with inline values are included, as
+ * they fill the cache with entries that won't be read again.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SqlNormalizerBenchmarks {
+  static final String SQL = "SELECT u.id, u.name, u.email FROM users u "
+    + "JOIN roles r ON r.user_id = u.id "
+    + "WHERE u.status = 'active' AND r.name IN (?, ?, ?, ?) AND u.created > ? "
+    + "ORDER BY u.created DESC LIMIT 100";
+
+  final SqlNormalizer normalizer = SqlNormalizer.create();
+
+  @Benchmark public NormalizedSql parse() {
+    return SqlNormalizer.parse(SQL, false);
+  }
+
+  @Benchmark public NormalizedSql normalize_cached() {
+    return normalizer.normalize(SQL);
+  }
+
+  @Benchmark @Threads(4) public NormalizedSql normalize_cached_4threads() {
+    return normalizer.normalize(SQL);
+  }
+
+  /** Statements with inline values miss the cache, and shouldn't slow down those that hit. */
+  @Benchmark @Threads(4) public NormalizedSql normalize_inlineValues_4threads() {
+    return normalizer.normalize("SELECT * FROM users WHERE id = "
+      + ThreadLocalRandom.current().nextInt());
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + SqlNormalizerBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
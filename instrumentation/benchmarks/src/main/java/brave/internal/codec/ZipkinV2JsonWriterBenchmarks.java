@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.codec;
+
+import brave.Tags;
+import brave.handler.MutableSpan;
+import brave.handler.MutableSpanBytesEncoderBenchmarks.SpanShape;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Breaks down the cost of {@link ZipkinV2JsonWriter} into the size and write passes, and the
+ * helpers they call per field: {@link JsonEscaper} and {@link IpLiteral}.
+ *
+ * <p>Writes are into a reused array, so "gc.alloc.rate.norm" shows garbage created by the writer
+ * itself, as opposed to the result.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class ZipkinV2JsonWriterBenchmarks {
+  static final String ASCII = "/api/v2/services/frontend/spans?limit=10";
+  static final String NEEDS_ESCAPING = "Database error: \"ORA-00942\"\ttable or view\n";
+  static final String UNICODE = "корзина   🀀";
+  static final String IPV4 = "192.168.99.101", IPV6 = "2001:db8:85a3::8a2e:370:7334",
+    IPV4_EMBEDDED = "::ffff:192.168.99.101";
+
+  @Param({"SERVER", "BIG_CLIENT", "MANY_TAGS", "LONG_SQL", "UNICODE", "IPV6"})
+  public SpanShape shape;
+
+  final ZipkinV2JsonWriter writer = new ZipkinV2JsonWriter(Tags.ERROR);
+  final byte[] escapeBuffer = new byte[256];
+  MutableSpan span;
+  byte[] spanBuffer;
+
+  @Setup public void setup() {
+    span = shape.newRecordedSpan();
+    spanBuffer = new byte[writer.sizeInBytes(span)];
+  }
+
+  @Benchmark public int sizeInBytes() {
+    return writer.sizeInBytes(span);
+  }
+
+  @Benchmark public int write() {
+    WriteBuffer b = WriteBuffer.wrap(spanBuffer);
+    writer.write(span, b);
+    return b.pos();
+  }
+
+  @Benchmark public int jsonEscapedSizeInBytes_ascii() {
+    return JsonEscaper.jsonEscapedSizeInBytes(ASCII);
+  }
+
+  @Benchmark public int jsonEscapedSizeInBytes_needsEscaping() {
+    return JsonEscaper.jsonEscapedSizeInBytes(NEEDS_ESCAPING);
+  }
+
+  @Benchmark public int jsonEscapedSizeInBytes_unicode() {
+    return JsonEscaper.jsonEscapedSizeInBytes(UNICODE);
+  }
+
+  @Benchmark public int jsonEscape_ascii() {
+    return jsonEscape(ASCII);
+  }
+
+  @Benchmark public int jsonEscape_needsEscaping() {
+    return jsonEscape(NEEDS_ESCAPING);
+  }
+
+  @Benchmark public int jsonEscape_unicode() {
+    return jsonEscape(UNICODE);
+  }
+
+  int jsonEscape(String value) {
+    WriteBuffer b = WriteBuffer.wrap(escapeBuffer);
+    JsonEscaper.jsonEscape(value, b);
+    return b.pos();
+  }
+
+  @Benchmark public IpLiteral.IpFamily detectFamily_ipv4() {
+    return IpLiteral.detectFamily(IPV4);
+  }
+
+  @Benchmark public IpLiteral.IpFamily detectFamily_ipv6() {
+    return IpLiteral.detectFamily(IPV6);
+  }
+
+  @Benchmark public String ipOrNull_ipv4Embedded() {
+    return IpLiteral.ipOrNull(IPV4_EMBEDDED);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + ZipkinV2JsonWriterBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.kafka.clients;
+
+import brave.Tracing;
+import brave.handler.SpanHandler;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures a poll of many records, where each record has a trace context, so each needs its own
+ * consumer span. Headers are reset on each poll, which is also included in the base case.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TracingConsumerBenchmarks {
+  static final byte[] B3 =
+    "463ac35c9f6413ad-463ac35c9f6413ad-1".getBytes(StandardCharsets.UTF_8);
+
+  @Param({"500", "5000"})
+  public int recordCount;
+
+  Tracing tracing;
+  Consumer<String, String> consumer, tracingConsumer;
+
+  @Setup(Level.Trial) public void init() {
+    tracing = Tracing.newBuilder().addSpanHandler(new SpanHandler() {
+      // anonymous subtype prevents all recording from being no-op
+    }).build();
+    TopicPartition partition = new TopicPartition("topic", 0);
+    List<ConsumerRecord<String, String>> records = new ArrayList<>(recordCount);
+    for (int i = 0; i < recordCount; i++) {
+      records.add(new ConsumerRecord<>("topic", 0, i, "key", "value"));
+    }
+    consumer = new FakeConsumer(
+      new ConsumerRecords<>(Collections.singletonMap(partition, records)));
+    tracingConsumer = KafkaTracing.create(tracing).consumer(consumer);
+  }
+
+  @TearDown(Level.Trial) public void close() {
+    tracing.close();
+  }
+
+  @Benchmark public ConsumerRecords<String, String> poll_baseCase() {
+    return consumer.poll(Duration.ZERO);
+  }
+
+  @Benchmark public ConsumerRecords<String, String> poll_traced() {
+    return tracingConsumer.poll(Duration.ZERO);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + TracingConsumerBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  /** Returns the same records on each poll, resetting headers as if they were just received. */
+  static final class FakeConsumer extends MockConsumer<String, String> {
+    final ConsumerRecords<String, String> records;
+
+    FakeConsumer(ConsumerRecords<String, String> records) {
+      super(OffsetResetStrategy.NONE);
+      this.records = records;
+    }
+
+    @Override public ConsumerRecords<String, String> poll(Duration timeout) {
+      for (ConsumerRecord<String, String> record : records) {
+        Headers headers = record.headers();
+        headers.remove("b3");
+        headers.add("b3", B3);
+      }
+      return records;
+    }
+
+    @Override @Deprecated public ConsumerRecords<String, String> poll(long timeout) {
+      return poll(Duration.ofMillis(timeout));
+    }
+  }
+}
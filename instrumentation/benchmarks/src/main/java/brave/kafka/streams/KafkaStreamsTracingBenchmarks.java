@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.kafka.streams;
+
+import brave.Tracing;
+import brave.handler.SpanHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.TestRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures a record passing through a sub-topology of five stateless operators, each traced. This
+ * compares the default span per operator to {@link
+ * KafkaStreamsTracing.Builder#singleSpanPerSubTopology(boolean) one span per sub-topology}, for
+ * sampled and unsampled records. The base case is the same topology without tracing.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class KafkaStreamsTracingBenchmarks {
+  static final byte[] B3_SAMPLED =
+    "463ac35c9f6413ad-463ac35c9f6413ad-1".getBytes(StandardCharsets.UTF_8);
+  static final byte[] B3_UNSAMPLED =
+    "463ac35c9f6413ad-463ac35c9f6413ad-0".getBytes(StandardCharsets.UTF_8);
+
+  @Param({"false", "true"})
+  public boolean singleSpanPerSubTopology;
+
+  @Param({"true", "false"})
+  public boolean sampled;
+
+  Tracing tracing;
+  TopologyTestDriver driver, tracingDriver;
+  TestInputTopic<String, String> input, tracingInput;
+  TestOutputTopic<String, String> output, tracingOutput;
+  byte[] b3;
+
+  @Setup(Level.Trial) public void init() {
+    tracing = Tracing.newBuilder().addSpanHandler(new SpanHandler() {
+      // anonymous subtype prevents all recording from being no-op
+    }).build();
+    KafkaStreamsTracing kafkaStreamsTracing = KafkaStreamsTracing.newBuilder(tracing)
+      .singleSpanPerSubTopology(singleSpanPerSubTopology)
+      .build();
+    b3 = sampled ? B3_SAMPLED : B3_UNSAMPLED;
+
+    StreamsBuilder builder = new StreamsBuilder();
+    builder.<String, String>stream("input")
+      .peek((k, v) -> {
+      })
+      .mapValues(v -> v + "1")
+      .filter((k, v) -> !v.isEmpty())
+      .mapValues(v -> v + "2")
+      .peek((k, v) -> {
+      })
+      .to("output");
+    driver = new TopologyTestDriver(builder.build(), config("base"));
+    input = driver.createInputTopic("input", Serdes.String().serializer(),
+      Serdes.String().serializer());
+    output = driver.createOutputTopic("output", Serdes.String().deserializer(),
+      Serdes.String().deserializer());
+
+    builder = new StreamsBuilder();
+    builder.<String, String>stream("input")
+      .transformValues(kafkaStreamsTracing.peek("peek-1", (k, v) -> {
+      }))
+      .transformValues(kafkaStreamsTracing.mapValues("mapValues-1", v -> v + "1"))
+      .transform(kafkaStreamsTracing.filter("filter-1", (k, v) -> !v.isEmpty()))
+      .transformValues(kafkaStreamsTracing.mapValues("mapValues-2", v -> v + "2"))
+      .transformValues(kafkaStreamsTracing.peek("peek-2", (k, v) -> {
+      }))
+      .to("output");
+    tracingDriver = new TopologyTestDriver(builder.build(), config("traced"));
+    tracingInput = tracingDriver.createInputTopic("input", Serdes.String().serializer(),
+      Serdes.String().serializer());
+    tracingOutput = tracingDriver.createOutputTopic("output", Serdes.String().deserializer(),
+      Serdes.String().deserializer());
+  }
+
+  static Properties config(String applicationId) {
+    Properties config = new Properties();
+    config.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationId);
+    config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+    config.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+    config.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+    return config;
+  }
+
+  @TearDown(Level.Trial) public void close() {
+    driver.close();
+    tracingDriver.close();
+    tracing.close();
+  }
+
+  @Benchmark public String pipeInput_baseCase() {
+    return pipeInput(input, output);
+  }
+
+  @Benchmark public String pipeInput_traced() {
+    return pipeInput(tracingInput, tracingOutput);
+  }
+
+  String pipeInput(TestInputTopic<String, String> input, TestOutputTopic<String, String> output) {
+    RecordHeaders headers = new RecordHeaders();
+    headers.add("b3", b3);
+    input.pipeInput(new TestRecord<>("key", "value", headers));
+    return output.readValue();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + KafkaStreamsTracingBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -16,6 +16,7 @@ package brave.netty.http;
 import brave.Tracing;
 import brave.baggage.BaggagePropagation;
 import brave.baggage.BaggagePropagationConfig.SingleBaggageField;
+import brave.handler.SpanHandler;
 import brave.http.HttpServerBenchmarks;
 import brave.propagation.B3Propagation;
 import brave.sampler.Sampler;
@@ -28,14 +29,30 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Stream;
 import io.netty.util.AttributeKey;
 import io.undertow.servlet.api.DeploymentInfo;
 import java.net.InetSocketAddress;
+import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
@@ -150,6 +167,81 @@ public class NettyHttpServerBenchmarks extends HttpServerBenchmarks {
     if (workerGroup != null) workerGroup.shutdownGracefully();
   }
 
+  /** Number of requests in flight on the same connection before any response is written. */
+  static final int IN_FLIGHT = 10;
+
+  /**
+   * Reads {@link #IN_FLIGHT} requests on one channel before writing their responses, as happens
+   * with HTTP/1.1 pipelining or HTTP/2 multiplexing. This runs in-memory, so it shows the cost of
+   * tracking per-request spans, without network noise.
+   */
+  @State(Scope.Thread)
+  public static class MultiplexedState {
+    Tracing tracing;
+    EmbeddedChannel http1, http2;
+    HttpRequest[] requests = new HttpRequest[IN_FLIGHT];
+    HttpResponse response =
+      new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    Http2HeadersFrame[] http2Requests = new Http2HeadersFrame[IN_FLIGHT];
+    Http2HeadersFrame[] http2Responses = new Http2HeadersFrame[IN_FLIGHT];
+
+    @Setup(Level.Trial) public void init() {
+      tracing = Tracing.newBuilder().addSpanHandler(new SpanHandler() {
+        // anonymous subtype prevents all recording from being no-op
+      }).build();
+      NettyHttpTracing nettyHttpTracing = NettyHttpTracing.create(tracing);
+      http1 = new EmbeddedChannel(nettyHttpTracing.serverHandler());
+      http2 = new EmbeddedChannel(nettyHttpTracing.http2FrameServerHandler());
+      for (int i = 0; i < IN_FLIGHT; i++) {
+        requests[i] = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/traced");
+        Http2FrameStream stream = new BenchmarkStream(i * 2 + 3);
+        http2Requests[i] = new DefaultHttp2HeadersFrame(
+          new DefaultHttp2Headers().method("GET").path("/traced")).stream(stream);
+        http2Responses[i] =
+          new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().status("200")).stream(stream);
+      }
+    }
+
+    @TearDown(Level.Trial) public void close() {
+      http1.finishAndReleaseAll();
+      http2.finishAndReleaseAll();
+      tracing.close();
+    }
+  }
+
+  static final class BenchmarkStream implements Http2FrameStream {
+    final int id;
+
+    BenchmarkStream(int id) {
+      this.id = id;
+    }
+
+    @Override public int id() {
+      return id;
+    }
+
+    @Override public Http2Stream.State state() {
+      return Http2Stream.State.OPEN;
+    }
+  }
+
+  @Benchmark public void pipelinedServer_get(MultiplexedState state) {
+    EmbeddedChannel channel = state.http1;
+    for (HttpRequest request : state.requests) channel.writeInbound(request);
+    for (int i = 0; i < IN_FLIGHT; i++) channel.writeOutbound(state.response);
+    channel.inboundMessages().clear();
+    channel.outboundMessages().clear();
+  }
+
+  /** Responses are written in reverse order, as streams needn't complete in request order. */
+  @Benchmark public void http2MultiplexedServer_get(MultiplexedState state) {
+    EmbeddedChannel channel = state.http2;
+    for (Http2HeadersFrame request : state.http2Requests) channel.writeInbound(request);
+    for (int i = IN_FLIGHT - 1; i >= 0; i--) channel.writeOutbound(state.http2Responses[i]);
+    channel.inboundMessages().clear();
+    channel.outboundMessages().clear();
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
@@ -49,6 +49,14 @@ public class B3SinglePropagationBenchmarks {
     .sampled(true)
     .build();
 
+  static final Propagation.Factory cachingFactory = B3Propagation.newFactoryBuilder()
+    .injectFormat(B3Propagation.Format.SINGLE)
+    .cacheHeaderValues(true)
+    .build();
+  static final Injector<Map<String, String>> cachingInjector =
+    cachingFactory.get().injector(Map::put);
+  static final TraceContext decoratedContext = cachingFactory.decorate(context);
+
   static final Map<String, String> incoming128 = new LinkedHashMap<String, String>() {
     {
       put("b3", "67891233abcdef012345678912345678-463ac35c9f6413ad-1");
@@ -86,6 +94,12 @@ public class B3SinglePropagationBenchmarks {
     b3Injector.inject(context, request);
   }
 
+  /** Compare with {@link #inject()} to see the effect of caching the encoded value. */
+  @Benchmark public void inject_cached() {
+    Map<String, String> request = new LinkedHashMap<>();
+    cachingInjector.inject(decoratedContext, request);
+  }
+
   @Benchmark public TraceContextOrSamplingFlags extract_128() {
     return b3Extractor.extract(incoming128);
   }
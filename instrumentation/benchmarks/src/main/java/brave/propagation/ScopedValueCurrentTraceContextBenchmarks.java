@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link ScopedValueCurrentTraceContext} with thread local implementations, when each
+ * task runs on a new thread. This uses virtual threads when the JDK has them, and otherwise starts
+ * a platform thread per task. Scoped values are only used on JDK 25+.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(org.openjdk.jmh.annotations.Scope.Thread)
+public class ScopedValueCurrentTraceContextBenchmarks {
+  static final CurrentTraceContext threadLocal = ThreadLocalCurrentTraceContext.create();
+  static final CurrentTraceContext inheritable = CurrentTraceContext.Default.inheritable();
+  static final CurrentTraceContext scopedValue = ScopedValueCurrentTraceContext.create();
+
+  static final TraceContext context = TraceContext.newBuilder()
+    .traceId(1L)
+    .parentId(2L)
+    .spanId(3L)
+    .sampled(true)
+    .build();
+  static final TraceContext child = context.toBuilder().parentId(3L).spanId(4L).build();
+
+  ExecutorService threadPerTask, threadLocalExecutor, scopedValueExecutor;
+
+  @Setup(Level.Trial) public void init() {
+    threadPerTask = newThreadPerTaskExecutor();
+    threadLocalExecutor = threadLocal.executorService(threadPerTask);
+    scopedValueExecutor = scopedValue.executorService(threadPerTask);
+  }
+
+  @TearDown(Level.Trial) public void close() {
+    threadPerTask.shutdown();
+  }
+
+  @Benchmark public void newScope_threadLocal() {
+    try (Scope ws = threadLocal.newScope(context)) {
+    }
+  }
+
+  @Benchmark public void newScope_scopedValue() {
+    try (Scope ws = scopedValue.newScope(context)) {
+    }
+  }
+
+  @Benchmark public TraceContext threadPerTask_threadLocal() throws Exception {
+    return submitInScope(threadLocal, threadLocalExecutor);
+  }
+
+  /** Inheritable thread locals propagate without wrapping, but are copied to each new thread. */
+  @Benchmark public TraceContext threadPerTask_inheritable() throws Exception {
+    return submitInScope(inheritable, threadPerTask);
+  }
+
+  @Benchmark public TraceContext threadPerTask_scopedValue() throws Exception {
+    return submitInScope(scopedValue, scopedValueExecutor);
+  }
+
+  /** The task opens a child scope, as would happen when it creates a span. */
+  static TraceContext submitInScope(CurrentTraceContext current, ExecutorService executor)
+    throws Exception {
+    try (Scope ws = current.newScope(context)) {
+      return executor.submit(new Callable<TraceContext>() {
+        @Override public TraceContext call() {
+          try (Scope childScope = current.newScope(child)) {
+            return current.get();
+          }
+        }
+      }).get();
+    }
+  }
+
+  static ExecutorService newThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+        .invoke(null);
+    } catch (Exception e) {
+      return new PlatformThreadPerTaskExecutor();
+    }
+  }
+
+  static final class PlatformThreadPerTaskExecutor extends AbstractExecutorService {
+    volatile boolean shutdown;
+
+    @Override public void execute(Runnable command) {
+      new Thread(command).start();
+    }
+
+    @Override public void shutdown() {
+      shutdown = true;
+    }
+
+    @Override public List<Runnable> shutdownNow() {
+      shutdown = true;
+      return Collections.emptyList();
+    }
+
+    @Override public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override public boolean isTerminated() {
+      return shutdown;
+    }
+
+    @Override public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws Exception {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + ScopedValueCurrentTraceContextBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.r2dbc;
+
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.TransactionDefinition;
+import io.r2dbc.spi.ValidationDepth;
+import java.time.Duration;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+/** Completes every statement immediately, so that benchmarks only measure instrumentation. */
+final class FakeConnectionFactory implements ConnectionFactory {
+  static final ConnectionFactoryMetadata METADATA = () -> "fake";
+
+  final Connection connection = new FakeConnection();
+
+  @Override public Publisher<? extends Connection> create() {
+    return Mono.just(connection);
+  }
+
+  @Override public ConnectionFactoryMetadata getMetadata() {
+    return METADATA;
+  }
+
+  static final class FakeConnection implements Connection {
+    @Override public Statement createStatement(String sql) {
+      return new FakeStatement();
+    }
+
+    @Override public Publisher<Void> beginTransaction() {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> beginTransaction(TransactionDefinition definition) {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> close() {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> commitTransaction() {
+      return Mono.empty();
+    }
+
+    @Override public Batch createBatch() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Publisher<Void> createSavepoint(String name) {
+      return Mono.empty();
+    }
+
+    @Override public boolean isAutoCommit() {
+      return true;
+    }
+
+    @Override public ConnectionMetadata getMetadata() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public IsolationLevel getTransactionIsolationLevel() {
+      return IsolationLevel.READ_COMMITTED;
+    }
+
+    @Override public Publisher<Void> releaseSavepoint(String name) {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> rollbackTransaction() {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> setAutoCommit(boolean autoCommit) {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> setLockWaitTimeout(Duration timeout) {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> setStatementTimeout(Duration timeout) {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Void> setTransactionIsolationLevel(IsolationLevel level) {
+      return Mono.empty();
+    }
+
+    @Override public Publisher<Boolean> validate(ValidationDepth depth) {
+      return Mono.just(true);
+    }
+  }
+
+  static final class FakeStatement implements Statement {
+    @Override public Statement add() {
+      return this;
+    }
+
+    @Override public Statement bind(int index, Object value) {
+      return this;
+    }
+
+    @Override public Statement bind(String name, Object value) {
+      return this;
+    }
+
+    @Override public Statement bindNull(int index, Class<?> type) {
+      return this;
+    }
+
+    @Override public Statement bindNull(String name, Class<?> type) {
+      return this;
+    }
+
+    @Override public Publisher<? extends Result> execute() {
+      return Mono.just(FakeResult.INSTANCE);
+    }
+  }
+
+  enum FakeResult implements Result {
+    INSTANCE;
+
+    @Override public Publisher<Integer> getRowsUpdated() {
+      return Mono.just(1);
+    }
+
+    @Override
+    public <T> Publisher<T> map(BiFunction<Row, RowMetadata, ? extends T> mappingFunction) {
+      return Mono.empty();
+    }
+
+    @Override public Result filter(Predicate<Segment> filter) {
+      return this;
+    }
+
+    @Override
+    public <T> Publisher<T> flatMap(Function<Segment, ? extends Publisher<? extends T>> function) {
+      return Mono.empty();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.r2dbc;
+
+import brave.Tracing;
+import brave.handler.SpanHandler;
+import brave.sampler.Sampler;
+import io.r2dbc.proxy.ProxyConnectionFactory;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Measures the overhead per statement when {@link #PIPELINE_DEPTH} statements are in-flight on the
+ * same connection. The database is fake, so the base case is the cost of Reactor itself, and
+ * "proxied" is the cost of r2dbc-proxy without any listener.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class R2dbcTracingBenchmarks {
+  static final int PIPELINE_DEPTH = 16;
+  static final String QUERY = "SELECT i FROM t WHERE i = 1";
+
+  Tracing tracing, unsampledTracing;
+  Connection connection, proxiedConnection, tracedConnection, unsampledConnection;
+
+  @Setup(Level.Trial) public void init() {
+    ConnectionFactory connectionFactory = new FakeConnectionFactory();
+    tracing = Tracing.newBuilder().addSpanHandler(new SpanHandler() {
+      // anonymous subtype prevents all recording from being no-op
+    }).build();
+    unsampledTracing = Tracing.newBuilder().sampler(Sampler.NEVER_SAMPLE).build();
+
+    connection = connect(connectionFactory);
+    proxiedConnection = connect(ProxyConnectionFactory.builder(connectionFactory).build());
+    tracedConnection = connect(R2dbcTracing.newBuilder(tracing)
+      .remoteServiceName("db").build()
+      .connectionFactory(connectionFactory));
+    unsampledConnection = connect(R2dbcTracing.create(unsampledTracing)
+      .connectionFactory(connectionFactory));
+  }
+
+  @TearDown(Level.Trial) public void close() {
+    tracing.close();
+    unsampledTracing.close();
+  }
+
+  @Benchmark @OperationsPerInvocation(PIPELINE_DEPTH) public Integer pipelined_baseCase() {
+    return pipelined(connection);
+  }
+
+  @Benchmark @OperationsPerInvocation(PIPELINE_DEPTH) public Integer pipelined_proxied() {
+    return pipelined(proxiedConnection);
+  }
+
+  @Benchmark @OperationsPerInvocation(PIPELINE_DEPTH) public Integer pipelined_traced() {
+    return pipelined(tracedConnection);
+  }
+
+  @Benchmark @OperationsPerInvocation(PIPELINE_DEPTH)
+  public Integer pipelined_traced_unsampled() {
+    return pipelined(unsampledConnection);
+  }
+
+  static Integer pipelined(Connection connection) {
+    return Flux.range(0, PIPELINE_DEPTH)
+      .flatMap(i -> connection.createStatement(QUERY).execute())
+      .flatMap(Result::getRowsUpdated)
+      .blockLast();
+  }
+
+  static Connection connect(ConnectionFactory connectionFactory) {
+    return Mono.from(connectionFactory.create()).block();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + R2dbcTracingBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -131,6 +131,39 @@ public class SamplerBenchmarks {
 
   static final Reservoir RESERVOIR_RATE_LIMITED_100 = new Reservoir(100);
 
+  @Benchmark public boolean sampler_rateLimitedStriped_100(Args args) {
+    return SAMPLER_RATE_LIMITED_STRIPED_100.isSampled(args.traceId);
+  }
+
+  static final Sampler SAMPLER_RATE_LIMITED_STRIPED_100 = StripedRateLimitingSampler.create(100);
+
+  // The below show contention on shared state when many threads make decisions at the same time.
+
+  @Benchmark @Threads(16) public boolean sampler_counting_16threads(Args args) {
+    return SAMPLER_RATE.isSampled(args.traceId);
+  }
+
+  @Benchmark @Threads(16) public boolean sampler_rateLimited_100_16threads(Args args) {
+    return SAMPLER_RATE_LIMITED_100.isSampled(args.traceId);
+  }
+
+  @Benchmark @Threads(16) public boolean sampler_rateLimitedStriped_100_16threads(Args args) {
+    return SAMPLER_RATE_LIMITED_STRIPED_100.isSampled(args.traceId);
+  }
+
+  @Benchmark @Threads(16) public boolean sampler_rateLimited_100000_16threads(Args args) {
+    return SAMPLER_RATE_LIMITED_100000.isSampled(args.traceId);
+  }
+
+  static final Sampler SAMPLER_RATE_LIMITED_100000 = RateLimitingSampler.create(100000);
+
+  @Benchmark @Threads(16) public boolean sampler_rateLimitedStriped_100000_16threads(Args args) {
+    return SAMPLER_RATE_LIMITED_STRIPED_100000.isSampled(args.traceId);
+  }
+
+  static final Sampler SAMPLER_RATE_LIMITED_STRIPED_100000 =
+    StripedRateLimitingSampler.create(100000);
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
@@ -13,7 +13,10 @@
  */
 package brave.grpc;
 
+import brave.Request;
+import brave.Span;
 import brave.baggage.BaggagePropagation;
+import brave.internal.Nullable;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext;
 import brave.propagation.TraceContext.Extractor;
@@ -21,11 +24,16 @@ import brave.propagation.TraceContext.Injector;
 import brave.propagation.TraceContextOrSamplingFlags;
 import io.grpc.Metadata;
 import io.grpc.Metadata.Key;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-/** see {@link GrpcTracing.Builder#grpcPropagationFormatEnabled} for documentation. */
+/**
+ * see {@link GrpcTracing.Builder#grpcPropagationFormatEnabled} and {@link
+ * GrpcTracing.Builder#grpcBinaryPropagationOnly} for documentation.
+ */
 final class GrpcPropagation implements Propagation<String> {
   /**
    * This creates a compatible metadata key based on Census, except this extracts a brave trace
@@ -68,14 +76,76 @@ final class GrpcPropagation implements Propagation<String> {
   }
 
   static Propagation<String> create(Propagation<String> delegate) {
+    return create(delegate, false);
+  }
+
+  static Propagation<String> create(Propagation<String> delegate, boolean binaryOnly) {
     if (delegate == null) throw new NullPointerException("delegate == null");
-    return new GrpcPropagation(delegate);
+    return new GrpcPropagation(delegate, binaryOnly);
   }
 
   final Propagation<String> delegate;
+  final boolean binaryOnly;
+  /** Keys the delegate writes for trace identifiers, which "grpc-trace-bin" replaces. */
+  final List<String> traceIdKeys;
+  /** True when the delegate propagates fields besides trace identifiers, such as baggage. */
+  final boolean hasOtherFields;
 
-  GrpcPropagation(Propagation<String> delegate) {
+  GrpcPropagation(Propagation<String> delegate, boolean binaryOnly) {
     this.delegate = delegate;
+    this.binaryOnly = binaryOnly;
+    this.traceIdKeys = traceIdKeys(delegate);
+    this.hasOtherFields = !traceIdKeys.containsAll(BaggagePropagation.allKeyNames(delegate));
+  }
+
+  /**
+   * {@link Propagation#keys()} can include fields besides trace identifiers, for example ones a
+   * custom propagation writes from {@link TraceContext#extra()}. This finds the trace identifier
+   * keys by injecting contexts without extra fields into each kind of request.
+   */
+  static List<String> traceIdKeys(Propagation<String> delegate) {
+    List<String> result = new ArrayList<>();
+    Injector<ProbeRequest> injector = delegate.injector(ProbeSetter.INSTANCE);
+    TraceContext sampled = TraceContext.newBuilder()
+      .traceIdHigh(1L).traceId(2L).parentId(3L).spanId(4L).sampled(true).build();
+    TraceContext debug = sampled.toBuilder().debug(true).build();
+    for (Span.Kind kind : Span.Kind.values()) {
+      ProbeRequest request = new ProbeRequest(kind, result);
+      injector.inject(sampled, request);
+      injector.inject(debug, request);
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /** Records keys injected by a propagation, as some formats depend on the kind of request. */
+  static final class ProbeRequest extends Request {
+    final Span.Kind kind;
+    final List<String> keys;
+
+    ProbeRequest(Span.Kind kind, List<String> keys) {
+      this.kind = kind;
+      this.keys = keys;
+    }
+
+    @Override public Span.Kind spanKind() {
+      return kind;
+    }
+
+    @Override public Object unwrap() {
+      return this;
+    }
+  }
+
+  enum ProbeSetter implements Setter<ProbeRequest, String> {
+    INSTANCE;
+
+    @Override public void put(ProbeRequest request, String key, String value) {
+      if (!request.keys.contains(key)) request.keys.add(key);
+    }
+
+    @Override public String toString() {
+      return "ProbeRequest::put";
+    }
   }
 
   @Override public List<String> keys() {
@@ -91,27 +161,154 @@ final class GrpcPropagation implements Propagation<String> {
   }
 
   static final class GrpcInjector<R> implements Injector<R> {
+    /** Writes all fields, for requests which aren't gRPC, so can't carry the binary form. */
     final Injector<R> delegate;
-    final Setter<R, String> setter;
+    /** Writes fields besides the binary form, or null when there are none. */
+    @Nullable final Injector<R> grpcDelegate;
 
     GrpcInjector(GrpcPropagation propagation, Setter<R, String> setter) {
       this.delegate = propagation.delegate.injector(setter);
-      this.setter = setter;
+      if (!propagation.binaryOnly) {
+        this.grpcDelegate = delegate;
+      } else if (propagation.hasOtherFields) { // only write fields that aren't trace identifiers
+        this.grpcDelegate = propagation.delegate.injector(
+          new SkipKeysSetter<>(setter, propagation.traceIdKeys));
+      } else {
+        this.grpcDelegate = null;
+      }
     }
 
     @Override public void inject(TraceContext context, R request) {
-      if (request instanceof GrpcRequest) {
-        byte[] serialized = TraceContextBinaryFormat.toBytes(context);
-        Metadata metadata = ((GrpcRequest) request).headers();
-        metadata.removeAll(GRPC_TRACE_BIN);
-        metadata.put(GRPC_TRACE_BIN, serialized);
-        TagsBin tags = context.findExtra(TagsBin.class);
-        if (tags != null) {
-          metadata.removeAll(GRPC_TAGS_BIN);
-          metadata.put(GRPC_TAGS_BIN, tags);
+      if (!(request instanceof GrpcRequest)) {
+        delegate.inject(context, request);
+        return;
+      }
+      byte[] serialized = TraceBin.bytes(context);
+      Metadata metadata = ((GrpcRequest) request).headers();
+      metadata.removeAll(GRPC_TRACE_BIN);
+      metadata.put(GRPC_TRACE_BIN, serialized);
+      TagsBin tags = context.findExtra(TagsBin.class);
+      if (tags != null) {
+        metadata.removeAll(GRPC_TAGS_BIN);
+        metadata.put(GRPC_TAGS_BIN, tags);
+      }
+      if (grpcDelegate != null) grpcDelegate.inject(context, request);
+    }
+  }
+
+  /** Decorates trace contexts with a {@link TraceBin}, so their binary form is encoded once. */
+  static final class TraceBinCachingFactory extends Propagation.Factory {
+    final Propagation.Factory delegate;
+
+    TraceBinCachingFactory(Propagation.Factory delegate) {
+      this.delegate = delegate;
+    }
+
+    @Deprecated @Override public <K> Propagation<K> create(KeyFactory<K> keyFactory) {
+      return delegate.create(keyFactory);
+    }
+
+    @Override public Propagation<String> get() {
+      return delegate.get();
+    }
+
+    @Override public boolean supportsJoin() {
+      return delegate.supportsJoin();
+    }
+
+    @Override public boolean requires128BitTraceId() {
+      return delegate.requires128BitTraceId();
+    }
+
+    @Override public TraceContext decorate(TraceContext context) {
+      return TraceBin.decorate(delegate.decorate(context));
+    }
+
+    @Override public String toString() {
+      return "TraceBinCachingFactory{" + delegate + "}";
+    }
+  }
+
+  /**
+   * {@linkplain TraceContext#extra() Extra field} holding the lazily encoded binary form of a
+   * context. The array is shared by all metadata the same context is injected into. This is safe as
+   * gRPC transports don't mutate header values.
+   *
+   * <p>Child contexts inherit the extra list of their parent, so decoration replaces the parent's
+   * instance. As the extra list can also be copied without decoration, each instance only serves
+   * the IDs and flags it was created for.
+   */
+  static final class TraceBin {
+    /** Ensures the context has a holder for its IDs and flags, replacing any inherited one. */
+    static TraceContext decorate(TraceContext context) {
+      List<Object> extra = context.extra();
+      int existing = -1;
+      for (int i = 0, length = extra.size(); i < length; i++) {
+        Object next = extra.get(i);
+        if (next instanceof TraceBin) {
+          if (((TraceBin) next).isFor(context)) return context;
+          existing = i;
+          break;
         }
       }
-      delegate.inject(context, request);
+
+      // TraceContext.withExtra isn't visible here, so rebuild the list in the same order.
+      TraceContext.Builder builder = context.toBuilder().clearExtra();
+      for (int i = 0, length = extra.size(); i < length; i++) {
+        builder.addExtra(i == existing ? new TraceBin(context) : extra.get(i));
+      }
+      if (existing == -1) builder.addExtra(new TraceBin(context));
+      return builder.build();
+    }
+
+    /** Like {@link TraceContextBinaryFormat#toBytes(TraceContext)}, but cached when possible. */
+    static byte[] bytes(TraceContext context) {
+      TraceBin traceBin = context.findExtra(TraceBin.class);
+      if (traceBin == null || !traceBin.isFor(context)) {
+        return TraceContextBinaryFormat.toBytes(context);
+      }
+      byte[] result = traceBin.bytes;
+      if (result == null) result = traceBin.bytes = TraceContextBinaryFormat.toBytes(context);
+      return result;
+    }
+
+    // We don't retain the context, as it is often a weak key elsewhere.
+    final long traceIdHigh, traceId, spanId;
+    final boolean sampled;
+    // Races are benign, as any thread writes the same value.
+    volatile byte[] bytes;
+
+    TraceBin(TraceContext context) {
+      traceIdHigh = context.traceIdHigh();
+      traceId = context.traceId();
+      spanId = context.spanId();
+      sampled = Boolean.TRUE.equals(context.sampled());
+    }
+
+    /** Only checks fields in the binary form. */
+    boolean isFor(TraceContext context) {
+      return traceIdHigh == context.traceIdHigh()
+        && traceId == context.traceId()
+        && spanId == context.spanId()
+        && sampled == Boolean.TRUE.equals(context.sampled());
+    }
+
+    @Override public String toString() {
+      return "TraceBin{}";
+    }
+  }
+
+  static final class SkipKeysSetter<R> implements Setter<R, String> {
+    final Setter<R, String> delegate;
+    final List<String> keysToSkip;
+
+    SkipKeysSetter(Setter<R, String> delegate, List<String> keysToSkip) {
+      this.delegate = delegate;
+      this.keysToSkip = keysToSkip;
+    }
+
+    @Override public void put(R request, String key, String value) {
+      if (!keysToSkip.contains(key)) delegate.put(request, key, value);
     }
   }
 
@@ -14,6 +14,8 @@
 package brave.grpc;
 
 import brave.Tracing;
+import brave.internal.Nullable;
+import brave.propagation.Propagation;
 import brave.rpc.RpcRequestParser;
 import brave.rpc.RpcResponseParser;
 import brave.rpc.RpcTracing;
@@ -44,9 +46,34 @@ public final class GrpcTracing {
     return new Builder(rpcTracing);
   }
 
+  /**
+   * Wraps the propagation factory of {@link Tracing}, so that each trace context holds its
+   * "grpc-trace-bin" form, encoded on first use. This means injecting the same context again, such
+   * as on a retry or a fan-out, doesn't allocate. This has no effect unless {@link
+   * Builder#grpcBinaryPropagationOnly(boolean)} or {@link Builder#grpcPropagationFormatEnabled} is
+   * set.
+   *
+   * <p>Ex.
+   * <pre>{@code
+   * tracing = Tracing.newBuilder()
+   *   .propagationFactory(GrpcTracing.traceBinCachingFactory(B3Propagation.FACTORY))
+   *   ...
+   *   .build();
+   * grpcTracing = GrpcTracing.newBuilder(tracing).grpcBinaryPropagationOnly(true).build();
+   * }</pre>
+   *
+   * @since 5.14
+   */
+  public static Propagation.Factory traceBinCachingFactory(Propagation.Factory delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    return new GrpcPropagation.TraceBinCachingFactory(delegate);
+  }
+
   public static final class Builder {
     RpcTracing rpcTracing;
-    boolean grpcPropagationFormatEnabled = false;
+    boolean grpcPropagationFormatEnabled = false, grpcBinaryPropagationOnly = false;
+    boolean messageTagsEnabled = false, messageAnnotationReservoirSampling = false;
+    int messageAnnotationLimit = 0, messagesPerFlush = 0;
 
     // for interop with old parsers
     MessageProcessor clientMessageProcessor = MessageProcessor.NOOP;
@@ -61,6 +88,10 @@ public final class GrpcTracing {
       rpcTracing = grpcTracing.rpcTracing;
       clientMessageProcessor = grpcTracing.clientMessageProcessor;
       serverMessageProcessor = grpcTracing.serverMessageProcessor;
+      messageTagsEnabled = grpcTracing.messageTagsEnabled;
+      messageAnnotationLimit = grpcTracing.messageAnnotationLimit;
+      messageAnnotationReservoirSampling = grpcTracing.messageAnnotationReservoirSampling;
+      messagesPerFlush = grpcTracing.messagesPerFlush;
     }
 
     /**
@@ -117,6 +148,101 @@ public final class GrpcTracing {
       return this;
     }
 
+    /**
+     * When true, trace identifiers are only sent in "grpc-trace-bin", instead of also in the
+     * format of {@link RpcTracing#propagation()}, such as B3. Default is false.
+     *
+     * <p>This lowers the size and count of headers on each call, which matters when there are
+     * many concurrent streams. The binary form is 29 bytes. Other fields, such as baggage, are
+     * still sent as usual.
+     *
+     * <p>Servers in this mode prefer "grpc-trace-bin", but still read the trace identifiers from
+     * other headers, when it is absent. To avoid broken traces, enable this on servers before
+     * clients. The server doesn't decode "grpc-trace-bin" until it extracts the trace context, and
+     * doesn't read trace identifiers from other headers when it is present.
+     *
+     * <p>To encode the binary form once per trace context, instead of on each call, build {@link
+     * Tracing} with {@link GrpcTracing#traceBinCachingFactory(Propagation.Factory)}.
+     *
+     * @since 5.14
+     */
+    public Builder grpcBinaryPropagationOnly(boolean grpcBinaryPropagationOnly) {
+      this.grpcBinaryPropagationOnly = grpcBinaryPropagationOnly;
+      return this;
+    }
+
+    /**
+     * When true, counts of messages sent and received on each call are added as tags
+     * "grpc.messages_sent" and "grpc.messages_received". Default is false.
+     *
+     * <p>When messages are protocol buffers, their serialized sizes are also added as tags
+     * "grpc.bytes_sent" and "grpc.bytes_received". These exclude framing and compression.
+     *
+     * <p>Counts are kept in the span's memory until it finishes, so they are safe to use on
+     * streams with any count of messages.
+     *
+     * @see #messagesPerFlush(int)
+     * @since 5.14
+     */
+    public Builder messageTagsEnabled(boolean messageTagsEnabled) {
+      this.messageTagsEnabled = messageTagsEnabled;
+      return this;
+    }
+
+    /**
+     * When positive, up to this count of messages on each call are recorded as annotations
+     * "grpc.message_sent" or "grpc.message_received", at the time of the message. Default is zero,
+     * which means no message annotations.
+     *
+     * <p>By default, the first messages are annotated. To instead annotate a uniform random sample
+     * of all messages, see {@link #messageAnnotationReservoirSampling(boolean)}.
+     *
+     * @see #messagesPerFlush(int)
+     * @since 5.14
+     */
+    public Builder messageAnnotationLimit(int messageAnnotationLimit) {
+      if (messageAnnotationLimit < 0) {
+        throw new IllegalArgumentException("messageAnnotationLimit < 0");
+      }
+      this.messageAnnotationLimit = messageAnnotationLimit;
+      return this;
+    }
+
+    /**
+     * When true, the {@linkplain #messageAnnotationLimit(int) message annotations} are a uniform
+     * random sample of all messages, instead of the first ones. Default is false.
+     *
+     * <p>This is helpful on long streams, where the first messages are not representative of the
+     * rest. The sample is kept in a fixed size buffer and added when the span finishes.
+     *
+     * @since 5.14
+     */
+    public Builder messageAnnotationReservoirSampling(boolean messageAnnotationReservoirSampling) {
+      this.messageAnnotationReservoirSampling = messageAnnotationReservoirSampling;
+      return this;
+    }
+
+    /**
+     * When positive, every this count of messages on a call, a child span named "messages" is
+     * reported, covering the time since the last one. Default is zero, which means message data is
+     * only added to the call's span.
+     *
+     * <p>This is for long-lived streams, where waiting for the call to finish would hide message
+     * data for a long time. Each child span has the {@linkplain #messageTagsEnabled(boolean)
+     * counts} and {@linkplain #messageAnnotationLimit(int) annotations} of its messages. The last
+     * one is reported when the call finishes, and the call's span has counts for the whole call.
+     *
+     * <p>{@link #build()} fails unless tags or annotations are also enabled, as otherwise each
+     * child span would be empty.
+     *
+     * @since 5.14
+     */
+    public Builder messagesPerFlush(int messagesPerFlush) {
+      if (messagesPerFlush < 0) throw new IllegalArgumentException("messagesPerFlush < 0");
+      this.messagesPerFlush = messagesPerFlush;
+      return this;
+    }
+
     public GrpcTracing build() {
       return new GrpcTracing(this);
     }
@@ -124,18 +250,23 @@ public final class GrpcTracing {
 
   final RpcTracing rpcTracing;
   final Map<String, Metadata.Key<String>> nameToKey;
-  final boolean grpcPropagationFormatEnabled;
+  final boolean grpcPropagationFormatEnabled, grpcBinaryPropagationOnly;
+  final boolean messageTagsEnabled, messageAnnotationReservoirSampling;
+  final int messageAnnotationLimit, messagesPerFlush;
+  @Nullable final MessageEvents messageEvents;
 
   // for toBuilder()
   final MessageProcessor clientMessageProcessor, serverMessageProcessor;
 
   GrpcTracing(Builder builder) { // intentionally hidden constructor
     grpcPropagationFormatEnabled = builder.grpcPropagationFormatEnabled;
+    grpcBinaryPropagationOnly = builder.grpcBinaryPropagationOnly;
 
     // Decorate so that grpc-specific formats are sent downstream
-    if (grpcPropagationFormatEnabled) {
+    if (grpcPropagationFormatEnabled || grpcBinaryPropagationOnly) {
       rpcTracing = builder.rpcTracing.toBuilder()
-        .propagation(GrpcPropagation.create(builder.rpcTracing.propagation()))
+        .propagation(GrpcPropagation.create(builder.rpcTracing.propagation(),
+          grpcBinaryPropagationOnly))
         .build();
     } else {
       rpcTracing = builder.rpcTracing;
@@ -144,6 +275,12 @@ public final class GrpcTracing {
     nameToKey = GrpcPropagation.nameToKey(rpcTracing.propagation());
     clientMessageProcessor = builder.clientMessageProcessor;
     serverMessageProcessor = builder.serverMessageProcessor;
+    messageTagsEnabled = builder.messageTagsEnabled;
+    messageAnnotationLimit = builder.messageAnnotationLimit;
+    messageAnnotationReservoirSampling = builder.messageAnnotationReservoirSampling;
+    messagesPerFlush = builder.messagesPerFlush;
+    messageEvents = MessageEvents.create(rpcTracing.tracing(), messageTagsEnabled,
+      messageAnnotationLimit, messageAnnotationReservoirSampling, messagesPerFlush);
   }
 
   public Builder toBuilder() {
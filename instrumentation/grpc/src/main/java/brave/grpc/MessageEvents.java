@@ -0,0 +1,265 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.grpc;
+
+import brave.Clock;
+import brave.Span;
+import brave.Tracer;
+import brave.Tracing;
+import brave.internal.Nullable;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Records messages on a call in constant memory. See {@link
+ * GrpcTracing.Builder#messageTagsEnabled}, {@link GrpcTracing.Builder#messageAnnotationLimit} and
+ * {@link GrpcTracing.Builder#messagesPerFlush} for documentation.
+ */
+final class MessageEvents {
+  static final String
+    MESSAGES_SENT = "grpc.messages_sent",
+    MESSAGES_RECEIVED = "grpc.messages_received",
+    BYTES_SENT = "grpc.bytes_sent",
+    BYTES_RECEIVED = "grpc.bytes_received",
+    MESSAGE_SENT = "grpc.message_sent",
+    MESSAGE_RECEIVED = "grpc.message_received",
+    WINDOW_SPAN_NAME = "messages";
+
+  /**
+   * Returns null when no message events are enabled.
+   *
+   * @throws IllegalArgumentException if only flushing is enabled, as windows would be empty.
+   */
+  @Nullable static MessageEvents create(Tracing tracing, boolean tagsEnabled,
+    int annotationLimit, boolean reservoirSampling, int messagesPerFlush) {
+    if (!tagsEnabled && annotationLimit == 0) {
+      if (messagesPerFlush == 0) return null;
+      throw new IllegalArgumentException(
+        "messagesPerFlush requires messageTagsEnabled or messageAnnotationLimit");
+    }
+    return new MessageEvents(tracing, tagsEnabled, annotationLimit, reservoirSampling,
+      messagesPerFlush);
+  }
+
+  final Tracing tracing;
+  final boolean tagsEnabled, reservoirSampling;
+  final int annotationLimit, messagesPerFlush;
+
+  MessageEvents(Tracing tracing, boolean tagsEnabled, int annotationLimit,
+    boolean reservoirSampling, int messagesPerFlush) {
+    this.tracing = tracing;
+    this.tagsEnabled = tagsEnabled;
+    this.annotationLimit = annotationLimit;
+    this.reservoirSampling = reservoirSampling;
+    this.messagesPerFlush = messagesPerFlush;
+  }
+
+  /** Returns null when the span isn't recorded, as there's nothing to add messages to. */
+  @Nullable Recorder newRecorder(Span span) {
+    if (span.isNoop()) return null;
+    return new Recorder(this, span);
+  }
+
+  /**
+   * Holds counts for the whole call, and counts and annotations for the current window. Windows
+   * end when {@link GrpcTracing.Builder#messagesPerFlush} messages were recorded, or when the call
+   * finishes. Either way, the annotations buffer is reused, so memory doesn't grow with messages.
+   *
+   * <p>This is synchronized, as messages can be sent and received on different threads.
+   */
+  static final class Recorder {
+    final MessageEvents config;
+    final Span span;
+    final Clock clock;
+
+    // totals for the call
+    long sentCount, receivedCount, sentBytes, receivedBytes;
+    // counts for the current window
+    long windowSentCount, windowReceivedCount, windowSentBytes, windowReceivedBytes;
+    /** True when the size of any message was known. */
+    boolean sizeKnown;
+    long windowStartTimestamp;
+
+    // annotations in the current window
+    final long[] annotationTimestamps;
+    final boolean[] annotationSent;
+    /** Count of messages eligible for annotation in the current window. */
+    int annotationCandidates;
+    long randomState;
+
+    Recorder(MessageEvents config, Span span) {
+      this.config = config;
+      this.span = span;
+      this.clock = config.tracing.clock(span.context());
+      this.annotationTimestamps = new long[config.annotationLimit];
+      this.annotationSent = new boolean[config.annotationLimit];
+      this.randomState = span.context().spanId() ^ System.nanoTime();
+      if (randomState == 0L) randomState = 1L; // xorshift never leaves zero
+    }
+
+    void onMessageSent(Object message) {
+      onMessage(true, config.tagsEnabled ? sizeOf(message) : -1L);
+    }
+
+    void onMessageReceived(Object message) {
+      onMessage(false, config.tagsEnabled ? sizeOf(message) : -1L);
+    }
+
+    synchronized void onMessage(boolean sent, long size) {
+      if (size >= 0L) sizeKnown = true;
+      size = Math.max(size, 0L);
+      if (sent) {
+        sentCount++;
+        sentBytes += size;
+        windowSentCount++;
+        windowSentBytes += size;
+      } else {
+        receivedCount++;
+        receivedBytes += size;
+        windowReceivedCount++;
+        windowReceivedBytes += size;
+      }
+
+      long timestamp = 0L;
+      int index = annotationIndex();
+      if (index != -1) {
+        timestamp = clock.currentTimeMicroseconds();
+        annotationTimestamps[index] = timestamp;
+        annotationSent[index] = sent;
+      }
+
+      if (config.messagesPerFlush == 0) return;
+      if (windowStartTimestamp == 0L) {
+        windowStartTimestamp = timestamp != 0L ? timestamp : clock.currentTimeMicroseconds();
+      }
+      if (windowSentCount + windowReceivedCount >= config.messagesPerFlush) {
+        flushWindow(clock.currentTimeMicroseconds());
+      }
+    }
+
+    /** Returns where to store the annotation for this message, or -1 to not store one. */
+    int annotationIndex() {
+      int limit = config.annotationLimit;
+      if (limit == 0) return -1;
+      if (annotationCandidates < limit) return annotationCandidates++;
+      if (!config.reservoirSampling) return -1;
+
+      // Reservoir sampling: each message replaces a stored one with probability limit/candidates
+      int candidates = ++annotationCandidates;
+      if (candidates < 0) { // overflow: keep what we have
+        annotationCandidates = Integer.MAX_VALUE;
+        return -1;
+      }
+      int j = nextInt(candidates);
+      return j < limit ? j : -1;
+    }
+
+    /** Returns a pseudo-random int in [0, bound), using xorshift as it needs no allocation. */
+    int nextInt(int bound) {
+      long x = randomState;
+      x ^= x << 13;
+      x ^= x >>> 7;
+      x ^= x << 17;
+      randomState = x;
+      return (int) ((x >>> 1) % bound);
+    }
+
+    /** Reports the current window as a child span, and resets it. */
+    void flushWindow(long timestamp) {
+      Tracer tracer = config.tracing.tracer();
+      Span window = tracer.newChild(span.context()).name(WINDOW_SPAN_NAME);
+      window.start(windowStartTimestamp);
+      if (config.tagsEnabled) {
+        tagCounts(window, windowSentCount, windowReceivedCount, windowSentBytes,
+          windowReceivedBytes);
+      }
+      annotate(window);
+      window.finish(timestamp);
+
+      windowSentCount = windowReceivedCount = windowSentBytes = windowReceivedBytes = 0L;
+      windowStartTimestamp = 0L;
+    }
+
+    /** Adds message data to the call span, before it finishes. */
+    synchronized void finish() {
+      if (config.messagesPerFlush != 0) {
+        if (windowSentCount + windowReceivedCount > 0L) {
+          flushWindow(clock.currentTimeMicroseconds());
+        }
+      } else {
+        annotate(span);
+      }
+      if (config.tagsEnabled) tagCounts(span, sentCount, receivedCount, sentBytes, receivedBytes);
+    }
+
+    void tagCounts(Span target, long sent, long received, long bytesSent, long bytesReceived) {
+      target.tag(MESSAGES_SENT, String.valueOf(sent));
+      target.tag(MESSAGES_RECEIVED, String.valueOf(received));
+      if (!sizeKnown) return;
+      target.tag(BYTES_SENT, String.valueOf(bytesSent));
+      target.tag(BYTES_RECEIVED, String.valueOf(bytesReceived));
+    }
+
+    /** Adds stored annotations in timestamp order, and clears them. */
+    void annotate(Span target) {
+      int count = Math.min(annotationCandidates, config.annotationLimit);
+      sortByTimestamp(count);
+      for (int i = 0; i < count; i++) {
+        String value = annotationSent[i] ? MESSAGE_SENT : MESSAGE_RECEIVED;
+        target.annotate(annotationTimestamps[i], value);
+      }
+      annotationCandidates = 0;
+    }
+
+    /** Insertion sort, as reservoir sampling stores annotations out of order. */
+    void sortByTimestamp(int count) {
+      for (int i = 1; i < count; i++) {
+        long timestamp = annotationTimestamps[i];
+        boolean sent = annotationSent[i];
+        int j = i - 1;
+        for (; j >= 0 && annotationTimestamps[j] > timestamp; j--) {
+          annotationTimestamps[j + 1] = annotationTimestamps[j];
+          annotationSent[j + 1] = annotationSent[j];
+        }
+        annotationTimestamps[j + 1] = timestamp;
+        annotationSent[j + 1] = sent;
+      }
+    }
+  }
+
+  /** Returns the serialized size of a protobuf message, or -1 if unknown. */
+  static long sizeOf(Object message) {
+    if (Protobuf.PRESENT) return Protobuf.sizeOf(message);
+    return -1L;
+  }
+
+  /** Protobuf is optional, so this is only linked when present. */
+  static final class Protobuf {
+    static final boolean PRESENT = isPresent();
+
+    static long sizeOf(Object message) {
+      // Generated messages memoize their size, so this doesn't serialize them again.
+      if (message instanceof MessageLite) return ((MessageLite) message).getSerializedSize();
+      return -1L;
+    }
+
+    static boolean isPresent() {
+      try {
+        Class.forName("com.google.protobuf.MessageLite");
+        return true;
+      } catch (Throwable e) {
+        return false;
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@ package brave.grpc;
 import brave.NoopSpanCustomizer;
 import brave.Span;
 import brave.SpanCustomizer;
+import brave.grpc.MessageEvents.Recorder;
 import brave.internal.Nullable;
 import brave.propagation.CurrentTraceContext;
 import brave.propagation.CurrentTraceContext.Scope;
@@ -44,12 +45,14 @@ final class TracingClientInterceptor implements ClientInterceptor {
   final RpcClientHandler handler;
 
   final MessageProcessor messageProcessor;
+  @Nullable final MessageEvents messageEvents;
 
   TracingClientInterceptor(GrpcTracing grpcTracing) {
     nameToKey = grpcTracing.nameToKey;
     currentTraceContext = grpcTracing.rpcTracing.tracing().currentTraceContext();
     handler = RpcClientHandler.create(grpcTracing.rpcTracing);
     messageProcessor = grpcTracing.clientMessageProcessor;
+    messageEvents = grpcTracing.messageEvents;
   }
 
   @Override
@@ -64,6 +67,7 @@ final class TracingClientInterceptor implements ClientInterceptor {
     final CallOptions callOptions;
     final TraceContext invocationContext;
     final AtomicReference<Span> spanRef = new AtomicReference<>();
+    @Nullable Recorder messages; // assigned in start(), which happens before other methods
 
     TracingClientCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions,
       TraceContext invocationContext, ClientCall<ReqT, RespT> call) {
@@ -79,11 +83,13 @@ final class TracingClientInterceptor implements ClientInterceptor {
 
       Span span = handler.handleSendWithParent(request, invocationContext);
       spanRef.set(span);
+      messages = messageEvents != null ? messageEvents.newRecorder(span) : null;
 
       responseListener = new TracingClientCallListener<>(
         responseListener,
         invocationContext,
         spanRef,
+        messages,
         request
       );
 
@@ -119,7 +125,10 @@ final class TracingClientInterceptor implements ClientInterceptor {
         //
         // See instrumentation/grpc/RATIONALE.md for why we don't use the handler here
         Span span = spanRef.getAndSet(null);
-        if (span != null) span.error(e).finish();
+        if (span != null) {
+          if (messages != null) messages.finish();
+          span.error(e).finish();
+        }
         throw e;
       }
     }
@@ -136,6 +145,7 @@ final class TracingClientInterceptor implements ClientInterceptor {
         Span span = spanRef.get(); // could be an error
         SpanCustomizer customizer = span != null ? span.customizer() : NoopSpanCustomizer.INSTANCE;
         messageProcessor.onMessageSent(message, customizer);
+        if (messages != null) messages.onMessageSent(message);
       }
     }
   }
@@ -153,6 +163,7 @@ final class TracingClientInterceptor implements ClientInterceptor {
   final class TracingClientCallListener<RespT> extends SimpleForwardingClientCallListener<RespT> {
     @Nullable final TraceContext invocationContext;
     final AtomicReference<Span> spanRef;
+    @Nullable final Recorder messages;
     final GrpcClientRequest request;
     final Metadata headers = new Metadata();
 
@@ -160,11 +171,13 @@ final class TracingClientInterceptor implements ClientInterceptor {
       Listener<RespT> delegate,
       @Nullable TraceContext invocationContext,
       AtomicReference<Span> spanRef,
+      @Nullable Recorder messages,
       GrpcClientRequest request
     ) {
       super(delegate);
       this.invocationContext = invocationContext;
       this.spanRef = spanRef;
+      this.messages = messages;
       this.request = request;
     }
 
@@ -188,6 +201,7 @@ final class TracingClientInterceptor implements ClientInterceptor {
         Span span = spanRef.get(); // could be an error
         SpanCustomizer customizer = span != null ? span.customizer() : NoopSpanCustomizer.INSTANCE;
         messageProcessor.onMessageReceived(message, customizer);
+        if (messages != null) messages.onMessageReceived(message);
         delegate().onMessage(message);
       }
     }
@@ -196,7 +210,10 @@ final class TracingClientInterceptor implements ClientInterceptor {
       // See /instrumentation/grpc/RATIONALE.md for why we don't catch exceptions from the delegate
       GrpcClientResponse response = new GrpcClientResponse(request, headers, status, trailers);
       Span span = spanRef.getAndSet(null);
-      if (span != null) handler.handleReceive(response, span);
+      if (span != null) {
+        if (messages != null) messages.finish();
+        handler.handleReceive(response, span);
+      }
 
       try (Scope scope = currentTraceContext.maybeScope(invocationContext)) {
         delegate().onClose(status, trailers);
@@ -16,6 +16,8 @@ package brave.grpc;
 import brave.NoopSpanCustomizer;
 import brave.Span;
 import brave.SpanCustomizer;
+import brave.grpc.MessageEvents.Recorder;
+import brave.internal.Nullable;
 import brave.propagation.CurrentTraceContext;
 import brave.propagation.CurrentTraceContext.Scope;
 import brave.propagation.TraceContext;
@@ -39,6 +41,7 @@ final class TracingServerInterceptor implements ServerInterceptor {
   final RpcServerHandler handler;
   final boolean grpcPropagationFormatEnabled;
   final MessageProcessor messageProcessor;
+  @Nullable final MessageEvents messageEvents;
 
   TracingServerInterceptor(GrpcTracing grpcTracing) {
     nameToKey = grpcTracing.nameToKey;
@@ -46,6 +49,7 @@ final class TracingServerInterceptor implements ServerInterceptor {
     handler = RpcServerHandler.create(grpcTracing.rpcTracing);
     grpcPropagationFormatEnabled = grpcTracing.grpcPropagationFormatEnabled;
     messageProcessor = grpcTracing.serverMessageProcessor;
+    messageEvents = grpcTracing.messageEvents;
   }
 
   @Override
@@ -55,11 +59,13 @@ final class TracingServerInterceptor implements ServerInterceptor {
 
     Span span = handler.handleReceive(request);
     AtomicReference<Span> spanRef = new AtomicReference<>(span);
+    Recorder messages = messageEvents != null ? messageEvents.newRecorder(span) : null;
 
     // startCall invokes user interceptors, so we place the span in scope here
     Listener<ReqT> result;
     try (Scope scope = currentTraceContext.maybeScope(span.context())) {
-      result = next.startCall(new TracingServerCall<>(call, span, spanRef, request), headers);
+      result = next.startCall(
+        new TracingServerCall<>(call, span, spanRef, messages, request), headers);
     } catch (Throwable e) {
       // Another interceptor may throw an exception during startCall, in which case no other
       // callbacks are called, so go ahead and close the span here.
@@ -70,20 +76,22 @@ final class TracingServerInterceptor implements ServerInterceptor {
       throw e;
     }
 
-    return new TracingServerCallListener<>(result, span, spanRef, request);
+    return new TracingServerCallListener<>(result, span, spanRef, messages, request);
   }
 
   final class TracingServerCall<ReqT, RespT> extends SimpleForwardingServerCall<ReqT, RespT> {
     final TraceContext context;
     final AtomicReference<Span> spanRef;
+    @Nullable final Recorder messages;
     final GrpcServerRequest request;
     final Metadata headers = new Metadata();
 
     TracingServerCall(ServerCall<ReqT, RespT> delegate, Span span, AtomicReference<Span> spanRef,
-      GrpcServerRequest request) {
+      @Nullable Recorder messages, GrpcServerRequest request) {
       super(delegate);
       this.context = span.context();
       this.spanRef = spanRef;
+      this.messages = messages;
       this.request = request;
     }
 
@@ -107,6 +115,7 @@ final class TracingServerInterceptor implements ServerInterceptor {
         Span span = spanRef.get(); // could be an error
         SpanCustomizer customizer = span != null ? span.customizer() : NoopSpanCustomizer.INSTANCE;
         messageProcessor.onMessageSent(message, customizer);
+        if (messages != null) messages.onMessageSent(message);
       }
     }
 
@@ -114,7 +123,10 @@ final class TracingServerInterceptor implements ServerInterceptor {
       // See /instrumentation/grpc/RATIONALE.md for why we don't catch exceptions from the delegate
       GrpcServerResponse response = new GrpcServerResponse(request, headers, status, trailers);
       Span span = spanRef.getAndSet(null);
-      if (span != null) handler.handleSend(response, span);
+      if (span != null) {
+        if (messages != null) messages.finish();
+        handler.handleSend(response, span);
+      }
 
       try (Scope scope = currentTraceContext.maybeScope(context)) {
         delegate().close(status, trailers);
@@ -125,17 +137,20 @@ final class TracingServerInterceptor implements ServerInterceptor {
   final class TracingServerCallListener<RespT> extends SimpleForwardingServerCallListener<RespT> {
     final TraceContext context;
     final AtomicReference<Span> spanRef;
+    @Nullable final Recorder messages;
     final GrpcServerRequest request;
 
     TracingServerCallListener(
       Listener<RespT> delegate,
       Span span,
       AtomicReference<Span> spanRef,
+      @Nullable Recorder messages,
       GrpcServerRequest request
     ) {
       super(delegate);
       this.context = span.context();
       this.spanRef = spanRef;
+      this.messages = messages;
       this.request = request;
     }
 
@@ -145,6 +160,7 @@ final class TracingServerInterceptor implements ServerInterceptor {
         Span span = spanRef.get(); // could be an error
         SpanCustomizer customizer = span != null ? span.customizer() : NoopSpanCustomizer.INSTANCE;
         messageProcessor.onMessageReceived(message, customizer);
+        if (messages != null) messages.onMessageReceived(message);
       }
     }
 
@@ -157,7 +173,10 @@ final class TracingServerInterceptor implements ServerInterceptor {
         //
         // See instrumentation/grpc/RATIONALE.md for why we don't use the handler here
         Span span = spanRef.getAndSet(null);
-        if (span != null) span.error(e).finish();
+        if (span != null) {
+          if (messages != null) messages.finish();
+          span.error(e).finish();
+        }
 
         throw e;
       }
@@ -328,6 +328,44 @@ public abstract class BaseITTracingClientInterceptor extends ITRemote {
     testSpanHandler.takeRemoteSpan(CLIENT);
   }
 
+  @Test public void grpcBinaryPropagationOnly() {
+    closeClient(client);
+    grpcTracing = grpcTracing.toBuilder().grpcBinaryPropagationOnly(true).build();
+    client = newClient();
+
+    GreeterGrpc.newBlockingStub(client).sayHello(HELLO_REQUEST);
+
+    // Check only the grpc-trace-bin header was sent
+    Metadata headers = server.headers.poll();
+    assertThat(headers.keys())
+      .contains(GRPC_TRACE_BIN.name())
+      .doesNotContain("b3", "x-b3-traceid", "x-b3-spanid");
+
+    MutableSpan span = testSpanHandler.takeRemoteSpan(CLIENT);
+    TraceContext sent = TraceContextBinaryFormat.parseBytes(headers.get(GRPC_TRACE_BIN), null);
+    assertThat(sent.spanIdString()).isEqualTo(span.id());
+  }
+
+  @Test public void messageEvents_streamingResponse() {
+    closeClient(client);
+    grpcTracing = grpcTracing.toBuilder()
+      .messageTagsEnabled(true)
+      .messageAnnotationLimit(3)
+      .build();
+    client = newClient();
+
+    Iterator<HelloReply> replies = GreeterGrpc.newBlockingStub(client)
+      .sayHelloWithManyReplies(HELLO_REQUEST);
+    assertThat(replies).toIterable().hasSize(10);
+
+    MutableSpan span = testSpanHandler.takeRemoteSpan(CLIENT);
+    assertThat(span.tags())
+      .containsEntry("grpc.messages_sent", "1")
+      .containsEntry("grpc.messages_received", "10")
+      .containsKeys("grpc.bytes_sent", "grpc.bytes_received");
+    assertThat(span.annotations()).hasSize(3);
+  }
+
   @Test public void deprecated_clientParserTestStreamingResponse() {
     closeClient(client);
     grpcTracing = grpcTracing.toBuilder().clientParser(new GrpcClientParser() {
@@ -53,7 +53,9 @@ import io.grpc.examples.helloworld.HelloReply;
 import io.grpc.examples.helloworld.HelloRequest;
 import io.grpc.internal.GrpcUtil;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -257,6 +259,31 @@ public abstract class BaseITTracingServerInterceptor extends ITRemote {
     assertThat(testSpanHandler.takeRemoteSpan(Span.Kind.SERVER).tags()).hasSize(10);
   }
 
+  @Test public void messagesPerFlush_streamingResponse() throws IOException {
+    grpcTracing = grpcTracing.toBuilder()
+      .messageTagsEnabled(true)
+      .messagesPerFlush(4)
+      .build();
+    init();
+
+    Iterator<HelloReply> replies = GreeterGrpc.newBlockingStub(client)
+      .sayHelloWithManyReplies(HELLO_REQUEST);
+    assertThat(replies).toIterable().hasSize(10);
+
+    // 11 messages in windows of 4, which are all reported before the server span
+    List<MutableSpan> windows = new ArrayList<>();
+    for (int i = 0; i < 3; i++) windows.add(testSpanHandler.takeLocalSpan());
+    MutableSpan server = testSpanHandler.takeRemoteSpan(Span.Kind.SERVER);
+
+    assertThat(windows).extracting(MutableSpan::name).containsOnly("messages");
+    assertThat(windows).extracting(MutableSpan::parentId).containsOnly(server.id());
+    assertThat(windows).extracting(w -> Integer.parseInt(w.tag("grpc.messages_sent"))
+      + Integer.parseInt(w.tag("grpc.messages_received"))).containsExactly(4, 4, 3);
+    assertThat(server.tags())
+      .containsEntry("grpc.messages_sent", "10")
+      .containsEntry("grpc.messages_received", "1");
+  }
+
   @Test public void deprecated_grpcPropagationFormatEnabled() throws IOException {
     grpcTracing = grpcTracing.toBuilder().grpcPropagationFormatEnabled(true).build();
     init();
@@ -273,6 +300,35 @@ public abstract class BaseITTracingServerInterceptor extends ITRemote {
       .isEqualTo(context.traceIdString());
   }
 
+  @Test public void grpcBinaryPropagationOnly() throws IOException {
+    grpcTracing = grpcTracing.toBuilder().grpcBinaryPropagationOnly(true).build();
+    init();
+
+    TraceContext context = newTraceContext(SamplingFlags.SAMPLED);
+
+    Metadata headers = new Metadata();
+    headers.put(GRPC_TRACE_BIN, TraceContextBinaryFormat.toBytes(context));
+    attachHeaders(GreeterGrpc.newBlockingStub(client), headers).sayHello(HELLO_REQUEST);
+
+    assertThat(testSpanHandler.takeRemoteSpan(Span.Kind.SERVER).traceId())
+      .isEqualTo(context.traceIdString());
+  }
+
+  /** Text headers are still read, so that callers can be migrated before servers. */
+  @Test public void grpcBinaryPropagationOnly_readsB3() throws IOException {
+    grpcTracing = grpcTracing.toBuilder().grpcBinaryPropagationOnly(true).build();
+    init();
+
+    TraceContext context = newTraceContext(SamplingFlags.SAMPLED);
+
+    Metadata headers = new Metadata();
+    headers.put(Key.of("b3", ASCII_STRING_MARSHALLER), B3SingleFormat.writeB3SingleFormat(context));
+    attachHeaders(GreeterGrpc.newBlockingStub(client), headers).sayHello(HELLO_REQUEST);
+
+    assertThat(testSpanHandler.takeRemoteSpan(Span.Kind.SERVER).traceId())
+      .isEqualTo(context.traceIdString());
+  }
+
   // Make sure we work well with bad user interceptors.
 
   @Test public void userInterceptor_throwsOnStartCall() throws IOException {
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.grpc;
+
+import brave.baggage.BaggageField;
+import brave.baggage.BaggagePropagation;
+import brave.baggage.BaggagePropagationConfig.SingleBaggageField;
+import brave.propagation.B3Propagation;
+import brave.propagation.Propagation;
+import brave.propagation.TraceContext;
+import brave.propagation.TraceContext.Extractor;
+import brave.propagation.TraceContext.Injector;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static brave.grpc.GrpcPropagation.GRPC_TRACE_BIN;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+
+public class GrpcPropagationTest {
+  static final BaggageField COUNTRY_CODE = BaggageField.create("country-code");
+
+  TraceContext context =
+    TraceContext.newBuilder().traceIdHigh(1L).traceId(2L).spanId(3L).sampled(true).build();
+  Metadata headers = new Metadata();
+
+  @Test public void injectsBothFormats() {
+    Propagation<String> propagation = GrpcPropagation.create(B3Propagation.get());
+    inject(propagation, context);
+
+    assertThat(headers.get(GRPC_TRACE_BIN)).isNotNull();
+    assertThat(headers.keys()).contains("x-b3-traceid");
+  }
+
+  @Test public void binaryOnly_injectsOnlyTraceBin() {
+    Propagation<String> propagation = GrpcPropagation.create(B3Propagation.get(), true);
+    inject(propagation, context);
+
+    assertThat(TraceContextBinaryFormat.parseBytes(headers.get(GRPC_TRACE_BIN), null))
+      .isEqualTo(context);
+    assertThat(headers.keys()).containsExactly(GRPC_TRACE_BIN.name());
+  }
+
+  @Test public void binaryOnly_stillInjectsBaggage() {
+    Propagation<String> propagation = GrpcPropagation.create(BaggagePropagation.newFactoryBuilder(
+      B3Propagation.FACTORY).add(SingleBaggageField.remote(COUNTRY_CODE)).build().get(), true);
+    TraceContext context = propagation.extractor((request, key) -> null).extract(Boolean.TRUE)
+      .toBuilder().context(this.context).build().context();
+    COUNTRY_CODE.updateValue(context, "FO");
+
+    inject(propagation, context);
+
+    assertThat(headers.keys()).containsExactly(GRPC_TRACE_BIN.name(), "country-code");
+    assertThat(headers.get(Key.of("country-code", Metadata.ASCII_STRING_MARSHALLER)))
+      .isEqualTo("FO");
+  }
+
+  /** Custom fields can be listed in {@link Propagation#keys()} without being baggage. */
+  @Test public void binaryOnly_stillInjectsOtherKeys() {
+    Propagation<String> propagation = GrpcPropagation.create(new TenantPropagation(), true);
+    TraceContext context = this.context.toBuilder().addExtra(new Tenant("acme")).build();
+
+    inject(propagation, context);
+
+    assertThat(headers.keys()).containsExactly(GRPC_TRACE_BIN.name(), "tenant");
+    assertThat(headers.get(Key.of("tenant", Metadata.ASCII_STRING_MARSHALLER)))
+      .isEqualTo("acme");
+  }
+
+  @Test public void traceIdKeys_excludesOtherKeys() {
+    assertThat(GrpcPropagation.traceIdKeys(new TenantPropagation()))
+      .containsExactlyInAnyOrderElementsOf(B3Propagation.get().keys())
+      .doesNotContain("tenant");
+  }
+
+  @Test public void binaryOnly_injectsTextWhenNotGrpc() {
+    Propagation<String> propagation = GrpcPropagation.create(B3Propagation.get(), true);
+    Map<String, String> request = new LinkedHashMap<>();
+    propagation.<Map<String, String>>injector(Map::put).inject(context, request);
+
+    assertThat(request).contains(entry("X-B3-SpanId", "0000000000000003"));
+  }
+
+  @Test public void traceBinCachingFactory_reusesBytesOfDecoratedContext() {
+    Propagation.Factory factory = GrpcTracing.traceBinCachingFactory(B3Propagation.FACTORY);
+    Propagation<String> propagation = GrpcPropagation.create(factory.get(), true);
+    TraceContext decorated = factory.decorate(context);
+
+    inject(propagation, decorated);
+    Metadata otherHeaders = new Metadata();
+    injector(propagation).inject(decorated, request(propagation, otherHeaders));
+
+    assertThat(otherHeaders.get(GRPC_TRACE_BIN))
+      .isSameAs(headers.get(GRPC_TRACE_BIN))
+      .isEqualTo(TraceContextBinaryFormat.toBytes(context));
+  }
+
+  @Test public void traceBinCachingFactory_replacesInheritedHolder() {
+    Propagation.Factory factory = GrpcTracing.traceBinCachingFactory(B3Propagation.FACTORY);
+    TraceContext parent = factory.decorate(context);
+    TraceContext child = factory.decorate(parent.toBuilder().parentId(3L).spanId(4L).build());
+
+    assertThat(child.extra()).hasSize(1);
+    assertThat(GrpcPropagation.TraceBin.bytes(child))
+      .isEqualTo(TraceContextBinaryFormat.toBytes(child));
+    assertThat(GrpcPropagation.TraceBin.bytes(parent))
+      .isEqualTo(TraceContextBinaryFormat.toBytes(parent));
+  }
+
+  @Test public void traceBin_ignoresHolderOfCopiedExtra() {
+    TraceContext decorated = GrpcPropagation.TraceBin.decorate(context);
+    TraceContext unsampled = decorated.toBuilder().sampled(false).build();
+
+    assertThat(GrpcPropagation.TraceBin.bytes(decorated)).isNotSameAs(
+      GrpcPropagation.TraceBin.bytes(unsampled));
+    assertThat(GrpcPropagation.TraceBin.bytes(unsampled))
+      .isEqualTo(TraceContextBinaryFormat.toBytes(unsampled));
+  }
+
+  void inject(Propagation<String> propagation, TraceContext context) {
+    injector(propagation).inject(context, request(propagation, headers));
+  }
+
+  static Injector<GrpcClientRequest> injector(Propagation<String> propagation) {
+    return propagation.injector(GrpcClientRequest::propagationField);
+  }
+
+  static GrpcClientRequest request(Propagation<String> propagation, Metadata headers) {
+    return new GrpcClientRequest(GrpcPropagation.nameToKey(propagation),
+      TestObjects.METHOD_DESCRIPTOR, CallOptions.DEFAULT, mock(ClientCall.class), headers);
+  }
+
+  static final class Tenant {
+    final String name;
+
+    Tenant(String name) {
+      this.name = name;
+    }
+  }
+
+  /** Writes a {@link Tenant} in addition to B3, similar to a vendor-specific header. */
+  static final class TenantPropagation implements Propagation<String> {
+    final Propagation<String> b3 = B3Propagation.get();
+    final List<String> keys = new ArrayList<>(b3.keys());
+
+    TenantPropagation() {
+      keys.add("tenant");
+    }
+
+    @Override public List<String> keys() {
+      return keys;
+    }
+
+    @Override public <R> Injector<R> injector(Setter<R, String> setter) {
+      Injector<R> delegate = b3.injector(setter);
+      return (context, request) -> {
+        delegate.inject(context, request);
+        Tenant tenant = context.findExtra(Tenant.class);
+        if (tenant != null) setter.put(request, "tenant", tenant.name);
+      };
+    }
+
+    @Override public <R> Extractor<R> extractor(Getter<R, String> getter) {
+      return b3.extractor(getter);
+    }
+  }
+}
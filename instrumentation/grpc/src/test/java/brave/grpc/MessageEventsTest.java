@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.grpc;
+
+import brave.Span;
+import brave.Tracing;
+import brave.grpc.MessageEvents.Recorder;
+import brave.handler.MutableSpan;
+import brave.sampler.Sampler;
+import brave.test.TestSpanHandler;
+import com.google.protobuf.MessageLite;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+
+import static brave.grpc.GreeterImpl.HELLO_REQUEST;
+import static brave.grpc.MessageEvents.MESSAGE_RECEIVED;
+import static brave.grpc.MessageEvents.MESSAGE_SENT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class MessageEventsTest {
+  TestSpanHandler spans = new TestSpanHandler();
+  long timestamp = 1L;
+  Tracing tracing = Tracing.newBuilder()
+    .clock(() -> timestamp++)
+    .addSpanHandler(spans)
+    .build();
+  Span span = tracing.tracer().newTrace().name("call").start();
+
+  @After public void close() {
+    tracing.close();
+  }
+
+  @Test public void create_nullWhenDisabled() {
+    assertThat(MessageEvents.create(tracing, false, 0, true, 0)).isNull();
+  }
+
+  @Test public void newRecorder_nullWhenNoop() {
+    MessageEvents messageEvents = MessageEvents.create(tracing, true, 0, false, 0);
+    Span unsampled = tracing.tracer().withSampler(Sampler.NEVER_SAMPLE).newTrace();
+
+    assertThat(messageEvents.newRecorder(unsampled)).isNull();
+  }
+
+  @Test public void tagsCountsAndBytes() {
+    Recorder recorder = newRecorder(true, 0, false, 0);
+    recorder.onMessageSent(HELLO_REQUEST);
+    recorder.onMessageReceived(HELLO_REQUEST);
+    recorder.onMessageReceived(HELLO_REQUEST);
+    finish(recorder);
+
+    int size = HELLO_REQUEST.getSerializedSize();
+    assertThat(spans.get(0).tags()).containsOnly(
+      entry("grpc.messages_sent", "1"),
+      entry("grpc.messages_received", "2"),
+      entry("grpc.bytes_sent", String.valueOf(size)),
+      entry("grpc.bytes_received", String.valueOf(size * 2))
+    );
+  }
+
+  @Test public void tagsCounts_sizeUnknown() {
+    Recorder recorder = newRecorder(true, 0, false, 0);
+    recorder.onMessageSent("not protobuf");
+    finish(recorder);
+
+    assertThat(spans.get(0).tags()).containsOnly(
+      entry("grpc.messages_sent", "1"),
+      entry("grpc.messages_received", "0")
+    );
+  }
+
+  /** Only tags use the size, so it isn't computed when only annotating. */
+  @Test public void annotationsOnly_doesntComputeSize() {
+    MessageLite message = mock(MessageLite.class);
+    Recorder recorder = newRecorder(false, 1, false, 0);
+    recorder.onMessageSent(message);
+    recorder.onMessageReceived(message);
+    finish(recorder);
+
+    verify(message, never()).getSerializedSize();
+  }
+
+  @Test public void annotatesFirstMessages() {
+    Recorder recorder = newRecorder(false, 2, false, 0);
+    recorder.onMessageSent(HELLO_REQUEST);
+    recorder.onMessageReceived(HELLO_REQUEST);
+    for (int i = 0; i < 10; i++) recorder.onMessageReceived(HELLO_REQUEST);
+    finish(recorder);
+
+    assertThat(spans.get(0).tags()).isEmpty();
+    assertThat(annotationValues(spans.get(0))).containsExactly(MESSAGE_SENT, MESSAGE_RECEIVED);
+  }
+
+  @Test public void reservoirSampling_boundedAndOrdered() {
+    Recorder recorder = newRecorder(false, 3, true, 0);
+    for (int i = 0; i < 1000; i++) recorder.onMessageReceived(HELLO_REQUEST);
+    finish(recorder);
+
+    List<Long> timestamps = new ArrayList<>();
+    for (Map.Entry<Long, String> annotation : spans.get(0).annotations()) {
+      timestamps.add(annotation.getKey());
+    }
+    assertThat(timestamps).hasSize(3).isSorted();
+  }
+
+  @Test public void reservoirSampling_replacesEarlyMessages() {
+    Recorder recorder = newRecorder(false, 1, true, 0);
+    recorder.randomState = 1L; // fixed seed, as the chance the first message remains is 1 in 1001
+    recorder.onMessageSent(HELLO_REQUEST);
+    for (int i = 0; i < 1000; i++) recorder.onMessageReceived(HELLO_REQUEST);
+    finish(recorder);
+
+    assertThat(annotationValues(spans.get(0))).containsExactly(MESSAGE_RECEIVED);
+  }
+
+  @Test public void messagesPerFlush_reportsWindows() {
+    Recorder recorder = newRecorder(true, 1, false, 2);
+    recorder.onMessageSent(HELLO_REQUEST);
+    recorder.onMessageReceived(HELLO_REQUEST);
+    assertThat(spans).hasSize(1); // first window
+
+    recorder.onMessageReceived(HELLO_REQUEST);
+    finish(recorder);
+
+    assertThat(spans).hasSize(3);
+    MutableSpan first = spans.get(0), second = spans.get(1), call = spans.get(2);
+
+    assertThat(first.name()).isEqualTo("messages");
+    assertThat(first.parentId()).isEqualTo(call.id());
+    assertThat(first.tags())
+      .containsEntry("grpc.messages_sent", "1")
+      .containsEntry("grpc.messages_received", "1");
+    assertThat(annotationValues(first)).containsExactly(MESSAGE_SENT);
+
+    // The last window is reported when the call finishes
+    assertThat(second.name()).isEqualTo("messages");
+    assertThat(second.startTimestamp()).isGreaterThan(first.finishTimestamp());
+    assertThat(second.tags())
+      .containsEntry("grpc.messages_sent", "0")
+      .containsEntry("grpc.messages_received", "1");
+    assertThat(annotationValues(second)).containsExactly(MESSAGE_RECEIVED);
+
+    // The call has totals, but no annotations
+    assertThat(call.tags())
+      .containsEntry("grpc.messages_sent", "1")
+      .containsEntry("grpc.messages_received", "2");
+    assertThat(call.annotations()).isEmpty();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void messagesPerFlush_requiresTagsOrAnnotations() {
+    MessageEvents.create(tracing, false, 0, false, 10);
+  }
+
+  @Test public void messagesPerFlush_noEmptyWindowOnFinish() {
+    Recorder recorder = newRecorder(true, 0, false, 1);
+    recorder.onMessageSent(HELLO_REQUEST);
+    finish(recorder);
+
+    assertThat(spans).extracting(MutableSpan::name).containsExactly("messages", "call");
+  }
+
+  Recorder newRecorder(boolean tagsEnabled, int annotationLimit, boolean reservoirSampling,
+    int messagesPerFlush) {
+    return MessageEvents.create(tracing, tagsEnabled, annotationLimit, reservoirSampling,
+      messagesPerFlush).newRecorder(span);
+  }
+
+  void finish(Recorder recorder) {
+    recorder.finish();
+    span.finish();
+  }
+
+  static List<String> annotationValues(MutableSpan span) {
+    List<String> result = new ArrayList<>();
+    for (Map.Entry<Long, String> annotation : span.annotations()) {
+      result.add(annotation.getValue());
+    }
+    return result;
+  }
+}
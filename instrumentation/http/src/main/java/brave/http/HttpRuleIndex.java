@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.http;
+
+import brave.http.HttpRequestMatchers.MethodEquals;
+import brave.http.HttpRequestMatchers.PathStartsWith;
+import brave.internal.InternalSampler;
+import brave.internal.Nullable;
+import brave.sampler.Matcher;
+import brave.sampler.ParameterizedSampler;
+import brave.sampler.Sampler;
+import brave.sampler.SamplerFunction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the rules of a {@link ParameterizedSampler} in order, like {@link
+ * ParameterizedSampler#trySample(Object)}, except that rules made only of {@link
+ * HttpRequestMatchers} are looked up in an index instead of scanned.
+ *
+ * <p>Rules which are a {@link HttpRequestMatchers#methodEquals(String) method}, a {@link
+ * HttpRequestMatchers#pathStartsWith(String) path prefix}, an {@link brave.sampler.Matchers#and
+ * and} of one of each, or an {@link brave.sampler.Matchers#or or} of those, are indexed by method
+ * and in a trie of path prefixes. Finding the first indexed rule that matches takes time
+ * proportional to the length of the request path, regardless of how many rules there are.
+ *
+ * <p>Other rules, such as custom matchers, are evaluated as usual. These are only invoked when no
+ * indexed rule before them matched. As indexed matchers have no side effects, the result is the
+ * same as evaluating all rules in order.
+ */
+final class HttpRuleIndex implements SamplerFunction<HttpRequest> {
+  static final int NO_MATCH = Integer.MAX_VALUE;
+
+  static HttpRuleIndex create(ParameterizedSampler<HttpRequest> delegate) {
+    Matcher<HttpRequest>[] matchers = InternalSampler.instance.matchers(delegate);
+    Sampler[] samplers = InternalSampler.instance.samplers(delegate);
+
+    Map<String, Integer> methodRules = new LinkedHashMap<>();
+    Node pathRules = new Node();
+    List<Integer> unindexed = new ArrayList<>();
+    List<Term> terms = new ArrayList<>();
+    for (int rule = 0; rule < matchers.length; rule++) {
+      terms.clear();
+      if (!addTerms(matchers[rule], terms)) {
+        unindexed.add(rule);
+        continue;
+      }
+      for (Term term : terms) {
+        if (term.pathPrefix == null) {
+          putIfAbsent(methodRules, term.method, rule);
+        } else {
+          pathRules.add(term.method, term.pathPrefix, rule);
+        }
+      }
+    }
+
+    int[] unindexedRules = new int[unindexed.size()];
+    for (int i = 0; i < unindexedRules.length; i++) unindexedRules[i] = unindexed.get(i);
+    return new HttpRuleIndex(matchers, samplers, methodRules, pathRules, unindexedRules);
+  }
+
+  final Matcher<HttpRequest>[] matchers;
+  final Sampler[] samplers;
+  /** Method to the first rule that only matches on it. */
+  final Map<String, Integer> methodRules;
+  /** Trie of path prefixes. The root is the empty prefix, which is never indexed. */
+  final Node pathRules;
+  /** Index of rules evaluated with {@link Matcher#matches(Object)}, in ascending order. */
+  final int[] unindexedRules;
+  final boolean indexed;
+
+  HttpRuleIndex(Matcher<HttpRequest>[] matchers, Sampler[] samplers,
+    Map<String, Integer> methodRules, Node pathRules, int[] unindexedRules) {
+    this.matchers = matchers;
+    this.samplers = samplers;
+    this.methodRules = methodRules;
+    this.pathRules = pathRules;
+    this.unindexedRules = unindexedRules;
+    this.indexed = unindexedRules.length < matchers.length;
+  }
+
+  @Override public @Nullable Boolean trySample(HttpRequest request) {
+    if (request == null) return null;
+    int rule = indexed ? firstIndexedMatch(request.method(), request.path()) : NO_MATCH;
+
+    // Unindexed rules only need to be checked if they come before the indexed match.
+    for (int unindexed : unindexedRules) {
+      if (unindexed > rule) break;
+      if (matchers[unindexed].matches(request)) {
+        rule = unindexed;
+        break;
+      }
+    }
+
+    if (rule == NO_MATCH) return null;
+    return samplers[rule].isSampled(0L); // counting sampler ignores the input
+  }
+
+  /** Returns the index of the first indexed rule that matches, or {@link #NO_MATCH}. */
+  int firstIndexedMatch(@Nullable String method, @Nullable String path) {
+    int result = NO_MATCH;
+    if (method != null) {
+      Integer rule = methodRules.get(method);
+      if (rule != null) result = rule;
+    }
+    if (path == null) return result;
+
+    Node node = pathRules;
+    for (int i = 0; node != null && node.firstRule < result; i++) {
+      int rule = node.firstMatch(method);
+      if (rule < result) result = rule;
+      if (i == path.length()) break;
+      node = node.child(path.charAt(i));
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return "HttpRuleIndex{rules=" + matchers.length + ", unindexed=" + unindexedRules.length + "}";
+  }
+
+  /** Adds the terms of an indexable matcher, returning false if it isn't one. */
+  static boolean addTerms(Matcher<HttpRequest> matcher, List<Term> terms) {
+    Matcher<HttpRequest>[] or = InternalSampler.instance.orMatchers(matcher);
+    if (or == null) return addTerm(matcher, terms);
+    for (Matcher<HttpRequest> next : or) {
+      if (!addTerm(next, terms)) return false;
+    }
+    return true;
+  }
+
+  static boolean addTerm(Matcher<HttpRequest> matcher, List<Term> terms) {
+    Matcher<HttpRequest>[] and = InternalSampler.instance.andMatchers(matcher);
+    if (and == null) and = new Matcher[] {matcher};
+    String method = null, pathPrefix = null;
+    for (Matcher<HttpRequest> next : and) {
+      if (next instanceof MethodEquals && method == null) {
+        method = ((MethodEquals) next).method;
+      } else if (next instanceof PathStartsWith && pathPrefix == null) {
+        pathPrefix = ((PathStartsWith) next).pathPrefix;
+      } else {
+        return false; // not a matcher we know, or redundant
+      }
+    }
+    terms.add(new Term(method, pathPrefix));
+    return true;
+  }
+
+  static void putIfAbsent(Map<String, Integer> map, String key, int rule) {
+    if (!map.containsKey(key)) map.put(key, rule);
+  }
+
+  static final class Term {
+    @Nullable final String method, pathPrefix;
+
+    Term(@Nullable String method, @Nullable String pathPrefix) {
+      this.method = method;
+      this.pathPrefix = pathPrefix;
+    }
+  }
+
+  /** A node in a trie of path prefixes, holding the first rules that end at this prefix. */
+  static final class Node {
+    char[] keys = new char[0]; // sorted for binary search
+    Node[] children = new Node[0];
+    /** The first rule in this node or its children, which allows lookups to end early. */
+    int firstRule = NO_MATCH;
+    /** The first rule ending at this prefix, which doesn't also match on method. */
+    int anyMethodRule = NO_MATCH;
+    /** Method to the first rule ending at this prefix, which also matches on it. */
+    @Nullable Map<String, Integer> methodRules;
+
+    /** Rules are added in ascending order, so the first one added for a key wins. */
+    void add(@Nullable String method, String pathPrefix, int rule) {
+      Node node = this;
+      for (int i = 0; i < pathPrefix.length(); i++) {
+        if (node.firstRule == NO_MATCH) node.firstRule = rule;
+        node = node.addChild(pathPrefix.charAt(i));
+      }
+      if (node.firstRule == NO_MATCH) node.firstRule = rule;
+      if (method == null) {
+        if (node.anyMethodRule == NO_MATCH) node.anyMethodRule = rule;
+        return;
+      }
+      if (node.methodRules == null) node.methodRules = new LinkedHashMap<>();
+      putIfAbsent(node.methodRules, method, rule);
+    }
+
+    int firstMatch(@Nullable String method) {
+      int result = anyMethodRule;
+      if (method == null || methodRules == null) return result;
+      Integer rule = methodRules.get(method);
+      return rule != null && rule < result ? rule : result;
+    }
+
+    @Nullable Node child(char key) {
+      int i = Arrays.binarySearch(keys, key);
+      return i >= 0 ? children[i] : null;
+    }
+
+    Node addChild(char key) {
+      int i = Arrays.binarySearch(keys, key);
+      if (i >= 0) return children[i];
+
+      // Only happens when building the index, so we favor smaller nodes over faster inserts.
+      int insertAt = -i - 1, length = keys.length;
+      char[] newKeys = new char[length + 1];
+      Node[] newChildren = new Node[length + 1];
+      System.arraycopy(keys, 0, newKeys, 0, insertAt);
+      System.arraycopy(children, 0, newChildren, 0, insertAt);
+      System.arraycopy(keys, insertAt, newKeys, insertAt + 1, length - insertAt);
+      System.arraycopy(children, insertAt, newChildren, insertAt + 1, length - insertAt);
+      Node result = new Node();
+      newKeys[insertAt] = key;
+      newChildren[insertAt] = result;
+      keys = newKeys;
+      children = newChildren;
+      return result;
+    }
+  }
+}
@@ -61,6 +61,10 @@ import static brave.sampler.Matchers.and;
  * <h3>Implementation notes</h3>
  * Be careful when implementing matchers as {@link HttpRequest} methods can return null.
  *
+ * <p>Rules made of {@link HttpRequestMatchers} are indexed by method and path prefix, so sampling
+ * doesn't slow down as more of these are added. The first matching rule still wins, including when
+ * custom matchers are mixed in.
+ *
  * @since 4.4
  */
 public final class HttpRuleSampler extends HttpSampler implements SamplerFunction<HttpRequest> {
@@ -125,13 +129,15 @@ public final class HttpRuleSampler extends HttpSampler implements SamplerFunctio
   }
 
   final ParameterizedSampler<HttpRequest> delegate;
+  final HttpRuleIndex index;
 
   HttpRuleSampler(ParameterizedSampler<HttpRequest> delegate) {
     this.delegate = delegate;
+    this.index = HttpRuleIndex.create(delegate);
   }
 
   @Override public Boolean trySample(HttpRequest request) {
-    return delegate.trySample(request);
+    return index.trySample(request);
   }
 
   @Override @Deprecated public <Req> Boolean trySample(HttpAdapter<Req, ?> adapter, Req request) {
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.http;
+
+import brave.sampler.Matcher;
+import brave.sampler.ParameterizedSampler;
+import brave.sampler.Sampler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static brave.http.HttpRequestMatchers.methodEquals;
+import static brave.http.HttpRequestMatchers.pathStartsWith;
+import static brave.sampler.Matchers.and;
+import static brave.sampler.Matchers.or;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpRuleIndexTest {
+  ParameterizedSampler.Builder<HttpRequest> builder = ParameterizedSampler.newBuilder();
+  /** Holds the index of the last rule whose sampler was called. */
+  AtomicInteger matched = new AtomicInteger(-1);
+  int ruleCount;
+
+  @Test public void pathPrefix() {
+    putRule(pathStartsWith("/foo"));
+    HttpRuleIndex index = build();
+
+    assertThat(firstMatch(index, "GET", "/foo")).isZero();
+    assertThat(firstMatch(index, "GET", "/foo/bar")).isZero();
+    assertThat(firstMatch(index, "GET", "/fo")).isEqualTo(-1);
+    assertThat(firstMatch(index, "GET", "/bar")).isEqualTo(-1);
+    assertThat(firstMatch(index, "GET", null)).isEqualTo(-1);
+  }
+
+  @Test public void method_matchesNullPath() {
+    putRule(methodEquals("POST"));
+    HttpRuleIndex index = build();
+
+    assertThat(firstMatch(index, "POST", null)).isZero();
+    assertThat(firstMatch(index, "POST", "/foo")).isZero();
+    assertThat(firstMatch(index, "GET", "/foo")).isEqualTo(-1);
+    assertThat(firstMatch(index, null, "/foo")).isEqualTo(-1);
+  }
+
+  @Test public void methodAndPathPrefix() {
+    putRule(and(methodEquals("POST"), pathStartsWith("/foo")));
+    HttpRuleIndex index = build();
+
+    assertThat(firstMatch(index, "POST", "/foo/bar")).isZero();
+    assertThat(firstMatch(index, "GET", "/foo/bar")).isEqualTo(-1);
+    assertThat(firstMatch(index, null, "/foo/bar")).isEqualTo(-1);
+    assertThat(firstMatch(index, "POST", "/bar")).isEqualTo(-1);
+  }
+
+  @Test public void or_indexed() {
+    putRule(or(pathStartsWith("/foo"), and(methodEquals("POST"), pathStartsWith("/bar"))));
+    HttpRuleIndex index = build();
+
+    assertThat(index.unindexedRules).isEmpty();
+    assertThat(firstMatch(index, "GET", "/foo")).isZero();
+    assertThat(firstMatch(index, "POST", "/bar")).isZero();
+    assertThat(firstMatch(index, "GET", "/bar")).isEqualTo(-1);
+  }
+
+  @Test public void firstMatchWins_shorterPrefixFirst() {
+    putRule(pathStartsWith("/foo"));
+    putRule(pathStartsWith("/foo/bar"));
+    HttpRuleIndex index = build();
+
+    assertThat(firstMatch(index, "GET", "/foo/bar")).isZero();
+  }
+
+  @Test public void firstMatchWins_longerPrefixFirst() {
+    putRule(pathStartsWith("/foo/bar"));
+    putRule(and(methodEquals("GET"), pathStartsWith("/foo")));
+    putRule(methodEquals("GET"));
+    HttpRuleIndex index = build();
+
+    assertThat(firstMatch(index, "GET", "/foo/bar")).isZero();
+    assertThat(firstMatch(index, "GET", "/foo/baz")).isEqualTo(1);
+    assertThat(firstMatch(index, "GET", "/baz")).isEqualTo(2);
+  }
+
+  @Test public void firstMatchWins_methodBeforePath() {
+    putRule(methodEquals("GET"));
+    putRule(pathStartsWith("/foo"));
+    HttpRuleIndex index = build();
+
+    assertThat(firstMatch(index, "GET", "/foo")).isZero();
+    assertThat(firstMatch(index, "POST", "/foo")).isEqualTo(1);
+  }
+
+  @Test public void unindexed_evaluatedInOrder() {
+    List<String> invoked = new ArrayList<>();
+    putRule(pathStartsWith("/foo"));
+    putRule(request -> invoked.add("custom") && "/bar".equals(request.path()));
+    putRule(pathStartsWith("/bar"));
+    HttpRuleIndex index = build();
+
+    assertThat(index.unindexedRules).containsExactly(1);
+
+    // the custom matcher isn't invoked when an earlier rule matched
+    assertThat(firstMatch(index, "GET", "/foo")).isZero();
+    assertThat(invoked).isEmpty();
+
+    // the custom matcher is invoked before a later rule
+    assertThat(firstMatch(index, "GET", "/bar")).isEqualTo(1);
+    assertThat(invoked).containsExactly("custom");
+  }
+
+  @Test public void unindexed_andWithCustomMatcher() {
+    Matcher<HttpRequest> hasUrl = request -> request.url() != null;
+    putRule(and(pathStartsWith("/foo"), hasUrl));
+    putRule(and(methodEquals("GET"), methodEquals("POST")));
+    HttpRuleIndex index = build();
+
+    assertThat(index.unindexedRules).containsExactly(0, 1);
+    assertThat(firstMatch(index, "GET", "/foo")).isEqualTo(-1);
+  }
+
+  @Test public void noRules() {
+    HttpRuleIndex index = build();
+
+    assertThat(firstMatch(index, "GET", "/foo")).isEqualTo(-1);
+  }
+
+  /** Compares against {@link ParameterizedSampler}, which evaluates each rule in order. */
+  @Test public void sameAsParameterizedSampler() {
+    Random random = new Random(1234L);
+    String[] methods = {"GET", "POST", "PUT", null};
+    String[] segments = {"", "/api", "/v1", "/users", "/u", "/1", "/health"};
+
+    for (int i = 0; i < 500; i++) {
+      String method = methods[random.nextInt(methods.length - 1)];
+      String path = randomPath(random, segments);
+      switch (random.nextInt(5)) {
+        case 0:
+          putRule(methodEquals(method));
+          break;
+        case 1:
+          putRule(and(methodEquals(method), pathStartsWith(path)));
+          break;
+        case 2:
+          putRule(request -> path.equals(request.path()));
+          break;
+        default:
+          putRule(pathStartsWith(path));
+      }
+    }
+    ParameterizedSampler<HttpRequest> linear = builder.build();
+    HttpRuleIndex index = HttpRuleIndex.create(linear);
+
+    for (int i = 0; i < 10_000; i++) {
+      FakeHttpRequest request = new FakeHttpRequest(
+        methods[random.nextInt(methods.length)],
+        random.nextInt(10) == 0 ? null : randomPath(random, segments) + randomPath(random, segments)
+      );
+      matched.set(-1);
+      linear.trySample(request);
+      int expected = matched.getAndSet(-1);
+      index.trySample(request);
+      assertThat(matched.get()).withFailMessage("mismatch on " + request).isEqualTo(expected);
+    }
+  }
+
+  static String randomPath(Random random, String[] segments) {
+    String result = "";
+    do {
+      result += segments[random.nextInt(segments.length)];
+    } while (result.isEmpty());
+    return result;
+  }
+
+  /** The sampler of each rule records its index, so we can tell which rule matched. */
+  void putRule(Matcher<HttpRequest> matcher) {
+    int rule = ruleCount++;
+    builder.putRule(matcher, new Sampler() {
+      @Override public boolean isSampled(long traceId) {
+        matched.set(rule);
+        return true;
+      }
+    });
+  }
+
+  HttpRuleIndex build() {
+    return HttpRuleIndex.create(builder.build());
+  }
+
+  int firstMatch(HttpRuleIndex index, String method, String path) {
+    matched.set(-1);
+    index.trySample(new FakeHttpRequest(method, path));
+    return matched.get();
+  }
+
+  static final class FakeHttpRequest extends HttpServerRequest {
+    final String method, path;
+
+    FakeHttpRequest(String method, String path) {
+      this.method = method;
+      this.path = path;
+    }
+
+    @Override public Object unwrap() {
+      return this;
+    }
+
+    @Override public String method() {
+      return method;
+    }
+
+    @Override public String path() {
+      return path;
+    }
+
+    @Override public String url() {
+      return null;
+    }
+
+    @Override public String header(String name) {
+      return null;
+    }
+
+    @Override public String toString() {
+      return method + " " + path;
+    }
+  }
+}
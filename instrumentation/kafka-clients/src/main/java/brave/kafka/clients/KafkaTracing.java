@@ -14,6 +14,7 @@
 package brave.kafka.clients;
 
 import brave.Span;
+import brave.SpanBatch;
 import brave.SpanCustomizer;
 import brave.Tracer;
 import brave.Tracing;
@@ -85,7 +86,7 @@ public final class KafkaTracing {
   public static final class Builder {
     final MessagingTracing messagingTracing;
     String remoteServiceName = "kafka";
-    boolean singleRootSpanOnReceiveBatch = true;
+    boolean singleRootSpanOnReceiveBatch = true, linkRecordsOnReceiveBatch;
 
     Builder(MessagingTracing messagingTracing) {
       if (messagingTracing == null) throw new NullPointerException("messagingTracing == null");
@@ -96,6 +97,7 @@ public final class KafkaTracing {
       this.messagingTracing = kafkaTracing.messagingTracing;
       this.remoteServiceName = kafkaTracing.remoteServiceName;
       this.singleRootSpanOnReceiveBatch = kafkaTracing.singleRootSpanOnReceiveBatch;
+      this.linkRecordsOnReceiveBatch = kafkaTracing.linkRecordsOnReceiveBatch;
     }
 
     /**
@@ -121,6 +123,26 @@ public final class KafkaTracing {
       return this;
     }
 
+    /**
+     * Controls whether a {@code poll} creates one span per topic, which {@linkplain
+     * brave.Span#link(brave.propagation.TraceContext) links} to the trace context of each record,
+     * instead of a span per record that has a trace context.
+     *
+     * <p>If true, all records of a topic received in a poll batch share a new {@code poll} root
+     * span, regardless of {@link #singleRootSpanOnReceiveBatch(boolean)}. Records continue from
+     * that span, and the span links to each upstream context found. This is appropriate for fan-in
+     * processing, where a poll returns records from many traces. Defaults to false.
+     *
+     * <p>Records that carry request-scoped data, such as baggage values, get their own span as if
+     * this were false. Otherwise, that data would be lost, as a shared span can't hold it.
+     *
+     * @since 5.14
+     */
+    public Builder linkRecordsOnReceiveBatch(boolean linkRecordsOnReceiveBatch) {
+      this.linkRecordsOnReceiveBatch = linkRecordsOnReceiveBatch;
+      return this;
+    }
+
     /**
      * @deprecated as of v5.9, this is ignored because single format is default for messaging. Use
      * {@link B3Propagation#newFactoryBuilder()} to change the default.
@@ -145,7 +167,7 @@ public final class KafkaTracing {
   final TraceContextOrSamplingFlags emptyExtraction;
   final SamplerFunction<MessagingRequest> producerSampler, consumerSampler;
   final String remoteServiceName;
-  final boolean singleRootSpanOnReceiveBatch;
+  final boolean singleRootSpanOnReceiveBatch, linkRecordsOnReceiveBatch;
 
   KafkaTracing(Builder builder) { // intentionally hidden constructor
     this.messagingTracing = builder.messagingTracing;
@@ -160,6 +182,7 @@ public final class KafkaTracing {
     this.consumerSampler = messagingTracing.consumerSampler();
     this.remoteServiceName = builder.remoteServiceName;
     this.singleRootSpanOnReceiveBatch = builder.singleRootSpanOnReceiveBatch;
+    this.linkRecordsOnReceiveBatch = builder.linkRecordsOnReceiveBatch;
 
     // We clear the trace ID headers, so that a stale consumer span is not preferred over current
     // listener. We intentionally don't clear BaggagePropagation.allKeyNames as doing so will
@@ -235,6 +258,21 @@ public final class KafkaTracing {
     return tracer.nextSpan(extracted);
   }
 
+  /** Like {@link #nextMessagingSpan}, except the result is started and finished by the batch. */
+  Span nextMessagingSpan(
+    SamplerFunction<MessagingRequest> sampler,
+    MessagingRequest request,
+    TraceContextOrSamplingFlags extracted,
+    SpanBatch batch
+  ) {
+    Boolean sampled = extracted.sampled();
+    // only recreate the context if the messaging sampler made a decision
+    if (sampled == null && (sampled = sampler.trySample(request)) != null) {
+      extracted = extracted.sampled(sampled.booleanValue());
+    }
+    return batch.nextSpan(extracted);
+  }
+
   // We can't just skip clearing headers we use because we might inject B3 single, yet have stale B3
   // multi, or visa versa.
   void clearTraceIdHeaders(Headers headers) {
@@ -14,8 +14,10 @@
 package brave.kafka.clients;
 
 import brave.Span;
+import brave.SpanBatch;
 import brave.Tracing;
 import brave.messaging.MessagingRequest;
+import brave.propagation.TraceContext;
 import brave.propagation.TraceContext.Extractor;
 import brave.propagation.TraceContext.Injector;
 import brave.propagation.TraceContextOrSamplingFlags;
@@ -57,7 +59,7 @@ final class TracingConsumer<K, V> implements Consumer<K, V> {
   final SamplerFunction<MessagingRequest> sampler;
   final Injector<KafkaConsumerRequest> injector;
   final String remoteServiceName;
-  final boolean singleRootSpanOnReceiveBatch;
+  final boolean singleRootSpanOnReceiveBatch, linkRecordsOnReceiveBatch;
   final TraceContextOrSamplingFlags emptyExtraction;
 
   // replicate org.apache.kafka.clients.consumer.internals.NoOpConsumerRebalanceListener behaviour
@@ -79,6 +81,7 @@ final class TracingConsumer<K, V> implements Consumer<K, V> {
     this.injector = kafkaTracing.consumerInjector;
     this.remoteServiceName = kafkaTracing.remoteServiceName;
     this.singleRootSpanOnReceiveBatch = kafkaTracing.singleRootSpanOnReceiveBatch;
+    this.linkRecordsOnReceiveBatch = kafkaTracing.linkRecordsOnReceiveBatch;
     this.emptyExtraction = kafkaTracing.emptyExtraction;
   }
 
@@ -87,12 +90,15 @@ final class TracingConsumer<K, V> implements Consumer<K, V> {
     return poll(timeout.toMillis());
   }
 
-  /** This uses a single timestamp for all records polled, to reduce overhead. */
+  /**
+   * This uses a {@link SpanBatch}, so that all spans for records polled share one clock reading and
+   * are finished in one pass, to reduce overhead.
+   */
   // Do not use @Override annotation to avoid compatibility on deprecated methods
   public ConsumerRecords<K, V> poll(long timeout) {
     ConsumerRecords<K, V> records = delegate.poll(timeout);
     if (records.isEmpty() || tracing.isNoop()) return records;
-    long timestamp = 0L;
+    SpanBatch batch = tracing.tracer().newSpanBatch(records.count());
     Map<String, Span> consumerSpansForTopic = new LinkedHashMap<>();
     for (TopicPartition partition : records.partitions()) {
       String topic = partition.topic();
@@ -103,41 +109,48 @@ final class TracingConsumer<K, V> implements Consumer<K, V> {
         TraceContextOrSamplingFlags extracted =
           kafkaTracing.extractAndClearTraceIdHeaders(extractor, request, record.headers());
 
-        // If we extracted neither a trace context, nor request-scoped data (extra),
-        // and sharing trace is enabled make or reuse a span for this topic
-        if (extracted.equals(emptyExtraction) && singleRootSpanOnReceiveBatch) {
+        if (linkRecordsOnReceiveBatch && !hasExtra(extracted)) {
+          // make or reuse a span for this topic that links records
           Span span = consumerSpansForTopic.get(topic);
           if (span == null) {
-            span = kafkaTracing.nextMessagingSpan(sampler, request, extracted);
-            if (!span.isNoop()) {
-              setConsumerSpan(topic, span);
-              // incur timestamp overhead only once
-              if (timestamp == 0L) {
-                timestamp = tracing.clock(span.context()).currentTimeMicroseconds();
-              }
-              span.start(timestamp);
-            }
+            span = kafkaTracing.nextMessagingSpan(sampler, request, emptyExtraction, batch);
+            if (!span.isNoop()) setConsumerSpan(topic, span);
+            consumerSpansForTopic.put(topic, span);
+          }
+          TraceContext upstream = extracted.context();
+          if (upstream != null && !span.isNoop()) span.link(upstream);
+          injector.inject(span.context(), request);
+        } else if (extracted.equals(emptyExtraction) && singleRootSpanOnReceiveBatch) {
+          // We extracted neither a trace context, nor request-scoped data (extra), so make or reuse
+          // a span for this topic
+          Span span = consumerSpansForTopic.get(topic);
+          if (span == null) {
+            span = kafkaTracing.nextMessagingSpan(sampler, request, extracted, batch);
+            if (!span.isNoop()) setConsumerSpan(topic, span);
             consumerSpansForTopic.put(topic, span);
           }
           injector.inject(span.context(), request);
         } else { // we extracted request-scoped data, so cannot share a consumer span.
-          Span span = kafkaTracing.nextMessagingSpan(sampler, request, extracted);
+          Span span = kafkaTracing.nextMessagingSpan(sampler, request, extracted, batch);
           if (!span.isNoop()) {
             setConsumerSpan(topic, span);
-            // incur timestamp overhead only once
-            if (timestamp == 0L) {
-              timestamp = tracing.clock(span.context()).currentTimeMicroseconds();
-            }
-            span.start(timestamp).finish(timestamp); // span won't be shared by other records
+            span.finish(batch.timestamp()); // span won't be shared by other records
           }
           injector.inject(span.context(), request);
         }
       }
     }
-    for (Span span : consumerSpansForTopic.values()) span.finish(timestamp);
+    batch.finish();
     return records;
   }
 
+  /** Returns true if the record carries request-scoped data (extra), such as baggage values. */
+  boolean hasExtra(TraceContextOrSamplingFlags extracted) {
+    TraceContext context = extracted.context();
+    List<Object> extra = context != null ? context.extra() : extracted.extra();
+    return !extra.equals(emptyExtraction.extra());
+  }
+
   @Override public Set<TopicPartition> assignment() {
     return delegate.assignment();
   }
@@ -14,6 +14,7 @@
 package brave.kafka.clients;
 
 import brave.handler.MutableSpan;
+import brave.propagation.TraceContext;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.kafka.clients.consumer.Consumer;
@@ -26,6 +27,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static brave.Span.Kind.CONSUMER;
+import static brave.test.ITRemote.BAGGAGE_FIELD_KEY;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
 
@@ -170,4 +172,84 @@ public class TracingConsumerTest extends KafkaTest {
         .containsOnly(entry("kafka.topic", "myTopic"));
     }
   }
+
+  @Test
+  public void should_create_one_span_per_topic_linking_records_whenLinkingEnabled() {
+    kafkaTracing = kafkaTracing.toBuilder().linkRecordsOnReceiveBatch(true).build();
+
+    // 2 records with different upstream trace contexts, and one without
+    TraceContext parent2 = tracing.tracer().newTrace().context();
+    ConsumerRecord<String, String> record1 =
+      new ConsumerRecord<>(TEST_TOPIC, 0, 1, TEST_KEY, TEST_VALUE);
+    ConsumerRecord<String, String> record2 =
+      new ConsumerRecord<>(TEST_TOPIC, 0, 2, TEST_KEY, TEST_VALUE);
+    ConsumerRecord<String, String> record3 =
+      new ConsumerRecord<>(TEST_TOPIC, 0, 3, TEST_KEY, TEST_VALUE);
+    addB3MultiHeaders(parent, record1);
+    addB3MultiHeaders(parent2, record2);
+    consumer.addRecord(record1);
+    consumer.addRecord(record2);
+    consumer.addRecord(record3);
+
+    Consumer<String, String> tracingConsumer = kafkaTracing.consumer(consumer);
+    ConsumerRecords<String, String> poll = tracingConsumer.poll(10);
+
+    // only one consumer span reported, which is a new trace
+    MutableSpan consumerSpan = spans.get(0);
+    assertThat(consumerSpan.kind()).isEqualTo(CONSUMER);
+    assertThat(consumerSpan.name()).isEqualTo("poll");
+    assertThat(consumerSpan.parentId()).isNull();
+    assertThat(consumerSpan.traceId())
+      .isNotEqualTo(parent.traceIdString())
+      .isNotEqualTo(parent2.traceIdString());
+
+    assertThat(consumerSpan.linkCount()).isEqualTo(2);
+    assertThat(consumerSpan.linkTraceIdAt(0)).isEqualTo(parent.traceIdString());
+    assertThat(consumerSpan.linkSpanIdAt(0)).isEqualTo(parent.spanIdString());
+    assertThat(consumerSpan.linkTraceIdAt(1)).isEqualTo(parent2.traceIdString());
+    assertThat(consumerSpan.linkSpanIdAt(1)).isEqualTo(parent2.spanIdString());
+
+    // all records continue from the consumer span
+    assertThat(poll)
+      .extracting(ConsumerRecord::headers)
+      .flatExtracting(TracingConsumerTest::lastHeaders)
+      .hasSize(3)
+      .allSatisfy(e -> {
+        assertThat(e.getKey()).isEqualTo("b3");
+        assertThat(e.getValue()).startsWith(consumerSpan.traceId() + "-" + consumerSpan.id());
+      });
+  }
+
+  @Test
+  public void should_create_span_per_record_with_baggage_whenLinkingEnabled() {
+    kafkaTracing = kafkaTracing.toBuilder().linkRecordsOnReceiveBatch(true).build();
+
+    TraceContext parent2 = tracing.tracer().newTrace().context();
+    ConsumerRecord<String, String> record1 =
+      new ConsumerRecord<>(TEST_TOPIC, 0, 1, TEST_KEY, TEST_VALUE);
+    ConsumerRecord<String, String> record2 =
+      new ConsumerRecord<>(TEST_TOPIC, 0, 2, TEST_KEY, TEST_VALUE);
+    addB3MultiHeaders(parent, record1);
+    record1.headers().add(BAGGAGE_FIELD_KEY, "user1".getBytes());
+    addB3MultiHeaders(parent2, record2);
+    consumer.addRecord(record1);
+    consumer.addRecord(record2);
+
+    Consumer<String, String> tracingConsumer = kafkaTracing.consumer(consumer);
+    tracingConsumer.poll(10);
+
+    // the record with baggage continues its trace, so the baggage isn't lost
+    MutableSpan recordSpan = spans.get(0);
+    assertThat(recordSpan.traceId()).isEqualTo(parent.traceIdString());
+    assertThat(recordSpan.parentId()).isEqualTo(parent.spanIdString());
+    assertThat(recordSpan.linkCount()).isZero();
+    assertThat(lastHeaders(record1.headers()))
+      .contains(entry(BAGGAGE_FIELD_KEY, "user1"));
+
+    // the other record is linked from the topic span
+    MutableSpan consumerSpan = spans.get(1);
+    assertThat(consumerSpan.parentId()).isNull();
+    assertThat(consumerSpan.linkCount()).isEqualTo(1);
+    assertThat(consumerSpan.linkTraceIdAt(0)).isEqualTo(parent2.traceIdString());
+  }
 }
@@ -15,6 +15,7 @@ package brave.kafka.streams;
 
 import brave.propagation.Propagation.Getter;
 import brave.propagation.Propagation.Setter;
+import java.util.Set;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.streams.processor.ProcessorContext;
 
@@ -44,6 +45,23 @@ final class KafkaStreamsPropagation {
     }
   };
 
+  /** Like {@link #SETTER}, except trace context keys are skipped, so only extra fields change. */
+  static final class ExtraFieldsSetter implements Setter<Headers, String> {
+    final Set<String> traceContextKeys;
+
+    ExtraFieldsSetter(Set<String> traceContextKeys) {
+      this.traceContextKeys = traceContextKeys;
+    }
+
+    @Override public void put(Headers headers, String key, String value) {
+      if (!traceContextKeys.contains(key)) KafkaHeaders.replaceHeader(headers, key, value);
+    }
+
+    @Override public String toString() {
+      return "Headers::replaceHeader(extra fields)";
+    }
+  }
+
   KafkaStreamsPropagation() {
   }
 }
@@ -24,7 +24,9 @@ import brave.propagation.TraceContext.Extractor;
 import brave.propagation.TraceContext.Injector;
 import brave.propagation.TraceContextOrSamplingFlags;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import org.apache.kafka.common.header.Header;
@@ -46,27 +48,36 @@ import org.apache.kafka.streams.kstream.ValueTransformerWithKeySupplier;
 import org.apache.kafka.streams.processor.AbstractProcessor;
 import org.apache.kafka.streams.processor.ProcessorContext;
 import org.apache.kafka.streams.processor.ProcessorSupplier;
+import org.apache.kafka.streams.processor.PunctuationType;
 
 /** Use this class to decorate Kafka Stream Topologies and enable Tracing. */
 public final class KafkaStreamsTracing {
   final KafkaTracing kafkaTracing;
+  final Tracing tracing;
   final Tracer tracer;
   final Extractor<Headers> extractor;
-  final Injector<Headers> injector;
+  final Injector<Headers> injector, extraInjector;
   final Set<String> propagationKeys;
   final TraceContextOrSamplingFlags emptyExtraction;
+  final boolean singleSpanPerSubTopology;
+  final Map<String, TaskSpan> taskSpans = new LinkedHashMap<>();
 
   KafkaStreamsTracing(Builder builder) { // intentionally hidden constructor
     this.kafkaTracing = builder.kafkaTracing.toBuilder()
       .singleRootSpanOnReceiveBatch(builder.singleRootSpanOnReceiveBatch)
       .build();
-    this.tracer = kafkaTracing.messagingTracing().tracing().tracer();
+    this.tracing = kafkaTracing.messagingTracing().tracing();
+    this.tracer = tracing.tracer();
     Propagation<String> propagation = kafkaTracing.messagingTracing().propagation();
     this.extractor = propagation.extractor(KafkaStreamsPropagation.GETTER);
     this.injector = propagation.injector(KafkaStreamsPropagation.SETTER);
     this.propagationKeys = new LinkedHashSet<>(propagation.keys());
     // When Baggage or similar are in use, the result != TraceContextOrSamplingFlags.EMPTY
     this.emptyExtraction = propagation.extractor((c, k) -> null).extract(Boolean.TRUE);
+    this.extraInjector = emptyExtraction.extra().isEmpty()
+      ? (context, headers) -> {} // there are no extra fields to write
+      : propagation.injector(new KafkaStreamsPropagation.ExtraFieldsSetter(propagationKeys));
+    this.singleSpanPerSubTopology = builder.singleSpanPerSubTopology;
   }
 
   public static KafkaStreamsTracing create(Tracing tracing) {
@@ -451,18 +462,59 @@ public final class KafkaStreamsTracing {
   }
 
   Span nextSpan(ProcessorContext context) {
-    TraceContextOrSamplingFlags extracted = extractor.extract(context.headers());
+    return nextSpan(context, extractor.extract(context.headers()));
+  }
+
+  Span nextSpan(ProcessorContext context, TraceContextOrSamplingFlags extracted) {
+    Span result = tracer.nextSpan(extracted);
+    if (propagatesUnsampled(result, extracted)) return result; // headers are already correct
     // Clear any propagation keys present in the headers
     if (!extracted.equals(emptyExtraction)) {
       clearHeaders(context.headers());
     }
-    Span result = tracer.nextSpan(extracted);
     if (!result.isNoop()) {
       addTags(context, result);
     }
     return result;
   }
 
+  /**
+   * Returns the injector to use when an operator ends. Trace context headers are left alone when
+   * they already propagate the decision not to sample, which avoids rewriting them for each
+   * operator an unsampled record passes through. Extra fields, such as baggage, are always
+   * written, as the operator may have updated them.
+   */
+  Injector<Headers> injector(Span span, TraceContextOrSamplingFlags extracted) {
+    return propagatesUnsampled(span, extracted) ? extraInjector : injector;
+  }
+
+  static boolean propagatesUnsampled(Span span, TraceContextOrSamplingFlags extracted) {
+    return span.isNoop() && Boolean.FALSE.equals(extracted.sampled());
+  }
+
+  TaskSpan acquireTaskSpan(ProcessorContext context) {
+    String key = context.applicationId() + "/" + context.taskId();
+    synchronized (taskSpans) {
+      TaskSpan result = taskSpans.get(key);
+      if (result == null) {
+        result = new TaskSpan(this, key);
+        result.punctuation =
+          context.schedule(TaskSpan.FLUSH_INTERVAL, PunctuationType.WALL_CLOCK_TIME, result);
+        taskSpans.put(key, result);
+      }
+      result.operatorCount++;
+      return result;
+    }
+  }
+
+  void releaseTaskSpan(TaskSpan taskSpan) {
+    synchronized (taskSpans) {
+      if (--taskSpan.operatorCount > 0) return;
+      taskSpans.remove(taskSpan.key);
+    }
+    taskSpan.close();
+  }
+
   // We can't just skip clearing headers we use because we might inject B3 single, yet have stale B3
   // multi, or visa versa.
   void clearHeaders(Headers headers) {
@@ -475,7 +527,7 @@ public final class KafkaStreamsTracing {
 
   public static final class Builder {
     final KafkaTracing kafkaTracing;
-    boolean singleRootSpanOnReceiveBatch = false;
+    boolean singleRootSpanOnReceiveBatch = false, singleSpanPerSubTopology = false;
 
     Builder(KafkaTracing kafkaTracing) {
       if (kafkaTracing == null) throw new NullPointerException("kafkaTracing == null");
@@ -496,6 +548,29 @@ public final class KafkaStreamsTracing {
       return this;
     }
 
+    /**
+     * Controls whether traced operators share one span per record in each sub-topology.
+     *
+     * <p>By default, each traced operator, such as {@link KafkaStreamsTracing#mapValues(String,
+     * ValueMapper)}, creates a span per record it processes. With many operators and a high record
+     * rate, this is a lot of spans, even when most are not sampled.
+     *
+     * <p>If true, the first traced operator to process a record in a sub-topology starts a span
+     * named after that operator. Each traced operator in the sub-topology, including the first,
+     * annotates that span with its name when it starts, and again with ".finish" appended when it
+     * ends. Tags, such as "kafka.streams.filtered", are added to the shared span, so the last value
+     * wins.
+     *
+     * <p>The span is finished when the task processes another record, after a second of being
+     * idle, or when the task closes. Its duration ends when the last operator did.
+     *
+     * @since 5.14
+     */
+    public Builder singleSpanPerSubTopology(boolean singleSpanPerSubTopology) {
+      this.singleSpanPerSubTopology = singleSpanPerSubTopology;
+      return this;
+    }
+
     public KafkaStreamsTracing build() {
       return new KafkaStreamsTracing(this);
     }
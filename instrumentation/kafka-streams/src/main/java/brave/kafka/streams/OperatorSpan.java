@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.kafka.streams;
+
+import brave.Span;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext.Injector;
+import brave.propagation.TraceContextOrSamplingFlags;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * Handles the span of an operator processing a record. By default, this is a new span per record.
+ * When {@link KafkaStreamsTracing.Builder#singleSpanPerSubTopology(boolean)}, this annotates the
+ * span of the record in the current task instead.
+ */
+final class OperatorSpan {
+  final KafkaStreamsTracing kafkaStreamsTracing;
+  final String spanName, finishAnnotation;
+
+  ProcessorContext processorContext;
+  @Nullable TaskSpan taskSpan; // only set when singleSpanPerSubTopology
+  Injector<Headers> injector;
+
+  OperatorSpan(KafkaStreamsTracing kafkaStreamsTracing, String spanName) {
+    this.kafkaStreamsTracing = kafkaStreamsTracing;
+    this.spanName = spanName;
+    this.finishAnnotation = spanName + ".finish";
+  }
+
+  void init(ProcessorContext processorContext) {
+    this.processorContext = processorContext;
+    if (kafkaStreamsTracing.singleSpanPerSubTopology) {
+      taskSpan = kafkaStreamsTracing.acquireTaskSpan(processorContext);
+    }
+  }
+
+  Span begin() {
+    if (taskSpan != null) return taskSpan.begin(processorContext, spanName);
+    TraceContextOrSamplingFlags extracted =
+      kafkaStreamsTracing.extractor.extract(processorContext.headers());
+    Span span = kafkaStreamsTracing.nextSpan(processorContext, extracted);
+    injector = kafkaStreamsTracing.injector(span, extracted);
+    if (!span.isNoop()) {
+      span.name(spanName);
+      span.start();
+    }
+    return span;
+  }
+
+  void end(Span span, @Nullable Throwable error) {
+    if (taskSpan != null) {
+      taskSpan.end(processorContext, span, finishAnnotation, error);
+      return;
+    }
+    // Inject this span so that the next stage uses it as a parent, and sees baggage updates
+    injector.inject(span.context(), processorContext.headers());
+    if (error != null) span.error(error);
+    span.finish();
+  }
+
+  void close() {
+    TaskSpan taskSpan = this.taskSpan;
+    if (taskSpan == null) return;
+    this.taskSpan = null;
+    kafkaStreamsTracing.releaseTaskSpan(taskSpan);
+  }
+}
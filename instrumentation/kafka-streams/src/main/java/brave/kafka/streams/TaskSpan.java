@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.kafka.streams;
+
+import brave.Clock;
+import brave.Span;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext.Injector;
+import brave.propagation.TraceContextOrSamplingFlags;
+import java.time.Duration;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.streams.processor.Cancellable;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.Punctuator;
+
+/**
+ * The span of the record currently processed by a task, which is an instance of a sub-topology.
+ * Traced operators in the task annotate this span, instead of each creating their own.
+ *
+ * <p>A task passes each record through all of its operators before processing the next, so the
+ * span is finished when a different record arrives. Punctuation finishes the span of an idle task,
+ * and it is also finished when the task closes.
+ */
+final class TaskSpan implements Punctuator {
+  /** This is only how long it takes to report the span of an idle task. */
+  static final Duration FLUSH_INTERVAL = Duration.ofSeconds(1);
+
+  final KafkaStreamsTracing kafkaStreamsTracing;
+  final String key;
+  // guarded by kafkaStreamsTracing.taskSpans
+  int operatorCount;
+  @Nullable Cancellable punctuation;
+
+  // The below are only accessed by the thread processing the task
+  @Nullable String topic;
+  int partition;
+  long offset;
+  @Nullable Headers headers;
+  @Nullable Span span;
+  Injector<Headers> injector;
+  Clock clock;
+  long finishTimestamp;
+
+  TaskSpan(KafkaStreamsTracing kafkaStreamsTracing, String key) {
+    this.kafkaStreamsTracing = kafkaStreamsTracing;
+    this.key = key;
+  }
+
+  /**
+   * Returns the span of the current record, annotated with the start of this operator. Headers are
+   * only read on the first operator to process each record.
+   */
+  Span begin(ProcessorContext context, String spanName) {
+    Span span = this.span;
+    long timestamp;
+    if (span == null || isNewRecord(context)) {
+      finish();
+      Headers headers = context.headers();
+      this.topic = context.topic();
+      this.partition = context.partition();
+      this.offset = context.offset();
+      this.headers = headers;
+      TraceContextOrSamplingFlags extracted = kafkaStreamsTracing.extractor.extract(headers);
+      this.span = span = kafkaStreamsTracing.nextSpan(context, extracted);
+      injector = kafkaStreamsTracing.injector(span, extracted);
+      if (span.isNoop()) return span;
+      clock = kafkaStreamsTracing.tracing.clock(span.context());
+      timestamp = clock.currentTimeMicroseconds();
+      span.name(spanName).start(timestamp);
+    } else {
+      if (span.isNoop()) return span;
+      timestamp = clock.currentTimeMicroseconds();
+    }
+    span.annotate(timestamp, spanName);
+    return span;
+  }
+
+  /**
+   * Kafka Streams copies headers when forwarding a record to the next operator, so we identify the
+   * record by its position in the source topic instead. Records not read from a source, such as
+   * those forwarded by a punctuator, have no offset. These fall back to the identity of headers.
+   */
+  boolean isNewRecord(ProcessorContext context) {
+    long offset = context.offset();
+    if (offset < 0) return offset != this.offset || context.headers() != headers;
+    return offset != this.offset
+      || context.partition() != partition
+      || !context.topic().equals(topic);
+  }
+
+  /** Annotates the end of the operator, which is the end of the span unless more follow. */
+  void end(ProcessorContext context, Span span, String finishAnnotation,
+    @Nullable Throwable error) {
+    // Inject after each operator, as it may have updated baggage
+    injector.inject(span.context(), context.headers());
+    if (span.isNoop()) return;
+    if (error != null) span.error(error);
+    finishTimestamp = clock.currentTimeMicroseconds();
+    span.annotate(finishTimestamp, finishAnnotation);
+  }
+
+  /** Finishes the span of the last record, if not already finished. */
+  void finish() {
+    Span span = this.span;
+    if (span == null) return;
+    this.span = null;
+    this.topic = null;
+    this.headers = null;
+    if (!span.isNoop()) span.finish(finishTimestamp);
+  }
+
+  /** Called on the thread processing the task, so never during an operator. */
+  @Override public void punctuate(long timestamp) {
+    finish();
+  }
+
+  void close() {
+    if (punctuation != null) punctuation.cancel();
+    finish();
+  }
+
+  @Override public String toString() {
+    return "TaskSpan{" + key + "}";
+  }
+}
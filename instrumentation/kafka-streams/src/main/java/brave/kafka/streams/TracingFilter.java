@@ -23,31 +23,26 @@ import static brave.kafka.streams.KafkaStreamsTags.KAFKA_STREAMS_FILTERED_TAG;
 
 abstract class TracingFilter<K, V, R> {
   final KafkaStreamsTracing kafkaStreamsTracing;
-  final String spanName;
+  final OperatorSpan operatorSpan;
   final Predicate<K, V> delegatePredicate;
   final Tracer tracer;
   final boolean filterNot;
-  ProcessorContext processorContext;
 
   TracingFilter(KafkaStreamsTracing kafkaStreamsTracing, String spanName,
     Predicate<K, V> delegatePredicate, boolean filterNot) {
     this.kafkaStreamsTracing = kafkaStreamsTracing;
     this.tracer = kafkaStreamsTracing.tracer;
-    this.spanName = spanName;
+    this.operatorSpan = new OperatorSpan(kafkaStreamsTracing, spanName);
     this.delegatePredicate = delegatePredicate;
     this.filterNot = filterNot;
   }
 
   public void init(ProcessorContext context) {
-    processorContext = context;
+    operatorSpan.init(context);
   }
 
   public R transform(K key, V value) {
-    Span span = kafkaStreamsTracing.nextSpan(processorContext);
-    if (!span.isNoop()) {
-      span.name(spanName);
-      span.start();
-    }
+    Span span = operatorSpan.begin();
 
     Tracer.SpanInScope ws = tracer.withSpanInScope(span);
     Throwable error = null;
@@ -64,13 +59,14 @@ abstract class TracingFilter<K, V, R> {
       propagateIfFatal(e);
       throw e;
     } finally {
-      // Inject this span so that the next stage uses it as a parent
-      kafkaStreamsTracing.injector.inject(span.context(), processorContext.headers());
-      if (error != null) span.error(error);
-      span.finish();
+      operatorSpan.end(span, error);
       ws.close();
     }
   }
 
+  public void close() {
+    operatorSpan.close();
+  }
+
   abstract R result(K key, V value);
 }
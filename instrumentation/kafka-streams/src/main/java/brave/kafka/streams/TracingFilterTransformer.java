@@ -37,6 +37,7 @@ class TracingFilterTransformer<K, V> extends TracingFilter<K, V, KeyValue<K, V>>
   }
 
   @Override public void close() {
+    super.close();
   }
 
   @Override KeyValue<K, V> result(K key, V value) {
@@ -36,6 +36,7 @@ class TracingFilterValueTransformerWithKey<K, V> extends TracingFilter<K, V, V>
   }
 
   @Override public void close() {
+    super.close();
   }
 
   @Override V result(K key, V value) {
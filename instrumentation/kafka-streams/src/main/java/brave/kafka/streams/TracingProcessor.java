@@ -23,32 +23,26 @@ import static brave.internal.Throwables.propagateIfFatal;
 class TracingProcessor<K, V> implements Processor<K, V> {
   final KafkaStreamsTracing kafkaStreamsTracing;
   final Tracer tracer;
-  final String spanName;
+  final OperatorSpan operatorSpan;
   final Processor<K, V> delegateProcessor;
 
-  ProcessorContext processorContext;
-
   TracingProcessor(KafkaStreamsTracing kafkaStreamsTracing,
     String spanName, Processor<K, V> delegateProcessor) {
     this.kafkaStreamsTracing = kafkaStreamsTracing;
     this.tracer = kafkaStreamsTracing.tracer;
-    this.spanName = spanName;
+    this.operatorSpan = new OperatorSpan(kafkaStreamsTracing, spanName);
     this.delegateProcessor = delegateProcessor;
   }
 
   @Override
   public void init(ProcessorContext processorContext) {
-    this.processorContext = processorContext;
+    operatorSpan.init(processorContext);
     delegateProcessor.init(processorContext);
   }
 
   @Override
   public void process(K k, V v) {
-    Span span = kafkaStreamsTracing.nextSpan(processorContext);
-    if (!span.isNoop()) {
-      span.name(spanName);
-      span.start();
-    }
+    Span span = operatorSpan.begin();
 
     Tracer.SpanInScope ws = tracer.withSpanInScope(span);
     Throwable error = null;
@@ -59,16 +53,17 @@ class TracingProcessor<K, V> implements Processor<K, V> {
       propagateIfFatal(e);
       throw e;
     } finally {
-      // Inject this span so that the next stage uses it as a parent
-      kafkaStreamsTracing.injector.inject(span.context(), processorContext.headers());
-      if (error != null) span.error(error);
-      span.finish();
+      operatorSpan.end(span, error);
       ws.close();
     }
   }
 
   @Override
   public void close() {
-    delegateProcessor.close();
+    try {
+      delegateProcessor.close();
+    } finally {
+      operatorSpan.close();
+    }
   }
 }
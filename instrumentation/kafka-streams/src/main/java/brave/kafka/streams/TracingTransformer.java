@@ -23,32 +23,26 @@ import static brave.internal.Throwables.propagateIfFatal;
 class TracingTransformer<K, V, R> implements Transformer<K, V, R> {
   final KafkaStreamsTracing kafkaStreamsTracing;
   final Tracer tracer;
-  final String spanName;
+  final OperatorSpan operatorSpan;
   final Transformer<K, V, R> delegateTransformer;
 
-  ProcessorContext processorContext;
-
   TracingTransformer(KafkaStreamsTracing kafkaStreamsTracing, String spanName,
     Transformer<K, V, R> delegateTransformer) {
     this.kafkaStreamsTracing = kafkaStreamsTracing;
     this.tracer = kafkaStreamsTracing.tracer;
-    this.spanName = spanName;
+    this.operatorSpan = new OperatorSpan(kafkaStreamsTracing, spanName);
     this.delegateTransformer = delegateTransformer;
   }
 
   @Override
   public void init(ProcessorContext processorContext) {
-    this.processorContext = processorContext;
+    operatorSpan.init(processorContext);
     delegateTransformer.init(processorContext);
   }
 
   @Override
   public R transform(K k, V v) {
-    Span span = kafkaStreamsTracing.nextSpan(processorContext);
-    if (!span.isNoop()) {
-      span.name(spanName);
-      span.start();
-    }
+    Span span = operatorSpan.begin();
 
     Tracer.SpanInScope ws = tracer.withSpanInScope(span);
     Throwable error = null;
@@ -59,17 +53,18 @@ class TracingTransformer<K, V, R> implements Transformer<K, V, R> {
       propagateIfFatal(e);
       throw e;
     } finally {
-      // Inject this span so that the next stage uses it as a parent
-      kafkaStreamsTracing.injector.inject(span.context(), processorContext.headers());
-      if (error != null) span.error(error);
-      span.finish();
+      operatorSpan.end(span, error);
       ws.close();
     }
   }
 
   @Override
   public void close() {
-    delegateTransformer.close();
+    try {
+      delegateTransformer.close();
+    } finally {
+      operatorSpan.close();
+    }
   }
 }
 
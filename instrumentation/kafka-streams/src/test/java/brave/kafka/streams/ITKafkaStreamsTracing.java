@@ -23,6 +23,7 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import org.apache.kafka.clients.CommonClientConfigs;
@@ -348,6 +349,55 @@ public class ITKafkaStreamsTracing extends ITKafkaStreams {
     streams.cleanUp();
   }
 
+  @Test
+  public void should_create_one_span_per_record_from_stream_whenSingleSpanPerSubTopology() {
+    String inputTopic = testName.getMethodName() + "-input";
+    String outputTopic = testName.getMethodName() + "-output";
+
+    KafkaStreamsTracing kafkaStreamsTracing = KafkaStreamsTracing.newBuilder(tracing)
+      .singleSpanPerSubTopology(true)
+      .build();
+
+    StreamsBuilder builder = new StreamsBuilder();
+    builder.stream(inputTopic, Consumed.with(Serdes.String(), Serdes.String()))
+      .transformValues(kafkaStreamsTracing.peek("transform1", (o, o2) -> {
+        TraceContext context = currentTraceContext.get();
+        assertThat(BAGGAGE_FIELD.getValue(context)).isEqualTo("user1");
+        BAGGAGE_FIELD.updateValue(context, "user2");
+      }))
+      .transformValues(kafkaStreamsTracing.peek("transform2", (s, s2) -> {
+        TraceContext context = currentTraceContext.get();
+        assertThat(BAGGAGE_FIELD.getValue(context)).isEqualTo("user2");
+      }))
+      .to(outputTopic, Produced.with(Serdes.String(), Serdes.String()));
+    Topology topology = builder.build();
+
+    KafkaStreams streams = kafkaStreamsTracing.kafkaStreams(topology, streamsProperties());
+
+    ProducerRecord<String, String> record = new ProducerRecord<>(inputTopic, TEST_KEY, TEST_VALUE);
+    record.headers().add(BAGGAGE_FIELD_KEY, "user1".getBytes());
+    send(record);
+
+    waitForStreamToRun(streams);
+
+    MutableSpan spanInput = testSpanHandler.takeRemoteSpan(CONSUMER);
+    assertThat(spanInput.tags()).containsEntry("kafka.topic", inputTopic);
+
+    MutableSpan spanOutput = testSpanHandler.takeRemoteSpan(PRODUCER);
+    assertThat(spanOutput.tags()).containsEntry("kafka.topic", outputTopic);
+
+    // finished by punctuation, as no other record follows
+    MutableSpan spanTransform = testSpanHandler.takeLocalSpan();
+    assertChildOf(spanTransform, spanInput);
+    assertChildOf(spanOutput, spanTransform);
+    assertThat(spanTransform.name()).isEqualTo("transform1");
+    assertThat(spanTransform.annotations()).extracting(Map.Entry::getValue).containsExactly(
+      "transform1", "transform1.finish", "transform2", "transform2.finish");
+
+    streams.close();
+    streams.cleanUp();
+  }
+
   @Test
   public void should_create_spans_from_stream_with_tracing_filter_not_predicate_true() {
     String inputTopic = testName.getMethodName() + "-input";
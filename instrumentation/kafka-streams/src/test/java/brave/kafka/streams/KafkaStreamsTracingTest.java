@@ -14,7 +14,11 @@
 package brave.kafka.streams;
 
 import brave.Span;
+import brave.handler.MutableSpan;
+import brave.propagation.B3SingleFormat;
 import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import java.util.Map;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.streams.KeyValue;
@@ -31,6 +35,7 @@ import static brave.test.ITRemote.BAGGAGE_FIELD;
 import static brave.test.ITRemote.BAGGAGE_FIELD_KEY;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.when;
 
 public class KafkaStreamsTracingTest extends KafkaStreamsTest {
   @Test
@@ -128,4 +133,127 @@ public class KafkaStreamsTracingTest extends KafkaStreamsTest {
         entry("kafka.streams.application.id", TEST_APPLICATION_ID),
         entry("kafka.streams.task.id", TEST_TASK_ID));
   }
+
+  @Test
+  public void nextSpan_unsampled_leavesHeaders() {
+    TraceContext unsampled = parent.toBuilder().sampled(false).build();
+    Headers headers = new RecordHeaders();
+    headers.add("b3", B3SingleFormat.writeB3SingleFormatAsBytes(unsampled));
+    ProcessorContext fakeProcessorContext = processorContextSupplier.apply(headers);
+
+    Span span = kafkaStreamsTracing.nextSpan(fakeProcessorContext);
+    assertThat(span.isNoop()).isTrue();
+    assertThat(span.context().traceIdString()).isEqualTo(unsampled.traceIdString());
+
+    assertThat(headers.lastHeader("b3").value())
+      .isEqualTo(B3SingleFormat.writeB3SingleFormatAsBytes(unsampled));
+  }
+
+  @Test
+  public void unsampled_injectsBaggageUpdates() {
+    assertUnsampledInjectsBaggageUpdates();
+  }
+
+  @Test
+  public void singleSpanPerSubTopology_unsampled_injectsBaggageUpdates() {
+    kafkaStreamsTracing =
+      KafkaStreamsTracing.newBuilder(tracing).singleSpanPerSubTopology(true).build();
+    assertUnsampledInjectsBaggageUpdates();
+  }
+
+  void assertUnsampledInjectsBaggageUpdates() {
+    ValueTransformerWithKey<String, String, String> mapValues =
+      kafkaStreamsTracing.<String, String, String>mapValues("mapValues", (k, v) -> {
+        BAGGAGE_FIELD.updateValue(currentTraceContext.get(), "user2");
+        return v;
+      }).get();
+    byte[] b3 =
+      B3SingleFormat.writeB3SingleFormatAsBytes(parent.toBuilder().sampled(false).build());
+    Headers headers = new RecordHeaders()
+      .add("b3", b3)
+      .add(BAGGAGE_FIELD_KEY, "user1".getBytes());
+    mapValues.init(processorContextSupplier.apply(headers));
+
+    mapValues.transform(TEST_KEY, TEST_VALUE);
+    mapValues.close();
+
+    assertThat(spans).isEmpty();
+    // the trace context isn't rewritten, but the baggage update is propagated to the next stage
+    assertThat(headers.lastHeader("b3").value()).isEqualTo(b3);
+    assertThat(headers.lastHeader(BAGGAGE_FIELD_KEY).value()).isEqualTo("user2".getBytes());
+  }
+
+  @Test
+  public void singleSpanPerSubTopology_annotatesOneSpanPerRecord() {
+    kafkaStreamsTracing =
+      KafkaStreamsTracing.newBuilder(tracing).singleSpanPerSubTopology(true).build();
+    ValueTransformerWithKey<String, String, String> mapValues =
+      kafkaStreamsTracing.<String, String, String>mapValues("mapValues", (k, v) -> v).get();
+    ValueTransformerWithKey<String, String, String> markAsFiltered =
+      kafkaStreamsTracing.<String, String>markAsFiltered("markAsFiltered", (k, v) -> true).get();
+
+    Headers headers1 = new RecordHeaders(), headers2 = new RecordHeaders();
+    headers1.add("b3", B3SingleFormat.writeB3SingleFormatAsBytes(parent));
+    ProcessorContext context1 = processorContextSupplier.apply(headers1);
+    // Kafka Streams copies headers when forwarding to the next operator
+    ProcessorContext context2 = processorContextSupplier.apply(new RecordHeaders(headers1));
+    mapValues.init(context1);
+    markAsFiltered.init(context2);
+
+    // each operator processes the first record
+    mapValues.transform(TEST_KEY, TEST_VALUE);
+    markAsFiltered.transform(TEST_KEY, TEST_VALUE);
+    assertThat(spans).isEmpty();
+
+    // the next record finishes the span of the first
+    when(context1.headers()).thenReturn(headers2);
+    when(context1.offset()).thenReturn(1L);
+    when(context2.headers()).thenReturn(headers2);
+    when(context2.offset()).thenReturn(1L);
+    mapValues.transform(TEST_KEY, TEST_VALUE);
+    markAsFiltered.transform(TEST_KEY, TEST_VALUE);
+    assertThat(spans).hasSize(1);
+
+    // closing the task finishes the span of the last record
+    mapValues.close();
+    assertThat(spans).hasSize(1);
+    markAsFiltered.close();
+    assertThat(spans).hasSize(2);
+    assertThat(kafkaStreamsTracing.taskSpans).isEmpty();
+
+    assertThat(spans.get(0).parentId()).isEqualTo(parent.spanIdString());
+    assertThat(spans.get(1).parentId()).isNull();
+    for (MutableSpan span : spans) {
+      assertThat(span.name()).isEqualTo("mapValues");
+      assertThat(span.annotations()).extracting(Map.Entry::getValue).containsExactly(
+        "mapValues", "mapValues.finish", "markAsFiltered", "markAsFiltered.finish");
+      assertThat(span.finishTimestamp())
+        .isEqualTo(span.annotationTimestampAt(span.annotationCount() - 1));
+      assertThat(span.tags())
+        .containsEntry("kafka.streams.filtered", "false")
+        .containsEntry("kafka.streams.task.id", TEST_TASK_ID);
+    }
+
+    // the span is propagated to the next stage
+    TraceContext injected = kafkaStreamsTracing.extractor.extract(headers1).context();
+    assertThat(injected.spanIdString()).isEqualTo(spans.get(0).id());
+  }
+
+  @Test
+  public void singleSpanPerSubTopology_punctuationFinishesIdleTask() {
+    kafkaStreamsTracing =
+      KafkaStreamsTracing.newBuilder(tracing).singleSpanPerSubTopology(true).build();
+    ValueTransformerWithKey<String, String, String> mapValues =
+      kafkaStreamsTracing.<String, String, String>mapValues("mapValues", (k, v) -> v).get();
+    mapValues.init(processorContextSupplier.apply(new RecordHeaders()));
+
+    mapValues.transform(TEST_KEY, TEST_VALUE);
+    assertThat(spans).isEmpty();
+
+    kafkaStreamsTracing.taskSpans.values().iterator().next().punctuate(0L);
+    assertThat(spans).hasSize(1);
+
+    mapValues.close(); // doesn't double-finish
+    assertThat(spans).hasSize(1);
+  }
 }
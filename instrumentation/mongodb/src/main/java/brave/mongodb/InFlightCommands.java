@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.mongodb;
+
+import brave.Span;
+import brave.internal.Nullable;
+import brave.propagation.ThreadLocalSpan;
+import com.mongodb.connection.ConnectionId;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spans of commands in flight, keyed by request ID and connection. This is used instead of {@link
+ * ThreadLocalSpan} when a command can start and end on different threads, as it does with the
+ * asynchronous and reactive drivers.
+ *
+ * <p>Entries are removed when their command succeeds or fails. In case that never happens, the
+ * number of entries is bounded, and entries older than a timeout are flushed.
+ */
+final class InFlightCommands {
+  static final int DEFAULT_MAX_SIZE = 10000;
+  static final long DEFAULT_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+  /** The key is also the value, which avoids allocating an entry object per command. */
+  final ConcurrentMap<Command, Command> commands = new ConcurrentHashMap<Command, Command>();
+  final int maxSize;
+  final long timeoutNanos;
+  final AtomicLong nextExpiration;
+
+  InFlightCommands(int maxSize, long timeoutNanos, long nanoTime) {
+    this.maxSize = maxSize;
+    this.timeoutNanos = timeoutNanos;
+    this.nextExpiration = new AtomicLong(nanoTime + timeoutNanos);
+  }
+
+  /**
+   * Returns false if the span could not be added, because there are too many commands in flight or
+   * one with the same key.
+   */
+  boolean put(int requestId, @Nullable ConnectionId connectionId, Span span, long nanoTime) {
+    long next = nextExpiration.get();
+    // Only one thread expires commands per interval. This is the case even when full, as scanning
+    // on each put would be expensive, and can't make room until the oldest command times out.
+    if (nanoTime - next >= 0 && nextExpiration.compareAndSet(next, nanoTime + timeoutNanos)) {
+      nextExpiration.compareAndSet(nanoTime + timeoutNanos, expire(nanoTime));
+    }
+    if (commands.size() >= maxSize) return false;
+    Command command = new Command(requestId, connectionId, span, nanoTime);
+    return commands.putIfAbsent(command, command) == null;
+  }
+
+  /** Returns the span of the command or null if it was never added or has since expired. */
+  @Nullable Span remove(int requestId, @Nullable ConnectionId connectionId) {
+    Command command = commands.remove(new Command(requestId, connectionId, null, 0L));
+    return command != null ? command.span : null;
+  }
+
+  /**
+   * Flushes spans of commands that started at least {@link #timeoutNanos} ago, and returns when the
+   * oldest remaining command times out. To bound the rate of scans, the result is no sooner than a
+   * sixteenth of the timeout from now.
+   */
+  long expire(long nanoTime) {
+    long nextExpiration = nanoTime + timeoutNanos;
+    for (Iterator<Command> i = commands.keySet().iterator(); i.hasNext(); ) {
+      Command command = i.next();
+      long expiration = command.startNanos + timeoutNanos;
+      if (nanoTime - expiration < 0) {
+        if (expiration - nextExpiration < 0) nextExpiration = expiration;
+        continue;
+      }
+      // Only flush if we removed it, as the command may have completed concurrently
+      if (commands.remove(command) != null) command.span.flush();
+    }
+    long minExpiration = nanoTime + (timeoutNanos >> 4);
+    return nextExpiration - minExpiration < 0 ? minExpiration : nextExpiration;
+  }
+
+  @Override public String toString() {
+    return "InFlightCommands{size=" + commands.size() + "}";
+  }
+
+  static final class Command {
+    final int requestId;
+    @Nullable final ConnectionId connectionId;
+    final Span span; // null when only used for lookup
+    final long startNanos;
+
+    Command(int requestId, @Nullable ConnectionId connectionId, Span span, long startNanos) {
+      this.requestId = requestId;
+      this.connectionId = connectionId;
+      this.span = span;
+      this.startNanos = startNanos;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof Command)) return false;
+      Command that = (Command) o;
+      return requestId == that.requestId
+        && (connectionId == null
+        ? that.connectionId == null
+        : connectionId.equals(that.connectionId));
+    }
+
+    @Override public int hashCode() {
+      int h = 1000003;
+      h ^= requestId;
+      h *= 1000003;
+      h ^= connectionId == null ? 0 : connectionId.hashCode();
+      return h;
+    }
+  }
+}
@@ -23,8 +23,8 @@ import com.mongodb.event.CommandListener;
  * on the {@link com.mongodb.MongoClientOptions} or {@link com.mongodb.MongoClientSettings} object
  * that is used to create the {@code MongoClient} to be instrumented.
  *
- * As of now, this instrumentation can only be used with the synchronous MongoDB driver. Do not use
- * it with the asynchronous or reactive drivers as tracing data will be incorrect.
+ * By default, this instrumentation can only be used with the synchronous MongoDB driver. To use it
+ * with the asynchronous or reactive drivers, enable {@link Builder#correlateByRequestId(boolean)}.
  */
 public final class MongoDBTracing {
   public static MongoDBTracing create(final Tracing tracing) {
@@ -41,20 +41,44 @@ public final class MongoDBTracing {
 
   public static final class Builder {
     final Tracing tracing;
+    boolean correlateByRequestId;
 
     Builder(Tracing tracing) {
       if (tracing == null) throw new NullPointerException("tracing == null");
       this.tracing = tracing;
     }
 
+    /**
+     * Controls how the end of a command is matched to the span created when it started.
+     *
+     * <p>By default, this assumes a command starts and ends on the same thread, which is only true
+     * for the synchronous driver. The asynchronous and reactive drivers end commands on I/O
+     * threads, so spans would be lost or have the wrong parent.
+     *
+     * <p>If true, spans are matched by the request ID and connection of the command instead. The
+     * span of a command that never ends is flushed after five minutes, and commands are not traced
+     * while 10000 are already in flight.
+     *
+     * <p>Note: In this mode, the span of a command is not placed in scope, so it is never the
+     * parent of another command's span.
+     *
+     * @since 5.14
+     */
+    public Builder correlateByRequestId(boolean correlateByRequestId) {
+      this.correlateByRequestId = correlateByRequestId;
+      return this;
+    }
+
     public MongoDBTracing build() {
       return new MongoDBTracing(this);
     }
   }
 
   final Tracing tracing;
+  final boolean correlateByRequestId;
 
   MongoDBTracing(Builder builder) {
     tracing = builder.tracing;
+    correlateByRequestId = builder.correlateByRequestId;
   }
 }
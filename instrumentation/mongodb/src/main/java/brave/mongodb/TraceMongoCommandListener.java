@@ -14,11 +14,13 @@
 package brave.mongodb;
 
 import brave.Span;
+import brave.Tracer;
 import brave.internal.Nullable;
 import brave.propagation.ThreadLocalSpan;
 import com.mongodb.MongoSocketException;
 import com.mongodb.connection.ConnectionDescription;
 import com.mongodb.connection.ConnectionId;
+import com.mongodb.event.CommandEvent;
 import com.mongodb.event.CommandFailedEvent;
 import com.mongodb.event.CommandListener;
 import com.mongodb.event.CommandStartedEvent;
@@ -46,26 +48,43 @@ final class TraceMongoCommandListener implements CommandListener {
     "insert", "update", "collMod", "compact", "convertToCapped", "create", "createIndexes", "drop",
     "dropIndexes", "killCursors", "listIndexes", "reIndex"));
 
+  final Tracer tracer;
   final ThreadLocalSpan threadLocalSpan;
+  @Nullable final InFlightCommands inFlightCommands; // only when correlating by request ID
 
   TraceMongoCommandListener(MongoDBTracing mongoDBTracing) {
-    this(ThreadLocalSpan.create(mongoDBTracing.tracing.tracer()));
+    this(mongoDBTracing.tracing.tracer(),
+      ThreadLocalSpan.create(mongoDBTracing.tracing.tracer()),
+      mongoDBTracing.correlateByRequestId ? new InFlightCommands(InFlightCommands.DEFAULT_MAX_SIZE,
+        InFlightCommands.DEFAULT_TIMEOUT_NANOS, System.nanoTime()) : null);
   }
 
-  TraceMongoCommandListener(ThreadLocalSpan threadLocalSpan) {
+  TraceMongoCommandListener(Tracer tracer, ThreadLocalSpan threadLocalSpan,
+    @Nullable InFlightCommands inFlightCommands) {
+    this.tracer = tracer;
     this.threadLocalSpan = threadLocalSpan;
+    this.inFlightCommands = inFlightCommands;
   }
 
   /**
-   * Uses {@link ThreadLocalSpan} as there's no attribute namespace shared between callbacks, but
-   * all callbacks happen on the same thread.
+   * By default, uses {@link ThreadLocalSpan} as there's no attribute namespace shared between
+   * callbacks, but all callbacks happen on the same thread. When {@link
+   * MongoDBTracing.Builder#correlateByRequestId(boolean)}, this uses {@link InFlightCommands}
+   * instead.
    */
   @Override public void commandStarted(CommandStartedEvent event) {
     String databaseName = event.getDatabaseName();
     if ("admin".equals(databaseName)) return; // don't trace commands like "endSessions"
 
-    Span span = threadLocalSpan.next();
-    if (span == null || span.isNoop()) return;
+    Span span;
+    if (inFlightCommands == null) {
+      span = threadLocalSpan.next();
+      if (span == null || span.isNoop()) return;
+    } else {
+      // Don't place the span in scope, as the thread may start other commands before this ends.
+      span = tracer.nextSpan();
+      if (span.isNoop()) return;
+    }
 
     String commandName = event.getCommandName();
     BsonDocument command = event.getCommand();
@@ -97,21 +116,36 @@ final class TraceMongoCommandListener implements CommandListener {
     }
 
     span.start();
+
+    if (inFlightCommands != null && !inFlightCommands.put(
+      event.getRequestId(), connectionId(event), span, System.nanoTime())) {
+      span.abandon(); // too many commands in flight
+    }
   }
 
   @Override public void commandSucceeded(CommandSucceededEvent event) {
-    Span span = threadLocalSpan.remove();
+    Span span = removeSpan(event);
     if (span == null) return;
     span.finish();
   }
 
   @Override public void commandFailed(CommandFailedEvent event) {
-    Span span = threadLocalSpan.remove();
+    Span span = removeSpan(event);
     if (span == null) return;
     span.error(event.getThrowable());
     span.finish();
   }
 
+  @Nullable Span removeSpan(CommandEvent event) {
+    if (inFlightCommands == null) return threadLocalSpan.remove();
+    return inFlightCommands.remove(event.getRequestId(), connectionId(event));
+  }
+
+  @Nullable static ConnectionId connectionId(CommandEvent event) {
+    ConnectionDescription connectionDescription = event.getConnectionDescription();
+    return connectionDescription != null ? connectionDescription.getConnectionId() : null;
+  }
+
   @Nullable String getCollectionName(BsonDocument command, String commandName) {
     if (COMMANDS_WITH_COLLECTION_NAME.contains(commandName)) {
       String collectionName = getNonEmptyBsonString(command.get(commandName));
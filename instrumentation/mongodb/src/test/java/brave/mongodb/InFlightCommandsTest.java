@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.mongodb;
+
+import brave.Span;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InFlightCommandsTest {
+  static final long TIMEOUT = 1000L;
+
+  ConnectionId connectionId = new ConnectionId(new ServerId(new ClusterId(), new ServerAddress()));
+  @Mock Span span1, span2;
+
+  InFlightCommands inFlightCommands = new InFlightCommands(2, TIMEOUT, 0L);
+
+  @Test public void remove_matchesRequestIdAndConnection() {
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(2, connectionId, span2, 0L)).isTrue();
+
+    assertThat(inFlightCommands.remove(1, null)).isNull();
+    assertThat(inFlightCommands.remove(1, connectionId)).isSameAs(span1);
+    assertThat(inFlightCommands.remove(1, connectionId)).isNull();
+    assertThat(inFlightCommands.remove(2, connectionId)).isSameAs(span2);
+    assertThat(inFlightCommands.commands).isEmpty();
+  }
+
+  @Test public void remove_nullConnectionId() {
+    assertThat(inFlightCommands.put(1, null, span1, 0L)).isTrue();
+
+    assertThat(inFlightCommands.remove(1, connectionId)).isNull();
+    assertThat(inFlightCommands.remove(1, null)).isSameAs(span1);
+  }
+
+  @Test public void put_rejectsDuplicate() {
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(1, connectionId, span2, 0L)).isFalse();
+
+    assertThat(inFlightCommands.remove(1, connectionId)).isSameAs(span1);
+  }
+
+  @Test public void put_rejectsWhenFull() {
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(2, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(3, connectionId, span2, TIMEOUT - 1)).isFalse();
+
+    assertThat(inFlightCommands.commands).hasSize(2);
+    verifyNoMoreInteractions(span1, span2);
+  }
+
+  @Test public void put_expiresWhenFull() {
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(2, connectionId, span2, 1L)).isTrue();
+    assertThat(inFlightCommands.put(3, connectionId, span2, TIMEOUT)).isTrue();
+
+    verify(span1).flush();
+    assertThat(inFlightCommands.remove(1, connectionId)).isNull();
+    assertThat(inFlightCommands.remove(2, connectionId)).isSameAs(span2);
+  }
+
+  @Test public void put_doesntScanWhenFull_untilExpiration() {
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(2, connectionId, span2, 1L)).isTrue();
+
+    // Even though the first command timed out, we don't scan for it until the next expiration
+    inFlightCommands.nextExpiration.set(Long.MAX_VALUE);
+    assertThat(inFlightCommands.put(3, connectionId, span2, TIMEOUT)).isFalse();
+
+    verifyNoMoreInteractions(span1, span2);
+    assertThat(inFlightCommands.commands).hasSize(2);
+  }
+
+  @Test public void put_nextExpirationIsWhenOldestTimesOut() {
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(2, connectionId, span2, TIMEOUT / 2)).isTrue();
+    assertThat(inFlightCommands.put(3, connectionId, span2, TIMEOUT)).isTrue();
+    verify(span1).flush();
+    assertThat(inFlightCommands.nextExpiration.get()).isEqualTo(TIMEOUT / 2 + TIMEOUT);
+
+    // full, and nothing can expire yet
+    assertThat(inFlightCommands.put(4, connectionId, span1, TIMEOUT / 2 + TIMEOUT - 1)).isFalse();
+    verifyNoMoreInteractions(span2);
+
+    assertThat(inFlightCommands.put(4, connectionId, span1, TIMEOUT / 2 + TIMEOUT)).isTrue();
+    verify(span2).flush();
+  }
+
+  @Test public void expire_boundsRateOfScans() {
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(2, connectionId, span2, 1L)).isTrue();
+
+    // the second command times out 1ns after the first, but we don't scan again that soon
+    assertThat(inFlightCommands.expire(TIMEOUT)).isEqualTo(TIMEOUT + (TIMEOUT >> 4));
+  }
+
+  @Test public void put_expiresAfterTimeout() {
+    inFlightCommands = new InFlightCommands(100, TIMEOUT, 0L);
+    assertThat(inFlightCommands.put(1, connectionId, span1, 0L)).isTrue();
+    assertThat(inFlightCommands.put(2, connectionId, span2, TIMEOUT - 1)).isTrue();
+    verifyNoMoreInteractions(span1, span2);
+
+    assertThat(inFlightCommands.put(3, connectionId, span2, TIMEOUT)).isTrue();
+    verify(span1).flush();
+    verifyNoMoreInteractions(span1, span2);
+
+    assertThat(inFlightCommands.remove(1, connectionId)).isNull();
+    assertThat(inFlightCommands.commands).hasSize(2);
+  }
+
+  @Test public void expire_worksOnNegativeNanoTime() {
+    inFlightCommands = new InFlightCommands(100, TIMEOUT, -TIMEOUT * 2);
+    assertThat(inFlightCommands.put(1, connectionId, span1, -TIMEOUT * 2)).isTrue();
+
+    inFlightCommands.expire(-TIMEOUT - 1);
+    verifyNoMoreInteractions(span1);
+
+    inFlightCommands.expire(-TIMEOUT);
+    verify(span1).flush();
+  }
+}
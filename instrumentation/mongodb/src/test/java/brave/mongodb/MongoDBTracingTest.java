@@ -48,5 +48,14 @@ public class MongoDBTracingTest {
     CommandListener listener = MongoDBTracing.newBuilder(tracing).build().commandListener();
     assertThat(listener).isInstanceOf(TraceMongoCommandListener.class);
     assertThat(listener).extracting("threadLocalSpan").extracting("tracer").isEqualTo(tracer);
+    assertThat(listener).extracting("inFlightCommands").isNull();
+  }
+
+  @Test public void commandListener_correlateByRequestId() {
+    when(tracing.tracer()).thenReturn(mock(Tracer.class));
+
+    CommandListener listener =
+      MongoDBTracing.newBuilder(tracing).correlateByRequestId(true).build().commandListener();
+    assertThat(listener).extracting("inFlightCommands").isNotNull();
   }
 }
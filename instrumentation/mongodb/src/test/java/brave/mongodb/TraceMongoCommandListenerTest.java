@@ -14,6 +14,7 @@
 package brave.mongodb;
 
 import brave.Span;
+import brave.Tracer;
 import brave.propagation.ThreadLocalSpan;
 import com.mongodb.ServerAddress;
 import com.mongodb.connection.ClusterId;
@@ -23,6 +24,7 @@ import com.mongodb.event.CommandFailedEvent;
 import com.mongodb.event.CommandStartedEvent;
 import com.mongodb.event.CommandSucceededEvent;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import org.bson.BsonBoolean;
 import org.bson.BsonDocument;
 import org.bson.BsonElement;
@@ -53,13 +55,15 @@ public class TraceMongoCommandListenerTest {
 
   static Throwable EXCEPTION = new RuntimeException("Error occurred");
 
+  @Mock Tracer tracer;
   @Mock ThreadLocalSpan threadLocalSpan;
   @Mock Span span;
 
+  ConnectionDescription connectionDescription = createConnectionDescription();
   TraceMongoCommandListener listener;
 
   @Before public void setUp() {
-    listener = new TraceMongoCommandListener(threadLocalSpan);
+    listener = new TraceMongoCommandListener(tracer, threadLocalSpan, null);
   }
 
   @Test public void getCollectionName_missingCommand() {
@@ -198,8 +202,76 @@ public class TraceMongoCommandListenerTest {
     verifyNoMoreInteractions(threadLocalSpan);
   }
 
+  @Test public void correlateByRequestId_commandSucceededOnAnotherThread() throws Exception {
+    correlateByRequestId(10);
+    when(tracer.nextSpan()).thenReturn(span);
+    setupSpanMocks();
+
+    listener.commandStarted(createCommandStartedEvent());
+
+    Thread thread = new Thread(() -> listener.commandSucceeded(createCommandSucceededEvent()));
+    thread.start();
+    thread.join();
+
+    verify(tracer).nextSpan();
+    verifySpanMocks();
+    verify(span).finish();
+    verifyNoMoreInteractions(tracer, threadLocalSpan, span);
+  }
+
+  @Test public void correlateByRequestId_commandFailed() {
+    correlateByRequestId(10);
+    when(tracer.nextSpan()).thenReturn(span);
+    setupSpanMocks();
+    when(span.error(EXCEPTION)).thenReturn(span);
+
+    listener.commandStarted(createCommandStartedEvent());
+    listener.commandFailed(createCommandFailedEvent(EXCEPTION));
+
+    verify(tracer).nextSpan();
+    verifySpanMocks();
+    verify(span).error(EXCEPTION);
+    verify(span).finish();
+    verifyNoMoreInteractions(tracer, threadLocalSpan, span);
+  }
+
+  @Test public void correlateByRequestId_differentRequestId() {
+    correlateByRequestId(10);
+    when(tracer.nextSpan()).thenReturn(span);
+    setupSpanMocks();
+
+    listener.commandStarted(createCommandStartedEvent());
+    listener.commandSucceeded(
+      new CommandSucceededEvent(2, connectionDescription, "insert", new BsonDocument(), 1000));
+
+    verify(tracer).nextSpan();
+    verifySpanMocks();
+    verifyNoMoreInteractions(tracer, threadLocalSpan, span);
+  }
+
+  @Test public void correlateByRequestId_abandonsWhenTooManyInFlight() {
+    correlateByRequestId(1);
+    when(tracer.nextSpan()).thenReturn(span);
+    setupSpanMocks();
+
+    listener.commandStarted(createCommandStartedEvent());
+    listener.commandStarted(new CommandStartedEvent(
+      2, connectionDescription, "dbName", "insert", LONG_COMMAND));
+
+    verify(span).abandon();
+  }
+
+  void correlateByRequestId(int maxSize) {
+    listener = new TraceMongoCommandListener(tracer, threadLocalSpan,
+      new InFlightCommands(maxSize, TimeUnit.MINUTES.toNanos(1), System.nanoTime()));
+  }
+
   void setupCommandStartedMocks() {
     when(threadLocalSpan.next()).thenReturn(span);
+    setupSpanMocks();
+  }
+
+  void setupSpanMocks() {
     when(span.isNoop()).thenReturn(false);
     when(span.name("insert myCollection")).thenReturn(span);
     when(span.kind(Span.Kind.CLIENT)).thenReturn(span);
@@ -213,6 +285,10 @@ public class TraceMongoCommandListenerTest {
 
   void verifyCommandStartedMocks() {
     verify(threadLocalSpan).next();
+    verifySpanMocks();
+  }
+
+  void verifySpanMocks() {
     verify(span).isNoop();
     verify(span).name("insert myCollection");
     verify(span).kind(Span.Kind.CLIENT);
@@ -227,7 +303,7 @@ public class TraceMongoCommandListenerTest {
   CommandStartedEvent createCommandStartedEvent() {
     return new CommandStartedEvent(
       1,
-      createConnectionDescription(),
+      connectionDescription,
       "dbName",
       "insert",
       LONG_COMMAND
@@ -237,7 +313,7 @@ public class TraceMongoCommandListenerTest {
   CommandSucceededEvent createCommandSucceededEvent() {
     return new CommandSucceededEvent(
       1,
-      createConnectionDescription(),
+      connectionDescription,
       "insert",
       new BsonDocument(),
       1000
@@ -247,7 +323,7 @@ public class TraceMongoCommandListenerTest {
   CommandFailedEvent createCommandFailedEvent(Throwable throwable) {
     return new CommandFailedEvent(
       1,
-      createConnectionDescription(),
+      connectionDescription,
       "insert",
       2000,
       throwable
@@ -14,6 +14,8 @@
 package brave.mysql;
 
 import brave.Span;
+import brave.internal.SqlNormalizer;
+import brave.internal.SqlNormalizer.NormalizedSql;
 import brave.propagation.ThreadLocalSpan;
 import com.mysql.jdbc.Connection;
 import com.mysql.jdbc.PreparedStatement;
@@ -33,6 +35,10 @@ import static brave.Span.Kind.CLIENT;
  * to the end of the connection url.
  */
 public class TracingStatementInterceptor implements StatementInterceptorV2 {
+  // Shared across connections, as they usually run the same statements.
+  static final SqlNormalizer SQL_NORMALIZER = SqlNormalizer.createMySQL();
+
+  boolean normalizeSql;
 
   /**
    * Uses {@link ThreadLocalSpan} as there's no attribute namespace shared between callbacks, but
@@ -52,9 +58,15 @@ public class TracingStatementInterceptor implements StatementInterceptorV2 {
     if (interceptedStatement instanceof PreparedStatement) {
       sql = ((PreparedStatement) interceptedStatement).getPreparedSql();
     }
-    int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
-    span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
-    span.tag("sql.query", sql);
+    if (normalizeSql) {
+      NormalizedSql normalized = SQL_NORMALIZER.normalize(sql);
+      span.kind(CLIENT).name(normalized.name());
+      span.tag("sql.query", normalized.query());
+    } else {
+      int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
+      span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
+      span.tag("sql.query", sql);
+    }
     parseServerIpAndPort(connection, span);
     span.start();
     return null;
@@ -107,7 +119,7 @@ public class TracingStatementInterceptor implements StatementInterceptorV2 {
   }
 
   @Override public void init(Connection conn, Properties props) {
-    // Don't care
+    normalizeSql = Boolean.parseBoolean(props.getProperty("zipkinNormalizeSql"));
   }
 
   @Override public void destroy() {
@@ -14,6 +14,8 @@
 package brave.mysql6;
 
 import brave.Span;
+import brave.internal.SqlNormalizer;
+import brave.internal.SqlNormalizer.NormalizedSql;
 import brave.propagation.ThreadLocalSpan;
 import com.mysql.cj.api.MysqlConnection;
 import com.mysql.cj.api.jdbc.JdbcConnection;
@@ -38,6 +40,8 @@ import static brave.Span.Kind.CLIENT;
  */
 @Deprecated
 public class TracingStatementInterceptor implements StatementInterceptor {
+  // Shared across connections, as they usually run the same statements.
+  static final SqlNormalizer SQL_NORMALIZER = SqlNormalizer.createMySQL();
 
   /**
    * Uses {@link ThreadLocalSpan} as there's no attribute namespace shared between callbacks, but
@@ -56,15 +60,22 @@ public class TracingStatementInterceptor implements StatementInterceptor {
     if (interceptedStatement instanceof PreparedStatement) {
       sql = ((PreparedStatement) interceptedStatement).getPreparedSql();
     }
-    int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
-    span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
-    span.tag("sql.query", sql);
+    if (normalizeSql) {
+      NormalizedSql normalized = SQL_NORMALIZER.normalize(sql);
+      span.kind(CLIENT).name(normalized.name());
+      span.tag("sql.query", normalized.query());
+    } else {
+      int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
+      span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
+      span.tag("sql.query", sql);
+    }
     parseServerIpAndPort(connection, span);
     span.start();
     return null;
   }
 
   private MysqlConnection connection;
+  boolean normalizeSql;
 
   @Override
   public <T extends Resultset> T postProcess(String sql, Statement interceptedStatement,
@@ -130,6 +141,7 @@ public class TracingStatementInterceptor implements StatementInterceptor {
     Log log) {
     TracingStatementInterceptor interceptor = new TracingStatementInterceptor();
     interceptor.connection = mysqlConnection;
+    interceptor.normalizeSql = Boolean.parseBoolean(properties.getProperty("zipkinNormalizeSql"));
     return interceptor;
   }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2013-2019 The OpenZipkin Authors
+ * Copyright 2013-2022 The OpenZipkin Authors
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
  * in compliance with the License. You may obtain a copy of the License at
@@ -14,14 +14,20 @@
 package brave.mysql6;
 
 import brave.Span;
+import brave.Tracing;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.test.TestSpanHandler;
 import com.mysql.cj.api.jdbc.JdbcConnection;
+import com.mysql.cj.api.log.Log;
 import java.sql.SQLException;
 import java.util.Properties;
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -30,9 +36,20 @@ import static org.mockito.Mockito.when;
 public class TracingStatementInterceptorTest {
   @Mock JdbcConnection connection;
 
+  @Mock Log log;
   @Mock Span span;
   String url = "jdbc:mysql://myhost:5555/mydatabase";
 
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder()
+    .currentTraceContext(currentTraceContext).addSpanHandler(spans).build();
+
+  @After public void close() {
+    tracing.close();
+    currentTraceContext.close();
+  }
+
   @Test public void parseServerIpAndPort_ipFromHost_portFromUrl() throws SQLException {
     setupAndReturnPropertiesForHost("1.2.3.4");
 
@@ -78,6 +95,42 @@ public class TracingStatementInterceptorTest {
     verifyNoMoreInteractions(span);
   }
 
+  @Test public void init_normalizeSqlFromProperties() {
+    Properties properties = new Properties();
+    properties.setProperty("zipkinNormalizeSql", "true");
+
+    TracingStatementInterceptor interceptor = (TracingStatementInterceptor)
+      new TracingStatementInterceptor().init(connection, properties, log);
+
+    assertThat(interceptor.normalizeSql).isTrue();
+  }
+
+  @Test public void init_normalizeSqlDisabledByDefault() {
+    Properties properties = new Properties();
+
+    TracingStatementInterceptor interceptor = (TracingStatementInterceptor)
+      new TracingStatementInterceptor().init(connection, properties, log);
+
+    assertThat(interceptor.normalizeSql).isFalse();
+  }
+
+  /** MySQL reads double-quoted text as a string, unless the ANSI_QUOTES mode is set. */
+  @Test public void normalizeSql() {
+    Properties properties = new Properties();
+    properties.setProperty("zipkinNormalizeSql", "true");
+    String sql = "SELECT * FROM users WHERE id IN (?, ?) AND name = \"bob\"";
+
+    TracingStatementInterceptor interceptor = (TracingStatementInterceptor)
+      new TracingStatementInterceptor().init(connection, properties, log);
+
+    interceptor.preProcess(sql, null);
+    interceptor.postProcess(sql, null, null, 0, false, false, null);
+
+    assertThat(spans.get(0).name()).isEqualTo("SELECT users");
+    assertThat(spans.get(0).tags())
+      .containsEntry("sql.query", "SELECT * FROM users WHERE id IN (?) AND name = ?");
+  }
+
   Properties setupAndReturnPropertiesForHost(String host) {
     when(connection.getURL()).thenReturn(url);
     Properties properties = new Properties();
@@ -14,6 +14,8 @@
 package brave.mysql8;
 
 import brave.Span;
+import brave.internal.SqlNormalizer;
+import brave.internal.SqlNormalizer.NormalizedSql;
 import brave.propagation.ThreadLocalSpan;
 import com.mysql.cj.MysqlConnection;
 import com.mysql.cj.Query;
@@ -38,6 +40,8 @@ import static brave.Span.Kind.CLIENT;
  * included in spans.
  */
 public class TracingQueryInterceptor implements QueryInterceptor {
+  // Shared across connections, as they usually run the same statements.
+  static final SqlNormalizer SQL_NORMALIZER = SqlNormalizer.createMySQL();
 
   /**
    * Uses {@link ThreadLocalSpan} as there's no attribute namespace shared between callbacks, but
@@ -53,9 +57,15 @@ public class TracingQueryInterceptor implements QueryInterceptor {
     if (span == null || span.isNoop()) return null;
 
     String sql = sqlSupplier.get();
-    int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
-    span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
-    span.tag("sql.query", sql);
+    if (normalizeSql) {
+      NormalizedSql normalized = SQL_NORMALIZER.normalize(sql);
+      span.kind(CLIENT).name(normalized.name());
+      span.tag("sql.query", normalized.query());
+    } else {
+      int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
+      span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
+      span.tag("sql.query", sql);
+    }
     parseServerIpAndPort(connection, span);
     span.start();
     return null;
@@ -63,6 +73,7 @@ public class TracingQueryInterceptor implements QueryInterceptor {
 
   private MysqlConnection connection;
   private boolean interceptingExceptions;
+  boolean normalizeSql;
 
   @Override
   public <T extends Resultset> T postProcess(Supplier<String> sql, Query interceptedQuery,
@@ -128,6 +139,7 @@ public class TracingQueryInterceptor implements QueryInterceptor {
     String exceptionInterceptors = properties.getProperty("exceptionInterceptors");
     TracingQueryInterceptor interceptor = new TracingQueryInterceptor();
     interceptor.connection = mysqlConnection;
+    interceptor.normalizeSql = Boolean.parseBoolean(properties.getProperty("zipkinNormalizeSql"));
     interceptor.interceptingExceptions = exceptionInterceptors != null &&
       exceptionInterceptors.contains(TracingExceptionInterceptor.class.getName());
     if (!interceptor.interceptingExceptions) {
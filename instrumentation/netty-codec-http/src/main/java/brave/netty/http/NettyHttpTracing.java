@@ -13,18 +13,11 @@
  */
 package brave.netty.http;
 
-import brave.Span;
 import brave.Tracing;
-import brave.http.HttpServerRequest;
 import brave.http.HttpTracing;
 import io.netty.channel.ChannelDuplexHandler;
-import io.netty.util.AttributeKey;
 
 public final class NettyHttpTracing {
-  static final AttributeKey<HttpServerRequest> REQUEST_ATTRIBUTE =
-    AttributeKey.valueOf(HttpServerRequest.class.getName());
-  static final AttributeKey<Span> SPAN_ATTRIBUTE = AttributeKey.valueOf(Span.class.getName());
-
   public static NettyHttpTracing create(Tracing tracing) {
     return new NettyHttpTracing(HttpTracing.create(tracing));
   }
@@ -33,16 +26,59 @@ public final class NettyHttpTracing {
     return new NettyHttpTracing(httpTracing);
   }
 
-  final ChannelDuplexHandler serverHandler;
+  final HttpTracing httpTracing;
+  final ChannelDuplexHandler serverHandler, clientHandler;
 
   NettyHttpTracing(HttpTracing httpTracing) { // intentionally hidden constructor
+    this.httpTracing = httpTracing;
     serverHandler = new TracingHttpServerHandler(httpTracing);
+    clientHandler = new TracingHttpClientHandler(httpTracing);
   }
 
   /**
    * Returns a duplex handler that traces {@link io.netty.handler.codec.http.HttpRequest} messages.
+   *
+   * <p>Requests pipelined on the same connection are traced independently: each response completes
+   * the oldest request still awaiting one.
    */
   public ChannelDuplexHandler serverHandler() {
     return serverHandler;
   }
+
+  /**
+   * Returns a duplex handler that traces {@link io.netty.handler.codec.http.HttpRequest} messages
+   * written by a client. Add it after the {@code HttpClientCodec}, and before any aggregator.
+   *
+   * <p>The client span is a child of the span in scope when the request is written on the event
+   * loop. When writing from another thread, wrap the write, so that the context is propagated:
+   * <pre>{@code
+   * channel.eventLoop().execute(currentTraceContext.wrap(() -> channel.writeAndFlush(request)));
+   * }</pre>
+   *
+   * <p>Requests pipelined on the same connection are traced independently: each response completes
+   * the oldest request still awaiting one. The result can be shared across channels.
+   *
+   * @since 5.14
+   */
+  public ChannelDuplexHandler clientHandler() {
+    return clientHandler;
+  }
+
+  /**
+   * Returns a duplex handler that traces request headers read from an {@code
+   * io.netty.handler.codec.http2.Http2FrameCodec}. Add it after the frame codec.
+   *
+   * <p>Streams multiplexed on the same connection are traced independently: a response headers
+   * frame completes the request on the same stream. This requires {@code netty-codec-http2}.
+   *
+   * <p>When streams are instead converted to HTTP/1.1 objects on their own child channels, such
+   * as with {@code Http2StreamFrameToHttpObjectCodec}, use {@link #serverHandler()} on each child
+   * channel.
+   *
+   * @since 5.14
+   */
+  public ChannelDuplexHandler http2FrameServerHandler() {
+    // Created on demand, so that netty-codec-http2 needn't be present for HTTP/1.1
+    return new TracingHttp2FrameServerHandler(httpTracing);
+  }
 }
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.netty.http;
+
+import brave.Span;
+import brave.http.HttpServerHandler;
+import brave.http.HttpServerRequest;
+import brave.http.HttpServerResponse;
+import brave.http.HttpTracing;
+import brave.internal.Nullable;
+import brave.internal.Platform;
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ResetFrame;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Traces request {@link Http2HeadersFrame headers} read from an {@code Http2FrameCodec}, where many
+ * streams share the same channel.
+ *
+ * <p>Responses on different streams can be written in any order. Hence, in-flight requests are
+ * kept in a per-channel map keyed by stream ID, and a response headers frame completes the request
+ * on the same stream. A stream reset before its response completes its request with an error, as
+ * do requests still in flight when the channel closes, such as after a GOAWAY.
+ */
+final class TracingHttp2FrameServerHandler extends ChannelDuplexHandler {
+  static final AttributeKey<Map<Integer, InFlight>> IN_FLIGHT_ATTRIBUTE =
+    AttributeKey.valueOf(TracingHttp2FrameServerHandler.class.getName() + ".inFlight");
+
+  final CurrentTraceContext currentTraceContext;
+  final HttpServerHandler<HttpServerRequest, HttpServerResponse> handler;
+
+  TracingHttp2FrameServerHandler(HttpTracing httpTracing) {
+    currentTraceContext = httpTracing.tracing().currentTraceContext();
+    handler = HttpServerHandler.create(httpTracing);
+  }
+
+  @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (msg instanceof Http2ResetFrame) {
+      onReset(ctx, (Http2ResetFrame) msg);
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    int streamId = requestStreamId(msg);
+    if (streamId <= 0) {
+      ctx.fireChannelRead(msg); // superclass does not throw
+      return;
+    }
+
+    Http2RequestWrapper request = new Http2RequestWrapper(((Http2HeadersFrame) msg).headers(),
+      TracingHttpServerHandler.remoteAddress(ctx));
+
+    Span span = handler.handleReceive(request);
+    Map<Integer, InFlight> streams = inFlight(ctx, true);
+    streams.put(streamId, new InFlight(request, span));
+    Scope scope = currentTraceContext.newScope(span.context());
+
+    // Place the span in scope so that downstream code can read trace IDs
+    Throwable error = null;
+    try {
+      ctx.fireChannelRead(msg);
+    } catch (Throwable e) {
+      error = e;
+      throw e;
+    } finally {
+      if (error != null) {
+        streams.remove(streamId); // no response will be written for this request
+        span.error(error).finish();
+      }
+      scope.close();
+    }
+  }
+
+  @Override public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise prm) {
+    if (msg instanceof Http2ResetFrame) {
+      onReset(ctx, (Http2ResetFrame) msg);
+      ctx.write(msg, prm);
+      return;
+    }
+
+    int streamId = responseStreamId(msg);
+    Map<Integer, InFlight> streams = streamId > 0 ? inFlight(ctx, false) : null;
+    InFlight inFlight = streams != null ? streams.remove(streamId) : null;
+    if (inFlight == null) {
+      ctx.write(msg, prm);
+      return;
+    }
+
+    Http2Headers headers = ((Http2HeadersFrame) msg).headers();
+    Span span = inFlight.span;
+
+    Scope scope = currentTraceContext.maybeScope(span.context());
+    Throwable error = null;
+    try {
+      ctx.write(msg, prm);
+    } catch (Throwable t) {
+      error = t;
+      throw t;
+    } finally {
+      handler.handleSend(new Http2ResponseWrapper(inFlight.request, headers, error), span);
+      scope.close();
+    }
+  }
+
+  /** Completes any requests that will never write a response. */
+  @Override public void channelInactive(ChannelHandlerContext ctx) {
+    Map<Integer, InFlight> streams = inFlight(ctx, false);
+    if (streams != null && !streams.isEmpty()) {
+      ClosedChannelException error = new ClosedChannelException();
+      for (InFlight inFlight : streams.values()) {
+        handler.handleSend(new Http2ResponseWrapper(inFlight.request, null, error), inFlight.span);
+      }
+      streams.clear();
+    }
+    ctx.fireChannelInactive();
+  }
+
+  void onReset(ChannelHandlerContext ctx, Http2ResetFrame reset) {
+    Http2FrameStream stream = reset.stream();
+    Map<Integer, InFlight> streams = stream != null ? inFlight(ctx, false) : null;
+    InFlight inFlight = streams != null ? streams.remove(stream.id()) : null;
+    if (inFlight == null) return;
+
+    Http2Error code = Http2Error.valueOf(reset.errorCode());
+    Throwable error = Http2Exception.streamError(stream.id(),
+      code != null ? code : Http2Error.INTERNAL_ERROR, "stream reset");
+    handler.handleSend(new Http2ResponseWrapper(inFlight.request, null, error), inFlight.span);
+  }
+
+  /** Returns the stream ID of a frame which starts a request, or zero if it does not. */
+  static int requestStreamId(Object msg) {
+    if (!(msg instanceof Http2HeadersFrame)) return 0;
+    Http2HeadersFrame frame = (Http2HeadersFrame) msg;
+    if (frame.headers().method() == null) return 0; // trailers
+    return streamId(frame);
+  }
+
+  /** Returns the stream ID of a frame which completes a request, or zero if it does not. */
+  static int responseStreamId(Object msg) {
+    if (!(msg instanceof Http2HeadersFrame)) return 0;
+    Http2HeadersFrame frame = (Http2HeadersFrame) msg;
+    int statusCode = parseStatus(frame.headers().status());
+    // Ignore trailers and interim responses, such as "100 Continue"
+    if (statusCode == 0 || HttpStatusClass.valueOf(statusCode) == HttpStatusClass.INFORMATIONAL) {
+      return 0;
+    }
+    return streamId(frame);
+  }
+
+  static int streamId(Http2StreamFrame frame) {
+    Http2FrameStream stream = frame.stream();
+    return stream != null ? stream.id() : 0;
+  }
+
+  static int parseStatus(@Nullable CharSequence status) {
+    if (status == null || status.length() != 3) return 0;
+    int result = 0;
+    for (int i = 0; i < 3; i++) {
+      char c = status.charAt(i);
+      if (c < '0' || c > '9') return 0;
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  /** Returns the map of requests awaiting a response, or null if none were read yet. */
+  @Nullable static Map<Integer, InFlight> inFlight(ChannelHandlerContext ctx, boolean create) {
+    Attribute<Map<Integer, InFlight>> attr = ctx.channel().attr(IN_FLIGHT_ATTRIBUTE);
+    Map<Integer, InFlight> result = attr.get();
+    if (result == null && create) {
+      result = new HashMap<Integer, InFlight>();
+      attr.set(result);
+    }
+    return result;
+  }
+
+  static final class InFlight {
+    final HttpServerRequest request;
+    final Span span;
+
+    InFlight(HttpServerRequest request, Span span) {
+      this.request = request;
+      this.span = span;
+    }
+  }
+
+  static final class Http2RequestWrapper extends HttpServerRequest {
+    final Http2Headers headers;
+    @Nullable final InetSocketAddress remoteAddress;
+
+    Http2RequestWrapper(Http2Headers headers, InetSocketAddress remoteAddress) {
+      this.headers = headers;
+      this.remoteAddress = remoteAddress;
+    }
+
+    @Override public Http2Headers unwrap() {
+      return headers;
+    }
+
+    @Override public boolean parseClientIpAndPort(Span span) {
+      if (parseClientIpFromXForwardedFor(span)) return true;
+      if (remoteAddress == null || remoteAddress.getAddress() == null) return false;
+      return span.remoteIpAndPort(
+        Platform.get().getHostString(remoteAddress),
+        remoteAddress.getPort()
+      );
+    }
+
+    @Override public String method() {
+      return toString(headers.method());
+    }
+
+    @Override public String path() {
+      String path = toString(headers.path());
+      if (path == null) return null;
+      int query = path.indexOf('?');
+      return query != -1 ? path.substring(0, query) : path;
+    }
+
+    @Override public String url() {
+      CharSequence authority = headers.authority();
+      if (authority == null) return null;
+      CharSequence scheme = headers.scheme();
+      return (scheme != null ? scheme : "http") + "://" + authority + headers.path();
+    }
+
+    /** HTTP/2 header names are lowercase. */
+    @Override public String header(String name) {
+      return toString(headers.get(name.toLowerCase(Locale.ROOT)));
+    }
+
+    @Nullable static String toString(@Nullable CharSequence value) {
+      return value != null ? value.toString() : null;
+    }
+  }
+
+  static final class Http2ResponseWrapper extends HttpServerResponse {
+    @Nullable final HttpServerRequest request;
+    @Nullable final Http2Headers headers;
+    @Nullable final Throwable error;
+
+    Http2ResponseWrapper(
+      @Nullable HttpServerRequest request,
+      @Nullable Http2Headers headers,
+      @Nullable Throwable error
+    ) {
+      this.request = request;
+      this.headers = headers;
+      this.error = error;
+    }
+
+    @Override @Nullable public Http2Headers unwrap() {
+      return headers;
+    }
+
+    @Override @Nullable public HttpServerRequest request() {
+      return request;
+    }
+
+    @Override public Throwable error() {
+      return error;
+    }
+
+    @Override public int statusCode() {
+      return headers != null ? parseStatus(headers.status()) : 0;
+    }
+  }
+}
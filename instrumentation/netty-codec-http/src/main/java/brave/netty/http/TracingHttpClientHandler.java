@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.netty.http;
+
+import brave.Span;
+import brave.http.HttpClientHandler;
+import brave.http.HttpClientRequest;
+import brave.http.HttpClientResponse;
+import brave.http.HttpTracing;
+import brave.internal.Nullable;
+import brave.internal.Platform;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+
+import static brave.netty.http.TracingHttpServerHandler.isInformational;
+import static brave.netty.http.TracingHttpServerHandler.remoteAddress;
+
+/**
+ * Traces {@link HttpRequest} messages written by a client, including those pipelined on a
+ * keep-alive connection.
+ *
+ * <p>The span starts when the request is written, as a child of the current span, and trace
+ * headers are set directly on the request. It finishes when the response is fully read, which is
+ * the {@link LastHttpContent}, or the {@link HttpResponse} if it is also the last content.
+ *
+ * <p>HTTP/1.1 responses are read in the same order requests were written. Hence, in-flight
+ * requests are kept in a per-channel FIFO, and each response completes the oldest one. The FIFO is
+ * only used on the channel's event loop, so it needn't be locked. This means the handler holds no
+ * state itself, and can be shared across channels.
+ */
+@Sharable
+final class TracingHttpClientHandler extends ChannelDuplexHandler {
+  static final AttributeKey<ArrayDeque<InFlight>> IN_FLIGHT_ATTRIBUTE =
+    AttributeKey.valueOf(TracingHttpClientHandler.class.getName() + ".inFlight");
+
+  final HttpClientHandler<HttpClientRequest, HttpClientResponse> handler;
+
+  TracingHttpClientHandler(HttpTracing httpTracing) {
+    handler = HttpClientHandler.create(httpTracing);
+  }
+
+  @Override public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise prm) {
+    if (!(msg instanceof HttpRequest)) {
+      ctx.write(msg, prm);
+      return;
+    }
+
+    HttpRequestWrapper request = new HttpRequestWrapper((HttpRequest) msg, ctx.pipeline());
+    Span span = handler.handleSend(request);
+    if (!span.isNoop()) parseRemoteIpAndPort(ctx, span);
+
+    ArrayDeque<InFlight> queue = inFlight(ctx, true);
+    InFlight inFlight = new InFlight(queue, request, span);
+    queue.add(inFlight);
+
+    // When the promise is void, a failed write fails the channel, which completes the request.
+    if (!prm.isVoid()) prm.addListener(inFlight);
+
+    Throwable error = null;
+    try {
+      ctx.write(msg, prm);
+    } catch (Throwable t) {
+      error = t;
+      throw t;
+    } finally {
+      if (error != null) inFlight.finish(null, error);
+    }
+  }
+
+  @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    ArrayDeque<InFlight> queue = inFlight(ctx, false);
+    InFlight inFlight = queue != null ? queue.peek() : null;
+    if (inFlight != null) {
+      if (msg instanceof HttpResponse && !isInformational((HttpResponse) msg)) {
+        inFlight.response = (HttpResponse) msg;
+      }
+      if (msg instanceof LastHttpContent && inFlight.response != null) {
+        inFlight.finish(inFlight.response, null);
+      }
+    }
+    ctx.fireChannelRead(msg); // superclass does not throw
+  }
+
+  /** Completes any requests that will never read a response. */
+  @Override public void channelInactive(ChannelHandlerContext ctx) {
+    ArrayDeque<InFlight> queue = inFlight(ctx, false);
+    if (queue != null && !queue.isEmpty()) {
+      ClosedChannelException error = new ClosedChannelException();
+      InFlight inFlight;
+      while ((inFlight = queue.peek()) != null) {
+        inFlight.finish(inFlight.response, error);
+      }
+    }
+    ctx.fireChannelInactive();
+  }
+
+  static void parseRemoteIpAndPort(ChannelHandlerContext ctx, Span span) {
+    InetSocketAddress remoteAddress = remoteAddress(ctx);
+    if (remoteAddress == null) return;
+    span.remoteIpAndPort(Platform.get().getHostString(remoteAddress), remoteAddress.getPort());
+  }
+
+  /** Returns the FIFO of requests awaiting a response, or null if none were written yet. */
+  @Nullable static ArrayDeque<InFlight> inFlight(ChannelHandlerContext ctx, boolean create) {
+    Attribute<ArrayDeque<InFlight>> attr = ctx.channel().attr(IN_FLIGHT_ATTRIBUTE);
+    ArrayDeque<InFlight> result = attr.get();
+    if (result == null && create) {
+      result = new ArrayDeque<InFlight>();
+      attr.set(result);
+    }
+    return result;
+  }
+
+  /** Also listens for a failed write, so that there's no extra allocation per request. */
+  final class InFlight implements ChannelFutureListener {
+    final ArrayDeque<InFlight> queue;
+    final HttpClientRequest request;
+    final Span span;
+    @Nullable HttpResponse response;
+
+    InFlight(ArrayDeque<InFlight> queue, HttpClientRequest request, Span span) {
+      this.queue = queue;
+      this.request = request;
+      this.span = span;
+    }
+
+    /** Listeners are notified on the event loop, so this doesn't race with reading a response. */
+    @Override public void operationComplete(ChannelFuture future) {
+      if (!future.isSuccess()) finish(response, future.cause());
+    }
+
+    void finish(@Nullable HttpResponse response, @Nullable Throwable error) {
+      if (!queue.remove(this)) return; // already finished
+      handler.handleReceive(new HttpResponseWrapper(request, response, error), span);
+    }
+  }
+
+  static final class HttpRequestWrapper extends HttpClientRequest {
+    final HttpRequest request;
+    final ChannelPipeline pipeline;
+
+    HttpRequestWrapper(HttpRequest request, ChannelPipeline pipeline) {
+      this.request = request;
+      this.pipeline = pipeline;
+    }
+
+    @Override public HttpRequest unwrap() {
+      return request;
+    }
+
+    @Override public String method() {
+      return request.method().name();
+    }
+
+    /** The encoder writes an empty path as "/", so we do the same. */
+    @Override public String path() {
+      String path = URI.create(request.uri()).getPath();
+      return path == null || path.length() == 0 ? "/" : path;
+    }
+
+    @Override public String url() {
+      String uri = request.uri();
+      if (uri.indexOf("://") != -1) return uri; // absolute-form, such as sent to a proxy
+      String host = header("Host");
+      if (host == null) return null;
+      String scheme = pipeline.get(SslHandler.class) != null ? "https://" : "http://";
+      return scheme + host + uri;
+    }
+
+    @Override public String header(String name) {
+      return request.headers().get(name);
+    }
+
+    /** Sets the header on the request being written, so it isn't copied. */
+    @Override public void header(String name, String value) {
+      request.headers().set(name, value);
+    }
+  }
+
+  static final class HttpResponseWrapper extends HttpClientResponse {
+    final HttpClientRequest request;
+    @Nullable final HttpResponse response;
+    @Nullable final Throwable error;
+
+    HttpResponseWrapper(
+      HttpClientRequest request,
+      @Nullable HttpResponse response,
+      @Nullable Throwable error
+    ) {
+      this.request = request;
+      this.response = response;
+      this.error = error;
+    }
+
+    @Override @Nullable public HttpResponse unwrap() {
+      return response;
+    }
+
+    @Override public HttpClientRequest request() {
+      return request;
+    }
+
+    @Override public Throwable error() {
+      return error;
+    }
+
+    @Override public int statusCode() {
+      if (response == null) return 0;
+      HttpResponseStatus status = response.status();
+      return status != null ? status.code() : 0;
+    }
+  }
+}
@@ -28,11 +28,27 @@ import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
 import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
 
+/**
+ * Traces {@link HttpRequest} messages, including those pipelined on a keep-alive connection.
+ *
+ * <p>HTTP/1.1 requires responses to be written in the same order requests were received. Hence,
+ * in-flight requests are kept in a per-channel FIFO, and each response completes the oldest one.
+ * This means a request read before the previous response was written doesn't overwrite its span.
+ * Requests still awaiting a response when the channel closes complete with an error.
+ */
 final class TracingHttpServerHandler extends ChannelDuplexHandler {
+  static final AttributeKey<ArrayDeque<InFlight>> IN_FLIGHT_ATTRIBUTE =
+    AttributeKey.valueOf(TracingHttpServerHandler.class.getName() + ".inFlight");
+
   final CurrentTraceContext currentTraceContext;
   final HttpServerHandler<HttpServerRequest, HttpServerResponse> handler;
 
@@ -48,11 +64,12 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
     }
 
     HttpRequestWrapper request =
-      new HttpRequestWrapper((HttpRequest) msg, (InetSocketAddress) ctx.channel().remoteAddress());
+      new HttpRequestWrapper((HttpRequest) msg, remoteAddress(ctx));
 
-    ctx.channel().attr(NettyHttpTracing.REQUEST_ATTRIBUTE).set(request);
     Span span = handler.handleReceive(request);
-    ctx.channel().attr(NettyHttpTracing.SPAN_ATTRIBUTE).set(span);
+    InFlight inFlight = new InFlight(request, span);
+    ArrayDeque<InFlight> queue = inFlight(ctx, true);
+    queue.add(inFlight);
     Scope scope = currentTraceContext.newScope(span.context());
 
     // Place the span in scope so that downstream code can read trace IDs
@@ -63,21 +80,29 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
       error = e;
       throw e;
     } finally {
-      if (error != null) span.error(error).finish();
+      if (error != null) {
+        queue.remove(inFlight); // no response will be written for this request
+        span.error(error).finish();
+      }
       scope.close();
     }
   }
 
   @Override public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise prm) {
-    Attribute<Span> spanAttr = ctx.channel().attr(NettyHttpTracing.SPAN_ATTRIBUTE);
-    Span span = spanAttr.get();
-    spanAttr.compareAndSet(span, null);
-    if (span == null || !(msg instanceof HttpResponse)) {
+    if (!(msg instanceof HttpResponse) || isInformational((HttpResponse) msg)) {
+      ctx.write(msg, prm);
+      return;
+    }
+
+    ArrayDeque<InFlight> queue = inFlight(ctx, false);
+    InFlight inFlight = queue != null ? queue.poll() : null;
+    if (inFlight == null) {
       ctx.write(msg, prm);
       return;
     }
 
     HttpResponse response = (HttpResponse) msg;
+    Span span = inFlight.span;
 
     Scope scope = currentTraceContext.maybeScope(span.context());
     Throwable error = null;
@@ -87,12 +112,61 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
       error = t;
       throw t;
     } finally {
-      HttpServerRequest request = ctx.channel().attr(NettyHttpTracing.REQUEST_ATTRIBUTE).get();
-      handler.handleSend(new HttpResponseWrapper(request, response, error), span);
+      handler.handleSend(new HttpResponseWrapper(inFlight.request, response, error), span);
       scope.close();
     }
   }
 
+  /** Completes any requests that will never write a response. */
+  @Override public void channelInactive(ChannelHandlerContext ctx) {
+    ArrayDeque<InFlight> queue = inFlight(ctx, false);
+    if (queue != null && !queue.isEmpty()) {
+      ClosedChannelException error = new ClosedChannelException();
+      InFlight inFlight;
+      while ((inFlight = queue.poll()) != null) {
+        handler.handleSend(new HttpResponseWrapper(inFlight.request, null, error), inFlight.span);
+      }
+    }
+    ctx.fireChannelInactive();
+  }
+
+  @Nullable static InetSocketAddress remoteAddress(ChannelHandlerContext ctx) {
+    SocketAddress result = ctx.channel().remoteAddress();
+    return result instanceof InetSocketAddress ? (InetSocketAddress) result : null;
+  }
+
+  /** Returns the FIFO of requests awaiting a response, or null if none were read yet. */
+  @Nullable static ArrayDeque<InFlight> inFlight(ChannelHandlerContext ctx, boolean create) {
+    Attribute<ArrayDeque<InFlight>> attr = ctx.channel().attr(IN_FLIGHT_ATTRIBUTE);
+    ArrayDeque<InFlight> result = attr.get();
+    if (result == null && create) {
+      result = new ArrayDeque<InFlight>();
+      attr.set(result);
+    }
+    return result;
+  }
+
+  /**
+   * Interim responses, such as "100 Continue", precede the final response to the same request.
+   * "101 Switching Protocols" is the last HTTP/1.1 response on the connection, so it is final.
+   */
+  static boolean isInformational(HttpResponse response) {
+    HttpResponseStatus status = response.status();
+    return status != null
+      && status.codeClass() == HttpStatusClass.INFORMATIONAL
+      && status.code() != HttpResponseStatus.SWITCHING_PROTOCOLS.code();
+  }
+
+  static final class InFlight {
+    final HttpServerRequest request;
+    final Span span;
+
+    InFlight(HttpServerRequest request, Span span) {
+      this.request = request;
+      this.span = span;
+    }
+  }
+
   static final class HttpRequestWrapper extends HttpServerRequest {
     final HttpRequest request;
     @Nullable final InetSocketAddress remoteAddress;
@@ -137,12 +211,12 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
 
   static final class HttpResponseWrapper extends HttpServerResponse {
     @Nullable final HttpServerRequest request;
-    final HttpResponse delegate;
+    @Nullable final HttpResponse delegate;
     @Nullable final Throwable error;
 
     HttpResponseWrapper(
       @Nullable HttpServerRequest request,
-      HttpResponse response,
+      @Nullable HttpResponse response,
       @Nullable Throwable error
     ) {
       this.request = request;
@@ -150,7 +224,7 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
       this.error = error;
     }
 
-    @Override public HttpResponse unwrap() {
+    @Override @Nullable public HttpResponse unwrap() {
       return delegate;
     }
 
@@ -163,6 +237,7 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
     }
 
     @Override public int statusCode() {
+      if (delegate == null) return 0;
       HttpResponseStatus status = delegate.status();
       return status != null ? status.code() : 0;
     }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.netty.http;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import brave.test.http.ITHttpAsyncClient;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AttributeKey;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import org.junit.Ignore;
+
+public class ITTracingHttpClientHandler extends ITHttpAsyncClient<Bootstrap> {
+  static final AttributeKey<CompletableFuture<Integer>> RESULT = AttributeKey.valueOf("result");
+
+  @Override protected Bootstrap newClient(int port) {
+    ChannelDuplexHandler tracingHandler = NettyHttpTracing.create(httpTracing).clientHandler();
+    return new Bootstrap()
+      .group(new NioEventLoopGroup(1))
+      .channel(NioSocketChannel.class)
+      .remoteAddress("127.0.0.1", port)
+      .handler(new ChannelInitializer<Channel>() {
+        @Override protected void initChannel(Channel ch) {
+          ch.pipeline().addLast(new HttpClientCodec());
+          ch.pipeline().addLast(tracingHandler);
+          ch.pipeline().addLast(new HttpObjectAggregator(1024 * 1024));
+          ch.pipeline().addLast(new ResultHandler());
+        }
+      });
+  }
+
+  @Override protected void closeClient(Bootstrap client) {
+    client.config().group().shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+  }
+
+  @Override protected void options(Bootstrap client, String path) throws IOException {
+    await(send(client, HttpMethod.OPTIONS, path, null));
+  }
+
+  @Override protected void get(Bootstrap client, String pathIncludingQuery) throws IOException {
+    await(send(client, HttpMethod.GET, pathIncludingQuery, null));
+  }
+
+  @Override protected void post(Bootstrap client, String pathIncludingQuery, String body)
+    throws IOException {
+    await(send(client, HttpMethod.POST, pathIncludingQuery, body));
+  }
+
+  @Override
+  protected void get(Bootstrap client, String path, BiConsumer<Integer, Throwable> callback) {
+    TraceContext invocationContext = currentTraceContext.get();
+    send(client, HttpMethod.GET, path, null).whenComplete((status, error) -> {
+      try (Scope scope = currentTraceContext.maybeScope(invocationContext)) {
+        callback.accept(status, error);
+      }
+    });
+  }
+
+  @Override @Ignore("Netty doesn't follow redirects")
+  public void redirect() {
+  }
+
+  /** Writes the request on the event loop in the invocation context, as documented. */
+  CompletableFuture<Integer> send(Bootstrap client, HttpMethod method, String path, String body) {
+    ByteBuf content = body != null
+      ? Unpooled.copiedBuffer(body, StandardCharsets.UTF_8)
+      : Unpooled.EMPTY_BUFFER;
+    FullHttpRequest request =
+      new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path, content);
+    request.headers().set(HttpHeaderNames.HOST, "127.0.0.1:" + server.getPort());
+    request.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+
+    CompletableFuture<Integer> result = new CompletableFuture<>();
+    TraceContext invocationContext = currentTraceContext.get();
+    client.connect().addListener((ChannelFuture connect) -> {
+      if (!connect.isSuccess()) {
+        request.release();
+        result.completeExceptionally(connect.cause());
+        return;
+      }
+      connect.channel().attr(RESULT).set(result);
+      try (Scope scope = currentTraceContext.maybeScope(invocationContext)) {
+        connect.channel().writeAndFlush(request);
+      }
+    });
+    return result;
+  }
+
+  static void await(CompletableFuture<Integer> result) throws IOException {
+    try {
+      result.get(10, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (TimeoutException e) {
+      throw new IOException(e);
+    }
+  }
+
+  static final class ResultHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+    @Override protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+      ctx.channel().attr(RESULT).get().complete(response.status().code());
+      ctx.close();
+    }
+
+    @Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      CompletableFuture<Integer> result = ctx.channel().attr(RESULT).get();
+      if (result != null) result.completeExceptionally(cause);
+      ctx.close();
+    }
+
+    @Override public void channelInactive(ChannelHandlerContext ctx) {
+      CompletableFuture<Integer> result = ctx.channel().attr(RESULT).get();
+      if (result != null) result.completeExceptionally(new ClosedChannelException());
+      ctx.fireChannelInactive();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.netty.http;
+
+import brave.Tracing;
+import brave.handler.MutableSpan;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.test.TestSpanHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2ResetFrame;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+import java.nio.channels.ClosedChannelException;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class TracingHttp2FrameServerHandlerTest {
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder()
+    .currentTraceContext(currentTraceContext)
+    .addSpanHandler(spans)
+    .build();
+  EmbeddedChannel channel =
+    new EmbeddedChannel(NettyHttpTracing.create(tracing).http2FrameServerHandler());
+
+  @After public void close() {
+    channel.finishAndReleaseAll();
+    tracing.close();
+    currentTraceContext.close();
+  }
+
+  @Test public void multiplexedStreams_completeByStream() {
+    channel.writeInbound(request(3, "/foo"));
+    channel.writeInbound(request(5, "/bar?q=1"));
+    channel.writeInbound(request(7, "/baz"));
+    assertThat(spans).isEmpty();
+
+    channel.writeOutbound(response(5, "404"));
+    channel.writeOutbound(response(7, "200"));
+    channel.writeOutbound(response(3, "202"));
+
+    assertThat(spans.spans())
+      .extracting(s -> s.tag("http.path"), s -> s.tag("http.status_code"))
+      .containsExactly(tuple("/bar", "404"), tuple("/baz", null), tuple("/foo", null));
+    assertThat(spans.spans()).extracting(MutableSpan::traceId).doesNotHaveDuplicates();
+  }
+
+  @Test public void readsRequestHeaders() {
+    channel.writeInbound(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers()
+      .method("POST")
+      .path("/foo")
+      .add("x-b3-traceid", "463ac35c9f6413ad")
+      .add("x-b3-spanid", "463ac35c9f6413ad")
+    ).stream(stream(3)));
+    channel.writeOutbound(response(3, "200"));
+
+    assertThat(spans.get(0).traceId()).isEqualTo("463ac35c9f6413ad");
+    assertThat(spans.get(0).tags()).containsEntry("http.method", "POST");
+  }
+
+  @Test public void interimResponseAndTrailers_dontCompleteRequest() {
+    channel.writeInbound(request(3, "/foo"));
+    channel.writeOutbound(response(3, "100"));
+    channel.writeOutbound(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers(), true)
+      .stream(stream(3)));
+    assertThat(spans).isEmpty();
+
+    channel.writeOutbound(response(3, "200"));
+    assertThat(spans.spans()).hasSize(1);
+  }
+
+  @Test public void reset_completesRequestWithError() {
+    channel.writeInbound(request(3, "/foo"));
+    channel.writeInbound(new DefaultHttp2ResetFrame(Http2Error.CANCEL).stream(stream(3)));
+
+    assertThat(spans.get(0).error()).hasMessage("stream reset");
+
+    // a late response doesn't complete the request again
+    channel.writeOutbound(response(3, "200"));
+    assertThat(spans.spans()).hasSize(1);
+  }
+
+  @Test public void channelClose_completesInFlightWithError() {
+    channel.writeInbound(request(3, "/foo"));
+    channel.writeInbound(request(5, "/bar"));
+    channel.writeInbound(request(7, "/baz"));
+    channel.writeOutbound(response(5, "200"));
+    channel.close();
+
+    assertThat(spans.spans())
+      .extracting(s -> s.tag("http.path"), s -> s.error() != null ? s.error().getClass() : null)
+      .containsExactlyInAnyOrder(
+        tuple("/foo", ClosedChannelException.class),
+        tuple("/bar", null),
+        tuple("/baz", ClosedChannelException.class)
+      );
+  }
+
+  @Test public void responseWithoutRequest_isNotTraced() {
+    channel.writeOutbound(response(3, "200"));
+
+    assertThat(spans).isEmpty();
+    assertThat((Object) channel.readOutbound()).isNotNull();
+  }
+
+  static Http2StreamFrame request(int streamId, String path) {
+    return new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().method("GET").path(path))
+      .stream(stream(streamId));
+  }
+
+  static Http2StreamFrame response(int streamId, String status) {
+    return new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().status(status))
+      .stream(stream(streamId));
+  }
+
+  static Http2FrameStream stream(int id) {
+    return new Http2FrameStream() {
+      @Override public int id() {
+        return id;
+      }
+
+      @Override public Http2Stream.State state() {
+        return Http2Stream.State.OPEN;
+      }
+    };
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.netty.http;
+
+import brave.Tracing;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.propagation.TraceContext;
+import brave.test.TestSpanHandler;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.nio.channels.ClosedChannelException;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class TracingHttpClientHandlerTest {
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder()
+    .currentTraceContext(currentTraceContext)
+    .addSpanHandler(spans)
+    .build();
+  ChannelDuplexHandler handler = NettyHttpTracing.create(tracing).clientHandler();
+  EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+  @After public void close() {
+    channel.finishAndReleaseAll();
+    tracing.close();
+    currentTraceContext.close();
+  }
+
+  @Test public void injectsHeadersIntoRequest() {
+    TraceContext parent = TraceContext.newBuilder().traceId(1L).spanId(2L).sampled(true).build();
+    HttpRequest request = request("/foo");
+    try (Scope scope = currentTraceContext.newScope(parent)) {
+      channel.writeOutbound(request);
+    }
+
+    assertThat((Object) channel.readOutbound()).isSameAs(request);
+    assertThat(request.headers().get("X-B3-TraceId")).isEqualTo("0000000000000001");
+    assertThat(request.headers().get("X-B3-ParentSpanId")).isEqualTo("0000000000000002");
+  }
+
+  @Test public void finishesOnLastContent() {
+    channel.writeOutbound(request("/foo"));
+    channel.writeInbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    channel.writeInbound(new DefaultHttpContent(Unpooled.EMPTY_BUFFER));
+    assertThat(spans).isEmpty();
+
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertThat(spans.spans()).extracting(s -> s.tag("http.path")).containsExactly("/foo");
+  }
+
+  @Test public void pipelinedRequests_completeInOrder() {
+    channel.writeOutbound(request("/foo"));
+    channel.writeOutbound(request("/bar"));
+    channel.writeOutbound(request("/baz"));
+
+    channel.writeInbound(response(HttpResponseStatus.OK));
+    channel.writeInbound(response(HttpResponseStatus.NOT_FOUND));
+    channel.writeInbound(response(HttpResponseStatus.ACCEPTED));
+
+    assertThat(spans.spans())
+      .extracting(s -> s.tag("http.path"), s -> s.tag("http.status_code"))
+      .containsExactly(tuple("/foo", null), tuple("/bar", "404"), tuple("/baz", null));
+  }
+
+  @Test public void interimResponse_doesntCompleteRequest() {
+    channel.writeOutbound(request("/foo"));
+    channel.writeInbound(response(HttpResponseStatus.CONTINUE));
+    assertThat(spans).isEmpty();
+
+    channel.writeInbound(response(HttpResponseStatus.OK));
+    assertThat(spans.spans()).hasSize(1);
+  }
+
+  @Test public void channelClose_completesInFlightWithError() {
+    channel.writeOutbound(request("/foo"));
+    channel.writeOutbound(request("/bar"));
+    channel.close();
+
+    assertThat(spans.spans())
+      .extracting(s -> s.tag("http.path"), s -> s.error().getClass())
+      .containsExactly(
+        tuple("/foo", ClosedChannelException.class),
+        tuple("/bar", ClosedChannelException.class)
+      );
+  }
+
+  @Test public void sharedAcrossChannels() {
+    EmbeddedChannel otherChannel = new EmbeddedChannel(handler);
+    try {
+      channel.writeOutbound(request("/foo"));
+      otherChannel.writeOutbound(request("/bar"));
+
+      otherChannel.writeInbound(response(HttpResponseStatus.OK));
+      channel.writeInbound(response(HttpResponseStatus.OK));
+    } finally {
+      otherChannel.finishAndReleaseAll();
+    }
+
+    assertThat(spans.spans()).extracting(s -> s.tag("http.path")).containsExactly("/bar", "/foo");
+  }
+
+  static HttpRequest request(String path) {
+    return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+  }
+
+  static DefaultFullHttpResponse response(HttpResponseStatus status) {
+    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2022 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.netty.http;
+
+import brave.Tracing;
+import brave.handler.MutableSpan;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.test.TestSpanHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.nio.channels.ClosedChannelException;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class TracingHttpServerHandlerTest {
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder()
+    .currentTraceContext(currentTraceContext)
+    .addSpanHandler(spans)
+    .build();
+  EmbeddedChannel channel =
+    new EmbeddedChannel(NettyHttpTracing.create(tracing).serverHandler());
+
+  @After public void close() {
+    channel.finishAndReleaseAll();
+    tracing.close();
+    currentTraceContext.close();
+  }
+
+  @Test public void pipelinedRequests_completeInOrder() {
+    channel.writeInbound(request("/foo"));
+    channel.writeInbound(request("/bar"));
+    channel.writeInbound(request("/baz"));
+    assertThat(spans).isEmpty();
+
+    channel.writeOutbound(response(HttpResponseStatus.OK));
+    channel.writeOutbound(response(HttpResponseStatus.NOT_FOUND));
+    channel.writeOutbound(response(HttpResponseStatus.ACCEPTED));
+
+    assertThat(spans.spans())
+      .extracting(s -> s.tag("http.path"), s -> s.tag("http.status_code"))
+      .containsExactly(tuple("/foo", null), tuple("/bar", "404"), tuple("/baz", null));
+    assertThat(spans.spans()).extracting(MutableSpan::traceId).doesNotHaveDuplicates();
+  }
+
+  @Test public void pipelinedRequests_interleaved() {
+    channel.writeInbound(request("/foo"));
+    channel.writeInbound(request("/bar"));
+    channel.writeOutbound(response(HttpResponseStatus.OK));
+    channel.writeInbound(request("/baz"));
+    channel.writeOutbound(response(HttpResponseStatus.OK));
+    channel.writeOutbound(response(HttpResponseStatus.OK));
+
+    assertThat(spans.spans()).extracting(s -> s.tag("http.path"))
+      .containsExactly("/foo", "/bar", "/baz");
+  }
+
+  @Test public void interimResponse_doesntCompleteRequest() {
+    channel.writeInbound(request("/foo"));
+    channel.writeOutbound(response(HttpResponseStatus.CONTINUE));
+    assertThat(spans).isEmpty();
+
+    channel.writeOutbound(response(HttpResponseStatus.OK));
+    assertThat(spans.spans()).extracting(s -> s.tag("http.path")).containsExactly("/foo");
+  }
+
+  @Test public void channelClose_completesInFlightWithError() {
+    channel.writeInbound(request("/foo"));
+    channel.writeInbound(request("/bar"));
+    channel.writeOutbound(response(HttpResponseStatus.OK));
+    channel.writeInbound(request("/baz"));
+    channel.close();
+
+    assertThat(spans.spans())
+      .extracting(s -> s.tag("http.path"), s -> s.error() != null ? s.error().getClass() : null)
+      .containsExactly(
+        tuple("/foo", null),
+        tuple("/bar", ClosedChannelException.class),
+        tuple("/baz", ClosedChannelException.class)
+      );
+  }
+
+  @Test public void responseWithoutRequest_isNotTraced() {
+    channel.writeOutbound(response(HttpResponseStatus.OK));
+
+    assertThat(spans).isEmpty();
+    assertThat((Object) channel.readOutbound()).isNotNull();
+  }
+
+  static DefaultFullHttpRequest request(String path) {
+    return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+  }
+
+  static DefaultFullHttpResponse response(HttpResponseStatus status) {
+    return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
+  }
+}
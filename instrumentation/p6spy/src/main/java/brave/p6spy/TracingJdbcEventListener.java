@@ -15,6 +15,8 @@ package brave.p6spy;
 
 import brave.Span;
 import brave.internal.Nullable;
+import brave.internal.SqlNormalizer;
+import brave.internal.SqlNormalizer.NormalizedSql;
 import brave.propagation.ThreadLocalSpan;
 
 import com.p6spy.engine.common.PreparedStatementInformation;
@@ -36,9 +38,13 @@ final class TracingJdbcEventListener extends SimpleJdbcEventListener {
   private static final Pattern URL_SERVICE_NAME_FINDER =
     Pattern.compile("zipkinServiceName=(.*?)(?:&|$)");
 
+  // Shared across connections, as they usually run the same statements.
+  static final SqlNormalizer SQL_NORMALIZER = SqlNormalizer.create();
+
   @Nullable final String remoteServiceName;
   final boolean includeParameterValues;
   final boolean includeAffectedRowsCount;
+  final boolean normalizeSql;
   final P6LogLoadableOptions logOptions;
 
   TracingJdbcEventListener(@Nullable String remoteServiceName, boolean includeParameterValues,
@@ -48,9 +54,15 @@ final class TracingJdbcEventListener extends SimpleJdbcEventListener {
 
   TracingJdbcEventListener(@Nullable String remoteServiceName, boolean includeParameterValues,
     boolean includeAffectedRowsCount, P6LogLoadableOptions logOptions) {
+    this(remoteServiceName, includeParameterValues, includeAffectedRowsCount, false, logOptions);
+  }
+
+  TracingJdbcEventListener(@Nullable String remoteServiceName, boolean includeParameterValues,
+    boolean includeAffectedRowsCount, boolean normalizeSql, P6LogLoadableOptions logOptions) {
     this.remoteServiceName = remoteServiceName;
     this.includeParameterValues = includeParameterValues;
     this.includeAffectedRowsCount = includeAffectedRowsCount;
+    this.normalizeSql = normalizeSql;
     this.logOptions = logOptions;
   }
 
@@ -62,16 +74,23 @@ final class TracingJdbcEventListener extends SimpleJdbcEventListener {
    * tracing.
    */
   @Override public void onBeforeAnyExecute(StatementInformation info) {
-    String sql = includeParameterValues ? info.getSqlWithValues() : info.getSql();
+    // Parameter values would be removed by normalization, and defeat its cache
+    String sql = includeParameterValues && !normalizeSql ? info.getSqlWithValues() : info.getSql();
     if (!isLoggable(sql)) return;
 
     // Gets the next span (and places it in scope) so code between here and postProcess can read it
     Span span = ThreadLocalSpan.CURRENT_TRACER.next();
     if (span == null || span.isNoop()) return;
 
-    int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
-    span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
-    span.tag("sql.query", sql);
+    if (normalizeSql) {
+      NormalizedSql normalized = SQL_NORMALIZER.normalize(sql);
+      span.kind(CLIENT).name(normalized.name());
+      span.tag("sql.query", normalized.query());
+    } else {
+      int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
+      span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
+      span.tag("sql.query", sql);
+    }
     parseServerIpAndPort(info.getConnectionInformation().getConnection(), span);
     span.start();
   }
@@ -30,6 +30,6 @@ public final class TracingP6Factory implements P6Factory {
   @Override public JdbcEventListener getJdbcEventListener() {
     return new TracingJdbcEventListener(options.remoteServiceName(),
       options.includeParameterValues(), options.includeAffectedRowsCount(),
-      options.getLogOptions());
+      options.normalizeSql(), options.getLogOptions());
   }
 }
@@ -25,6 +25,7 @@ final class TracingP6SpyOptions extends P6SpyOptions {
   static final String REMOTE_SERVICE_NAME = "remoteServiceName";
   static final String INCLUDE_PARAMETER_VALUES = "includeParameterValues";
   static final String INCLUDE_AFFECTED_ROWS_COUNT = "includeAffectedRowsCount";
+  static final String NORMALIZE_SQL = "normalizeSql";
 
   private final P6OptionsRepository optionsRepository;
   private final P6LogLoadableOptions logLoadableOptions;
@@ -44,6 +45,7 @@ final class TracingP6SpyOptions extends P6SpyOptions {
       options.get(INCLUDE_PARAMETER_VALUES));
     optionsRepository.set(Boolean.class, INCLUDE_AFFECTED_ROWS_COUNT,
       options.get(INCLUDE_AFFECTED_ROWS_COUNT));
+    optionsRepository.set(Boolean.class, NORMALIZE_SQL, options.get(NORMALIZE_SQL));
   }
 
   @Override
@@ -52,6 +54,7 @@ final class TracingP6SpyOptions extends P6SpyOptions {
     allDefaults.putAll(logLoadableOptions.getDefaults());
     allDefaults.put(INCLUDE_PARAMETER_VALUES, Boolean.FALSE.toString());
     allDefaults.put(INCLUDE_AFFECTED_ROWS_COUNT, Boolean.FALSE.toString());
+    allDefaults.put(NORMALIZE_SQL, Boolean.FALSE.toString());
     return allDefaults;
   }
 
@@ -70,4 +73,8 @@ final class TracingP6SpyOptions extends P6SpyOptions {
   Boolean includeAffectedRowsCount() {
     return optionsRepository.get(Boolean.class, INCLUDE_AFFECTED_ROWS_COUNT);
   }
+
+  Boolean normalizeSql() {
+    return optionsRepository.get(Boolean.class, NORMALIZE_SQL);
+  }
 }
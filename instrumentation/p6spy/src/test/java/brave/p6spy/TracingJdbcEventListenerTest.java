@@ -37,6 +37,7 @@ import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -206,6 +207,25 @@ public class TracingJdbcEventListenerTest {
     assertThat(spans).size().isEqualTo(1);
   }
 
+  @Test public void normalizeSql() throws SQLException {
+    when(statementInformation.getSql())
+      .thenReturn("SELECT * FROM users WHERE id IN (?, ?) AND name = 'bob'");
+    when(statementInformation.getConnectionInformation()).thenReturn(connectionInformation);
+    when(connectionInformation.getConnection()).thenReturn(connection);
+    when(connection.getMetaData()).thenReturn(metaData);
+
+    // parameter values are ignored as they would be removed anyway
+    TracingJdbcEventListener listener =
+      new TracingJdbcEventListener("", true, false, true, logOptions);
+    listener.onBeforeAnyExecute(statementInformation);
+    listener.onAfterAnyExecute(statementInformation, 1, null);
+
+    assertThat(spans.get(0).name()).isEqualTo("SELECT users");
+    assertThat(spans.get(0).tags())
+      .containsEntry("sql.query", "SELECT * FROM users WHERE id IN (?) AND name = ?");
+    verify(statementInformation, never()).getSqlWithValues();
+  }
+
   @Test public void nullSqlWontNPE() {
     when(statementInformation.getSql()).thenReturn(null);
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.r2dbc;
+
+import brave.Tracing;
+import brave.internal.Nullable;
+import brave.propagation.ThreadLocalSpan;
+import io.r2dbc.proxy.ProxyConnectionFactory;
+import io.r2dbc.proxy.listener.ProxyExecutionListener;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+
+/**
+ * Use this class to decorate your R2DBC connection factory and enable Tracing.
+ *
+ * <p>Each query executed by a traced connection results in a client span. Unlike JDBC
+ * instrumentation, this doesn't use {@link ThreadLocalSpan}, as R2DBC drivers complete queries on
+ * event loop threads. Instead, the span is attached to the execution of the query.
+ *
+ * @since 5.14
+ */
+public final class R2dbcTracing {
+  public static R2dbcTracing create(Tracing tracing) {
+    return newBuilder(tracing).build();
+  }
+
+  public static Builder newBuilder(Tracing tracing) {
+    return new Builder(tracing);
+  }
+
+  /**
+   * Returns a connection factory that traces queries of connections created by the input.
+   *
+   * <p>The remote service name is set when {@link Builder#remoteServiceName(String)}. As the
+   * address of the database isn't known, the remote IP and port are not.
+   */
+  public ConnectionFactory connectionFactory(ConnectionFactory delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    return ProxyConnectionFactory.builder(delegate).listener(executionListener()).build();
+  }
+
+  /**
+   * Returns a connection factory that traces queries of connections created by {@link
+   * ConnectionFactories#get(ConnectionFactoryOptions)}.
+   *
+   * <p>The remote IP and port are read from {@link ConnectionFactoryOptions#HOST} and {@link
+   * ConnectionFactoryOptions#PORT}. Unless {@link Builder#remoteServiceName(String)}, the remote
+   * service name is {@link ConnectionFactoryOptions#DATABASE}.
+   */
+  public ConnectionFactory connectionFactory(ConnectionFactoryOptions options) {
+    if (options == null) throw new NullPointerException("options == null");
+    String remoteServiceName = this.remoteServiceName;
+    if (remoteServiceName == null) {
+      remoteServiceName = stringValue(options.getValue(ConnectionFactoryOptions.DATABASE));
+    }
+    Object port = options.getValue(ConnectionFactoryOptions.PORT);
+    ProxyExecutionListener listener = new TracingExecutionListener(tracing.tracer(),
+      remoteServiceName, stringValue(options.getValue(ConnectionFactoryOptions.HOST)),
+      port instanceof Number ? ((Number) port).intValue() : 0);
+    return ProxyConnectionFactory.builder(ConnectionFactories.get(options))
+      .listener(listener)
+      .build();
+  }
+
+  /**
+   * Returns a listener to add to your own {@link ProxyConnectionFactory.Builder}. Only the remote
+   * service name is set, when {@link Builder#remoteServiceName(String)}.
+   */
+  public ProxyExecutionListener executionListener() {
+    return new TracingExecutionListener(tracing.tracer(), remoteServiceName, null, 0);
+  }
+
+  @Nullable static String stringValue(@Nullable Object value) {
+    if (value == null) return null;
+    String result = value.toString();
+    return result.isEmpty() ? null : result;
+  }
+
+  public static final class Builder {
+    final Tracing tracing;
+    String remoteServiceName;
+
+    Builder(Tracing tracing) {
+      if (tracing == null) throw new NullPointerException("tracing == null");
+      this.tracing = tracing;
+    }
+
+    /**
+     * Sets the remote service name of query spans, such as "mysql". Defaults to the database name,
+     * when known.
+     */
+    public Builder remoteServiceName(String remoteServiceName) {
+      if (remoteServiceName == null) {
+        throw new NullPointerException("remoteServiceName == null");
+      }
+      this.remoteServiceName = remoteServiceName.isEmpty() ? null : remoteServiceName;
+      return this;
+    }
+
+    public R2dbcTracing build() {
+      return new R2dbcTracing(this);
+    }
+  }
+
+  final Tracing tracing;
+  @Nullable final String remoteServiceName;
+
+  R2dbcTracing(Builder builder) {
+    tracing = builder.tracing;
+    remoteServiceName = builder.remoteServiceName;
+  }
+}
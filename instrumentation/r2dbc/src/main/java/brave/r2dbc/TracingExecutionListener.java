@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.r2dbc;
+
+import brave.Span;
+import brave.Tracer;
+import brave.internal.Nullable;
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.listener.ProxyExecutionListener;
+import java.util.List;
+
+import static brave.Span.Kind.CLIENT;
+
+final class TracingExecutionListener implements ProxyExecutionListener {
+  final Tracer tracer;
+  @Nullable final String remoteServiceName, remoteHost;
+  final int remotePort;
+
+  TracingExecutionListener(Tracer tracer, @Nullable String remoteServiceName,
+    @Nullable String remoteHost, int remotePort) {
+    this.tracer = tracer;
+    this.remoteServiceName = remoteServiceName;
+    this.remoteHost = remoteHost;
+    this.remotePort = remotePort;
+  }
+
+  /**
+   * Stores the span in the {@link QueryExecutionInfo#getValueStore() value store} of the execution,
+   * as {@link #afterQuery(QueryExecutionInfo)} is usually called on a different thread.
+   */
+  @Override public void beforeQuery(QueryExecutionInfo info) {
+    String sql = sql(info.getQueries());
+    // don't start a span unless there is SQL as we cannot choose a relevant name without it
+    if (sql == null) return;
+
+    // Don't place the span in scope, as the driver may execute other queries before this ends.
+    // The parent is only read from scope: brave-context-reactor places it there on other threads.
+    Span span = tracer.nextSpan();
+    if (span.isNoop()) return;
+
+    int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
+    span.kind(CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
+    span.tag("sql.query", sql);
+    if (remoteServiceName != null) span.remoteServiceName(remoteServiceName);
+    if (remoteHost != null) span.remoteIpAndPort(remoteHost, remotePort);
+    span.start();
+
+    info.getValueStore().put(Span.class, span);
+  }
+
+  @Override public void afterQuery(QueryExecutionInfo info) {
+    Span span = info.getValueStore().get(Span.class, Span.class);
+    if (span == null) return;
+    Throwable error = info.getThrowable();
+    if (error != null) span.error(error);
+    span.finish();
+  }
+
+  /** Returns the SQL of the query, or all queries in a batch, separated by semicolons. */
+  @Nullable static String sql(List<QueryInfo> queries) {
+    int size = queries.size();
+    if (size == 0) return null;
+    if (size == 1) return nonEmpty(queries.get(0).getQuery());
+
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < size; i++) {
+      String query = nonEmpty(queries.get(i).getQuery());
+      if (query == null) continue;
+      if (result.length() > 0) result.append("; ");
+      result.append(query);
+    }
+    return result.length() > 0 ? result.toString() : null;
+  }
+
+  @Nullable static String nonEmpty(@Nullable String query) {
+    return query == null || query.isEmpty() ? null : query;
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.r2dbc;
+
+import brave.ScopedSpan;
+import brave.Span;
+import brave.Span.Kind;
+import brave.Tracing;
+import brave.context.reactor.CurrentTraceContextHooks;
+import brave.handler.MutableSpan;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.propagation.TraceContext;
+import brave.test.TestSpanHandler;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+public class ITR2dbcTracing {
+  @Rule public TestName testName = new TestName();
+
+  static final String QUERY = "SELECT i FROM t";
+
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder()
+    .currentTraceContext(currentTraceContext).addSpanHandler(spans).build();
+  Connection connection;
+
+  @Before public void setup() {
+    ConnectionFactory connectionFactory = R2dbcTracing.create(tracing).connectionFactory(
+      ConnectionFactoryOptions.parse("r2dbc:h2:mem:///" + testName.getMethodName()));
+    connection = Mono.from(connectionFactory.create()).block();
+    execute("CREATE TABLE t (i INTEGER, c CHAR)");
+    execute("INSERT INTO t (i, c) VALUES (1, 'a')");
+    execute("INSERT INTO t (i, c) VALUES (2, 'b')");
+    spans.clear();
+  }
+
+  @After public void close() {
+    CurrentTraceContextHooks.disable();
+    if (connection != null) Mono.from(connection.close()).block();
+    tracing.close();
+    currentTraceContext.close();
+  }
+
+  @Test public void makesChildOfCurrentSpan() {
+    ScopedSpan parent = tracing.tracer().startScopedSpan("test");
+    try {
+      executeSelect(QUERY);
+    } finally {
+      parent.finish();
+    }
+
+    assertThat(spans.get(0).parentId()).isEqualTo(parent.context().spanIdString());
+  }
+
+  /** The parent is read from scope, so context hooks are needed when subscribing elsewhere. */
+  @Test public void makesChildOfCurrentSpan_subscribeOnAnotherThread() {
+    CurrentTraceContextHooks.create(currentTraceContext).enable();
+
+    ScopedSpan parent = tracing.tracer().startScopedSpan("test");
+    try {
+      Flux.from(connection.createStatement(QUERY).execute())
+        .flatMap(result -> result.map((row, metadata) -> row.get(0)))
+        .subscribeOn(Schedulers.parallel())
+        .blockLast();
+    } finally {
+      parent.finish();
+    }
+
+    assertThat(spans.get(0).parentId()).isEqualTo(parent.context().spanIdString());
+  }
+
+  @Test public void makesChildOfSubscriberContext() {
+    CurrentTraceContextHooks.create(currentTraceContext).enable();
+
+    Span parent = tracing.tracer().nextSpan().name("test").start();
+    try {
+      Flux.from(connection.createStatement(QUERY).execute())
+        .flatMap(result -> result.map((row, metadata) -> row.get(0)))
+        .subscribeOn(Schedulers.parallel())
+        .contextWrite(Context.of(TraceContext.class, parent.context()))
+        .blockLast();
+    } finally {
+      parent.finish();
+    }
+
+    assertThat(spans.get(0).parentId()).isEqualTo(parent.context().spanIdString());
+  }
+
+  @Test public void reportsClientKindToZipkin() {
+    executeSelect(QUERY);
+
+    assertThat(spans)
+      .extracting(MutableSpan::kind)
+      .containsExactly(Kind.CLIENT);
+  }
+
+  @Test public void defaultSpanNameIsOperationName() {
+    executeSelect(QUERY);
+
+    assertThat(spans)
+      .extracting(MutableSpan::name)
+      .containsExactly("SELECT");
+  }
+
+  @Test public void addsQueryTag() {
+    executeSelect(QUERY);
+
+    assertThat(spans)
+      .flatExtracting(s -> s.tags().entrySet())
+      .containsExactly(entry("sql.query", QUERY));
+  }
+
+  @Test public void reportsServerAddress() {
+    executeSelect(QUERY);
+
+    assertThat(spans)
+      .extracting(MutableSpan::remoteServiceName)
+      .containsExactly(testName.getMethodName());
+  }
+
+  @Test public void pipelinedQueries() {
+    Flux.range(0, 10)
+      .flatMap(i -> connection.createStatement(QUERY + " WHERE i = " + i).execute())
+      .flatMap(result -> result.map((row, metadata) -> row.get(0)))
+      .blockLast();
+
+    assertThat(spans)
+      .hasSize(10)
+      .extracting(MutableSpan::id)
+      .doesNotHaveDuplicates();
+  }
+
+  @Test public void reportsError() {
+    assertThatThrownBy(() -> executeSelect("SELECT nope FROM t"))
+      .isInstanceOf(Exception.class);
+
+    assertThat(spans.get(0).error()).isNotNull();
+  }
+
+  void execute(String sql) {
+    Flux.from(connection.createStatement(sql).execute())
+      .flatMap(result -> result.getRowsUpdated())
+      .blockLast();
+  }
+
+  void executeSelect(String sql) {
+    Flux.from(connection.createStatement(sql).execute())
+      .flatMap(result -> result.map((row, metadata) -> row.get(0)))
+      .blockLast();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.r2dbc;
+
+import brave.ScopedSpan;
+import brave.Span;
+import brave.Tracing;
+import brave.handler.MutableSpan;
+import brave.propagation.StrictCurrentTraceContext;
+import brave.sampler.Sampler;
+import brave.test.TestSpanHandler;
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.core.ValueStore;
+import io.r2dbc.proxy.test.MockQueryExecutionInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+import static brave.Span.Kind.CLIENT;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class TracingExecutionListenerTest {
+  StrictCurrentTraceContext currentTraceContext = StrictCurrentTraceContext.create();
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder()
+    .currentTraceContext(currentTraceContext).addSpanHandler(spans).build();
+  TracingExecutionListener listener =
+    new TracingExecutionListener(tracing.tracer(), "mydatabase", "1.2.3.4", 5555);
+
+  @After public void close() {
+    tracing.close();
+    currentTraceContext.close();
+  }
+
+  @Test public void reportsClientSpan() {
+    QueryExecutionInfo info = execution("SELECT 1");
+    listener.beforeQuery(info);
+    listener.afterQuery(info);
+
+    MutableSpan span = spans.get(0);
+    assertThat(span.kind()).isEqualTo(CLIENT);
+    assertThat(span.name()).isEqualTo("SELECT");
+    assertThat(span.tags()).containsExactly(entry("sql.query", "SELECT 1"));
+    assertThat(span.remoteServiceName()).isEqualTo("mydatabase");
+    assertThat(span.remoteIp()).isEqualTo("1.2.3.4");
+    assertThat(span.remotePort()).isEqualTo(5555);
+  }
+
+  @Test public void singleWordStatement() {
+    QueryExecutionInfo info = execution("COMMIT");
+    listener.beforeQuery(info);
+    listener.afterQuery(info);
+
+    assertThat(spans.get(0).name()).isEqualTo("COMMIT");
+  }
+
+  @Test public void batch_joinsQueries() {
+    QueryExecutionInfo info = MockQueryExecutionInfo.builder()
+      .queries(Arrays.asList(new QueryInfo("INSERT INTO t VALUES (1)"),
+        new QueryInfo("INSERT INTO t VALUES (2)")))
+      .valueStore(ValueStore.create())
+      .build();
+    listener.beforeQuery(info);
+    listener.afterQuery(info);
+
+    assertThat(spans.get(0).name()).isEqualTo("INSERT");
+    assertThat(spans.get(0).tags()).containsExactly(
+      entry("sql.query", "INSERT INTO t VALUES (1); INSERT INTO t VALUES (2)"));
+  }
+
+  @Test public void noQuery_noSpan() {
+    QueryExecutionInfo info = MockQueryExecutionInfo.builder()
+      .queries(emptyList())
+      .valueStore(ValueStore.create())
+      .build();
+    listener.beforeQuery(info);
+    listener.afterQuery(info);
+
+    assertThat(spans).isEmpty();
+  }
+
+  @Test public void makesChildOfCurrentSpan_withoutScoping() {
+    QueryExecutionInfo info = execution("SELECT 1");
+    ScopedSpan parent = tracing.tracer().startScopedSpan("test");
+    try {
+      listener.beforeQuery(info);
+      // the query span isn't placed in scope, as the driver completes it later
+      assertThat(tracing.currentTraceContext().get()).isEqualTo(parent.context());
+    } finally {
+      parent.finish();
+    }
+    listener.afterQuery(info);
+
+    assertThat(spans.get(1).parentId()).isEqualTo(parent.context().spanIdString());
+  }
+
+  /** Pipelined queries start together and finish in any order, possibly on another thread. */
+  @Test public void pipelinedQueries_finishIndependently() throws Exception {
+    List<QueryExecutionInfo> infos = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      QueryExecutionInfo info = execution("SELECT " + i);
+      listener.beforeQuery(info);
+      infos.add(info);
+    }
+
+    Thread thread = new Thread(() -> {
+      for (int i = infos.size() - 1; i >= 0; i--) listener.afterQuery(infos.get(i));
+    });
+    thread.start();
+    thread.join();
+
+    assertThat(spans).extracting(s -> s.tags().get("sql.query"))
+      .containsExactly("SELECT 2", "SELECT 1", "SELECT 0");
+    assertThat(spans).extracting(MutableSpan::id).doesNotHaveDuplicates();
+  }
+
+  @Test public void reportsError() {
+    IllegalStateException error = new IllegalStateException("table not found");
+    QueryExecutionInfo info = MockQueryExecutionInfo.builder()
+      .queryInfo(new QueryInfo("SELECT 1"))
+      .throwable(error)
+      .valueStore(ValueStore.create())
+      .build();
+    listener.beforeQuery(info);
+    listener.afterQuery(info);
+
+    assertThat(spans.get(0).error()).isSameAs(error);
+  }
+
+  @Test public void unsampled_noSpanStored() {
+    try (Tracing unsampled = Tracing.newBuilder()
+      .currentTraceContext(currentTraceContext)
+      .sampler(Sampler.NEVER_SAMPLE)
+      .addSpanHandler(spans)
+      .build()) {
+      listener = new TracingExecutionListener(unsampled.tracer(), null, null, 0);
+
+      QueryExecutionInfo info = execution("SELECT 1");
+      listener.beforeQuery(info);
+      assertThat(info.getValueStore().get(Span.class)).isNull();
+      listener.afterQuery(info);
+    }
+
+    assertThat(spans).isEmpty();
+  }
+
+  @Test public void noRemoteAddress() {
+    listener = new TracingExecutionListener(tracing.tracer(), null, null, 0);
+
+    QueryExecutionInfo info = execution("SELECT 1");
+    listener.beforeQuery(info);
+    listener.afterQuery(info);
+
+    assertThat(spans.get(0).remoteServiceName()).isNull();
+    assertThat(spans.get(0).remoteIp()).isNull();
+  }
+
+  static QueryExecutionInfo execution(String query) {
+    return MockQueryExecutionInfo.builder()
+      .queryInfo(new QueryInfo(query))
+      .valueStore(ValueStore.create())
+      .build();
+  }
+}
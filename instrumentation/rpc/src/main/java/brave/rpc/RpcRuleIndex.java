@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.rpc;
+
+import brave.internal.InternalSampler;
+import brave.internal.Nullable;
+import brave.rpc.RpcRequestMatchers.RpcMethodEquals;
+import brave.rpc.RpcRequestMatchers.RpcServiceEquals;
+import brave.sampler.Matcher;
+import brave.sampler.ParameterizedSampler;
+import brave.sampler.Sampler;
+import brave.sampler.SamplerFunction;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the rules of a {@link ParameterizedSampler} in order, like {@link
+ * ParameterizedSampler#trySample(Object)}, except that rules made only of {@link
+ * RpcRequestMatchers} are looked up in hash tables instead of scanned.
+ *
+ * <p>Rules which are a {@link RpcRequestMatchers#serviceEquals(String) service}, a {@link
+ * RpcRequestMatchers#methodEquals(String) method}, an {@link brave.sampler.Matchers#and and} of
+ * one of each, or an {@link brave.sampler.Matchers#or or} of those, are indexed. Finding the first
+ * indexed rule that matches takes at most three lookups, regardless of how many rules there are.
+ *
+ * <p>Other rules, such as custom matchers, are evaluated as usual. These are only invoked when no
+ * indexed rule before them matched. As indexed matchers have no side effects, the result is the
+ * same as evaluating all rules in order.
+ */
+final class RpcRuleIndex implements SamplerFunction<RpcRequest> {
+  static final int NO_MATCH = Integer.MAX_VALUE;
+
+  static RpcRuleIndex create(ParameterizedSampler<RpcRequest> delegate) {
+    Matcher<RpcRequest>[] matchers = InternalSampler.instance.matchers(delegate);
+    Sampler[] samplers = InternalSampler.instance.samplers(delegate);
+
+    Map<String, Integer> serviceRules = new LinkedHashMap<>();
+    Map<String, Integer> methodRules = new LinkedHashMap<>();
+    Map<String, Map<String, Integer>> serviceMethodRules = new LinkedHashMap<>();
+    List<Integer> unindexed = new ArrayList<>();
+    List<String[]> terms = new ArrayList<>();
+    for (int rule = 0; rule < matchers.length; rule++) {
+      terms.clear();
+      if (!addTerms(matchers[rule], terms)) {
+        unindexed.add(rule);
+        continue;
+      }
+      for (String[] term : terms) {
+        String service = term[0], method = term[1];
+        if (method == null) {
+          putIfAbsent(serviceRules, service, rule);
+        } else if (service == null) {
+          putIfAbsent(methodRules, method, rule);
+        } else {
+          Map<String, Integer> methods = serviceMethodRules.get(service);
+          if (methods == null) serviceMethodRules.put(service, methods = new LinkedHashMap<>());
+          putIfAbsent(methods, method, rule);
+        }
+      }
+    }
+
+    int[] unindexedRules = new int[unindexed.size()];
+    for (int i = 0; i < unindexedRules.length; i++) unindexedRules[i] = unindexed.get(i);
+    return new RpcRuleIndex(matchers, samplers, serviceRules, methodRules, serviceMethodRules,
+      unindexedRules);
+  }
+
+  final Matcher<RpcRequest>[] matchers;
+  final Sampler[] samplers;
+  /** Service or method to the first rule that only matches on it. */
+  final Map<String, Integer> serviceRules, methodRules;
+  /** Service, then method, to the first rule that matches on both. */
+  final Map<String, Map<String, Integer>> serviceMethodRules;
+  /** Index of rules evaluated with {@link Matcher#matches(Object)}, in ascending order. */
+  final int[] unindexedRules;
+  final boolean indexed;
+
+  RpcRuleIndex(Matcher<RpcRequest>[] matchers, Sampler[] samplers,
+    Map<String, Integer> serviceRules, Map<String, Integer> methodRules,
+    Map<String, Map<String, Integer>> serviceMethodRules, int[] unindexedRules) {
+    this.matchers = matchers;
+    this.samplers = samplers;
+    this.serviceRules = serviceRules;
+    this.methodRules = methodRules;
+    this.serviceMethodRules = serviceMethodRules;
+    this.unindexedRules = unindexedRules;
+    this.indexed = unindexedRules.length < matchers.length;
+  }
+
+  @Override public @Nullable Boolean trySample(RpcRequest request) {
+    if (request == null) return null;
+    int rule = indexed ? firstIndexedMatch(request.service(), request.method()) : NO_MATCH;
+
+    // Unindexed rules only need to be checked if they come before the indexed match.
+    for (int unindexed : unindexedRules) {
+      if (unindexed > rule) break;
+      if (matchers[unindexed].matches(request)) {
+        rule = unindexed;
+        break;
+      }
+    }
+
+    if (rule == NO_MATCH) return null;
+    return samplers[rule].isSampled(0L); // counting sampler ignores the input
+  }
+
+  /** Returns the index of the first indexed rule that matches, or {@link #NO_MATCH}. */
+  int firstIndexedMatch(@Nullable String service, @Nullable String method) {
+    int result = NO_MATCH;
+    if (service != null) result = min(result, serviceRules.get(service));
+    if (method != null) result = min(result, methodRules.get(method));
+    if (service != null && method != null) {
+      Map<String, Integer> methods = serviceMethodRules.get(service);
+      if (methods != null) result = min(result, methods.get(method));
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return "RpcRuleIndex{rules=" + matchers.length + ", unindexed=" + unindexedRules.length + "}";
+  }
+
+  static int min(int result, @Nullable Integer rule) {
+    return rule != null && rule < result ? rule : result;
+  }
+
+  /** Adds the terms of an indexable matcher, returning false if it isn't one. */
+  static boolean addTerms(Matcher<RpcRequest> matcher, List<String[]> terms) {
+    Matcher<RpcRequest>[] or = InternalSampler.instance.orMatchers(matcher);
+    if (or == null) return addTerm(matcher, terms);
+    for (Matcher<RpcRequest> next : or) {
+      if (!addTerm(next, terms)) return false;
+    }
+    return true;
+  }
+
+  /** Adds a service and method pair, either of which can be null, but not both. */
+  static boolean addTerm(Matcher<RpcRequest> matcher, List<String[]> terms) {
+    Matcher<RpcRequest>[] and = InternalSampler.instance.andMatchers(matcher);
+    if (and == null) and = new Matcher[] {matcher};
+    String service = null, method = null;
+    for (Matcher<RpcRequest> next : and) {
+      if (next instanceof RpcServiceEquals && service == null) {
+        service = ((RpcServiceEquals) next).service;
+      } else if (next instanceof RpcMethodEquals && method == null) {
+        method = ((RpcMethodEquals) next).method;
+      } else {
+        return false; // not a matcher we know, or redundant
+      }
+    }
+    terms.add(new String[] {service, method});
+    return true;
+  }
+
+  static void putIfAbsent(Map<String, Integer> map, String key, int rule) {
+    if (!map.containsKey(key)) map.put(key, rule);
+  }
+}
@@ -38,6 +38,10 @@ import brave.sampler.SamplerFunction;
  * <h3>Implementation notes</h3>
  * Be careful when implementing matchers as {@link RpcRequest} methods can return null.
  *
+ * <p>Rules made of {@link RpcRequestMatchers} are indexed by service and method, so sampling
+ * doesn't slow down as more of these are added. The first matching rule still wins, including when
+ * custom matchers are mixed in.
+ *
  * @see RpcRequestMatchers
  * @since 5.8
  */
@@ -90,12 +94,14 @@ public final class RpcRuleSampler implements SamplerFunction<RpcRequest> {
   }
 
   final ParameterizedSampler<RpcRequest> delegate;
+  final RpcRuleIndex index;
 
   RpcRuleSampler(ParameterizedSampler delegate) {
     this.delegate = delegate;
+    this.index = RpcRuleIndex.create(delegate);
   }
 
   @Override public Boolean trySample(RpcRequest request) {
-    return delegate.trySample(request);
+    return index.trySample(request);
   }
 }
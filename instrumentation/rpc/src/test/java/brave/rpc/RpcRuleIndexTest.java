@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.rpc;
+
+import brave.sampler.Matcher;
+import brave.sampler.ParameterizedSampler;
+import brave.sampler.Sampler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static brave.rpc.RpcRequestMatchers.methodEquals;
+import static brave.rpc.RpcRequestMatchers.serviceEquals;
+import static brave.sampler.Matchers.and;
+import static brave.sampler.Matchers.or;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RpcRuleIndexTest {
+  ParameterizedSampler.Builder<RpcRequest> builder = ParameterizedSampler.newBuilder();
+  /** Holds the index of the last rule whose sampler was called. */
+  AtomicInteger matched = new AtomicInteger(-1);
+  int ruleCount;
+
+  @Test public void service() {
+    putRule(serviceEquals("scribe"));
+    RpcRuleIndex index = build();
+
+    assertThat(firstMatch(index, "scribe", "Log")).isZero();
+    assertThat(firstMatch(index, "scribe", null)).isZero();
+    assertThat(firstMatch(index, "zipkin", "Log")).isEqualTo(-1);
+    assertThat(firstMatch(index, null, "Log")).isEqualTo(-1);
+  }
+
+  @Test public void method() {
+    putRule(methodEquals("Log"));
+    RpcRuleIndex index = build();
+
+    assertThat(firstMatch(index, "scribe", "Log")).isZero();
+    assertThat(firstMatch(index, null, "Log")).isZero();
+    assertThat(firstMatch(index, "scribe", "Report")).isEqualTo(-1);
+  }
+
+  @Test public void serviceAndMethod() {
+    putRule(and(serviceEquals("scribe"), methodEquals("Log")));
+    RpcRuleIndex index = build();
+
+    assertThat(firstMatch(index, "scribe", "Log")).isZero();
+    assertThat(firstMatch(index, "zipkin", "Log")).isEqualTo(-1);
+    assertThat(firstMatch(index, "scribe", null)).isEqualTo(-1);
+    assertThat(firstMatch(index, null, "Log")).isEqualTo(-1);
+  }
+
+  @Test public void or_indexed() {
+    putRule(or(serviceEquals("scribe"), and(serviceEquals("zipkin"), methodEquals("Report"))));
+    RpcRuleIndex index = build();
+
+    assertThat(index.unindexedRules).isEmpty();
+    assertThat(firstMatch(index, "scribe", "Log")).isZero();
+    assertThat(firstMatch(index, "zipkin", "Report")).isZero();
+    assertThat(firstMatch(index, "zipkin", "Log")).isEqualTo(-1);
+  }
+
+  @Test public void firstMatchWins() {
+    putRule(methodEquals("Log"));
+    putRule(and(serviceEquals("scribe"), methodEquals("Log")));
+    putRule(serviceEquals("scribe"));
+    RpcRuleIndex index = build();
+
+    assertThat(firstMatch(index, "scribe", "Log")).isZero();
+    assertThat(firstMatch(index, "scribe", "Report")).isEqualTo(2);
+  }
+
+  @Test public void unindexed_evaluatedInOrder() {
+    List<String> invoked = new ArrayList<>();
+    putRule(serviceEquals("scribe"));
+    putRule(request -> invoked.add("custom") && "Report".equals(request.method()));
+    putRule(methodEquals("Report"));
+    RpcRuleIndex index = build();
+
+    assertThat(index.unindexedRules).containsExactly(1);
+
+    // the custom matcher isn't invoked when an earlier rule matched
+    assertThat(firstMatch(index, "scribe", "Report")).isZero();
+    assertThat(invoked).isEmpty();
+
+    // the custom matcher is invoked before a later rule
+    assertThat(firstMatch(index, "zipkin", "Report")).isEqualTo(1);
+    assertThat(invoked).containsExactly("custom");
+  }
+
+  @Test public void noRules() {
+    RpcRuleIndex index = build();
+
+    assertThat(firstMatch(index, "scribe", "Log")).isEqualTo(-1);
+  }
+
+  /** Compares against {@link ParameterizedSampler}, which evaluates each rule in order. */
+  @Test public void sameAsParameterizedSampler() {
+    Random random = new Random(1234L);
+    String[] services = {"scribe", "zipkin", "health", "users", null};
+    String[] methods = {"Log", "Report", "Check", "Get", null};
+
+    for (int i = 0; i < 100; i++) {
+      String service = services[random.nextInt(services.length - 1)];
+      String method = methods[random.nextInt(methods.length - 1)];
+      switch (random.nextInt(4)) {
+        case 0:
+          putRule(serviceEquals(service));
+          break;
+        case 1:
+          putRule(methodEquals(method));
+          break;
+        case 2:
+          putRule(request -> service.equals(request.service()) && random.nextBoolean());
+          break;
+        default:
+          putRule(and(serviceEquals(service), methodEquals(method)));
+      }
+    }
+    ParameterizedSampler<RpcRequest> linear = builder.build();
+    RpcRuleIndex index = RpcRuleIndex.create(linear);
+
+    for (int i = 0; i < 1000; i++) {
+      FakeRpcRequest request = new FakeRpcRequest(
+        services[random.nextInt(services.length)], methods[random.nextInt(methods.length)]);
+      long seed = random.nextLong();
+
+      random.setSeed(seed); // so that custom matchers make the same decisions
+      matched.set(-1);
+      linear.trySample(request);
+      int expected = matched.getAndSet(-1);
+
+      random.setSeed(seed);
+      index.trySample(request);
+      assertThat(matched.get()).withFailMessage("mismatch on " + request).isEqualTo(expected);
+    }
+  }
+
+  /** The sampler of each rule records its index, so we can tell which rule matched. */
+  void putRule(Matcher<RpcRequest> matcher) {
+    int rule = ruleCount++;
+    builder.putRule(matcher, new Sampler() {
+      @Override public boolean isSampled(long traceId) {
+        matched.set(rule);
+        return true;
+      }
+    });
+  }
+
+  RpcRuleIndex build() {
+    return RpcRuleIndex.create(builder.build());
+  }
+
+  int firstMatch(RpcRuleIndex index, String service, String method) {
+    matched.set(-1);
+    index.trySample(new FakeRpcRequest(service, method));
+    return matched.get();
+  }
+
+  static final class FakeRpcRequest extends RpcServerRequest {
+    final String service, method;
+
+    FakeRpcRequest(String service, String method) {
+      this.service = service;
+      this.method = method;
+    }
+
+    @Override public Object unwrap() {
+      return this;
+    }
+
+    @Override public String service() {
+      return service;
+    }
+
+    @Override public String method() {
+      return method;
+    }
+
+    @Override public String toString() {
+      return service + "/" + method;
+    }
+  }
+}
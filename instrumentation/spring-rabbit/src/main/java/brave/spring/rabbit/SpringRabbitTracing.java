@@ -14,6 +14,7 @@
 package brave.spring.rabbit;
 
 import brave.Span;
+import brave.SpanBatch;
 import brave.Tracer;
 import brave.Tracing;
 import brave.internal.Nullable;
@@ -215,6 +216,21 @@ public final class SpringRabbitTracing {
     return tracer.nextSpan(extracted);
   }
 
+  /** Like {@link #nextMessagingSpan}, except the result is started and finished by the batch. */
+  Span nextMessagingSpan(
+    SamplerFunction<MessagingRequest> sampler,
+    MessagingRequest request,
+    TraceContextOrSamplingFlags extracted,
+    SpanBatch batch
+  ) {
+    Boolean sampled = extracted.sampled();
+    // only recreate the context if the messaging sampler made a decision
+    if (sampled == null && (sampled = sampler.trySample(request)) != null) {
+      extracted = extracted.sampled(sampled.booleanValue());
+    }
+    return batch.nextSpan(extracted);
+  }
+
   // We can't just skip clearing headers we use because we might inject B3 single, yet have stale B3
   // multi, or visa versa.
   void clearTraceIdHeaders(Map<String, Object> headers) {
@@ -14,6 +14,7 @@
 package brave.spring.rabbit;
 
 import brave.Span;
+import brave.SpanBatch;
 import brave.Tracer;
 import brave.Tracing;
 import brave.internal.Nullable;
@@ -72,35 +73,32 @@ final class TracingRabbitListenerAdvice implements MethodInterceptor {
   /**
    * MethodInterceptor for {@link SimpleMessageListenerContainer.ContainerDelegate#invokeListener(Channel,
    * Message)}
+   *
+   * <p>When the listener consumes a batch, each message gets a consumer span, and the listener span
+   * is a child of the first.
    */
   @Override public Object invoke(MethodInvocation methodInvocation) throws Throwable {
-    Message message = null;
-    if (methodInvocation.getArguments()[1] instanceof List) {
-      message = ((List<? extends Message>) methodInvocation.getArguments()[1]).get(0);
+    Object messages = methodInvocation.getArguments()[1];
+    SpanBatch batch;
+    Span consumerSpan;
+    if (messages instanceof List) {
+      List<? extends Message> list = (List<? extends Message>) messages;
+      if (list.isEmpty()) return methodInvocation.proceed();
+      batch = tracer.newSpanBatch(list.size());
+      consumerSpan = nextConsumerSpan(list.get(0), batch);
+      for (int i = 1, length = list.size(); i < length; i++) nextConsumerSpan(list.get(i), batch);
     } else {
-      message = (Message) methodInvocation.getArguments()[1];
+      batch = tracer.newSpanBatch(1);
+      consumerSpan = nextConsumerSpan((Message) messages, batch);
     }
-    MessageConsumerRequest request = new MessageConsumerRequest(message);
-
-    TraceContextOrSamplingFlags extracted =
-      springRabbitTracing.extractAndClearTraceIdHeaders(extractor, request, message);
-
-    // named for BlockingQueueConsumer.nextMessage, which we can't currently see
-    Span consumerSpan = springRabbitTracing.nextMessagingSpan(sampler, request, extracted);
     Span listenerSpan = tracer.newChild(consumerSpan.context());
 
-    if (!consumerSpan.isNoop()) {
-      setConsumerSpan(consumerSpan, message.getMessageProperties());
+    // the batch incurs timestamp overhead only once
+    long consumerFinish = batch.timestamp() + 1L; // save a clock reading
+    batch.finish(consumerFinish);
 
-      // incur timestamp overhead only once
-      long timestamp = tracing.clock(consumerSpan.context()).currentTimeMicroseconds();
-      consumerSpan.start(timestamp);
-      long consumerFinish = timestamp + 1L; // save a clock reading
-      consumerSpan.finish(consumerFinish);
-
-      // not using scoped span as we want to start with a pre-configured time
-      listenerSpan.name("on-message").start(consumerFinish);
-    }
+    // not using scoped span as we want to start with a pre-configured time
+    if (!consumerSpan.isNoop()) listenerSpan.name("on-message").start(consumerFinish);
 
     Tracer.SpanInScope ws = tracer.withSpanInScope(listenerSpan);
     Throwable error = null;
@@ -116,6 +114,18 @@ final class TracingRabbitListenerAdvice implements MethodInterceptor {
     }
   }
 
+  Span nextConsumerSpan(Message message, SpanBatch batch) {
+    MessageConsumerRequest request = new MessageConsumerRequest(message);
+
+    TraceContextOrSamplingFlags extracted =
+      springRabbitTracing.extractAndClearTraceIdHeaders(extractor, request, message);
+
+    // named for BlockingQueueConsumer.nextMessage, which we can't currently see
+    Span result = springRabbitTracing.nextMessagingSpan(sampler, request, extracted, batch);
+    if (!result.isNoop()) setConsumerSpan(result, message.getMessageProperties());
+    return result;
+  }
+
   void setConsumerSpan(Span span, MessageProperties properties) {
     span.name("next-message").kind(CONSUMER);
     maybeTag(span, RABBIT_EXCHANGE, properties.getReceivedExchange());
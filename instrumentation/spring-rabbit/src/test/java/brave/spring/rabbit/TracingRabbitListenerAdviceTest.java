@@ -28,6 +28,7 @@ import org.springframework.amqp.core.MessageBuilder;
 import org.springframework.amqp.core.MessageProperties;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static brave.Span.Kind.CONSUMER;
@@ -208,9 +209,10 @@ public class TracingRabbitListenerAdviceTest {
     onBatchMessageConsumed(Arrays.asList(MessageBuilder.withBody(new byte[0]).build(),
       MessageBuilder.withBody(new byte[0]).build()));
 
+    // each message has a consumer span
     assertThat(spans)
       .extracting(MutableSpan::kind)
-      .containsExactly(CONSUMER, null);
+      .containsExactly(CONSUMER, CONSUMER, null);
   }
 
   @Test public void batch_continue_parent_trace() throws Throwable {
@@ -232,10 +234,35 @@ public class TracingRabbitListenerAdviceTest {
     // cleared the headers to later work doesn't try to use the old parent
     assertThat(message.getMessageProperties().getHeaders()).isEmpty();
 
-    // two traced that listener continues first trace but TODO we aren't handling the second.
+    // two traced that listener continues first trace
     assertThat(spans.get(0))
       .extracting(MutableSpan::parentId)
       .isEqualTo(SPAN_ID);
+    assertThat(spans.get(2))
+      .extracting(MutableSpan::parentId)
+      .isEqualTo(spans.get(0).id());
+
+    // the second message has its own consumer span
+    assertThat(message2.getMessageProperties().getHeaders()).isEmpty();
+    assertThat(spans.get(1))
+      .extracting(MutableSpan::parentId)
+      .isEqualTo(SPAN_ID_2);
+  }
+
+  @Test public void batch_consumer_spans_share_timestamp() throws Throwable {
+    onBatchMessageConsumed(Arrays.asList(MessageBuilder.withBody(new byte[0]).build(),
+      MessageBuilder.withBody(new byte[0]).build()));
+
+    MutableSpan consumer1 = spans.get(0), consumer2 = spans.get(1), listener = spans.get(2);
+    assertThat(consumer2.startTimestamp()).isEqualTo(consumer1.startTimestamp());
+    assertThat(consumer2.finishTimestamp()).isEqualTo(consumer1.finishTimestamp());
+    assertThat(listener.startTimestamp()).isEqualTo(consumer1.finishTimestamp());
+  }
+
+  @Test public void batch_empty() throws Throwable {
+    onBatchMessageConsumed(Collections.emptyList());
+
+    assertThat(spans).isEmpty();
   }
 
   @Test public void batch_continue_first_traced() throws Throwable {